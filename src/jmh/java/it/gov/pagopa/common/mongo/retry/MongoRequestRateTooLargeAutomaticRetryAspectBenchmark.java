@@ -0,0 +1,107 @@
+package it.gov.pagopa.common.mongo.retry;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.Signature;
+import org.aspectj.lang.reflect.SourceLocation;
+import org.aspectj.runtime.internal.AroundClosure;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fixed cost added by {@link MongoRequestRateTooLargeAutomaticRetryAspect} to every repository call completing
+ * successfully, compared with the bare invocation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MongoRequestRateTooLargeAutomaticRetryAspectBenchmark {
+
+    /** BATCH: no request bound to the thread; API: request of a plain handler; API_RETRYABLE: request of an annotated handler */
+    @Param({"BATCH", "API", "API_RETRYABLE"})
+    public String context;
+
+    private MongoRequestRateTooLargeAutomaticRetryAspect aspect;
+    private final ProceedingJoinPoint joinPoint = new SuccessfulJoinPoint();
+
+    @Setup(Level.Trial)
+    public void setUp() throws NoSuchMethodException {
+        aspect = new MongoRequestRateTooLargeAutomaticRetryAspect(
+                new StaticListableBeanFactory().getBeanProvider(MongoRequestRateLimiter.class),
+                true, 3, 0, true, 5, 0);
+
+        if (!"BATCH".equals(context)) {
+            String handlerName = "API".equals(context) ? "api" : "retryableApi";
+            MockHttpServletRequest request = new MockHttpServletRequest();
+            request.setAttribute(HandlerMapping.BEST_MATCHING_HANDLER_ATTRIBUTE,
+                    new HandlerMethod(new Handlers(), Handlers.class.getMethod(handlerName)));
+            RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @Benchmark
+    public Object baseline() throws Throwable {
+        return joinPoint.proceed();
+    }
+
+    @Benchmark
+    public Object decorated() throws Throwable {
+        return aspect.decorateRepositoryMethods(joinPoint);
+    }
+
+    public static class Handlers {
+        public void api() {
+            // only its annotations are read
+        }
+
+        @MongoRequestRateTooLargeApiRetryable(maxRetry = 1)
+        public void retryableApi() {
+            // only its annotations are read
+        }
+    }
+
+    private static final class SuccessfulJoinPoint implements ProceedingJoinPoint {
+        private static final Object RESULT = new Object();
+        private static final Signature SIGNATURE = new Signature() {
+            @Override public String toShortString() { return "DummyRepository.find(..)"; }
+            @Override public String toLongString() { return toShortString(); }
+            @Override public String getName() { return "find"; }
+            @Override public int getModifiers() { return 0; }
+            @Override public Class getDeclaringType() { return Object.class; }
+            @Override public String getDeclaringTypeName() { return "DummyRepository"; }
+        };
+
+        @Override public void set$AroundClosure(AroundClosure arc) { }
+        @Override public Object proceed() { return RESULT; }
+        @Override public Object proceed(Object[] args) { return RESULT; }
+        @Override public String toShortString() { return SIGNATURE.toShortString(); }
+        @Override public String toLongString() { return SIGNATURE.toLongString(); }
+        @Override public Object getThis() { return null; }
+        @Override public Object getTarget() { return null; }
+        @Override public Object[] getArgs() { return new Object[0]; }
+        @Override public Signature getSignature() { return SIGNATURE; }
+        @Override public SourceLocation getSourceLocation() { return null; }
+        @Override public String getKind() { return METHOD_EXECUTION; }
+        @Override public StaticPart getStaticPart() { return null; }
+    }
+}
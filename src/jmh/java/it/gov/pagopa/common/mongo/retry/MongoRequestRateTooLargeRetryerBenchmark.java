@@ -0,0 +1,47 @@
+package it.gov.pagopa.common.mongo.retry;
+
+import com.mongodb.MongoWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.WriteError;
+import org.bson.BsonDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.dao.DataIntegrityViolationException;
+
+import java.util.concurrent.TimeUnit;
+
+/** Classification of the errors reaching the retry aspect */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MongoRequestRateTooLargeRetryerBenchmark {
+
+    private final DataIntegrityViolationException requestRateTooLarge = build(16500,
+            "Error=16500, RetryAfterMs=34, Details='Response status code does not indicate success: TooManyRequests (429); Substatus: 3200'");
+    private final DataIntegrityViolationException duplicateKey = build(11000,
+            "E11000 duplicate key error collection: idpay.wallet index: _id_ dup key: { _id: \"USERID_INITIATIVEID\" }");
+
+    private static DataIntegrityViolationException build(int code, String message) {
+        MongoWriteException mongoWriteException = new MongoWriteException(new WriteError(code, message, new BsonDocument()), new ServerAddress());
+        return new DataIntegrityViolationException(mongoWriteException.getMessage(), mongoWriteException);
+    }
+
+    @Benchmark
+    public boolean classifyRequestRateTooLarge() {
+        return MongoRequestRateTooLargeRetryer.isRequestRateTooLargeException(requestRateTooLarge);
+    }
+
+    @Benchmark
+    public boolean classifyOtherError() {
+        return MongoRequestRateTooLargeRetryer.isRequestRateTooLargeException(duplicateKey);
+    }
+
+    @Benchmark
+    public Long parseRetryAfterMs() {
+        return MongoRequestRateTooLargeRetryer.getRetryAfterMs(requestRateTooLarge);
+    }
+}
@@ -0,0 +1,60 @@
+package it.gov.pagopa.wallet.dto.mapper;
+
+import it.gov.pagopa.wallet.dto.QueueOperationDTO;
+import it.gov.pagopa.wallet.dto.RewardTransactionDTO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.util.concurrent.TimeUnit;
+
+/** Timeline event built for each rewarded transaction */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TimelineMapperBenchmark {
+
+    /** The status selects the operation date: charge date, elaboration date or transaction date */
+    @Param({"REWARDED", "CANCELLED", "REFUNDED"})
+    public String status;
+
+    private final TimelineMapper timelineMapper = new TimelineMapper();
+    private RewardTransactionDTO rewardTransaction;
+
+    @Setup
+    public void setUp() {
+        rewardTransaction = RewardTransactionDTO.builder()
+                .id("TRX_ID")
+                .userId("USER_ID")
+                .initiativeId("INITIATIVE_ID")
+                .operationType("00")
+                .status(status)
+                .channel("QRCODE")
+                .trxDate(OffsetDateTime.now())
+                .trxChargeDate(OffsetDateTime.now())
+                .elaborationDateTime(LocalDateTime.now())
+                .maskedPan("MASKED_PAN")
+                .instrumentId("INSTRUMENT_ID")
+                .brandLogo("BRAND_LOGO")
+                .brand("BRAND")
+                .circuitType("01")
+                .amountCents(10000L)
+                .effectiveAmountCents(10000L)
+                .idTrxIssuer("ID_TRX_ISSUER")
+                .idTrxAcquirer("ID_TRX_ACQUIRER")
+                .businessName("BUSINESS_NAME")
+                .build();
+    }
+
+    @Benchmark
+    public QueueOperationDTO transactionToTimeline() {
+        return timelineMapper.transactionToTimeline("INITIATIVE_ID", rewardTransaction, 1000L);
+    }
+}
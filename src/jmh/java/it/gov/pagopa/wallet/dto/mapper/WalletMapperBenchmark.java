@@ -0,0 +1,85 @@
+package it.gov.pagopa.wallet.dto.mapper;
+
+import it.gov.pagopa.common.config.ObjectMapperConfig;
+import it.gov.pagopa.wallet.dto.WalletDTO;
+import it.gov.pagopa.wallet.enums.Channel;
+import it.gov.pagopa.wallet.enums.WalletStatus;
+import it.gov.pagopa.wallet.model.Wallet;
+import it.gov.pagopa.wallet.utils.Utilities;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** Mapping of the wallets returned by the wallet list and detail APIs */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class WalletMapperBenchmark {
+
+    /** Number of wallets of the user */
+    @Param({"1", "20"})
+    public int walletsCount;
+
+    private WalletMapper walletMapper;
+    private List<Wallet> wallets;
+
+    @Setup
+    public void setUp() {
+        walletMapper = new WalletMapper(new Utilities(new ObjectMapperConfig().objectMapper(), "https://cdn.example.org"));
+        ReflectionTestUtils.setField(walletMapper, "expiringDay", 3);
+
+        wallets = new ArrayList<>(walletsCount);
+        for (int i = 0; i < walletsCount; i++) {
+            wallets.add(Wallet.builder()
+                    .id("USER_ID_INITIATIVE_ID_" + i)
+                    .userId("USER_ID")
+                    .initiativeId("INITIATIVE_ID_" + i)
+                    .initiativeName("INITIATIVE_NAME")
+                    .organizationId("ORGANIZATION_ID")
+                    .organizationName("ORGANIZATION_NAME")
+                    .status(WalletStatus.REFUNDABLE.name())
+                    .initiativeEndDate(LocalDate.now().plusMonths(6))
+                    .voucherStartDate(LocalDate.now().minusDays(10))
+                    .voucherEndDate(LocalDate.now().plusDays(i))
+                    .iban("IT09P3608105138205493205495")
+                    .initialAmountCents(50000L)
+                    .amountCents(40000L)
+                    .accruedCents(10000L)
+                    .refundedCents(0L)
+                    .nInstr(1)
+                    .nTrx(3L)
+                    .maxTrx(10L)
+                    .initiativeRewardType("DISCOUNT")
+                    .isLogoPresent(i % 2 == 0)
+                    .lastCounterUpdate(LocalDateTime.now())
+                    .channel(Channel.WEB)
+                    .build());
+        }
+    }
+
+    @Benchmark
+    public WalletDTO toInitiativeDTO() {
+        return walletMapper.toInitiativeDTO(wallets.getFirst());
+    }
+
+    @Benchmark
+    public List<WalletDTO> toInitiativeDTOList() {
+        List<WalletDTO> walletDTOList = new ArrayList<>(wallets.size());
+        for (Wallet wallet : wallets) {
+            walletDTOList.add(walletMapper.toInitiativeDTO(wallet));
+        }
+        return walletDTOList;
+    }
+}
@@ -0,0 +1,73 @@
+package it.gov.pagopa.wallet.service;
+
+import it.gov.pagopa.common.config.ObjectMapperConfig;
+import it.gov.pagopa.wallet.dto.RewardTransactionDTO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import tools.jackson.databind.ObjectMapper;
+
+import java.util.concurrent.TimeUnit;
+
+/** Deserialization of the payload received by <code>processTransaction</code> */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RewardTransactionDeserializationBenchmark {
+
+    private static final String REWARDED_TRANSACTION = """
+            {
+              "id": "TRX_ID",
+              "idTrxAcquirer": "ID_TRX_ACQUIRER",
+              "acquirerCode": "ACQUIRER_CODE",
+              "trxDate": "2025-03-10T10:15:30.123+01:00",
+              "trxChargeDate": "2025-03-10T10:15:31.456+01:00",
+              "elaborationDateTime": "2025-03-10T10:15:32.789",
+              "operationType": "00",
+              "circuitType": "01",
+              "idTrxIssuer": "ID_TRX_ISSUER",
+              "correlationId": "CORRELATION_ID",
+              "amountCents": 10000,
+              "effectiveAmountCents": 10000,
+              "amountCurrency": "978",
+              "mcc": "4040",
+              "acquirerId": "ACQUIRER_ID",
+              "merchantId": "MERCHANT_ID",
+              "terminalId": "TERMINAL_ID",
+              "userId": "USER_ID",
+              "channel": "QRCODE",
+              "businessName": "BUSINESS_NAME",
+              "status": "REWARDED",
+              "initiativeId": "INITIATIVE_ID",
+              "initiativeName": "INITIATIVE_NAME",
+              "rejectionReasons": [],
+              "initiativeRejectionReasons": {},
+              "rewards": {
+                "INITIATIVE_ID": {
+                  "providedRewardCents": 1000,
+                  "accruedRewardCents": 1000,
+                  "capped": false,
+                  "counters": {
+                    "trxNumber": 3,
+                    "totalRewardCents": 3000,
+                    "totalAmountCents": 30000,
+                    "version": 3,
+                    "exhaustedBudget": false,
+                    "initiativeBudgetCents": 50000
+                  }
+                }
+              },
+              "extendedAuthorization": false
+            }
+            """;
+
+    private final ObjectMapper objectMapper = new ObjectMapperConfig().objectMapper();
+
+    @Benchmark
+    public RewardTransactionDTO readRewardTransaction() {
+        return objectMapper.readValue(REWARDED_TRANSACTION, RewardTransactionDTO.class);
+    }
+}
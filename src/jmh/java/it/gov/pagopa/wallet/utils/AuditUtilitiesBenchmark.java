@@ -0,0 +1,68 @@
+package it.gov.pagopa.wallet.utils;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.AppenderBase;
+import it.gov.pagopa.wallet.service.WalletServiceImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sanitization of the values written in the logs and formatting of the CEF audit messages. The audit logger writes into
+ * an appender rendering the message without any I/O.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AuditUtilitiesBenchmark {
+
+    private static final String USER_ID = "a5f3d2c1-7b8e-4f90-a1b2-c3d4e5f6a7b8";
+    private static final String INITIATIVE_ID = "65f1a2b3c4d5e6f7a8b9c0d1";
+    private static final String ID_WALLET = "4f6c2a1e-3b5d-4e7f-8a9b-0c1d2e3f4a5b";
+
+    private final AuditUtilities auditUtilities = new AuditUtilities();
+    /** Keeps the formatted messages alive */
+    public long formattedChars;
+
+    @Setup
+    public void setUp() {
+        Logger auditLogger = ((LoggerContext) LoggerFactory.getILoggerFactory()).getLogger("AUDIT");
+        auditLogger.detachAndStopAllAppenders();
+        auditLogger.setAdditive(false);
+        auditLogger.setLevel(Level.INFO);
+        AppenderBase<ILoggingEvent> formattingAppender = new AppenderBase<>() {
+            @Override
+            protected void append(ILoggingEvent event) {
+                formattedChars += event.getFormattedMessage().length();
+            }
+        };
+        formattingAppender.setContext(auditLogger.getLoggerContext());
+        formattingAppender.start();
+        auditLogger.addAppender(formattingAppender);
+    }
+
+    @Benchmark
+    public String sanitizeString() {
+        return WalletServiceImpl.sanitizeString(USER_ID);
+    }
+
+    @Benchmark
+    public void logCreatedWallet() {
+        auditUtilities.logCreatedWallet(USER_ID, INITIATIVE_ID);
+    }
+
+    @Benchmark
+    public void logEnrollmentInstrument() {
+        auditUtilities.logEnrollmentInstrument(USER_ID, INITIATIVE_ID, ID_WALLET, "APP_IO");
+    }
+}
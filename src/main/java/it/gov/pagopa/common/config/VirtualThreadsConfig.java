@@ -0,0 +1,30 @@
+package it.gov.pagopa.common.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cloud.stream.config.ListenerContainerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.kafka.listener.AbstractMessageListenerContainer;
+
+/**
+ * Completes <code>spring.threads.virtual.enabled</code>: Spring Boot already moves Tomcat request handling and the
+ * scheduler on virtual threads, while the listener containers created by the Spring Cloud Stream Kafka binder still
+ * run their consumer loop on platform threads.
+ * Feign calls are synchronous and execute on the caller thread, so they follow the request/listener thread.
+ */
+@Slf4j
+@Configuration
+@ConditionalOnProperty(name = "spring.threads.virtual.enabled", havingValue = "true")
+public class VirtualThreadsConfig {
+
+  @Bean
+  public ListenerContainerCustomizer<AbstractMessageListenerContainer<?, ?>> virtualThreadsListenerContainerCustomizer() {
+    return (container, destinationName, group) -> {
+      log.info("[VIRTUAL_THREADS] Configuring listener container of destination {} and group {} on virtual threads", destinationName, group);
+      container.getContainerProperties()
+          .setListenerTaskExecutor(new VirtualThreadTaskExecutor("kafka-" + destinationName + "-"));
+    };
+  }
+}
@@ -0,0 +1,150 @@
+package it.gov.pagopa.common.mongo.index;
+
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.IndexField;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Creates at startup the declared {@link MongoIndexes} missing on the database and reports, for each collection:
+ * <ul>
+ *   <li><b>missing</b>: declared indexes not existing (e.g. because their creation failed);</li>
+ *   <li><b>mismatched</b>: declared indexes existing with the same name but different keys or partial filter, never
+ *   replaced automatically because the drop would leave the queries without an index during the rebuild;</li>
+ *   <li><b>undeclared</b>: existing indexes not declared by the service;</li>
+ *   <li><b>unused</b>: existing indexes never accessed since the last restart of the server, when <code>$indexStats</code>
+ *   is supported.</li>
+ * </ul>
+ */
+@Slf4j
+@Component
+public class MongoIndexReconciler {
+
+    private static final String ID_INDEX = "_id_";
+    private static final String OPTION_NAME = "name";
+    private static final String OPTION_PARTIAL_FILTER = "partialFilterExpression";
+
+    private final MongoTemplate mongoTemplate;
+    private final List<MongoIndexes> declaredIndexes;
+    private final boolean createMissing;
+
+    public MongoIndexReconciler(MongoTemplate mongoTemplate,
+                                List<MongoIndexes> declaredIndexes,
+                                @Value("${app.mongo.indexes.createMissing:true}") boolean createMissing) {
+        this.mongoTemplate = mongoTemplate;
+        this.declaredIndexes = declaredIndexes;
+        this.createMissing = createMissing;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void reconcile() {
+        for (MongoIndexes collectionIndexes : declaredIndexes) {
+            IndexOperations indexOps = mongoTemplate.indexOps(collectionIndexes.collection());
+            Map<String, IndexInfo> existing = existingIndexes(indexOps);
+            for (IndexDefinition index : collectionIndexes.indexes()) {
+                String name = nameOf(index);
+                if (!existing.containsKey(name) && createMissing) {
+                    try {
+                        indexOps.createIndex(index);
+                        log.info("[MONGO_INDEXES] Created index {} on collection {}", name, collectionIndexes.collection());
+                    } catch (Exception e) {
+                        log.error("[MONGO_INDEXES] Cannot create index {} on collection {}", name, collectionIndexes.collection(), e);
+                    }
+                }
+            }
+        }
+        report().forEach((collection, collectionReport) -> {
+            if (!collectionReport.missing().isEmpty() || !collectionReport.mismatched().isEmpty()) {
+                log.warn("[MONGO_INDEXES] Collection {} has missing indexes {} and mismatched indexes {}",
+                        collection, collectionReport.missing(), collectionReport.mismatched());
+            }
+        });
+    }
+
+    public Map<String, CollectionIndexesReport> report() {
+        Map<String, CollectionIndexesReport> report = new LinkedHashMap<>();
+        for (MongoIndexes collectionIndexes : declaredIndexes) {
+            String collection = collectionIndexes.collection();
+            Map<String, IndexInfo> existing = existingIndexes(mongoTemplate.indexOps(collection));
+
+            List<String> missing = new ArrayList<>();
+            List<String> mismatched = new ArrayList<>();
+            for (IndexDefinition index : collectionIndexes.indexes()) {
+                IndexInfo info = existing.get(nameOf(index));
+                if (info == null) {
+                    missing.add(nameOf(index));
+                } else if (!matches(index, info)) {
+                    mismatched.add(nameOf(index));
+                }
+            }
+
+            List<String> declaredNames = collectionIndexes.indexes().stream().map(MongoIndexReconciler::nameOf).toList();
+            List<String> undeclared = existing.keySet().stream()
+                    .filter(name -> !ID_INDEX.equals(name) && !declaredNames.contains(name))
+                    .toList();
+
+            report.put(collection, new CollectionIndexesReport(missing, mismatched, undeclared, unusedIndexes(collection)));
+        }
+        return report;
+    }
+
+    /** @return the indexes never accessed, or null if <code>$indexStats</code> is not supported (e.g. on Cosmos) */
+    private List<String> unusedIndexes(String collection) {
+        try {
+            List<String> unused = new ArrayList<>();
+            for (Document stats : mongoTemplate.getCollection(collection)
+                    .aggregate(List.of(new Document("$indexStats", new Document())))) {
+                Document accesses = stats.get("accesses", Document.class);
+                String name = stats.getString(OPTION_NAME);
+                if (!ID_INDEX.equals(name) && accesses != null && ((Number) accesses.get("ops")).longValue() == 0) {
+                    unused.add(name);
+                }
+            }
+            return unused;
+        } catch (Exception e) {
+            log.debug("[MONGO_INDEXES] Index usage statistics not available on collection {}: {}", collection, e.getMessage());
+            return null;
+        }
+    }
+
+    private static Map<String, IndexInfo> existingIndexes(IndexOperations indexOps) {
+        return indexOps.getIndexInfo().stream()
+                .collect(Collectors.toMap(IndexInfo::getName, Function.identity(), (a, b) -> a, LinkedHashMap::new));
+    }
+
+    private static String nameOf(IndexDefinition index) {
+        return Objects.requireNonNull(index.getIndexOptions().getString(OPTION_NAME), "Declared indexes must be named");
+    }
+
+    private static boolean matches(IndexDefinition index, IndexInfo info) {
+        List<String> declaredKeys = new ArrayList<>(index.getIndexKeys().keySet());
+        List<String> existingKeys = info.getIndexFields().stream().map(IndexField::getKey).toList();
+        if (!declaredKeys.equals(existingKeys)) {
+            return false;
+        }
+        Document declaredFilter = index.getIndexOptions().get(OPTION_PARTIAL_FILTER, Document.class);
+        String existingFilter = info.getPartialFilterExpression();
+        if (declaredFilter == null || existingFilter == null) {
+            return declaredFilter == null && existingFilter == null;
+        }
+        return declaredFilter.equals(Document.parse(existingFilter));
+    }
+
+    public record CollectionIndexesReport(List<String> missing, List<String> mismatched, List<String> undeclared, List<String> unused) {
+    }
+}
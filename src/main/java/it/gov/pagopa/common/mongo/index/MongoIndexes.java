@@ -0,0 +1,12 @@
+package it.gov.pagopa.common.mongo.index;
+
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+
+import java.util.List;
+
+/**
+ * Indexes required on a collection by the queries of the service, reconciled at startup by {@link MongoIndexReconciler}.
+ * Each index has to be named, the name being the identity used to detect it.
+ */
+public record MongoIndexes(String collection, List<IndexDefinition> indexes) {
+}
@@ -0,0 +1,24 @@
+package it.gov.pagopa.common.mongo.index;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/** Exposes on actuator the state of the indexes declared through {@link MongoIndexes} */
+@Component
+@Endpoint(id = "mongoindexes")
+public class MongoIndexesEndpoint {
+
+    private final MongoIndexReconciler mongoIndexReconciler;
+
+    public MongoIndexesEndpoint(MongoIndexReconciler mongoIndexReconciler) {
+        this.mongoIndexReconciler = mongoIndexReconciler;
+    }
+
+    @ReadOperation
+    public Map<String, MongoIndexReconciler.CollectionIndexesReport> indexes() {
+        return mongoIndexReconciler.report();
+    }
+}
@@ -0,0 +1,150 @@
+package it.gov.pagopa.common.mongo.retry;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Token bucket shared by all the Mongo calls of the instance, whose rate adapts to the RequestRateTooLarge errors:
+ * <ul>
+ *   <li>each throttling pauses the bucket for the suggested RetryAfterMs, so that the waiting threads are released
+ *   gradually instead of retrying all together, and decreases the rate multiplicatively (at most once per pause, as the
+ *   concurrent calls are throttled all at the same moment);</li>
+ *   <li>while not throttled, the rate grows additively up to the configured maximum.</li>
+ * </ul>
+ * Batch calls cannot consume the tokens kept in reserve for the API calls. A call writing or reading many documents,
+ * e.g. a bulk write, takes a token for each of them.
+ * <br />
+ * When disabled, every call is admitted and {@link MongoRequestRateTooLargeRetryer} sleeps on the calling thread.
+ */
+@Slf4j
+@Component
+public class MongoRequestRateLimiter {
+
+    public enum Priority { API, BATCH }
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final MongoRequestRateLimiter DISABLED = new MongoRequestRateLimiter(false, 1, 1, 1, 0, 1, 0);
+
+    private final boolean enabled;
+    private final double minRate;
+    private final double maxRate;
+    private final double increasePerSecond;
+    private final double decreaseFactor;
+    private final double apiReserveRatio;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LongAdder throttledCount = new LongAdder();
+    private volatile double rate;
+    private double tokens;
+    private long lastRefillNanos;
+    private long pausedUntilNanos;
+
+    public MongoRequestRateLimiter(
+            @Value("${mongo.request-rate-limiter.enabled:false}") boolean enabled,
+            @Value("${mongo.request-rate-limiter.initial-rate:200}") double initialRate,
+            @Value("${mongo.request-rate-limiter.min-rate:10}") double minRate,
+            @Value("${mongo.request-rate-limiter.max-rate:5000}") double maxRate,
+            @Value("${mongo.request-rate-limiter.increase-per-second:20}") double increasePerSecond,
+            @Value("${mongo.request-rate-limiter.decrease-factor:0.7}") double decreaseFactor,
+            @Value("${mongo.request-rate-limiter.api-reserve-ratio:0.2}") double apiReserveRatio) {
+        this.enabled = enabled;
+        this.minRate = minRate;
+        this.maxRate = maxRate;
+        this.increasePerSecond = increasePerSecond;
+        this.decreaseFactor = decreaseFactor;
+        this.apiReserveRatio = apiReserveRatio;
+        this.rate = Math.clamp(initialRate, minRate, maxRate);
+        this.tokens = rate;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    public static MongoRequestRateLimiter disabled() {
+        return DISABLED;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** @return the rate currently admitted, in calls per second */
+    public double getRate() {
+        return rate;
+    }
+
+    public long getThrottledCount() {
+        return throttledCount.sum();
+    }
+
+    /** Blocks until the call can be executed */
+    public void acquire(Priority priority) throws InterruptedException {
+        acquire(priority, 1);
+    }
+
+    /** Blocks until the call, made of the given number of operations, can be executed */
+    public void acquire(Priority priority, int operations) throws InterruptedException {
+        if (!enabled) {
+            return;
+        }
+        while (true) {
+            long waitNanos;
+            lock.lock();
+            try {
+                long now = System.nanoTime();
+                refill(now);
+                double reserve = priority == Priority.API ? 0 : rate * apiReserveRatio;
+                // a call larger than the bucket waits for it to be full
+                double cost = Math.clamp(operations, 1, Math.max(1, rate - reserve));
+                if (now >= pausedUntilNanos && tokens >= reserve + cost) {
+                    tokens -= cost;
+                    return;
+                }
+                waitNanos = Math.max(pausedUntilNanos - now, (long) ((reserve + cost - tokens) * NANOS_PER_SECOND / rate));
+            } finally {
+                lock.unlock();
+            }
+            TimeUnit.NANOSECONDS.sleep(Math.max(waitNanos, 1));
+        }
+    }
+
+    /** Registers a RequestRateTooLarge error, pausing the calls for the suggested time */
+    public void onThrottled(Long retryAfterMs) {
+        if (!enabled) {
+            return;
+        }
+        throttledCount.increment();
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            refill(now);
+            if (now >= pausedUntilNanos) {
+                rate = Math.max(minRate, rate * decreaseFactor);
+                log.info("[REQUEST_RATE_LIMITER] RequestRateTooLarge received, decreasing the rate to {} calls per second", (long) rate);
+            }
+            long pauseNanos = TimeUnit.MILLISECONDS.toNanos(retryAfterMs != null ? retryAfterMs : 0);
+            pausedUntilNanos = Math.max(pausedUntilNanos, now + pauseNanos);
+            tokens = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void refill(long now) {
+        long elapsedNanos = now - lastRefillNanos;
+        if (elapsedNanos <= 0) {
+            return;
+        }
+        lastRefillNanos = now;
+        if (now < pausedUntilNanos) {
+            return;
+        }
+        double elapsedSeconds = (double) elapsedNanos / NANOS_PER_SECOND;
+        rate = Math.min(maxRate, rate + increasePerSecond * elapsedSeconds);
+        // the bucket holds at most one second of calls
+        tokens = Math.min(rate, tokens + rate * elapsedSeconds);
+    }
+}
@@ -0,0 +1,24 @@
+package it.gov.pagopa.common.mongo.retry;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class MongoRequestRateLimiterMetricsConfig {
+
+    @Bean
+    public MeterBinder mongoRequestRateLimiterMetrics(MongoRequestRateLimiter rateLimiter) {
+        return registry -> {
+            Gauge.builder("mongo.request.rate.limit", rateLimiter, MongoRequestRateLimiter::getRate)
+                    .description("Mongo calls per second currently admitted by the adaptive rate limiter")
+                    .baseUnit("calls/s")
+                    .register(registry);
+            FunctionCounter.builder("mongo.request.rate.throttled", rateLimiter, MongoRequestRateLimiter::getThrottledCount)
+                    .description("RequestRateTooLarge errors received by the adaptive rate limiter")
+                    .register(registry);
+        };
+    }
+}
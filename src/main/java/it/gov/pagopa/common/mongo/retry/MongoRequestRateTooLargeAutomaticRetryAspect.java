@@ -6,41 +6,41 @@ import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
 import org.aspectj.lang.annotation.Pointcut;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.EnableAspectJAutoProxy;
+import org.springframework.dao.DataAccessException;
 import org.springframework.web.context.request.RequestAttributes;
 import org.springframework.web.context.request.RequestContextHolder;
 import org.springframework.web.method.HandlerMethod;
 import org.springframework.web.servlet.HandlerMapping;
 
-import java.util.Optional;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Configuration
 @EnableAspectJAutoProxy
 @Aspect
 @Slf4j
 public class MongoRequestRateTooLargeAutomaticRetryAspect {
-    private final boolean enabledApi;
-    private final long maxRetryApi;
-    private final long maxMillisElapsedApi;
-    private final boolean enabledBatch;
-    private final long maxRetryBatch;
-    private final long maxMillisElapsedBatch;
+    private final RetryConfig defaultApiRetryConfig;
+    private final RetryConfig batchRetryConfig;
+    private final MongoRequestRateLimiter rateLimiter;
+    private final Map<Method, RetryConfig> apiRetryConfigs = new ConcurrentHashMap<>();
 
     public MongoRequestRateTooLargeAutomaticRetryAspect(
+            ObjectProvider<MongoRequestRateLimiter> rateLimiterProvider,
             @Value("${mongo.request-rate-too-large.api.enabled}") boolean enabledApi,
             @Value("${mongo.request-rate-too-large.api.max-retry:3}") long maxRetryApi,
             @Value("${mongo.request-rate-too-large.api.max-millis-elapsed:0}") long maxMillisElapsedApi,
             @Value("${mongo.request-rate-too-large.batch.enabled}") boolean enabledBatch,
             @Value("${mongo.request-rate-too-large.batch.max-retry}") long maxRetryBatch,
             @Value("${mongo.request-rate-too-large.batch.max-millis-elapsed}") long maxMillisElapsedBatch) {
-        this.enabledApi = enabledApi;
-        this.maxRetryApi = maxRetryApi;
-        this.maxMillisElapsedApi = maxMillisElapsedApi;
-        this.enabledBatch = enabledBatch;
-        this.maxRetryBatch = maxRetryBatch;
-        this.maxMillisElapsedBatch = maxMillisElapsedBatch;
+        this.defaultApiRetryConfig = enabledApi ? new RetryConfig(maxRetryApi, maxMillisElapsedApi) : RetryConfig.DISABLED;
+        this.batchRetryConfig = enabledBatch ? new RetryConfig(maxRetryBatch, maxMillisElapsedBatch) : RetryConfig.DISABLED;
+        this.rateLimiter = rateLimiterProvider.getIfAvailable(MongoRequestRateLimiter::disabled);
     }
 
     @Generated
@@ -55,41 +55,54 @@ public class MongoRequestRateTooLargeAutomaticRetryAspect {
 
     @Around("inRepositoryClass() or inSpringRepositoryClass()")
     public Object decorateRepositoryMethods(ProceedingJoinPoint pjp) throws Throwable {
+        RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+        if (requestAttributes == null) {
+            return execute(pjp, batchRetryConfig, MongoRequestRateLimiter.Priority.BATCH);
+        } else {
+            return execute(pjp, getApiRetryConfig(requestAttributes), MongoRequestRateLimiter.Priority.API);
+        }
+    }
 
-        if(isNotControllerContext()){
-            if(enabledBatch){
-                return MongoRequestRateTooLargeRetryableAspect.executeJoinPointRetryable(pjp, maxRetryBatch, maxMillisElapsedBatch);
-            } else {
-                return pjp.proceed();
-            }
+    private Object execute(ProceedingJoinPoint pjp, RetryConfig retryConfig, MongoRequestRateLimiter.Priority priority) throws Throwable {
+        if (retryConfig != RetryConfig.DISABLED) {
+            return MongoRequestRateTooLargeRetryableAspect.executeJoinPointRetryable(pjp, retryConfig.maxRetry(), retryConfig.maxMillisElapsed(), rateLimiter, priority);
+        } else if (rateLimiter.isEnabled()) {
+            return proceedRateLimited(pjp, priority);
         } else {
-            MongoRequestRateTooLargeApiRetryable apiRetryableConfig = getRequestRateTooLargeApiRetryableConfig();
-            if(apiRetryableConfig!=null){
-                return MongoRequestRateTooLargeRetryableAspect.executeJoinPointRetryable(pjp, apiRetryableConfig.maxRetry(), apiRetryableConfig.maxMillisElapsed());
-            } else if(enabledApi){
-                return MongoRequestRateTooLargeRetryableAspect.executeJoinPointRetryable(pjp, maxRetryApi, maxMillisElapsedApi);
-            } else {
-                return pjp.proceed();
-            }
+            return pjp.proceed();
         }
+    }
 
+    /** Admits the call through the rate limiter without retrying it, still letting the limiter know about throttling */
+    private Object proceedRateLimited(ProceedingJoinPoint pjp, MongoRequestRateLimiter.Priority priority) throws Throwable {
+        rateLimiter.acquire(priority, MongoRequestRateTooLargeRetryableAspect.countOperations(pjp.getArgs()));
+        try {
+            return pjp.proceed();
+        } catch (DataAccessException e) {
+            if (MongoRequestRateTooLargeRetryer.isRequestRateTooLargeException(e)) {
+                rateLimiter.onThrottled(MongoRequestRateTooLargeRetryer.getRetryAfterMs(e));
+            }
+            throw e;
+        }
     }
 
-    private static boolean isNotControllerContext() {
-        return RequestContextHolder.getRequestAttributes() == null;
+    /** The configuration of the handler is resolved at its first call, then cached */
+    private RetryConfig getApiRetryConfig(RequestAttributes requestAttributes) {
+        if (requestAttributes.getAttribute(HandlerMapping.BEST_MATCHING_HANDLER_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST) instanceof HandlerMethod apiHandlerMethod) {
+            return apiRetryConfigs.computeIfAbsent(apiHandlerMethod.getMethod(), this::resolveApiRetryConfig);
+        }
+        return defaultApiRetryConfig;
     }
 
-    private MongoRequestRateTooLargeApiRetryable getRequestRateTooLargeApiRetryableConfig() {
-        HandlerMethod apiHandlerMethod = getApiHandlerMethod();
-        if(apiHandlerMethod!=null){
-            return apiHandlerMethod.getMethod().getAnnotation(MongoRequestRateTooLargeApiRetryable.class);
+    private RetryConfig resolveApiRetryConfig(Method apiMethod) {
+        MongoRequestRateTooLargeApiRetryable apiRetryableConfig = apiMethod.getAnnotation(MongoRequestRateTooLargeApiRetryable.class);
+        if (apiRetryableConfig != null) {
+            return new RetryConfig(apiRetryableConfig.maxRetry(), apiRetryableConfig.maxMillisElapsed());
         }
-        return null;
+        return defaultApiRetryConfig;
     }
 
-    private static HandlerMethod getApiHandlerMethod(){
-        return (HandlerMethod) Optional.ofNullable(RequestContextHolder.getRequestAttributes())
-                .map(r -> r.getAttribute(HandlerMapping.BEST_MATCHING_HANDLER_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST))
-                .orElse(null);
+    private record RetryConfig(long maxRetry, long maxMillisElapsed) {
+        private static final RetryConfig DISABLED = new RetryConfig(-1, -1);
     }
-}
\ No newline at end of file
+}
@@ -4,8 +4,12 @@ import lombok.extern.slf4j.Slf4j;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.EnableAspectJAutoProxy;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import java.util.Collection;
 
 @Configuration
 @EnableAspectJAutoProxy
@@ -13,16 +17,32 @@ import org.springframework.context.annotation.EnableAspectJAutoProxy;
 @Slf4j
 public class MongoRequestRateTooLargeRetryableAspect {
 
+    private final MongoRequestRateLimiter rateLimiter;
+
+    public MongoRequestRateTooLargeRetryableAspect(ObjectProvider<MongoRequestRateLimiter> rateLimiterProvider) {
+        this.rateLimiter = rateLimiterProvider.getIfAvailable(MongoRequestRateLimiter::disabled);
+    }
+
     @Around("@annotation(mongoRequestRateTooLargeRetryable)")
     public Object mongoRequestTooLargeRetryable(ProceedingJoinPoint pjp,
                                                 MongoRequestRateTooLargeRetryable mongoRequestRateTooLargeRetryable)
             throws InterruptedException {
+        MongoRequestRateLimiter.Priority priority = RequestContextHolder.getRequestAttributes() == null
+                ? MongoRequestRateLimiter.Priority.BATCH
+                : MongoRequestRateLimiter.Priority.API;
         return executeJoinPointRetryable(pjp, mongoRequestRateTooLargeRetryable.maxRetry(),
-                mongoRequestRateTooLargeRetryable.maxMillisElapsed());
+                mongoRequestRateTooLargeRetryable.maxMillisElapsed(), rateLimiter, priority);
     }
 
     public static Object executeJoinPointRetryable(ProceedingJoinPoint pjp, long maxRetry, long maxMillisElapsed)
             throws InterruptedException {
+        return executeJoinPointRetryable(pjp, maxRetry, maxMillisElapsed,
+                MongoRequestRateLimiter.disabled(), MongoRequestRateLimiter.Priority.BATCH);
+    }
+
+    public static Object executeJoinPointRetryable(ProceedingJoinPoint pjp, long maxRetry, long maxMillisElapsed,
+                                                   MongoRequestRateLimiter rateLimiter, MongoRequestRateLimiter.Priority priority)
+            throws InterruptedException {
         String flowName = pjp.getSignature().toShortString();
         return MongoRequestRateTooLargeRetryer.execute(
                 flowName,
@@ -36,7 +56,20 @@ public class MongoRequestRateTooLargeRetryableAspect {
                                 "[REQUEST_RATE_TOO_LARGE_RETRY]["+flowName+"] Something went wrong while executing MongoRequestRateTooLargeRetryable annotated method",
                                 e);
                     }
-                }, maxRetry, maxMillisElapsed);
+                }, maxRetry, maxMillisElapsed, rateLimiter, priority, countOperations(pjp.getArgs()));
+    }
+
+    /** The documents handled by a call, estimated through its largest collection argument, e.g. the items of a bulk */
+    static int countOperations(Object[] args) {
+        int operations = 1;
+        if (args != null) {
+            for (Object arg : args) {
+                if (arg instanceof Collection<?> collection) {
+                    operations = Math.max(operations, collection.size());
+                }
+            }
+        }
+        return operations;
     }
 
 }
\ No newline at end of file
@@ -1,12 +1,13 @@
 package it.gov.pagopa.common.mongo.retry;
 
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
+import com.mongodb.bulk.BulkWriteError;
 import it.gov.pagopa.common.mongo.retry.exception.MongoRequestRateTooLargeRetryExpiredException;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.dao.DataAccessException;
 
 import java.util.function.Supplier;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import static java.lang.Thread.sleep;
 
@@ -16,28 +17,45 @@ public final class MongoRequestRateTooLargeRetryer {
   private MongoRequestRateTooLargeRetryer() {
   }
 
-  private static final Pattern RETRY_AFTER_MS_PATTERN = Pattern.compile("RetryAfterMs=(\\d+)");
+  private static final int REQUEST_RATE_TOO_LARGE_CODE = 16500;
+  private static final String RETRY_AFTER_MS = "RetryAfterMs=";
 
   public static <T> T execute(String flowName, Supplier<T> logic, long maxRetry, long maxMillisElapsed)
       throws InterruptedException {
+    return execute(flowName, logic, maxRetry, maxMillisElapsed, MongoRequestRateLimiter.disabled(), MongoRequestRateLimiter.Priority.BATCH);
+  }
+
+  /** As {@link #execute(String, Supplier, long, long)}, admitting each attempt through the shared rate limiter */
+  public static <T> T execute(String flowName, Supplier<T> logic, long maxRetry, long maxMillisElapsed,
+      MongoRequestRateLimiter rateLimiter, MongoRequestRateLimiter.Priority priority)
+      throws InterruptedException {
+    return execute(flowName, logic, maxRetry, maxMillisElapsed, rateLimiter, priority, 1);
+  }
+
+  /** As above, weighing each attempt on the rate limiter by the number of operations it executes */
+  public static <T> T execute(String flowName, Supplier<T> logic, long maxRetry, long maxMillisElapsed,
+      MongoRequestRateLimiter rateLimiter, MongoRequestRateLimiter.Priority priority, int operations)
+      throws InterruptedException {
     long counter = 0;
     long startime = System.currentTimeMillis();
     while (true) {
+      rateLimiter.acquire(priority, operations);
       try {
         return logic.get();
       } catch (DataAccessException e) {
-        handleMongoException(flowName, e, maxRetry, ++counter, maxMillisElapsed, startime);
+        handleMongoException(flowName, e, maxRetry, ++counter, maxMillisElapsed, startime, rateLimiter);
       }
     }
   }
 
   private static void handleMongoException(String flowName, DataAccessException e, long maxRetry,
-      long counter, long maxMillisElapsed, long startime)
+      long counter, long maxMillisElapsed, long startime, MongoRequestRateLimiter rateLimiter)
       throws InterruptedException {
     long millisElapsed = System.currentTimeMillis() - startime;
 
     if (isRequestRateTooLargeException(e)) {
       Long retryAfterMs = getRetryAfterMs(e);
+      rateLimiter.onThrottled(retryAfterMs);
 
       if(retryAfterMs != null){
         millisElapsed+=retryAfterMs;
@@ -50,7 +68,10 @@ public final class MongoRequestRateTooLargeRetryer {
           log.info(
               "[REQUEST_RATE_TOO_LARGE_RETRY][{}] Retrying after {} ms due to RequestRateTooLargeException: attempt {} of {} after {} ms of max {} ms",
               flowName, retryAfterMs, counter, maxRetry, millisElapsed, maxMillisElapsed);
-          sleep(retryAfterMs);
+          if (!rateLimiter.isEnabled()) {
+            // otherwise the wait is applied by the limiter on the next acquire, releasing the waiting calls gradually
+            sleep(retryAfterMs);
+          }
         } else {
           log.info(
               "[REQUEST_RATE_TOO_LARGE_RETRY][{}] Retrying for RequestRateTooLargeException: attempt {} of {} after {} ms of max {} ms",
@@ -66,16 +87,63 @@ public final class MongoRequestRateTooLargeRetryer {
   }
 
 
+  /** @return the RetryAfterMs suggested by Cosmos, or null if not present */
   public static Long getRetryAfterMs(DataAccessException ex) {
-    Matcher matcher = RETRY_AFTER_MS_PATTERN.matcher(ex.getMessage());
-    if (matcher.find()) {
-      return Long.parseLong(matcher.group(1));
+    MongoException mongoException = findMongoException(ex);
+    Long retryAfterMs = mongoException != null ? parseRetryAfterMs(mongoException.getMessage()) : null;
+    return retryAfterMs != null ? retryAfterMs : parseRetryAfterMs(ex.getMessage());
+  }
+
+  public static boolean isRequestRateTooLargeException(DataAccessException ex) {
+    MongoException mongoException = findMongoException(ex);
+    if (mongoException != null && isRequestRateTooLargeCode(mongoException)) {
+      return true;
+    }
+    // exceptions not carrying the driver's error, e.g. translated by Spring without its cause
+    String message = ex.getMessage();
+    return message != null && (message.contains("TooManyRequests") || message.contains("Error=16500,"));
+  }
+
+  private static boolean isRequestRateTooLargeCode(MongoException mongoException) {
+    if (mongoException.getCode() == REQUEST_RATE_TOO_LARGE_CODE) {
+      return true;
+    }
+    if (mongoException instanceof MongoBulkWriteException bulkWriteException) {
+      for (BulkWriteError writeError : bulkWriteException.getWriteErrors()) {
+        if (writeError.getCode() == REQUEST_RATE_TOO_LARGE_CODE) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private static MongoException findMongoException(Throwable ex) {
+    for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+      if (cause instanceof MongoException mongoException) {
+        return mongoException;
+      }
+      if (cause.getCause() == cause) {
+        break;
+      }
     }
     return null;
   }
 
-  public static boolean isRequestRateTooLargeException(DataAccessException ex) {
-    return ex.getMessage().contains("TooManyRequests") || ex.getMessage().contains("Error=16500,");
+  private static Long parseRetryAfterMs(String message) {
+    if (message == null) {
+      return null;
+    }
+    int start = message.indexOf(RETRY_AFTER_MS);
+    if (start < 0) {
+      return null;
+    }
+    start += RETRY_AFTER_MS.length();
+    int end = start;
+    while (end < message.length() && Character.isDigit(message.charAt(end))) {
+      end++;
+    }
+    return end > start ? Long.parseLong(message, start, end, 10) : null;
   }
 
 }
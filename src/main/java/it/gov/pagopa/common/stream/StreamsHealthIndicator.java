@@ -12,9 +12,9 @@ import org.springframework.messaging.support.ChannelInterceptor;
 import org.springframework.stereotype.Service;
 
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -24,7 +24,7 @@ public class StreamsHealthIndicator extends AbstractHealthIndicator implements C
 
     private final ApplicationContext applicationContext;
 
-    private final Set<String> disconnectedSubscribers = new HashSet<>();
+    private final Set<String> disconnectedSubscribers = ConcurrentHashMap.newKeySet();
 
     public StreamsHealthIndicator(ApplicationContext applicationContext) {
         this.applicationContext = applicationContext;
@@ -51,11 +51,7 @@ public class StreamsHealthIndicator extends AbstractHealthIndicator implements C
     public void afterSendCompletion(@NonNull Message<?> message, @NonNull MessageChannel channel, boolean sent, Exception ex) {
         if(ex instanceof IllegalStateException && ex.getMessage().endsWith(SUBSCRIBER_DISCONNECTED_SUFFIX)){
             String channelName = ex.getMessage().substring(11, ex.getMessage().indexOf(SUBSCRIBER_DISCONNECTED_SUFFIX));
-            if(!disconnectedSubscribers.contains(channelName)){
-                synchronized (disconnectedSubscribers){
-                    disconnectedSubscribers.add(channelName);
-                }
-            }
+            disconnectedSubscribers.add(channelName);
         }
     }
 }
@@ -31,6 +31,7 @@ public class ServiceExceptionConfig {
         exceptionMap.put(PaymentInstrumentNotFoundException.class, HttpStatus.NOT_FOUND);
         exceptionMap.put(UserNotOnboardedException.class, HttpStatus.NOT_FOUND);
         exceptionMap.put(IDPayCodeNotFoundException.class, HttpStatus.NOT_FOUND);
+        exceptionMap.put(ReminderBatchJobNotFoundException.class, HttpStatus.NOT_FOUND);
 
         // InternalServerError
         exceptionMap.put(OnboardingInvocationException.class, HttpStatus.INTERNAL_SERVER_ERROR);
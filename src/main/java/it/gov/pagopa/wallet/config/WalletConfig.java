@@ -7,8 +7,10 @@ import it.gov.pagopa.wallet.connector.PaymentRestClient;
 import it.gov.pagopa.wallet.connector.RewardCalculatorRestClient;
 import org.springframework.cloud.openfeign.EnableFeignClients;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @Configuration
+@EnableScheduling
 @EnableFeignClients(
     clients = {
       PaymentInstrumentRestClient.class,
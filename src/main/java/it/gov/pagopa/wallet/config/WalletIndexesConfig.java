@@ -0,0 +1,47 @@
+package it.gov.pagopa.wallet.config;
+
+import it.gov.pagopa.common.mongo.index.MongoIndexes;
+import it.gov.pagopa.wallet.model.Wallet.Fields;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.domain.Sort.Direction;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.PartialIndexFilter;
+import org.springframework.data.mongodb.core.query.Criteria;
+
+import java.util.List;
+
+/** Indexes serving the query shapes of WalletRepository and WalletUpdatesRepositoryImpl */
+@Configuration
+public class WalletIndexesConfig {
+
+  private static final String WALLET_COLLECTION = "wallet";
+  private static final String FIELD_ID = "_id";
+
+  @Bean
+  public MongoIndexes walletIndexes() {
+    return new MongoIndexes(WALLET_COLLECTION, List.of(
+        // single wallet reads and updates, and the user's wallet list through the prefix
+        new Index().named("userId_initiativeId")
+            .on(Fields.userId, Direction.ASC)
+            .on(Fields.initiativeId, Direction.ASC),
+        new Index().named("userId_iban")
+            .on(Fields.userId, Direction.ASC)
+            .on(Fields.iban, Direction.ASC),
+        new Index().named("initiativeId_familyId")
+            .on(Fields.initiativeId, Direction.ASC)
+            .on(Fields.familyId, Direction.ASC),
+        // keyset pages of the initiative deletion
+        new Index().named("initiativeId_id")
+            .on(Fields.initiativeId, Direction.ASC)
+            .on(FIELD_ID, Direction.ASC),
+        // voucher expiration reminder: only the wallets not having spent anything are notified, in keyset pages on the
+        // _id, thus the sort follows the index and the voucherEndDate range is filtered on its keys
+        new Index().named("initiativeId_id_voucherEndDate_reminder")
+            .on(Fields.initiativeId, Direction.ASC)
+            .on(FIELD_ID, Direction.ASC)
+            .on(Fields.voucherEndDate, Direction.ASC)
+            .partial(PartialIndexFilter.of(Criteria.where(Fields.accruedCents).is(0)))
+    ));
+  }
+}
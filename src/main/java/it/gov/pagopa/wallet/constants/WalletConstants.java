@@ -61,6 +61,7 @@ public class WalletConstants {
     public static final String PAYMENT_INSTRUMENT_NOT_FOUND_MSG = "The selected payment instrument has not been found for the current user";
     public static final String USER_NOT_ONBOARDED_MSG = "The current user is not onboarded on initiative [%s]";
     public static final String IDPAYCODE_NOT_FOUND_MSG = "IdpayCode is not found for the current user";
+    public static final String REMINDER_BATCH_JOB_NOT_FOUND_MSG = "The reminder batch job [%s] has not been found";
 
     public static final String ERROR_ONBOARDING_INVOCATION_MSG = "An error occurred in the microservice onboarding";
     public static final String ERROR_PAYMENT_INSTRUMENT_INVOCATION_MSG = "An error occurred in the microservice payment instrument";
@@ -85,6 +86,7 @@ public class WalletConstants {
     public static final String USER_NOT_ONBOARDED = "WALLET_USER_NOT_ONBOARDED";
     public static final String PAYMENT_INSTRUMENT_NOT_FOUND = "WALLET_INSTRUMENT_NOT_FOUND";
     public static final String IDPAYCODE_NOT_FOUND = "WALLET_INSTRUMENT_IDPAYCODE_NOT_FOUND";
+    public static final String REMINDER_BATCH_JOB_NOT_FOUND = "WALLET_REMINDER_BATCH_JOB_NOT_FOUND";
 
     public static final String TOO_MANY_REQUESTS = "WALLET_TOO_MANY_REQUESTS";
 
@@ -1,9 +1,12 @@
 package it.gov.pagopa.wallet.controller;
 
+import it.gov.pagopa.wallet.dto.ReminderBatchJobDTO;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 @RestController
@@ -11,11 +14,14 @@ import org.springframework.web.bind.annotation.RestController;
 public interface VoucherExpirationReminderBatchController {
 
     @PostMapping("/batch/run/{initiativeId}")
-    ResponseEntity<Void> runReminderBatch(
-    @PathVariable("initiativeId") String initiativeId
+    ResponseEntity<ReminderBatchJobDTO> runReminderBatch(
+    @PathVariable("initiativeId") String initiativeId,
+    @RequestParam(value = "rerun", defaultValue = "false") boolean rerun
             );
 
-
-
+    @GetMapping("/batch/{jobId}")
+    ResponseEntity<ReminderBatchJobDTO> getReminderBatchJob(
+    @PathVariable("jobId") String jobId
+            );
 
 }
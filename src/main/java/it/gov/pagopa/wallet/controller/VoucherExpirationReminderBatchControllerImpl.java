@@ -1,5 +1,6 @@
 package it.gov.pagopa.wallet.controller;
 
+import it.gov.pagopa.wallet.dto.ReminderBatchJobDTO;
 import it.gov.pagopa.wallet.service.VoucherExpirationReminderBatchService;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
@@ -20,9 +21,14 @@ public class VoucherExpirationReminderBatchControllerImpl implements VoucherExpi
 
 
     @Override
-    public ResponseEntity<Void> runReminderBatch(String initiativeId) {
-        batchService.runReminderBatch(initiativeId, expiringDay);
-        return new ResponseEntity<>(HttpStatus.OK);
+    public ResponseEntity<ReminderBatchJobDTO> runReminderBatch(String initiativeId, boolean rerun) {
+        ReminderBatchJobDTO job = batchService.submitReminderBatch(initiativeId, expiringDay, rerun);
+        return new ResponseEntity<>(job, HttpStatus.ACCEPTED);
+    }
+
+    @Override
+    public ResponseEntity<ReminderBatchJobDTO> getReminderBatchJob(String jobId) {
+        return new ResponseEntity<>(batchService.getReminderBatchJob(jobId), HttpStatus.OK);
     }
 
 
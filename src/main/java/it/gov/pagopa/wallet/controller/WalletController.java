@@ -4,6 +4,7 @@ import it.gov.pagopa.wallet.constants.WalletConstants;
 import it.gov.pagopa.wallet.dto.*;
 
 import jakarta.validation.Valid;
+import java.util.List;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
@@ -38,7 +39,7 @@ public interface WalletController {
       @PathVariable("initiativeId") String initiativeId, @PathVariable("userId") String userId);
 
   @PutMapping("/updateWallet")
-  ResponseEntity<Void> updateWallet(
+  ResponseEntity<List<WalletPIOutcomeDTO>> updateWallet(
       @Valid @RequestBody WalletPIBodyDTO body);
 
   @PutMapping("/{initiativeId}/{userId}/iban")
@@ -2,6 +2,7 @@ package it.gov.pagopa.wallet.controller;
 
 import it.gov.pagopa.wallet.dto.*;
 import it.gov.pagopa.wallet.service.WalletService;
+import java.util.List;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.RestController;
@@ -49,9 +50,8 @@ public class WalletControllerImpl implements WalletController {
   }
 
   @Override
-  public ResponseEntity<Void> updateWallet(WalletPIBodyDTO body) {
-    walletService.updateWallet(body);
-    return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+  public ResponseEntity<List<WalletPIOutcomeDTO>> updateWallet(WalletPIBodyDTO body) {
+    return new ResponseEntity<>(walletService.updateWallet(body), HttpStatus.OK);
   }
 
   @Override
@@ -0,0 +1,25 @@
+package it.gov.pagopa.wallet.dto;
+
+import it.gov.pagopa.wallet.enums.ReminderBatchJobStatus;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReminderBatchJobDTO {
+
+  private String jobId;
+  private String initiativeId;
+  private LocalDate expirationDate;
+  private ReminderBatchJobStatus status;
+  private long sentCount;
+  private long failedCount;
+  private LocalDateTime createdAt;
+  private LocalDateTime updatedAt;
+}
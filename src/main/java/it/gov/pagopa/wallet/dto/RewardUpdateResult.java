@@ -0,0 +1,11 @@
+package it.gov.pagopa.wallet.dto;
+
+import it.gov.pagopa.wallet.enums.RewardUpdateOutcome;
+
+/** Outcome of a wallet reward, along with the family of the wallet when its budget is shared. */
+public record RewardUpdateResult(RewardUpdateOutcome outcome, String familyId) {
+
+  public static RewardUpdateResult of(RewardUpdateOutcome outcome) {
+    return new RewardUpdateResult(outcome, null);
+  }
+}
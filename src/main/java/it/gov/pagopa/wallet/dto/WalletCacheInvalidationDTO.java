@@ -0,0 +1,22 @@
+package it.gov.pagopa.wallet.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class WalletCacheInvalidationDTO {
+
+  private String instanceId;
+  private String initiativeId;
+  /** When null, every wallet of the initiative is invalidated */
+  private List<String> userIds;
+  /** When set, the wallets of the family members are invalidated instead of the users ones */
+  private String familyId;
+}
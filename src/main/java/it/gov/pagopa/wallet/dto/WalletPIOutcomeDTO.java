@@ -0,0 +1,17 @@
+package it.gov.pagopa.wallet.dto;
+
+import it.gov.pagopa.wallet.enums.InstrumentRevocationOutcome;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+public class WalletPIOutcomeDTO {
+
+  private String initiativeId;
+  private String userId;
+  private String maskedPan;
+  private InstrumentRevocationOutcome outcome;
+}
@@ -0,0 +1,18 @@
+package it.gov.pagopa.wallet.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+
+@Getter
+@Builder
+@AllArgsConstructor
+public class WalletRewardUpdateDTO {
+
+  private String userId;
+  private String initiativeId;
+  private Long amountCents;
+  private Long accruedCents;
+  private Long counterVersion;
+  private long trxCount;
+}
@@ -5,6 +5,7 @@ import it.gov.pagopa.wallet.dto.*;
 import it.gov.pagopa.wallet.enums.VoucherStatus;
 import it.gov.pagopa.wallet.enums.WalletStatus;
 import it.gov.pagopa.wallet.model.Wallet;
+import it.gov.pagopa.wallet.model.WalletKey;
 import it.gov.pagopa.wallet.utils.Utilities;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
@@ -26,7 +27,7 @@ public class WalletMapper {
 
     public Wallet map(EvaluationDTO evaluationDTO) {
         return Wallet.builder()
-                .id(evaluationDTO.getUserId().concat("_").concat(evaluationDTO.getInitiativeId()))
+                .id(new WalletKey(evaluationDTO.getUserId(), evaluationDTO.getInitiativeId()).id())
                 .initiativeId(evaluationDTO.getInitiativeId())
                 .initiativeName(evaluationDTO.getInitiativeName())
                 .initiativeEndDate(evaluationDTO.getInitiativeEndDate())
@@ -0,0 +1,16 @@
+package it.gov.pagopa.wallet.enums;
+
+/**
+ * Outcome of the single bulk rewarding a family member: the shared budget of the family wallets and the accrual of the
+ * member are guarded by the counter version, thus a retry of a failed or partially applied update is idempotent.
+ */
+public enum FamilyRewardUpdateOutcome {
+    /** At least one of the two updates has been applied */
+    APPLIED,
+    /** Both the updates had already been applied by a previous delivery */
+    ALREADY_APPLIED,
+    /** The shared budget failed, while the member accrual has been applied */
+    PARTIALLY_APPLIED,
+    /** Nothing has been applied */
+    FAILED
+}
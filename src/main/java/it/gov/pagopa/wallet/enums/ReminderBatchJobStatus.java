@@ -0,0 +1,7 @@
+package it.gov.pagopa.wallet.enums;
+
+public enum ReminderBatchJobStatus {
+  RUNNING,
+  COMPLETED,
+  FAILED
+}
@@ -0,0 +1,8 @@
+package it.gov.pagopa.wallet.enums;
+
+public enum RewardUpdateOutcome {
+    APPLIED,
+    STALE,
+    NOT_FOUND,
+    FAMILY_WALLET
+}
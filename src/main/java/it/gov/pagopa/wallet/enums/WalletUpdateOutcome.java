@@ -0,0 +1,8 @@
+package it.gov.pagopa.wallet.enums;
+
+public enum WalletUpdateOutcome {
+    APPLIED,
+    SKIPPED,
+    NOT_FOUND,
+    FAILED
+}
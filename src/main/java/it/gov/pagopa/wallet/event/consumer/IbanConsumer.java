@@ -2,16 +2,26 @@ package it.gov.pagopa.wallet.event.consumer;
 
 import it.gov.pagopa.wallet.dto.IbanQueueWalletDTO;
 import it.gov.pagopa.wallet.service.WalletService;
+import java.util.List;
 import java.util.function.Consumer;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.Message;
 
 @Configuration
 public class IbanConsumer {
 
   @Bean
+  @ConditionalOnProperty(name = "app.iban.batchMode", havingValue = "false", matchIfMissing = true)
   public Consumer<IbanQueueWalletDTO> consumerIban(WalletService walletService){
     return walletService::processIbanOutcome;
   }
 
+  @Bean("consumerIban")
+  @ConditionalOnProperty(name = "app.iban.batchMode", havingValue = "true")
+  public Consumer<List<Message<String>>> consumerIbanBatch(WalletService walletService){
+    return walletService::processIbanOutcomes;
+  }
+
 }
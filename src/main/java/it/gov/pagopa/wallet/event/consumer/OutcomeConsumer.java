@@ -2,16 +2,26 @@ package it.gov.pagopa.wallet.event.consumer;
 
 import it.gov.pagopa.wallet.dto.EvaluationDTO;
 import it.gov.pagopa.wallet.service.WalletService;
+import java.util.List;
 import java.util.function.Consumer;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.Message;
 
 @Configuration
 public class OutcomeConsumer {
 
   @Bean
+  @ConditionalOnProperty(name = "app.outcome.batchMode", havingValue = "false", matchIfMissing = true)
   public Consumer<EvaluationDTO> consumerOutcome(WalletService walletService) {
     return walletService::createWallet;
   }
 
+  @Bean("consumerOutcome")
+  @ConditionalOnProperty(name = "app.outcome.batchMode", havingValue = "true")
+  public Consumer<List<Message<String>>> consumerOutcomeBatch(WalletService walletService) {
+    return walletService::createWallets;
+  }
+
 }
@@ -2,16 +2,26 @@ package it.gov.pagopa.wallet.event.consumer;
 
 import it.gov.pagopa.wallet.dto.RefundDTO;
 import it.gov.pagopa.wallet.service.WalletService;
+import java.util.List;
 import java.util.function.Consumer;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.Message;
 
 @Configuration
 public class RefundConsumer {
 
   @Bean
+  @ConditionalOnProperty(name = "app.refund.batchMode", havingValue = "false", matchIfMissing = true)
   public Consumer<RefundDTO> consumerRefund(WalletService walletService){
     return walletService::processRefund;
   }
 
+  @Bean("consumerRefund")
+  @ConditionalOnProperty(name = "app.refund.batchMode", havingValue = "true")
+  public Consumer<List<Message<String>>> consumerRefundBatch(WalletService walletService){
+    return walletService::processRefunds;
+  }
+
 }
@@ -1,8 +1,9 @@
 package it.gov.pagopa.wallet.event.consumer;
 
-import it.gov.pagopa.wallet.dto.RewardTransactionDTO;
 import it.gov.pagopa.wallet.service.WalletService;
+import java.util.List;
 import java.util.function.Consumer;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.messaging.Message;
@@ -11,7 +12,14 @@ import org.springframework.messaging.Message;
 public class TransactionConsumer {
 
   @Bean
+  @ConditionalOnProperty(name = "app.transaction.batchMode", havingValue = "false", matchIfMissing = true)
   public Consumer<Message<String>> trxConsumer(WalletService walletService){
     return walletService::processTransaction;
   }
+
+  @Bean("trxConsumer")
+  @ConditionalOnProperty(name = "app.transaction.batchMode", havingValue = "true")
+  public Consumer<List<Message<String>>> trxBatchConsumer(WalletService walletService){
+    return walletService::processTransactions;
+  }
 }
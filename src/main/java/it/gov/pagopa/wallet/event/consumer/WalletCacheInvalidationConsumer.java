@@ -0,0 +1,18 @@
+package it.gov.pagopa.wallet.event.consumer;
+
+import it.gov.pagopa.wallet.dto.WalletCacheInvalidationDTO;
+import it.gov.pagopa.wallet.service.WalletCacheService;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.function.Consumer;
+
+@Configuration
+public class WalletCacheInvalidationConsumer {
+
+  @Bean
+  public Consumer<WalletCacheInvalidationDTO> consumerCacheInvalidation(WalletCacheService walletCacheService) {
+    return walletCacheService::processInvalidation;
+  }
+
+}
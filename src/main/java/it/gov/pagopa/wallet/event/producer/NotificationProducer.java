@@ -7,6 +7,7 @@ import org.springframework.stereotype.Component;
 
 @Component
 public class NotificationProducer {
+  public static final String BINDING_NAME = "walletQueue-out-2";
   private final String binder;
   private final StreamBridge streamBridge;
 
@@ -17,6 +18,6 @@ public class NotificationProducer {
   }
 
   public void sendNotification(NotificationQueueDTO notificationQueueDTO){
-    streamBridge.send("walletQueue-out-2", binder, notificationQueueDTO);
+    streamBridge.send(BINDING_NAME, binder, notificationQueueDTO);
   }
 }
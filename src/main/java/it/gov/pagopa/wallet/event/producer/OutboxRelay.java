@@ -0,0 +1,30 @@
+package it.gov.pagopa.wallet.event.producer;
+
+import it.gov.pagopa.wallet.service.OutboxService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/** Publishes the events stored in the outbox collection on their bindings. */
+@Component
+@ConditionalOnProperty(name = "app.outbox.enabled", havingValue = "true")
+public class OutboxRelay {
+
+  private final OutboxService outboxService;
+  private final int batchSize;
+
+  public OutboxRelay(OutboxService outboxService,
+                     @Value("${app.outbox.relay.batchSize:500}") int batchSize) {
+    this.outboxService = outboxService;
+    this.batchSize = batchSize;
+  }
+
+  @Scheduled(fixedDelayString = "${app.outbox.relay.delayMs:500}")
+  public void relay() {
+    int relayed;
+    do {
+      relayed = outboxService.relay();
+    } while (relayed == batchSize);
+  }
+}
@@ -0,0 +1,77 @@
+package it.gov.pagopa.wallet.event.producer;
+
+import it.gov.pagopa.wallet.constants.WalletConstants;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.integration.annotation.ServiceActivator;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessagingException;
+import org.springframework.messaging.support.ErrorMessage;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+
+/**
+ * Routes to the error topic the timeline and notification records the broker did not acknowledge.
+ * The publishing itself is left to the binder producer, which is already asynchronous: it batches the records
+ * (linger.ms, batch.size), tracks them until acknowledged and bounds its memory (buffer.memory), blocking the sender up
+ * to max.block.ms when full. This class only handles the records that producer reports as failed.
+ */
+@Component
+@Slf4j
+public class ProducerFailureRouter {
+
+  private final ErrorProducer errorProducer;
+  private final String timelineServer;
+  private final String timelineTopic;
+  private final String notificationServer;
+  private final String notificationTopic;
+
+  public ProducerFailureRouter(ErrorProducer errorProducer,
+                               @Value("${spring.cloud.stream.binders.kafka-timeline.environment.spring.cloud.stream.kafka.binder.brokers}") String timelineServer,
+                               @Value("${spring.cloud.stream.bindings.walletQueue-out-1.destination}") String timelineTopic,
+                               @Value("${spring.cloud.stream.binders.kafka-notification.environment.spring.cloud.stream.kafka.binder.brokers}") String notificationServer,
+                               @Value("${spring.cloud.stream.bindings.walletQueue-out-2.destination}") String notificationTopic) {
+    this.errorProducer = errorProducer;
+    this.timelineServer = timelineServer;
+    this.timelineTopic = timelineTopic;
+    this.notificationServer = notificationServer;
+    this.notificationTopic = notificationTopic;
+  }
+
+  @ServiceActivator(inputChannel = "${spring.cloud.stream.bindings.walletQueue-out-1.destination}.errors")
+  public void handleTimelineError(ErrorMessage errorMessage) {
+    handleError(errorMessage, timelineServer, timelineTopic);
+  }
+
+  @ServiceActivator(inputChannel = "${spring.cloud.stream.bindings.walletQueue-out-2.destination}.errors")
+  public void handleNotificationError(ErrorMessage errorMessage) {
+    handleError(errorMessage, notificationServer, notificationTopic);
+  }
+
+  private void handleError(ErrorMessage errorMessage, String server, String topic) {
+    Throwable cause = errorMessage.getPayload();
+    Message<?> failedMessage = cause instanceof MessagingException messagingException
+            ? messagingException.getFailedMessage()
+            : errorMessage.getOriginalMessage();
+    if (failedMessage == null) {
+      log.error("[PRODUCER_ERROR] Unable to retrieve the failed message sent to topic {}", topic, cause);
+      return;
+    }
+    Exception e = cause instanceof Exception exception ? exception : new IllegalStateException(cause);
+    sendToQueueError(failedMessage, e, server, topic);
+  }
+
+  private void sendToQueueError(Message<?> failedMessage, Exception e, String server, String topic) {
+    log.error("[PRODUCER_ERROR] An error has occurred sending message to topic {}. Sending message to Error queue", topic, e);
+    errorProducer.sendEvent(MessageBuilder.withPayload(failedMessage.getPayload())
+            .setHeader(WalletConstants.ERROR_MSG_HEADER_SRC_TYPE, WalletConstants.KAFKA)
+            .setHeader(WalletConstants.ERROR_MSG_HEADER_SRC_SERVER, server)
+            .setHeader(WalletConstants.ERROR_MSG_HEADER_SRC_TOPIC, topic)
+            .setHeader(WalletConstants.ERROR_MSG_HEADER_DESCRIPTION, WalletConstants.ERROR_QUEUE)
+            .setHeader(WalletConstants.ERROR_MSG_HEADER_RETRYABLE, true)
+            .setHeader(WalletConstants.ERROR_MSG_HEADER_STACKTRACE, e.getStackTrace())
+            .setHeader(WalletConstants.ERROR_MSG_HEADER_CLASS, e.getClass())
+            .setHeader(WalletConstants.ERROR_MSG_HEADER_MESSAGE, e.getMessage())
+            .build());
+  }
+}
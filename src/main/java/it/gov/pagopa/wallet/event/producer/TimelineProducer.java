@@ -7,6 +7,7 @@ import org.springframework.stereotype.Component;
 
 @Component
 public class TimelineProducer {
+  public static final String BINDING_NAME = "walletQueue-out-1";
   private final String binderTimeline;
   private final StreamBridge streamBridge;
 
@@ -17,6 +18,6 @@ public class TimelineProducer {
   }
 
   public void sendEvent(QueueOperationDTO queueOperationDTO){
-    streamBridge.send("walletQueue-out-1",binderTimeline, queueOperationDTO);
+    streamBridge.send(BINDING_NAME, binderTimeline, queueOperationDTO);
   }
 }
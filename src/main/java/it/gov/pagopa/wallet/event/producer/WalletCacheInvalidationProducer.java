@@ -0,0 +1,28 @@
+package it.gov.pagopa.wallet.event.producer;
+
+import it.gov.pagopa.wallet.dto.WalletCacheInvalidationDTO;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+
+@Component
+public class WalletCacheInvalidationProducer {
+  public static final String BINDING_NAME = "walletQueue-out-4";
+  private final String binderCacheInvalidation;
+  private final StreamBridge streamBridge;
+
+  public WalletCacheInvalidationProducer(@Value("${spring.cloud.stream.bindings.walletQueue-out-4.binder}") String binderCacheInvalidation,
+                                         StreamBridge streamBridge) {
+    this.binderCacheInvalidation = binderCacheInvalidation;
+    this.streamBridge = streamBridge;
+  }
+
+  public boolean sendInvalidation(WalletCacheInvalidationDTO walletCacheInvalidationDTO) {
+    return streamBridge.send(BINDING_NAME, binderCacheInvalidation,
+            MessageBuilder.withPayload(walletCacheInvalidationDTO)
+                    .setHeader(KafkaHeaders.KEY, walletCacheInvalidationDTO.getInitiativeId())
+                    .build());
+  }
+}
@@ -0,0 +1,22 @@
+package it.gov.pagopa.wallet.exception.custom;
+
+import it.gov.pagopa.common.web.exception.ServiceException;
+import it.gov.pagopa.common.web.exception.ServiceExceptionPayload;
+
+import static it.gov.pagopa.wallet.constants.WalletConstants.ExceptionCode.REMINDER_BATCH_JOB_NOT_FOUND;
+
+public class ReminderBatchJobNotFoundException extends ServiceException {
+
+    public ReminderBatchJobNotFoundException(String message) {
+        this(REMINDER_BATCH_JOB_NOT_FOUND, message);
+    }
+
+    public ReminderBatchJobNotFoundException(String code, String message) {
+        this(code, message, null, false, null);
+    }
+
+    public ReminderBatchJobNotFoundException(String code, String message, ServiceExceptionPayload payload, boolean printStackTrace, Throwable ex) {
+        super(code, message, payload, printStackTrace, ex);
+    }
+
+}
@@ -0,0 +1,33 @@
+package it.gov.pagopa.wallet.model;
+
+import java.time.LocalDateTime;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.experimental.FieldNameConstants;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Lease and checkpoint of the refund history compaction: a single document, so that one instance at a time compacts
+ * the wallets and an interrupted run is resumed after the last compacted wallet.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "wallet_refund_history_compaction")
+@FieldNameConstants
+public class RefundHistoryCompaction {
+
+  public static final String ID = "REFUND_HISTORY_COMPACTION";
+
+  @Id private String id;
+  private String lastId;
+  private long compactedCount;
+  private LocalDateTime completedAt;
+  private LocalDateTime updatedAt;
+  private String lockedBy;
+  private LocalDateTime lockedUntil;
+}
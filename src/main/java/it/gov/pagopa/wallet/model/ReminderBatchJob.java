@@ -0,0 +1,37 @@
+package it.gov.pagopa.wallet.model;
+
+import it.gov.pagopa.wallet.enums.ReminderBatchJobStatus;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.experimental.FieldNameConstants;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Voucher expiration reminder run of an initiative for a given expiration date.
+ * The id is derived from both, so a retried submission finds the same job.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "wallet_reminder_job")
+@FieldNameConstants
+public class ReminderBatchJob {
+
+  @Id private String id;
+  private String initiativeId;
+  private LocalDate expirationDate;
+  private ReminderBatchJobStatus status;
+  private String lastId;
+  private long sentCount;
+  private long failedCount;
+  private LocalDateTime createdAt;
+  private LocalDateTime updatedAt;
+  private String lockedBy;
+  private LocalDateTime lockedUntil;
+}
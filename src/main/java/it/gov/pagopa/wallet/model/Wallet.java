@@ -45,6 +45,8 @@ public class Wallet {
   private LocalDateTime requestUnsubscribeDate;
   private LocalDateTime updateDate;
   private LocalDateTime lastCounterUpdate;
+  /** Written only by the instrument revocations, to recognize the wallets revoked by a bulk */
+  private LocalDateTime instrumentRevocationDate;
   private LocalDateTime suspensionDate;
   private LocalDateTime createdAt;
   private String initiativeRewardType;
@@ -60,7 +62,9 @@ public class Wallet {
   @Data
   @NoArgsConstructor
   @AllArgsConstructor
+  @FieldNameConstants
   public static class RefundHistory{
     private Long feedbackProgressive;
+    private LocalDateTime updateDate;
   }
 }
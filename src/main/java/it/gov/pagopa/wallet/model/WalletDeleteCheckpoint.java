@@ -0,0 +1,28 @@
+package it.gov.pagopa.wallet.model;
+
+import it.gov.pagopa.wallet.model.projection.WalletKeyView;
+import java.time.LocalDateTime;
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/** Progress of the deletion of the wallets of an initiative, identified by the initiativeId. */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "wallet_delete_checkpoint")
+public class WalletDeleteCheckpoint {
+
+  @Id private String initiativeId;
+  private String lastId;
+  private long deletedCount;
+  /** The page being deleted, not yet audited */
+  private List<WalletKeyView> pendingWallets;
+  private LocalDateTime startedAt;
+  private LocalDateTime updatedAt;
+}
@@ -0,0 +1,12 @@
+package it.gov.pagopa.wallet.model;
+
+/**
+ * Identity of a single wallet: its {@code _id} is derived from the user and the initiative, thus a wallet is always
+ * read and updated through an {@code _id} point read scoped by the {@code userId} shard key.
+ */
+public record WalletKey(String userId, String initiativeId) {
+
+  public String id() {
+    return userId.concat("_").concat(initiativeId);
+  }
+}
@@ -0,0 +1,30 @@
+package it.gov.pagopa.wallet.model;
+
+import java.time.LocalDateTime;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.experimental.FieldNameConstants;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Sharded;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "wallet_outbox")
+@FieldNameConstants
+@Sharded(shardKey = { WalletOutboxEvent.Fields.userId }, immutableKey = true)
+public class WalletOutboxEvent {
+
+  @Id private String id;
+  private String bindingName;
+  /** Kafka message key, and the shard key shared with the wallet written in the same transaction */
+  private String userId;
+  private String payload;
+  private LocalDateTime createdAt;
+  private String lockedBy;
+  private LocalDateTime lockedUntil;
+}
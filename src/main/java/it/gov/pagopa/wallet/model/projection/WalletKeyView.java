@@ -0,0 +1,7 @@
+package it.gov.pagopa.wallet.model.projection;
+
+import org.springframework.data.annotation.Id;
+
+/** Wallet fields read by the paged deletion of an initiative. */
+public record WalletKeyView(@Id String id, String userId, String initiativeId) {
+}
@@ -0,0 +1,5 @@
+package it.gov.pagopa.wallet.model.projection;
+
+/** Wallet fields read while rewarding a transaction. */
+public record WalletRewardView(String id, String familyId, Long counterVersion) {
+}
@@ -0,0 +1,5 @@
+package it.gov.pagopa.wallet.model.projection;
+
+/** Wallet fields read by the enrollment status API. */
+public record WalletStatusView(String status) {
+}
@@ -0,0 +1,14 @@
+package it.gov.pagopa.wallet.repository;
+
+import it.gov.pagopa.wallet.model.RefundHistoryCompaction;
+
+import java.time.Duration;
+
+public interface RefundHistoryCompactionRepository {
+  /** Locks the compaction if its lease is free or expired, returning null if another instance holds it */
+  RefundHistoryCompaction claim(String owner, Duration lease);
+  /** Stores the checkpoint and renews the lease, returning false if the lease has been lost */
+  boolean saveProgress(String owner, String lastId, long compactedDelta, Duration lease);
+  /** Releases the lease, clearing the checkpoint if the run has been completed */
+  void release(String owner, boolean completed);
+}
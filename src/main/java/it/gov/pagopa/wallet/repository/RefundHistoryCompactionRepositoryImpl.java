@@ -0,0 +1,83 @@
+package it.gov.pagopa.wallet.repository;
+
+import it.gov.pagopa.wallet.model.RefundHistoryCompaction;
+import it.gov.pagopa.wallet.model.RefundHistoryCompaction.Fields;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Repository;
+
+@Repository
+@Slf4j
+public class RefundHistoryCompactionRepositoryImpl implements RefundHistoryCompactionRepository {
+
+    private static final String FIELD_ID = Fields.id;
+    private static final String FIELD_LOCKED_BY = Fields.lockedBy;
+    private static final String FIELD_LOCKED_UNTIL = Fields.lockedUntil;
+    private final MongoTemplate mongoTemplate;
+
+    public RefundHistoryCompactionRepositoryImpl(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @Override
+    public RefundHistoryCompaction claim(String owner, Duration lease) {
+        LocalDateTime now = LocalDateTime.now();
+        try {
+            // the first run creates the document, a locked one is not matched and its upsert conflicts on the id
+            return mongoTemplate.findAndModify(
+                    Query.query(Criteria.where(FIELD_ID).is(RefundHistoryCompaction.ID).orOperator(
+                            Criteria.where(FIELD_LOCKED_UNTIL).is(null),
+                            Criteria.where(FIELD_LOCKED_UNTIL).lt(now))),
+                    new Update()
+                            .set(FIELD_LOCKED_BY, owner)
+                            .set(FIELD_LOCKED_UNTIL, now.plus(lease))
+                            .set(Fields.updatedAt, now),
+                    FindAndModifyOptions.options().upsert(true).returnNew(true),
+                    RefundHistoryCompaction.class);
+        } catch (DuplicateKeyException e) {
+            log.info("[REFUND_HISTORY_COMPACTION] Compaction already running on another instance");
+            return null;
+        }
+    }
+
+    @Override
+    public boolean saveProgress(String owner, String lastId, long compactedDelta, Duration lease) {
+        LocalDateTime now = LocalDateTime.now();
+        return mongoTemplate.updateFirst(
+                Query.query(Criteria.where(FIELD_ID).is(RefundHistoryCompaction.ID).and(FIELD_LOCKED_BY).is(owner)),
+                new Update()
+                        .set(Fields.lastId, lastId)
+                        .inc(Fields.compactedCount, compactedDelta)
+                        .set(FIELD_LOCKED_UNTIL, now.plus(lease))
+                        .set(Fields.updatedAt, now),
+                RefundHistoryCompaction.class).getModifiedCount() > 0;
+    }
+
+    @Override
+    public void release(String owner, boolean completed) {
+        LocalDateTime now = LocalDateTime.now();
+        Update update = new Update()
+                .unset(FIELD_LOCKED_BY)
+                .unset(FIELD_LOCKED_UNTIL)
+                .set(Fields.updatedAt, now);
+        if (completed) {
+            // the next run starts from the first wallet
+            update.unset(Fields.lastId)
+                    .set(Fields.compactedCount, 0L)
+                    .set(Fields.completedAt, now);
+        }
+        mongoTemplate.updateFirst(
+                Query.query(Criteria.where(FIELD_ID).is(RefundHistoryCompaction.ID).and(FIELD_LOCKED_BY).is(owner)),
+                update,
+                RefundHistoryCompaction.class);
+    }
+}
@@ -0,0 +1,23 @@
+package it.gov.pagopa.wallet.repository;
+
+import it.gov.pagopa.wallet.enums.ReminderBatchJobStatus;
+import it.gov.pagopa.wallet.model.ReminderBatchJob;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+
+public interface ReminderBatchJobRepository {
+  /** Inserts the job, returning the already stored one if a job with the same id exists */
+  ReminderBatchJob insertIfAbsent(ReminderBatchJob job);
+  Optional<ReminderBatchJob> findById(String jobId);
+  /** Resets an ended job to be run again from the first wallet, returning null if it is not ended */
+  ReminderBatchJob restart(String jobId);
+  /** Locks a not completed job whose lease is free or expired, returning null if not claimable */
+  ReminderBatchJob claim(String jobId, String owner, Duration lease);
+  /** Running jobs whose lease is expired or has been released by a stopping instance */
+  List<ReminderBatchJob> findOrphans(int maxJobs);
+  /** Stores the checkpoint and renews the lease, returning false if the lease has been lost */
+  boolean saveProgress(String jobId, String owner, String lastId, long sentDelta, long failedDelta, Duration lease);
+  void release(String jobId, String owner, ReminderBatchJobStatus status);
+}
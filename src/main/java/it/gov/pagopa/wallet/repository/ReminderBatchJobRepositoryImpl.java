@@ -0,0 +1,125 @@
+package it.gov.pagopa.wallet.repository;
+
+import it.gov.pagopa.wallet.enums.ReminderBatchJobStatus;
+import it.gov.pagopa.wallet.model.ReminderBatchJob;
+import it.gov.pagopa.wallet.model.ReminderBatchJob.Fields;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Repository;
+
+@Repository
+@Slf4j
+public class ReminderBatchJobRepositoryImpl implements ReminderBatchJobRepository {
+
+    private static final String FIELD_ID = Fields.id;
+    private static final String FIELD_STATUS = Fields.status;
+    private static final String FIELD_LOCKED_BY = Fields.lockedBy;
+    private static final String FIELD_LOCKED_UNTIL = Fields.lockedUntil;
+    private final MongoTemplate mongoTemplate;
+
+    public ReminderBatchJobRepositoryImpl(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @Override
+    public ReminderBatchJob insertIfAbsent(ReminderBatchJob job) {
+        try {
+            return mongoTemplate.insert(job);
+        } catch (DuplicateKeyException e) {
+            log.info("[REMINDER_BATCH] Job {} already submitted", job.getId());
+            return mongoTemplate.findById(job.getId(), ReminderBatchJob.class);
+        }
+    }
+
+    @Override
+    public Optional<ReminderBatchJob> findById(String jobId) {
+        return Optional.ofNullable(mongoTemplate.findById(jobId, ReminderBatchJob.class));
+    }
+
+    @Override
+    public ReminderBatchJob restart(String jobId) {
+        return mongoTemplate.findAndModify(
+                Query.query(Criteria.where(FIELD_ID).is(jobId)
+                        .and(FIELD_STATUS).in(ReminderBatchJobStatus.COMPLETED, ReminderBatchJobStatus.FAILED)),
+                new Update()
+                        .set(FIELD_STATUS, ReminderBatchJobStatus.RUNNING)
+                        .set(Fields.lastId, "")
+                        .set(Fields.sentCount, 0L)
+                        .set(Fields.failedCount, 0L)
+                        .set(Fields.updatedAt, LocalDateTime.now()),
+                FindAndModifyOptions.options().returnNew(true),
+                ReminderBatchJob.class);
+    }
+
+    @Override
+    public ReminderBatchJob claim(String jobId, String owner, Duration lease) {
+        LocalDateTime now = LocalDateTime.now();
+        return mongoTemplate.findAndModify(
+                Query.query(Criteria.where(FIELD_ID).is(jobId).andOperator(claimable(now))),
+                new Update()
+                        .set(FIELD_STATUS, ReminderBatchJobStatus.RUNNING)
+                        .set(FIELD_LOCKED_BY, owner)
+                        .set(FIELD_LOCKED_UNTIL, now.plus(lease))
+                        .set(Fields.updatedAt, now),
+                FindAndModifyOptions.options().returnNew(true),
+                ReminderBatchJob.class);
+    }
+
+    @Override
+    public List<ReminderBatchJob> findOrphans(int maxJobs) {
+        // failed jobs are retried only on a new submission
+        Query query = Query.query(Criteria.where(FIELD_STATUS).is(ReminderBatchJobStatus.RUNNING)
+                        .andOperator(claimable(LocalDateTime.now())))
+                .with(Sort.by(Fields.createdAt))
+                .limit(maxJobs);
+        query.fields().include(FIELD_ID);
+        return mongoTemplate.find(query, ReminderBatchJob.class);
+    }
+
+    @Override
+    public boolean saveProgress(String jobId, String owner, String lastId, long sentDelta, long failedDelta, Duration lease) {
+        LocalDateTime now = LocalDateTime.now();
+        return mongoTemplate.updateFirst(
+                Query.query(Criteria.where(FIELD_ID).is(jobId).and(FIELD_LOCKED_BY).is(owner)),
+                new Update()
+                        .set(Fields.lastId, lastId)
+                        .inc(Fields.sentCount, sentDelta)
+                        .inc(Fields.failedCount, failedDelta)
+                        .set(FIELD_LOCKED_UNTIL, now.plus(lease))
+                        .set(Fields.updatedAt, now),
+                ReminderBatchJob.class).getModifiedCount() > 0;
+    }
+
+    @Override
+    public void release(String jobId, String owner, ReminderBatchJobStatus status) {
+        mongoTemplate.updateFirst(
+                Query.query(Criteria.where(FIELD_ID).is(jobId).and(FIELD_LOCKED_BY).is(owner)),
+                new Update()
+                        .set(FIELD_STATUS, status)
+                        .unset(FIELD_LOCKED_BY)
+                        .unset(FIELD_LOCKED_UNTIL)
+                        .set(Fields.updatedAt, LocalDateTime.now()),
+                ReminderBatchJob.class);
+    }
+
+    /** Jobs not completed whose lease is free or expired, e.g. because the instance running them has been stopped */
+    private static Criteria claimable(LocalDateTime now) {
+        return new Criteria().andOperator(
+                Criteria.where(FIELD_STATUS).ne(ReminderBatchJobStatus.COMPLETED),
+                new Criteria().orOperator(
+                        Criteria.where(FIELD_LOCKED_UNTIL).is(null),
+                        Criteria.where(FIELD_LOCKED_UNTIL).lt(now)));
+    }
+}
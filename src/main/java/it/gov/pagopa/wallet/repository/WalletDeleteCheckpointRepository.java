@@ -0,0 +1,7 @@
+package it.gov.pagopa.wallet.repository;
+
+import it.gov.pagopa.wallet.model.WalletDeleteCheckpoint;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+public interface WalletDeleteCheckpointRepository extends MongoRepository<WalletDeleteCheckpoint, String> {
+}
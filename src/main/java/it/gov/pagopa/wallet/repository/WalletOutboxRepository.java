@@ -0,0 +1,14 @@
+package it.gov.pagopa.wallet.repository;
+
+import it.gov.pagopa.wallet.model.WalletOutboxEvent;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+
+public interface WalletOutboxRepository {
+  void insert(WalletOutboxEvent event);
+  void insertAll(Collection<WalletOutboxEvent> events);
+  List<WalletOutboxEvent> claimBatch(String owner, int batchSize, Duration lockDuration);
+  void deleteAll(Collection<WalletOutboxEvent> events);
+}
@@ -0,0 +1,97 @@
+package it.gov.pagopa.wallet.repository;
+
+import it.gov.pagopa.wallet.model.WalletOutboxEvent;
+import it.gov.pagopa.wallet.model.WalletOutboxEvent.Fields;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Repository;
+
+@Repository
+@Slf4j
+public class WalletOutboxRepositoryImpl implements WalletOutboxRepository {
+
+    private static final String FIELD_ID = Fields.id;
+    private static final String FIELD_USER_ID = Fields.userId;
+    private static final String FIELD_LOCKED_BY = Fields.lockedBy;
+    private static final String FIELD_LOCKED_UNTIL = Fields.lockedUntil;
+    private final MongoTemplate mongoTemplate;
+
+    public WalletOutboxRepositoryImpl(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @Override
+    public void insert(WalletOutboxEvent event) {
+        mongoTemplate.insert(event);
+    }
+
+    @Override
+    public void insertAll(Collection<WalletOutboxEvent> events) {
+        mongoTemplate.insert(events, WalletOutboxEvent.class);
+    }
+
+    @Override
+    public List<WalletOutboxEvent> claimBatch(String owner, int batchSize, Duration lockDuration) {
+        LocalDateTime now = LocalDateTime.now();
+        Criteria claimable = new Criteria().orOperator(
+                Criteria.where(FIELD_LOCKED_UNTIL).is(null),
+                Criteria.where(FIELD_LOCKED_UNTIL).lt(now));
+
+        Query candidatesQuery = Query.query(claimable)
+                .with(Sort.by(FIELD_ID))
+                .limit(batchSize);
+        candidatesQuery.fields().include(FIELD_ID, FIELD_USER_ID);
+        List<WalletOutboxEvent> candidates = mongoTemplate.find(candidatesQuery, WalletOutboxEvent.class);
+        if (candidates.isEmpty()) {
+            return List.of();
+        }
+
+        // a user still holding a locked event has an earlier one not yet published: its following events wait for it
+        Set<String> lockedUserIds = new HashSet<>(mongoTemplate.findDistinct(
+                Query.query(Criteria.where(FIELD_USER_ID).in(candidates.stream().map(WalletOutboxEvent::getUserId).distinct().toList())
+                        .and(FIELD_LOCKED_UNTIL).gte(now)),
+                FIELD_USER_ID, WalletOutboxEvent.class, String.class));
+        List<String> candidateIds = candidates.stream()
+                .filter(candidate -> !lockedUserIds.contains(candidate.getUserId()))
+                .map(WalletOutboxEvent::getId)
+                .toList();
+        if (candidateIds.isEmpty()) {
+            return List.of();
+        }
+
+        // another relay instance could have claimed some of the candidates in the meanwhile
+        mongoTemplate.updateMulti(
+                Query.query(Criteria.where(FIELD_ID).in(candidateIds).andOperator(claimable)),
+                new Update().set(FIELD_LOCKED_BY, owner).set(FIELD_LOCKED_UNTIL, now.plus(lockDuration)),
+                WalletOutboxEvent.class);
+
+        log.trace("[OUTBOX_RELAY] Claimed outbox events among {} candidates", candidateIds.size());
+        return mongoTemplate.find(
+                Query.query(Criteria.where(FIELD_ID).in(candidateIds).and(FIELD_LOCKED_BY).is(owner))
+                        .with(Sort.by(FIELD_ID)),
+                WalletOutboxEvent.class);
+    }
+
+    @Override
+    public void deleteAll(Collection<WalletOutboxEvent> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+        mongoTemplate.remove(
+                Query.query(Criteria.where(FIELD_ID).in(events.stream().map(WalletOutboxEvent::getId).toList())
+                        .and(FIELD_USER_ID).in(events.stream().map(WalletOutboxEvent::getUserId).distinct().toList())),
+                WalletOutboxEvent.class);
+    }
+}
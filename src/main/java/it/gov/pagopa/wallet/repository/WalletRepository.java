@@ -1,12 +1,14 @@
 package it.gov.pagopa.wallet.repository;
 
 import it.gov.pagopa.wallet.model.Wallet;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.Pageable;
+import it.gov.pagopa.wallet.model.projection.WalletRewardView;
+import it.gov.pagopa.wallet.model.projection.WalletStatusView;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.data.mongodb.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Optional;
@@ -22,15 +24,22 @@ public interface WalletRepository extends MongoRepository<Wallet, String> {
 
     List<Wallet> findByInitiativeIdAndFamilyId(String initiativeId, String familyId);
 
-    Optional<Wallet> findByUserIdAndInitiativeId(String userId, String initiativeId);
+    List<WalletRewardView> findRewardViewByIdInAndUserIdIn(Collection<String> ids, Collection<String> userIds);
+
+    boolean existsByIdAndUserId(String id, String userId);
+
+    Optional<WalletStatusView> findStatusViewByIdAndUserId(String id, String userId);
 
     @Query(
-            value  = "{ 'initiativeId': ?0, 'voucherEndDate': { '$gte': ?1, '$lt': ?2 }, 'accruedCents': 0}"
+            value  = "{ 'initiativeId': ?0, 'voucherEndDate': { '$gte': ?1, '$lt': ?2 }, 'accruedCents': 0, '_id': { '$gt': ?3 } }",
+            fields = "{ 'userId': 1, 'initiativeId': 1, 'serviceId': 1, 'channel': 1, 'initiativeName': 1, 'name': 1, 'surname': 1, 'userMail': 1, 'voucherEndDate': 1 }",
+            sort   = "{ '_id': 1 }"
     )
-    Page<Wallet> findVoucherExpiredIntoRange(
+    List<Wallet> findVoucherExpiredIntoRangeAfter(
             String initiativeId,
             Date startUtc,
             Date endUtc,
-            Pageable pageable
+            String lastId,
+            Limit limit
     );
 }
@@ -1,22 +1,41 @@
 package it.gov.pagopa.wallet.repository;
 
+import it.gov.pagopa.wallet.dto.IbanQueueWalletDTO;
+import it.gov.pagopa.wallet.dto.RefundDTO;
+import it.gov.pagopa.wallet.dto.RewardUpdateResult;
+import it.gov.pagopa.wallet.dto.WalletRewardUpdateDTO;
+import it.gov.pagopa.wallet.enums.FamilyRewardUpdateOutcome;
+import it.gov.pagopa.wallet.enums.InstrumentRevocationOutcome;
+import it.gov.pagopa.wallet.enums.WalletUpdateOutcome;
 import it.gov.pagopa.wallet.model.Wallet;
-import it.gov.pagopa.wallet.model.Wallet.RefundHistory;
+import it.gov.pagopa.wallet.model.WalletKey;
+import it.gov.pagopa.wallet.model.projection.WalletKeyView;
 
 import java.time.LocalDateTime;
 import java.util.List;
-import java.util.Map;
 
 public interface WalletUpdatesRepository {
-  void deleteIban(String initiativeId, String userId, String status);
-  void enrollIban(String initiativeId, String userId, String iban, String status);
+  boolean deleteIban(String initiativeId, String userId, String iban);
+  List<WalletUpdateOutcome> deleteIbans(List<IbanQueueWalletDTO> ibanOutcomes);
+  void enrollIban(String initiativeId, String userId, String iban);
   void suspendWallet(String initiativeId, String userId, String status, LocalDateTime localDateTime);
   void readmitWallet(String initiativeId, String userId, String status, LocalDateTime localDateTime);
-  Wallet rewardTransaction(String initiativeId, String userId, LocalDateTime trxElaborationTimestamp, Long amountCents, Long accruedCents, Long counterVersion);
-  boolean rewardFamilyTransaction(String initiativeId, String familyId, LocalDateTime trxElaborationTimestamp, Long amountCents, Long counterVersion);
-  void processRefund(String initiativeId, String userId, Long refundedCents, Map<String, RefundHistory> history);
-  void updateInstrumentNumber(String initiativeId, String userId, int nInstr, String status);
-  void decreaseInstrumentNumber(String initiativeId, String userId, String status);
-  List<Wallet> deletePaged(String initiativeId, int pageSize);
-  Wallet rewardFamilyUserTransaction(String initiativeId, String userId, LocalDateTime elaborationDateTime, List<Long> counterHistory, Long accruedCents);
+  boolean createWallet(Wallet wallet);
+  List<WalletUpdateOutcome> createWallets(List<Wallet> wallets);
+  void unsubscribeWallet(String initiativeId, String userId, LocalDateTime requestUnsubscribeDate);
+  void rollbackWallet(String initiativeId, String userId, String status, int nInstr, LocalDateTime suspensionDate, LocalDateTime requestUnsubscribeDate);
+  boolean captureTransaction(String initiativeId, String userId, Long accruedRewardCents);
+  RewardUpdateResult rewardTransactionIfNewer(String initiativeId, String userId, LocalDateTime trxElaborationTimestamp, Long amountCents, Long accruedCents, Long counterVersion);
+  FamilyRewardUpdateOutcome rewardFamilyMemberTransaction(String initiativeId, String familyId, String userId, Long amountCents, Long accruedRewardCents, Long counterVersion);
+  boolean processRefund(String initiativeId, String userId, String rewardNotificationId, Long feedbackProgressive, Long rewardCents);
+  List<WalletUpdateOutcome> processRefunds(List<RefundDTO> refunds);
+  List<WalletKeyView> findRefundHistoryKeysPage(String afterId, int pageSize);
+  long compactRefundHistories(LocalDateTime retainedSince, List<WalletKeyView> wallets);
+  boolean updateInstrumentNumber(String initiativeId, String userId, int nInstr);
+  boolean decreaseInstrumentNumber(String initiativeId, String userId);
+  List<InstrumentRevocationOutcome> decreaseInstrumentNumbers(List<WalletKey> walletKeys);
+  List<WalletKeyView> findKeysPage(String initiativeId, String afterId, int pageSize);
+  long deleteByIds(String initiativeId, List<WalletKeyView> wallets);
+  List<WalletUpdateOutcome> rewardTransactions(List<WalletRewardUpdateDTO> rewardUpdates);
+  long compactCounterHistories();
 }
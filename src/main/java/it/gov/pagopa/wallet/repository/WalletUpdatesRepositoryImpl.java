@@ -1,19 +1,46 @@
 package it.gov.pagopa.wallet.repository;
 
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
 import com.mongodb.client.result.UpdateResult;
+import it.gov.pagopa.wallet.constants.WalletConstants;
+import it.gov.pagopa.wallet.dto.IbanQueueWalletDTO;
+import it.gov.pagopa.wallet.dto.RefundDTO;
+import it.gov.pagopa.wallet.dto.RewardUpdateResult;
+import it.gov.pagopa.wallet.dto.WalletRewardUpdateDTO;
+import it.gov.pagopa.wallet.enums.FamilyRewardUpdateOutcome;
+import it.gov.pagopa.wallet.enums.InstrumentRevocationOutcome;
+import it.gov.pagopa.wallet.enums.RewardUpdateOutcome;
+import it.gov.pagopa.wallet.enums.WalletStatus;
+import it.gov.pagopa.wallet.enums.WalletUpdateOutcome;
 import it.gov.pagopa.wallet.model.Wallet;
 import it.gov.pagopa.wallet.model.Wallet.Fields;
 import it.gov.pagopa.wallet.model.Wallet.RefundHistory;
+import it.gov.pagopa.wallet.model.WalletKey;
+import it.gov.pagopa.wallet.model.projection.WalletKeyView;
+import it.gov.pagopa.wallet.service.WalletCacheService;
 
 import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Pageable;
-import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.beans.factory.annotation.Value;
+import org.bson.Document;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.data.mongodb.core.query.Update;
@@ -23,10 +50,13 @@ import org.springframework.stereotype.Repository;
 @Slf4j
 public class WalletUpdatesRepositoryImpl implements WalletUpdatesRepository {
 
+    private static final String FIELD_ID = Fields.id;
+    private static final String FIELD_MONGO_ID = "_id";
     private static final String FIELD_INITIATIVE_ID = Fields.initiativeId;
     private static final String FIELD_USER_ID = Fields.userId;
     private static final String FIELD_FAMILY_ID = Fields.familyId;
     private static final String FIELD_STATUS = Fields.status;
+    private static final String FIELD_INITIATIVE_REWARD_TYPE = Fields.initiativeRewardType;
     private static final String FIELD_IBAN = Fields.iban;
     private static final String FIELD_AMOUNT_CENTS = Fields.amountCents;
     private static final String FIELD_ACCRUED_CENTS = Fields.accruedCents;
@@ -34,39 +64,90 @@ public class WalletUpdatesRepositoryImpl implements WalletUpdatesRepository {
     private static final String FIELD_NTRX = Fields.nTrx;
     private static final String FIELD_NINSTR = Fields.nInstr;
     private static final String FIELD_HISTORY = Fields.refundHistory;
+    private static final String FIELD_HISTORY_FEEDBACK_PROGRESSIVE = RefundHistory.Fields.feedbackProgressive;
+    private static final String FIELD_HISTORY_UPDATE_DATE = RefundHistory.Fields.updateDate;
     private static final String FIELD_LAST_COUNTER_UPDATE = Fields.lastCounterUpdate;
+    private static final String FIELD_INSTRUMENT_REVOCATION_DATE = Fields.instrumentRevocationDate;
     private static final String FIELD_SUSPENSION_DATE = Fields.suspensionDate;
+    private static final String FIELD_REQUEST_UNSUBSCRIBE_DATE = Fields.requestUnsubscribeDate;
     private static final String FIELD_UPDATE_DATE = Fields.updateDate;
     private static final String FIELD_COUNTER_VERSION = Fields.counterVersion;
     private static final String FIELD_COUNTER_HISTORY = Fields.counterHistory;
     private final MongoTemplate mongoTemplate;
+    private final WalletCacheService walletCacheService;
+    private final int counterHistorySize;
 
-    public WalletUpdatesRepositoryImpl(MongoTemplate mongoTemplate) {
+    public WalletUpdatesRepositoryImpl(MongoTemplate mongoTemplate,
+                                       WalletCacheService walletCacheService,
+                                       @Value("${app.wallet.counterHistory.size:100}") int counterHistorySize) {
         this.mongoTemplate = mongoTemplate;
+        this.walletCacheService = walletCacheService;
+        this.counterHistorySize = counterHistorySize;
     }
 
     @Override
-    public void deleteIban(String initiativeId, String userId, String status) {
+    public boolean deleteIban(String initiativeId, String userId, String iban) {
         log.trace(
                 "[DELETE_OPERATION] [DELETE_IBAN] Deleting IBAN from wallet with initiativeId: {}",
                 initiativeId);
 
-        mongoTemplate.updateFirst(
-                Query.query(
-                        Criteria.where(FIELD_INITIATIVE_ID).is(initiativeId).and(FIELD_USER_ID).is(userId)),
-                new Update().unset(FIELD_IBAN).set(FIELD_STATUS, status).set(FIELD_UPDATE_DATE, LocalDateTime.now()),
-                Wallet.class);
+        // only the IBAN the outcome refers to is removed, not one enrolled meanwhile
+        return updateWithDerivedStatus(
+                initiativeId, userId, walletKey(initiativeId, userId).and(FIELD_IBAN).is(iban),
+                new Document("$unset", FIELD_IBAN), derivedStatus());
     }
 
     @Override
-    public void enrollIban(String initiativeId, String userId, String iban, String status) {
-        log.trace("[ENROLL_IBAN] Deleting IBAN from wallet with initiativeId: {}", initiativeId);
+    public List<WalletUpdateOutcome> deleteIbans(List<IbanQueueWalletDTO> ibanOutcomes) {
+        if (ibanOutcomes.isEmpty()) {
+            return List.of();
+        }
+
+        log.trace("[DELETE_OPERATION] [DELETE_IBAN_BATCH] Deleting {} IBANs in bulk", ibanOutcomes.size());
+
+        Map<String, Wallet> wallets = findWallets(
+                ibanOutcomes.stream().map(ibanOutcome -> new WalletKey(ibanOutcome.getUserId(), ibanOutcome.getInitiativeId())).toList(),
+                List.of(FIELD_IBAN));
+
+        LocalDateTime now = bulkStamp();
+        WalletUpdateOutcome[] outcomes = new WalletUpdateOutcome[ibanOutcomes.size()];
+        List<Integer> bulkIndexes = new ArrayList<>();
+        AggregationUpdate deleteIban = withDerivedStatus(new Document("$unset", FIELD_IBAN), derivedStatus(), now);
+        BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkOperations.BulkMode.ORDERED, Wallet.class);
+        for (int i = 0; i < ibanOutcomes.size(); i++) {
+            IbanQueueWalletDTO ibanOutcome = ibanOutcomes.get(i);
+            Wallet wallet = wallets.get(new WalletKey(ibanOutcome.getUserId(), ibanOutcome.getInitiativeId()).id());
+            if (wallet == null) {
+                outcomes[i] = WalletUpdateOutcome.NOT_FOUND;
+            } else if (ibanOutcome.getIban() == null || !ibanOutcome.getIban().equals(wallet.getIban())) {
+                outcomes[i] = WalletUpdateOutcome.SKIPPED;
+            } else {
+                // the following outcomes of the same poll see the IBAN already removed
+                wallet.setIban(null);
+                bulkOperations.updateOne(
+                        Query.query(walletKey(ibanOutcome.getInitiativeId(), ibanOutcome.getUserId()).and(FIELD_IBAN).is(ibanOutcome.getIban())),
+                        deleteIban);
+                bulkIndexes.add(i);
+            }
+        }
+
+        WalletUpdateOutcome[] bulkOutcomes = executeGuarded(bulkOperations, BulkOperations.BulkMode.ORDERED,
+                bulkIndexes.stream().map(index -> new WalletKey(ibanOutcomes.get(index).getUserId(), ibanOutcomes.get(index).getInitiativeId())).toList(),
+                "[DELETE_IBAN_BATCH]", List.of(FIELD_IBAN),
+                (operation, wallet) -> wallet.getIban() == null);
+        for (int i = 0; i < bulkOutcomes.length; i++) {
+            outcomes[bulkIndexes.get(i)] = bulkOutcomes[i];
+        }
+        return List.of(outcomes);
+    }
 
-        mongoTemplate.updateFirst(
-                Query.query(
-                        Criteria.where(FIELD_INITIATIVE_ID).is(initiativeId).and(FIELD_USER_ID).is(userId)),
-                new Update().set(FIELD_IBAN, iban).set(FIELD_STATUS, status).set(FIELD_UPDATE_DATE, LocalDateTime.now()),
-                Wallet.class);
+    @Override
+    public void enrollIban(String initiativeId, String userId, String iban) {
+        log.trace("[ENROLL_IBAN] Enrolling IBAN on wallet with initiativeId: {}", initiativeId);
+
+        updateWithDerivedStatus(
+                initiativeId, userId, walletKey(initiativeId, userId),
+                new Document("$set", new Document(FIELD_IBAN, iban)), derivedStatus());
     }
 
     @Override
@@ -74,10 +155,10 @@ public class WalletUpdatesRepositoryImpl implements WalletUpdatesRepository {
         log.trace("[SUSPEND_WALLET] Suspend wallet with initiativeId: {}", initiativeId);
 
         mongoTemplate.updateFirst(
-                Query.query(
-                        Criteria.where(FIELD_INITIATIVE_ID).is(initiativeId).and(FIELD_USER_ID).is(userId)),
+                Query.query(walletKey(initiativeId, userId)),
                 new Update().set(FIELD_STATUS, status).set(FIELD_UPDATE_DATE, localDateTime).set(FIELD_SUSPENSION_DATE, localDateTime),
                 Wallet.class);
+        walletCacheService.evict(initiativeId, userId);
     }
 
     @Override
@@ -85,26 +166,140 @@ public class WalletUpdatesRepositoryImpl implements WalletUpdatesRepository {
         log.trace("[READMIT_WALLET] Readmit wallet with initiativeId: {}", initiativeId);
 
         mongoTemplate.updateFirst(
-                Query.query(
-                        Criteria.where(FIELD_INITIATIVE_ID).is(initiativeId).and(FIELD_USER_ID).is(userId)),
+                Query.query(walletKey(initiativeId, userId)),
                 new Update().set(FIELD_STATUS, status).set(FIELD_UPDATE_DATE, localDateTime).set(FIELD_SUSPENSION_DATE, null),
                 Wallet.class);
+        walletCacheService.evict(initiativeId, userId);
+    }
+
+    @Override
+    public boolean createWallet(Wallet wallet) {
+        log.trace("[CREATE_WALLET] Creating wallet with id: {}", wallet.getId());
+
+        // an already existing wallet is left untouched, as its counters could have been updated meanwhile
+        UpdateResult result = mongoTemplate.upsert(
+                Query.query(walletKey(wallet.getInitiativeId(), wallet.getUserId())), insertIfAbsent(wallet), Wallet.class);
+        walletCacheService.evict(wallet.getInitiativeId(), wallet.getUserId());
+        return result.getUpsertedId() != null;
+    }
+
+    @Override
+    public List<WalletUpdateOutcome> createWallets(List<Wallet> wallets) {
+        if (wallets.isEmpty()) {
+            return List.of();
+        }
+
+        log.trace("[CREATE_WALLET_BATCH] Creating {} wallets in bulk", wallets.size());
+
+        BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Wallet.class);
+        wallets.forEach(wallet -> bulkOperations.upsert(
+                Query.query(walletKey(wallet.getInitiativeId(), wallet.getUserId())), insertIfAbsent(wallet)));
+
+        WalletUpdateOutcome[] outcomes = new WalletUpdateOutcome[wallets.size()];
+        Arrays.fill(outcomes, WalletUpdateOutcome.SKIPPED);
+        BulkWriteResult result;
+        List<BulkWriteError> errors = List.of();
+        try {
+            result = bulkOperations.execute();
+        } catch (BulkOperationException e) {
+            log.error("[CREATE_WALLET_BATCH] {} of {} wallet creations failed", e.getErrors().size(), wallets.size(), e);
+            result = e.getResult();
+            errors = e.getErrors();
+        } finally {
+            wallets.stream()
+                    .collect(Collectors.groupingBy(Wallet::getInitiativeId,
+                            Collectors.mapping(Wallet::getUserId, Collectors.toList())))
+                    .forEach(walletCacheService::evict);
+        }
+        // the upserts report the wallets actually inserted, the others already existed
+        result.getUpserts().forEach(upsert -> outcomes[upsert.getIndex()] = WalletUpdateOutcome.APPLIED);
+        errors.forEach(error -> outcomes[error.getIndex()] = WalletUpdateOutcome.FAILED);
+        return List.of(outcomes);
+    }
+
+    private Update insertIfAbsent(Wallet wallet) {
+        Document document = new Document();
+        mongoTemplate.getConverter().write(wallet, document);
+        document.remove(FIELD_MONGO_ID);
+        Update update = new Update();
+        document.forEach(update::setOnInsert);
+        return update;
+    }
+
+    @Override
+    public void unsubscribeWallet(String initiativeId, String userId, LocalDateTime requestUnsubscribeDate) {
+        log.trace("[UNSUBSCRIBE] Unsubscribe wallet with initiativeId: {}", initiativeId);
+
+        mongoTemplate.updateFirst(
+                Query.query(walletKey(initiativeId, userId)),
+                new Update().set(FIELD_STATUS, WalletStatus.UNSUBSCRIBED)
+                        .set(FIELD_NINSTR, 0)
+                        .set(FIELD_REQUEST_UNSUBSCRIBE_DATE, requestUnsubscribeDate)
+                        .set(FIELD_UPDATE_DATE, requestUnsubscribeDate),
+                Wallet.class);
+        walletCacheService.evict(initiativeId, userId);
     }
 
     @Override
-    public Wallet rewardTransaction(
+    public void rollbackWallet(String initiativeId, String userId, String status, int nInstr,
+                               LocalDateTime suspensionDate, LocalDateTime requestUnsubscribeDate) {
+        log.trace("[ROLLBACK_WALLET] Restoring wallet with initiativeId: {} to status {}", initiativeId, status);
+
+        Update update = new Update().set(FIELD_STATUS, status)
+                .set(FIELD_NINSTR, nInstr)
+                .set(FIELD_UPDATE_DATE, LocalDateTime.now());
+        setOrUnset(update, FIELD_SUSPENSION_DATE, suspensionDate);
+        setOrUnset(update, FIELD_REQUEST_UNSUBSCRIBE_DATE, requestUnsubscribeDate);
+
+        mongoTemplate.updateFirst(Query.query(walletKey(initiativeId, userId)), update, Wallet.class);
+        walletCacheService.evict(initiativeId, userId);
+    }
+
+    @Override
+    public boolean captureTransaction(String initiativeId, String userId, Long accruedRewardCents) {
+        log.trace("[UPDATE_WALLET_FROM_TRANSACTION_CAPTURED] Updating Wallet [accrued: {}]", accruedRewardCents);
+
+        String accrued = "$" + FIELD_ACCRUED_CENTS;
+        // the accrued amount is set only if nothing has been accrued yet, in the same update resetting the budget
+        AggregationOperation capture = context -> new Document("$set", new Document(FIELD_AMOUNT_CENTS, 0L)
+                .append(FIELD_ACCRUED_CENTS, new Document("$cond", Arrays.asList(
+                        new Document("$eq", List.of(new Document("$ifNull", List.of(accrued, 0L)), 0L)),
+                        accruedRewardCents,
+                        accrued)))
+                .append(FIELD_UPDATE_DATE, toMongoType(LocalDateTime.now())));
+
+        UpdateResult result = mongoTemplate.updateFirst(
+                Query.query(walletKey(initiativeId, userId)), AggregationUpdate.from(List.of(capture)), Wallet.class);
+        if (result.getMatchedCount() == 0) {
+            return false;
+        }
+        walletCacheService.evict(initiativeId, userId);
+        return true;
+    }
+
+    private static void setOrUnset(Update update, String field, Object value) {
+        if (value != null) {
+            update.set(field, value);
+        } else {
+            update.unset(field);
+        }
+    }
+
+    @Override
+    public RewardUpdateResult rewardTransactionIfNewer(
             String initiativeId, String userId, LocalDateTime trxElaborationTimestamp, Long amountCents, Long accruedCents, Long counterVersion) {
 
         log.trace(
-                "[UPDATE_WALLET_FROM_TRANSACTION] [REWARD_TRANSACTION] Updating Wallet [amount: {}, accrued: {}]",
+                "[UPDATE_WALLET_FROM_TRANSACTION] [REWARD_TRANSACTION] Updating Wallet [amount: {}, accrued: {}, counterVersion: {}]",
                 amountCents,
-                accruedCents);
+                accruedCents,
+                counterVersion);
 
-        return mongoTemplate.findAndModify(
+        UpdateResult result = mongoTemplate.updateFirst(
                 Query.query(
-                        Criteria.where(FIELD_INITIATIVE_ID).is(initiativeId).andOperator(
-                                Criteria.where(FIELD_USER_ID).is(userId)
-                        )
+                        walletKey(initiativeId, userId)
+                                .and(FIELD_FAMILY_ID).is(null)
+                                .and(FIELD_COUNTER_VERSION).lt(counterVersion)
                 ),
                 new Update().set(FIELD_AMOUNT_CENTS, amountCents)
                         .set(FIELD_ACCRUED_CENTS, accruedCents)
@@ -112,96 +307,495 @@ public class WalletUpdatesRepositoryImpl implements WalletUpdatesRepository {
                         .set(FIELD_LAST_COUNTER_UPDATE, LocalDateTime.now())
                         .set(FIELD_UPDATE_DATE, LocalDateTime.now())
                         .set(FIELD_COUNTER_VERSION, counterVersion),
-                FindAndModifyOptions.options().returnNew(true),
                 Wallet.class);
-    }
 
+        if (result.getMatchedCount() > 0) {
+            walletCacheService.evict(initiativeId, userId);
+            return RewardUpdateResult.of(RewardUpdateOutcome.APPLIED);
+        }
+
+        // the guard did not match: a lightweight lookup tells why
+        Query query = Query.query(
+                walletKey(initiativeId, userId));
+        query.fields().include(FIELD_FAMILY_ID);
+        Wallet wallet = mongoTemplate.findOne(query, Wallet.class);
+        if (wallet == null) {
+            return RewardUpdateResult.of(RewardUpdateOutcome.NOT_FOUND);
+        }
+        return wallet.getFamilyId() != null
+                ? new RewardUpdateResult(RewardUpdateOutcome.FAMILY_WALLET, wallet.getFamilyId())
+                : RewardUpdateResult.of(RewardUpdateOutcome.STALE);
+    }
 
     @Override
-    public boolean rewardFamilyTransaction(
-            String initiativeId, String familyId, LocalDateTime trxElaborationTimestamp, Long amountCents, Long counterVersion) {
+    public boolean processRefund(
+            String initiativeId, String userId, String rewardNotificationId, Long feedbackProgressive, Long rewardCents) {
 
-        log.trace("[UPDATE_WALLET_FROM_TRANSACTION][REWARD_TRANSACTION] Updating Family Wallet [amount: {}]", amountCents);
+        log.trace("[PROCESS_REFUND] Updating Wallet [rewardNotificationId: {}, feedbackProgressive: {}, refunded: {}]",
+                rewardNotificationId, feedbackProgressive, rewardCents);
 
-        UpdateResult result = mongoTemplate.updateMulti(
-                Query.query(
-                        Criteria.where(FIELD_INITIATIVE_ID).is(initiativeId).and(FIELD_FAMILY_ID).is(familyId)
-                ),
-                new Update()
-                        .set(FIELD_AMOUNT_CENTS, amountCents)
-                        .set(FIELD_LAST_COUNTER_UPDATE, LocalDateTime.now())
-                        .set(FIELD_UPDATE_DATE, LocalDateTime.now())
-                        .set(FIELD_COUNTER_VERSION, counterVersion),
+        UpdateResult result = mongoTemplate.updateFirst(
+                refundQuery(initiativeId, userId, rewardNotificationId, feedbackProgressive),
+                refundUpdate(rewardNotificationId, feedbackProgressive, rewardCents, LocalDateTime.now()),
                 Wallet.class);
 
-        return result.getModifiedCount() == result.getMatchedCount();
+        if (result.getModifiedCount() == 0) {
+            return false;
+        }
+        walletCacheService.evict(initiativeId, userId);
+        return true;
     }
 
     @Override
-    public void processRefund(
-            String initiativeId, String userId, Long refundedCents, Map<String, RefundHistory> history) {
+    public List<WalletUpdateOutcome> processRefunds(List<RefundDTO> refunds) {
+        if (refunds.isEmpty()) {
+            return List.of();
+        }
+
+        log.trace("[PROCESS_REFUND_BATCH] Updating {} wallets in bulk", refunds.size());
+
+        Map<String, Wallet> wallets = findWallets(
+                refunds.stream().map(refund -> new WalletKey(refund.getBeneficiaryId(), refund.getInitiativeId())).toList(),
+                refunds.stream()
+                        .map(refund -> FIELD_HISTORY + "." + refund.getRewardNotificationId() + "." + FIELD_HISTORY_FEEDBACK_PROGRESSIVE)
+                        .distinct()
+                        .toList());
+
+        LocalDateTime now = bulkStamp();
+        WalletUpdateOutcome[] outcomes = new WalletUpdateOutcome[refunds.size()];
+        List<Integer> bulkIndexes = new ArrayList<>();
+        BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkOperations.BulkMode.ORDERED, Wallet.class);
+        for (int i = 0; i < refunds.size(); i++) {
+            RefundDTO refund = refunds.get(i);
+            Wallet wallet = wallets.get(new WalletKey(refund.getBeneficiaryId(), refund.getInitiativeId()).id());
+            if (wallet == null) {
+                outcomes[i] = WalletUpdateOutcome.NOT_FOUND;
+                continue;
+            }
+            if (wallet.getRefundHistory() == null) {
+                wallet.setRefundHistory(new HashMap<>());
+            }
+            // the same condition of the update, evaluated also on the feedbacks of this poll preceding the current one
+            RefundHistory refundHistory = wallet.getRefundHistory().get(refund.getRewardNotificationId());
+            if (refundHistory != null && refundHistory.getFeedbackProgressive() != null
+                    && (refund.getFeedbackProgressive() == null || refundHistory.getFeedbackProgressive() >= refund.getFeedbackProgressive())) {
+                outcomes[i] = WalletUpdateOutcome.SKIPPED;
+                continue;
+            }
+            wallet.getRefundHistory().put(refund.getRewardNotificationId(), new RefundHistory(refund.getFeedbackProgressive(), now));
+            bulkOperations.updateOne(
+                    refundQuery(refund.getInitiativeId(), refund.getBeneficiaryId(), refund.getRewardNotificationId(), refund.getFeedbackProgressive()),
+                    refundUpdate(refund.getRewardNotificationId(), refund.getFeedbackProgressive(), refund.getRewardCents(), now));
+            bulkIndexes.add(i);
+        }
+
+        // a feedback is applied if its notification was last written by this bulk, with the same or a following progressive
+        WalletUpdateOutcome[] bulkOutcomes = executeGuarded(bulkOperations, BulkOperations.BulkMode.ORDERED,
+                bulkIndexes.stream().map(index -> new WalletKey(refunds.get(index).getBeneficiaryId(), refunds.get(index).getInitiativeId())).toList(),
+                "[PROCESS_REFUND_BATCH]",
+                bulkIndexes.stream().map(index -> FIELD_HISTORY + "." + refunds.get(index).getRewardNotificationId()).distinct().toList(),
+                (operation, wallet) -> {
+                    RefundDTO refund = refunds.get(bulkIndexes.get(operation));
+                    RefundHistory refundHistory = wallet.getRefundHistory() != null
+                            ? wallet.getRefundHistory().get(refund.getRewardNotificationId())
+                            : null;
+                    return refundHistory != null && now.equals(refundHistory.getUpdateDate())
+                            && (refund.getFeedbackProgressive() == null
+                            || (refundHistory.getFeedbackProgressive() != null && refundHistory.getFeedbackProgressive() >= refund.getFeedbackProgressive()));
+                });
+        for (int i = 0; i < bulkOutcomes.length; i++) {
+            outcomes[bulkIndexes.get(i)] = bulkOutcomes[i];
+        }
+        return List.of(outcomes);
+    }
 
-        log.trace("[PROCESS_REFUND] Updating Wallet [refunded: {}]", refundedCents);
+    private static Query refundQuery(String initiativeId, String userId, String rewardNotificationId, Long feedbackProgressive) {
+        return Query.query(
+                walletKey(initiativeId, userId)
+                        // matches also the notifications not yet received
+                        .norOperator(Criteria.where(FIELD_HISTORY + "." + rewardNotificationId + "." + FIELD_HISTORY_FEEDBACK_PROGRESSIVE)
+                                .gte(feedbackProgressive)));
+    }
 
-        mongoTemplate.updateFirst(
-                Query.query(
-                        Criteria.where(FIELD_INITIATIVE_ID).is(initiativeId).and(FIELD_USER_ID).is(userId)),
-                new Update().set(FIELD_REFUNDED_CENTS, refundedCents).set(FIELD_HISTORY, history).set(FIELD_UPDATE_DATE, LocalDateTime.now()),
-                Wallet.class);
+    private static Update refundUpdate(String rewardNotificationId, Long feedbackProgressive, Long rewardCents, LocalDateTime now) {
+        String historyEntry = FIELD_HISTORY + "." + rewardNotificationId;
+        return new Update()
+                .inc(FIELD_REFUNDED_CENTS, -rewardCents)
+                .set(historyEntry + "." + FIELD_HISTORY_FEEDBACK_PROGRESSIVE, feedbackProgressive)
+                .set(historyEntry + "." + FIELD_HISTORY_UPDATE_DATE, now)
+                .set(FIELD_UPDATE_DATE, now);
+    }
+
+    /** Reads with a single {@code $in} query the given fields of the wallets, indexed by their id. */
+    private Map<String, Wallet> findWallets(List<WalletKey> walletKeys, Collection<String> fields) {
+        Query query = Query.query(Criteria.where(FIELD_ID).in(walletKeys.stream().map(WalletKey::id).distinct().toList())
+                .and(FIELD_USER_ID).in(walletKeys.stream().map(WalletKey::userId).distinct().toList()));
+        query.fields().include(FIELD_ID);
+        fields.forEach(query.fields()::include);
+        return mongoTemplate.find(query, Wallet.class).stream()
+                .collect(Collectors.toMap(Wallet::getId, Function.identity()));
+    }
+
+    /**
+     * Executes a bulk of guarded updates and returns the outcome of each of its operations. The bulk result only counts
+     * the modified wallets: when some guards did not match, because of concurrent updates, the wallets are read again
+     * and an operation is reported as applied only if its own write is found, through the check of the operation on the
+     * given fields read back.
+     * The first failed operation stops an ordered bulk, thus it and the following ones are reported as failed.
+     */
+    private WalletUpdateOutcome[] executeGuarded(BulkOperations bulkOperations, BulkOperations.BulkMode bulkMode,
+                                                 List<WalletKey> operationKeys, String logTag,
+                                                 Collection<String> stampedFields, BiPredicate<Integer, Wallet> appliedBy) {
+        WalletUpdateOutcome[] outcomes = new WalletUpdateOutcome[operationKeys.size()];
+        Arrays.fill(outcomes, WalletUpdateOutcome.APPLIED);
+        if (operationKeys.isEmpty()) {
+            return outcomes;
+        }
+
+        int modifiedCount;
+        try {
+            modifiedCount = bulkOperations.execute().getModifiedCount();
+        } catch (BulkOperationException e) {
+            log.error("{} {} of {} wallet updates failed", logTag, e.getErrors().size(), operationKeys.size(), e);
+            modifiedCount = e.getResult().getModifiedCount();
+            if (BulkOperations.BulkMode.ORDERED.equals(bulkMode)) {
+                int firstFailed = e.getErrors().stream().mapToInt(BulkWriteError::getIndex).min().orElse(outcomes.length);
+                Arrays.fill(outcomes, firstFailed, outcomes.length, WalletUpdateOutcome.FAILED);
+            } else {
+                e.getErrors().forEach(error -> outcomes[error.getIndex()] = WalletUpdateOutcome.FAILED);
+            }
+        } finally {
+            operationKeys.stream()
+                    .collect(Collectors.groupingBy(WalletKey::initiativeId,
+                            Collectors.mapping(WalletKey::userId, Collectors.toList())))
+                    .forEach(walletCacheService::evict);
+        }
+
+        long executedCount = Arrays.stream(outcomes).filter(WalletUpdateOutcome.APPLIED::equals).count();
+        if (modifiedCount < executedCount) {
+            log.warn("{} {} of {} wallet updates did not match their guard, the wallets were concurrently updated",
+                    logTag, executedCount - modifiedCount, executedCount);
+            Map<String, Wallet> wallets = findWallets(operationKeys, stampedFields);
+            for (int i = 0; i < outcomes.length; i++) {
+                Wallet wallet = wallets.get(operationKeys.get(i).id());
+                if (!WalletUpdateOutcome.APPLIED.equals(outcomes[i])) {
+                    continue;
+                }
+                if (wallet == null) {
+                    outcomes[i] = WalletUpdateOutcome.NOT_FOUND;
+                } else if (!appliedBy.test(i, wallet)) {
+                    outcomes[i] = WalletUpdateOutcome.SKIPPED;
+                }
+            }
+        }
+        return outcomes;
+    }
+
+    /** The date written by a bulk, to the precision stored by Mongo, to recognize the wallets it updated. */
+    private static LocalDateTime bulkStamp() {
+        return LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS);
+    }
+
+    @Override
+    public List<WalletKeyView> findRefundHistoryKeysPage(String afterId, int pageSize) {
+        log.trace("[REFUND_HISTORY_COMPACTION] Reading a page of {} wallets after {}", pageSize, afterId);
+        Criteria criteria = Criteria.where(FIELD_HISTORY).exists(true).ne(new Document());
+        if (afterId != null) {
+            criteria = criteria.and(FIELD_ID).gt(afterId);
+        }
+        return mongoTemplate.query(Wallet.class)
+                .as(WalletKeyView.class)
+                .matching(Query.query(criteria).with(Sort.by(FIELD_ID)).limit(pageSize))
+                .all();
     }
 
     @Override
-    public void updateInstrumentNumber(
-            String initiativeId, String userId, int nInstr, String status) {
+    public long compactRefundHistories(LocalDateTime retainedSince, List<WalletKeyView> wallets) {
+        log.trace("[REFUND_HISTORY_COMPACTION] Removing from {} wallets the refund notifications older than {}", wallets.size(), retainedSince);
+        if (wallets.isEmpty()) {
+            return 0;
+        }
+
+        Document entry = new Document("$objectToArray", "$" + FIELD_HISTORY);
+        Document retained = new Document("$filter", new Document("input", entry)
+                .append("as", "entry")
+                .append("cond", new Document("$or", List.of(
+                        new Document("$eq", Arrays.asList(new Document("$ifNull", Arrays.asList("$$entry.v." + FIELD_HISTORY_UPDATE_DATE, null)), null)),
+                        new Document("$gte", List.of("$$entry.v." + FIELD_HISTORY_UPDATE_DATE, toMongoType(retainedSince)))))));
+        // the entries written before their date was tracked are stamped, thus they are removed after a retention period
+        Document stamped = new Document("$map", new Document("input", retained)
+                .append("as", "entry")
+                .append("in", new Document("k", "$$entry.k")
+                        .append("v", new Document(FIELD_HISTORY_FEEDBACK_PROGRESSIVE, "$$entry.v." + FIELD_HISTORY_FEEDBACK_PROGRESSIVE)
+                                .append(FIELD_HISTORY_UPDATE_DATE, new Document("$ifNull", List.of("$$entry.v." + FIELD_HISTORY_UPDATE_DATE, toMongoType(LocalDateTime.now())))))));
+
+        AggregationOperation compaction = context -> new Document("$set",
+                new Document(FIELD_HISTORY, new Document("$arrayToObject", stamped)));
+
+        return mongoTemplate.updateMulti(
+                Query.query(Criteria.where(FIELD_ID).in(wallets.stream().map(WalletKeyView::id).toList())
+                        .and(FIELD_USER_ID).in(wallets.stream().map(WalletKeyView::userId).distinct().toList())),
+                AggregationUpdate.from(List.of(compaction)),
+                Wallet.class).getModifiedCount();
+    }
+
+    /** Targets a single wallet through its {@code _id}, scoped by the {@code userId} shard key. */
+    private static Criteria walletKey(String initiativeId, String userId) {
+        return Criteria.where(FIELD_ID).is(new WalletKey(userId, initiativeId).id()).and(FIELD_USER_ID).is(userId);
+    }
+
+    private Object toMongoType(LocalDateTime dateTime) {
+        return mongoTemplate.getConverter().convertToMongoType(dateTime);
+    }
+
+    @Override
+    public boolean updateInstrumentNumber(String initiativeId, String userId, int nInstr) {
         log.trace("[UPDATE_INSTRUMENT_NUMBER] Updating Wallet [nInstr: {}]", nInstr);
 
-        mongoTemplate.updateFirst(
-                Query.query(
-                        Criteria.where(FIELD_INITIATIVE_ID).is(initiativeId).and(FIELD_USER_ID).is(userId)),
-                new Update().set(FIELD_NINSTR, nInstr).set(FIELD_STATUS, status).set(FIELD_UPDATE_DATE, LocalDateTime.now()),
-                Wallet.class);
+        // the status of a discount wallet does not depend on its instruments
+        Document status = new Document("$cond", Arrays.asList(
+                new Document("$eq", List.of("$" + FIELD_INITIATIVE_REWARD_TYPE, WalletConstants.INITIATIVE_REWARD_TYPE_DISCOUNT)),
+                "$" + FIELD_STATUS,
+                derivedStatus()));
+        return updateWithDerivedStatus(
+                initiativeId, userId, walletKey(initiativeId, userId),
+                new Document("$set", new Document(FIELD_NINSTR, nInstr)), status);
     }
 
     @Override
-    public void decreaseInstrumentNumber(String initiativeId, String userId, String status) {
+    public boolean decreaseInstrumentNumber(String initiativeId, String userId) {
         log.trace("[DECREASE_INSTRUMENT_NUMBER] Updating Wallet");
 
-        mongoTemplate.updateFirst(
-                Query.query(
-                        Criteria.where(FIELD_INITIATIVE_ID).is(initiativeId).and(FIELD_USER_ID).is(userId)),
-                new Update().inc(FIELD_NINSTR, -1).set(FIELD_STATUS, status).set(FIELD_UPDATE_DATE, LocalDateTime.now()),
-                Wallet.class);
+        return updateWithDerivedStatus(
+                initiativeId, userId, walletKey(initiativeId, userId), decreaseInstrumentStage(LocalDateTime.now()), derivedStatus());
+    }
+
+    @Override
+    public List<InstrumentRevocationOutcome> decreaseInstrumentNumbers(List<WalletKey> walletKeys) {
+        if (walletKeys.isEmpty()) {
+            return List.of();
+        }
+
+        log.trace("[DECREASE_INSTRUMENT_NUMBER_BATCH] Updating {} wallets in bulk", walletKeys.size());
+
+        Map<String, Wallet> wallets = findWallets(walletKeys, List.of(FIELD_STATUS));
+
+        LocalDateTime now = bulkStamp();
+        InstrumentRevocationOutcome[] outcomes = new InstrumentRevocationOutcome[walletKeys.size()];
+        List<Integer> bulkIndexes = new ArrayList<>();
+        AggregationUpdate decrease = withDerivedStatus(decreaseInstrumentStage(now), derivedStatus(), now);
+        BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Wallet.class);
+        for (int i = 0; i < walletKeys.size(); i++) {
+            WalletKey walletKey = walletKeys.get(i);
+            Wallet wallet = wallets.get(walletKey.id());
+            if (wallet != null && !WalletStatus.UNSUBSCRIBED.equals(wallet.getStatus())) {
+                bulkOperations.updateOne(
+                        Query.query(walletKey(walletKey.initiativeId(), walletKey.userId()).and(FIELD_STATUS).ne(WalletStatus.UNSUBSCRIBED)),
+                        decrease);
+                bulkIndexes.add(i);
+            } else {
+                outcomes[i] = InstrumentRevocationOutcome.NOT_FOUND;
+            }
+        }
+
+        // a wallet deleted or unsubscribed after the read is not revoked
+        WalletUpdateOutcome[] bulkOutcomes = executeGuarded(bulkOperations, BulkOperations.BulkMode.UNORDERED,
+                bulkIndexes.stream().map(walletKeys::get).toList(),
+                "[DECREASE_INSTRUMENT_NUMBER_BATCH]", List.of(FIELD_INSTRUMENT_REVOCATION_DATE),
+                (operation, wallet) -> now.equals(wallet.getInstrumentRevocationDate()));
+        for (int i = 0; i < bulkOutcomes.length; i++) {
+            outcomes[bulkIndexes.get(i)] = switch (bulkOutcomes[i]) {
+                case APPLIED -> InstrumentRevocationOutcome.REVOKED;
+                case SKIPPED, NOT_FOUND -> InstrumentRevocationOutcome.NOT_FOUND;
+                case FAILED -> InstrumentRevocationOutcome.FAILED;
+            };
+        }
+        return List.of(outcomes);
+    }
+
+    private static Document decreaseInstrumentStage(LocalDateTime revocationDate) {
+        return new Document("$set", new Document(FIELD_NINSTR, new Document("$subtract", List.of("$" + FIELD_NINSTR, 1)))
+                .append(FIELD_INSTRUMENT_REVOCATION_DATE, revocationDate));
+    }
+
+    /**
+     * Applies the given stage and then sets the status computed on the updated document, in a single pipeline
+     * update: the status always reflects the IBAN and the instruments it is written with.
+     */
+    private boolean updateWithDerivedStatus(
+            String initiativeId, String userId, Criteria criteria, Document stage, Document status) {
+        UpdateResult result = mongoTemplate.updateFirst(
+                Query.query(criteria), withDerivedStatus(stage, status), Wallet.class);
+        if (result.getMatchedCount() == 0) {
+            return false;
+        }
+        walletCacheService.evict(initiativeId, userId);
+        return true;
+    }
+
+    private AggregationUpdate withDerivedStatus(Document stage, Document status) {
+        return withDerivedStatus(stage, status, LocalDateTime.now());
+    }
+
+    private AggregationUpdate withDerivedStatus(Document stage, Document status, LocalDateTime updateDate) {
+        AggregationOperation change = context -> stage;
+        AggregationOperation statusStage = context -> new Document("$set", new Document(FIELD_STATUS, status)
+                .append(FIELD_UPDATE_DATE, toMongoType(updateDate)));
+        return AggregationUpdate.from(List.of(change, statusStage));
+    }
+
+    /** {@link WalletStatus#getByBooleans} on the stored IBAN and instruments, a suspended wallet is left suspended. */
+    private static Document derivedStatus() {
+        Document hasIban = new Document("$ne", Arrays.asList(new Document("$ifNull", Arrays.asList("$" + FIELD_IBAN, null)), null));
+        Document hasInstrument = new Document("$gt", List.of(new Document("$ifNull", List.of("$" + FIELD_NINSTR, 0)), 0));
+        return new Document("$cond", List.of(
+                new Document("$eq", List.of("$" + FIELD_STATUS, WalletStatus.SUSPENDED)),
+                "$" + FIELD_STATUS,
+                new Document("$cond", List.of(hasIban,
+                        new Document("$cond", List.of(hasInstrument,
+                                WalletStatus.getByBooleans(true, true).name(),
+                                WalletStatus.getByBooleans(true, false).name())),
+                        new Document("$cond", List.of(hasInstrument,
+                                WalletStatus.getByBooleans(false, true).name(),
+                                WalletStatus.getByBooleans(false, false).name()))))));
     }
 
     @Override
-    public List<Wallet> deletePaged(String initiativeId, int pageSize) {
-        log.trace("[DELETE_PAGED] Deleting wallet in pages");
-        Pageable pageable = PageRequest.of(0, pageSize);
-        return mongoTemplate.findAllAndRemove(
-                Query.query(Criteria.where(Fields.initiativeId).is(initiativeId)).with(pageable),
+    public List<WalletKeyView> findKeysPage(String initiativeId, String afterId, int pageSize) {
+        log.trace("[DELETE_PAGED] Reading a page of {} wallets after {}", pageSize, afterId);
+        Criteria criteria = Criteria.where(FIELD_INITIATIVE_ID).is(initiativeId);
+        if (afterId != null) {
+            criteria = criteria.and(FIELD_ID).gt(afterId);
+        }
+        return mongoTemplate.query(Wallet.class)
+                .as(WalletKeyView.class)
+                .matching(Query.query(criteria).with(Sort.by(FIELD_ID)).limit(pageSize))
+                .all();
+    }
+
+    @Override
+    public long deleteByIds(String initiativeId, List<WalletKeyView> wallets) {
+        log.trace("[DELETE_PAGED] Deleting {} wallets", wallets.size());
+        List<String> userIds = wallets.stream().map(WalletKeyView::userId).distinct().toList();
+        long deletedCount = mongoTemplate.remove(
+                Query.query(Criteria.where(FIELD_ID).in(wallets.stream().map(WalletKeyView::id).toList())
+                        .and(FIELD_USER_ID).in(userIds)),
                 Wallet.class
-        );
+        ).getDeletedCount();
+        walletCacheService.evict(initiativeId, userIds);
+        return deletedCount;
     }
 
     @Override
-    public Wallet rewardFamilyUserTransaction(String initiativeId, String userId, LocalDateTime elaborationDateTime, List<Long> counterHistory, Long accruedCents) {
+    public FamilyRewardUpdateOutcome rewardFamilyMemberTransaction(
+            String initiativeId, String familyId, String userId, Long amountCents, Long accruedRewardCents, Long counterVersion) {
+
         log.trace(
-                "[UPDATE_WALLET_FROM_TRANSACTION] [REWARD_TRANSACTION] Updating Wallet [accrued: {}]",
-                accruedCents);
+                "[UPDATE_WALLET_FROM_TRANSACTION][FAMILY_WALLET] Updating Family Wallet [amount: {}, accrued: {}, counterVersion: {}]",
+                amountCents,
+                accruedRewardCents,
+                counterVersion);
+
+        LocalDateTime now = LocalDateTime.now();
+        Update memberUpdate = new Update()
+                .inc(FIELD_ACCRUED_CENTS, accruedRewardCents)
+                .inc(FIELD_NTRX, 1)
+                .set(FIELD_LAST_COUNTER_UPDATE, now)
+                .set(FIELD_UPDATE_DATE, now);
+        // kept sorted, thus the slice keeps the latest versions in the window
+        memberUpdate.push(FIELD_COUNTER_HISTORY).sort(Sort.Direction.ASC).slice(-counterHistorySize).each(counterVersion);
+
+        // ordered: a failure of the member accrual leaves the shared budget untouched
+        BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkOperations.BulkMode.ORDERED, Wallet.class)
+                .updateOne(
+                        Query.query(
+                                walletKey(initiativeId, userId)
+                                        .norOperator(counterVersionAlreadyAccrued(counterVersion))),
+                        memberUpdate)
+                .updateMulti(
+                        Query.query(
+                                Criteria.where(FIELD_INITIATIVE_ID).is(initiativeId)
+                                        .and(FIELD_FAMILY_ID).is(familyId)
+                                        .and(FIELD_COUNTER_VERSION).lt(counterVersion)),
+                        new Update()
+                                .set(FIELD_AMOUNT_CENTS, amountCents)
+                                .set(FIELD_LAST_COUNTER_UPDATE, now)
+                                .set(FIELD_UPDATE_DATE, now)
+                                .set(FIELD_COUNTER_VERSION, counterVersion));
+
+        FamilyRewardUpdateOutcome outcome;
+        try {
+            outcome = bulkOperations.execute().getModifiedCount() > 0
+                    ? FamilyRewardUpdateOutcome.APPLIED
+                    : FamilyRewardUpdateOutcome.ALREADY_APPLIED;
+        } catch (BulkOperationException e) {
+            log.error("[UPDATE_WALLET_FROM_TRANSACTION][FAMILY_WALLET] Unable to update the wallets of family {}", familyId, e);
+            outcome = e.getErrors().stream().anyMatch(error -> error.getIndex() == 0)
+                    ? FamilyRewardUpdateOutcome.FAILED
+                    : FamilyRewardUpdateOutcome.PARTIALLY_APPLIED;
+        }
+        if (!FamilyRewardUpdateOutcome.ALREADY_APPLIED.equals(outcome)) {
+            // the budget is shared by the members, thus all of their wallets are stale, but not the rest of the initiative
+            walletCacheService.evictFamily(initiativeId, familyId);
+        }
+        return outcome;
+    }
+
+    /**
+     * The version is in the window, or the window is full and the version is older than all of its items.
+     * The floor is not read from the first item: the histories not yet sorted by a reward or by the migration would
+     * otherwise drop the versions newer than their minimum.
+     */
+    private Criteria[] counterVersionAlreadyAccrued(Long counterVersion) {
+        return new Criteria[]{
+                Criteria.where(FIELD_COUNTER_HISTORY).is(counterVersion),
+                Criteria.where(FIELD_COUNTER_HISTORY + "." + (counterHistorySize - 1)).exists(true)
+                        .and(FIELD_COUNTER_HISTORY).not().lte(counterVersion)
+        };
+    }
 
-        return mongoTemplate.findAndModify(
+    @Override
+    public long compactCounterHistories() {
+        log.info("[COUNTER_HISTORY_MIGRATION] Trimming the counter histories longer than {} versions", counterHistorySize);
+
+        Update update = new Update();
+        update.push(FIELD_COUNTER_HISTORY).sort(Sort.Direction.ASC).slice(-counterHistorySize).each();
+        return mongoTemplate.updateMulti(
+                Query.query(Criteria.where(FIELD_COUNTER_HISTORY + "." + counterHistorySize).exists(true)),
+                update,
+                Wallet.class).getModifiedCount();
+    }
+
+    @Override
+    public List<WalletUpdateOutcome> rewardTransactions(List<WalletRewardUpdateDTO> rewardUpdates) {
+        if (rewardUpdates.isEmpty()) {
+            return List.of();
+        }
+
+        log.trace("[UPDATE_WALLET_FROM_TRANSACTION_BATCH] Updating {} wallets in bulk", rewardUpdates.size());
+
+        LocalDateTime now = bulkStamp();
+        BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Wallet.class);
+        rewardUpdates.forEach(rewardUpdate -> bulkOperations.updateOne(
                 Query.query(
-                        Criteria.where(FIELD_INITIATIVE_ID).is(initiativeId).andOperator(
-                                Criteria.where(FIELD_USER_ID).is(userId)
-                        )
-                ),
-                new Update()
-                        .set(FIELD_ACCRUED_CENTS, accruedCents)
-                        .inc(FIELD_NTRX, 1)
-                        .set(FIELD_LAST_COUNTER_UPDATE, LocalDateTime.now())
-                        .set(FIELD_UPDATE_DATE, LocalDateTime.now())
-                        .set(FIELD_COUNTER_HISTORY, counterHistory),
-                FindAndModifyOptions.options().returnNew(true),
-                Wallet.class);
+                        walletKey(rewardUpdate.getInitiativeId(), rewardUpdate.getUserId())
+                                .and(FIELD_COUNTER_VERSION).lt(rewardUpdate.getCounterVersion())),
+                new Update().set(FIELD_AMOUNT_CENTS, rewardUpdate.getAmountCents())
+                        .set(FIELD_ACCRUED_CENTS, rewardUpdate.getAccruedCents())
+                        .inc(FIELD_NTRX, rewardUpdate.getTrxCount())
+                        .set(FIELD_LAST_COUNTER_UPDATE, now)
+                        .set(FIELD_UPDATE_DATE, now)
+                        .set(FIELD_COUNTER_VERSION, rewardUpdate.getCounterVersion())));
+
+        // a wallet whose version was concurrently reached is not updated, as in rewardTransactionIfNewer: the version is
+        // accrued anyway, since the counters are cumulative
+        return List.of(executeGuarded(bulkOperations, BulkOperations.BulkMode.UNORDERED,
+                rewardUpdates.stream().map(rewardUpdate -> new WalletKey(rewardUpdate.getUserId(), rewardUpdate.getInitiativeId())).toList(),
+                "[UPDATE_WALLET_FROM_TRANSACTION_BATCH]", List.of(FIELD_COUNTER_VERSION, FIELD_COUNTER_HISTORY),
+                (operation, wallet) -> {
+                    Long counterVersion = rewardUpdates.get(operation).getCounterVersion();
+                    return (wallet.getCounterVersion() != null && wallet.getCounterVersion() >= counterVersion)
+                            || (wallet.getCounterHistory() != null && wallet.getCounterHistory().contains(counterVersion));
+                }));
     }
 }
@@ -0,0 +1,35 @@
+package it.gov.pagopa.wallet.service;
+
+import it.gov.pagopa.wallet.repository.WalletUpdatesRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Trims the counter histories written before they were bounded. It's idempotent, thus it can stay enabled for the
+ * rollout; since the wallets still to be migrated are compacted at their next reward anyway, it's disabled by default.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "app.wallet.counterHistory.migration.enabled", havingValue = "true")
+public class CounterHistoryMigration {
+
+  private final WalletUpdatesRepository walletUpdatesRepository;
+
+  public CounterHistoryMigration(WalletUpdatesRepository walletUpdatesRepository) {
+    this.walletUpdatesRepository = walletUpdatesRepository;
+  }
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void migrate() {
+    long startTime = System.currentTimeMillis();
+    try {
+      long migrated = walletUpdatesRepository.compactCounterHistories();
+      log.info("[COUNTER_HISTORY_MIGRATION] Compacted {} wallets in {} ms", migrated, System.currentTimeMillis() - startTime);
+    } catch (Exception e) {
+      log.error("[COUNTER_HISTORY_MIGRATION] Unable to compact the counter histories", e);
+    }
+  }
+}
@@ -0,0 +1,12 @@
+package it.gov.pagopa.wallet.service;
+
+import java.util.List;
+import java.util.function.Function;
+
+public interface OutboxService {
+  boolean isEnabled();
+  void executeInTransaction(Runnable operation);
+  void enqueue(String bindingName, String userId, Object payload);
+  <T> void enqueueAll(String bindingName, Function<T, String> userId, List<T> payloads);
+  int relay();
+}
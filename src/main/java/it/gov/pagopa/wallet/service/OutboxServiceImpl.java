@@ -0,0 +1,146 @@
+package it.gov.pagopa.wallet.service;
+
+import it.gov.pagopa.wallet.model.WalletOutboxEvent;
+import it.gov.pagopa.wallet.repository.WalletOutboxRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.data.mongodb.MongoTransactionManager;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import tools.jackson.databind.ObjectMapper;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Function;
+
+@Service
+@Slf4j
+public class OutboxServiceImpl implements OutboxService {
+
+  private final WalletOutboxRepository outboxRepository;
+  private final StreamBridge streamBridge;
+  private final ObjectMapper objectMapper;
+  private final TransactionTemplate transactionTemplate;
+  private final boolean enabled;
+  private final int batchSize;
+  private final Duration lockDuration;
+  private final String instanceId = UUID.randomUUID().toString();
+
+  public OutboxServiceImpl(WalletOutboxRepository outboxRepository,
+                           StreamBridge streamBridge,
+                           ObjectMapper objectMapper,
+                           ObjectProvider<MongoTransactionManager> transactionManager,
+                           @Value("${app.outbox.enabled:false}") boolean enabled,
+                           @Value("${app.outbox.relay.batchSize:500}") int batchSize,
+                           @Value("${app.outbox.relay.lockSeconds:60}") long lockSeconds) {
+    this.outboxRepository = outboxRepository;
+    this.streamBridge = streamBridge;
+    this.objectMapper = objectMapper;
+    MongoTransactionManager mongoTransactionManager = transactionManager.getIfAvailable();
+    this.transactionTemplate = enabled && mongoTransactionManager != null
+            ? new TransactionTemplate(mongoTransactionManager)
+            : null;
+    this.enabled = enabled;
+    this.batchSize = batchSize;
+    this.lockDuration = Duration.ofSeconds(lockSeconds);
+  }
+
+  @Override
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  @Override
+  public void executeInTransaction(Runnable operation) {
+    if (transactionTemplate != null) {
+      transactionTemplate.executeWithoutResult(status -> operation.run());
+    } else {
+      operation.run();
+    }
+  }
+
+  @Override
+  public void enqueue(String bindingName, String userId, Object payload) {
+    log.debug("[OUTBOX] Storing event for binding {}", bindingName);
+    outboxRepository.insert(toEvent(bindingName, userId, payload, LocalDateTime.now()));
+  }
+
+  @Override
+  public <T> void enqueueAll(String bindingName, Function<T, String> userId, List<T> payloads) {
+    if (payloads.isEmpty()) {
+      return;
+    }
+    log.debug("[OUTBOX] Storing {} events for binding {}", payloads.size(), bindingName);
+    LocalDateTime now = LocalDateTime.now();
+    outboxRepository.insertAll(payloads.stream()
+            .map(payload -> toEvent(bindingName, userId.apply(payload), payload, now))
+            .toList());
+  }
+
+  private WalletOutboxEvent toEvent(String bindingName, String userId, Object payload, LocalDateTime createdAt) {
+    return WalletOutboxEvent.builder()
+            .bindingName(bindingName)
+            .userId(userId)
+            .payload(objectMapper.writeValueAsString(payload))
+            .createdAt(createdAt)
+            .build();
+  }
+
+  @Override
+  public int relay() {
+    List<WalletOutboxEvent> events = outboxRepository.claimBatch(instanceId, batchSize, lockDuration);
+    if (events.isEmpty()) {
+      return 0;
+    }
+
+    // once an event of a user is not published, the following ones wait for it in order to keep the user's ordering:
+    // they stay locked until the claim expires, so the next claims skip the user as well
+    Set<String> blockedUserIds = new HashSet<>();
+    List<WalletOutboxEvent> sent = new ArrayList<>(events.size());
+    for (WalletOutboxEvent event : events) {
+      if (LocalDateTime.now().isAfter(event.getLockedUntil())) {
+        log.warn("[OUTBOX_RELAY] The claim on the outbox events has expired, the remaining ones are left to the next run");
+        break;
+      }
+      if (blockedUserIds.contains(event.getUserId())) {
+        continue;
+      }
+      if (publish(event)) {
+        sent.add(event);
+      } else {
+        blockedUserIds.add(event.getUserId());
+      }
+    }
+    outboxRepository.deleteAll(sent);
+
+    log.info("[OUTBOX_RELAY] Published {} of {} outbox events", sent.size(), events.size());
+    return events.size();
+  }
+
+  private boolean publish(WalletOutboxEvent event) {
+    try {
+      boolean sent = streamBridge.send(event.getBindingName(),
+              MessageBuilder.withPayload(event.getPayload().getBytes(StandardCharsets.UTF_8))
+                      .setHeader(KafkaHeaders.KEY, event.getUserId())
+                      .build());
+      if (!sent) {
+        log.warn("[OUTBOX_RELAY] Event {} not accepted by binding {}, it will be retried", event.getId(), event.getBindingName());
+      }
+      return sent;
+    } catch (Exception e) {
+      log.error("[OUTBOX_RELAY] Error while publishing event {} on binding {}, it will be retried",
+              event.getId(), event.getBindingName(), e);
+      return false;
+    }
+  }
+}
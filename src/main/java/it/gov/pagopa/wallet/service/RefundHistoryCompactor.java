@@ -0,0 +1,87 @@
+package it.gov.pagopa.wallet.service;
+
+import it.gov.pagopa.wallet.model.RefundHistoryCompaction;
+import it.gov.pagopa.wallet.model.projection.WalletKeyView;
+import it.gov.pagopa.wallet.repository.RefundHistoryCompactionRepository;
+import it.gov.pagopa.wallet.repository.WalletUpdatesRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Removes from the refund histories the notifications older than the retention: they are kept only to discard the
+ * redelivered feedbacks, thus the retention has to exceed the retention of the refund topic.
+ * The wallets are compacted page by page under a lease, so that a single instance runs it and an interrupted run is
+ * resumed from its checkpoint; each page goes through the Mongo rate limiter as a batch request.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "app.wallet.refundHistory.compaction.enabled", havingValue = "true")
+public class RefundHistoryCompactor {
+
+  private final WalletUpdatesRepository walletUpdatesRepository;
+  private final RefundHistoryCompactionRepository refundHistoryCompactionRepository;
+  private final long retentionDays;
+  private final int pageSize;
+  private final Duration lease;
+  private final String instanceId = UUID.randomUUID().toString();
+
+  public RefundHistoryCompactor(WalletUpdatesRepository walletUpdatesRepository,
+                                RefundHistoryCompactionRepository refundHistoryCompactionRepository,
+                                @Value("${app.wallet.refundHistory.retentionDays:180}") long retentionDays,
+                                @Value("${app.wallet.refundHistory.compaction.pageSize:500}") int pageSize,
+                                @Value("${app.wallet.refundHistory.compaction.leaseSeconds:300}") long leaseSeconds) {
+    this.walletUpdatesRepository = walletUpdatesRepository;
+    this.refundHistoryCompactionRepository = refundHistoryCompactionRepository;
+    this.retentionDays = retentionDays;
+    this.pageSize = pageSize;
+    this.lease = Duration.ofSeconds(leaseSeconds);
+  }
+
+  @Scheduled(cron = "${app.wallet.refundHistory.compaction.cron:0 0 3 * * *}")
+  public void compact() {
+    RefundHistoryCompaction compaction = refundHistoryCompactionRepository.claim(instanceId, lease);
+    if (compaction == null) {
+      return;
+    }
+
+    long startTime = System.currentTimeMillis();
+    boolean completed = false;
+    try {
+      if (compaction.getLastId() != null) {
+        log.info("[REFUND_HISTORY_COMPACTION] Resuming the compaction after wallet {}", compaction.getLastId());
+      }
+      completed = compactFrom(compaction.getLastId(), LocalDateTime.now().minusDays(retentionDays));
+      log.info("[REFUND_HISTORY_COMPACTION] Compaction {} in {} ms",
+          completed ? "completed" : "stopped", System.currentTimeMillis() - startTime);
+    } catch (Exception e) {
+      log.error("[REFUND_HISTORY_COMPACTION] Unable to compact the refund histories: it will be resumed from the checkpoint", e);
+    } finally {
+      refundHistoryCompactionRepository.release(instanceId, completed);
+    }
+  }
+
+  /** Compacts the wallets after the given one, returning false if the lease has been lost */
+  private boolean compactFrom(String lastId, LocalDateTime retainedSince) {
+    List<WalletKeyView> page;
+    do {
+      page = walletUpdatesRepository.findRefundHistoryKeysPage(lastId, pageSize);
+      if (!page.isEmpty()) {
+        long compacted = walletUpdatesRepository.compactRefundHistories(retainedSince, page);
+        lastId = page.getLast().id();
+        if (!refundHistoryCompactionRepository.saveProgress(instanceId, lastId, compacted, lease)) {
+          log.warn("[REFUND_HISTORY_COMPACTION] Lease lost, stopping after wallet {}", lastId);
+          return false;
+        }
+      }
+    } while (page.size() == pageSize);
+    return true;
+  }
+}
@@ -0,0 +1,23 @@
+package it.gov.pagopa.wallet.service;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/** Resumes from their checkpoint the reminder jobs left by a stopped or crashed instance. */
+@Component
+@ConditionalOnProperty(name = "app.wallet.reminderJob.resume.enabled", havingValue = "true", matchIfMissing = true)
+public class ReminderBatchJobResumer {
+
+  private final VoucherExpirationReminderBatchService voucherExpirationReminderBatchService;
+
+  public ReminderBatchJobResumer(VoucherExpirationReminderBatchService voucherExpirationReminderBatchService) {
+    this.voucherExpirationReminderBatchService = voucherExpirationReminderBatchService;
+  }
+
+  @Scheduled(initialDelayString = "${app.wallet.reminderJob.resume.delayMs:60000}",
+      fixedDelayString = "${app.wallet.reminderJob.resume.delayMs:60000}")
+  public void resume() {
+    voucherExpirationReminderBatchService.resumeReminderBatchJobs();
+  }
+}
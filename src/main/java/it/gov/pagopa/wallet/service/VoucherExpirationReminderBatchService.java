@@ -1,7 +1,14 @@
 package it.gov.pagopa.wallet.service;
 
+import it.gov.pagopa.wallet.dto.ReminderBatchJobDTO;
+
 public interface VoucherExpirationReminderBatchService {
 
-    void runReminderBatch(String initiativeId, int expiringDay);
+    /** Submits the job of the day, restarting it from the first wallet if it is already ended and a rerun is requested */
+    ReminderBatchJobDTO submitReminderBatch(String initiativeId, int expiringDay, boolean rerun);
+
+    ReminderBatchJobDTO getReminderBatchJob(String jobId);
+
+    void resumeReminderBatchJobs();
 
 }
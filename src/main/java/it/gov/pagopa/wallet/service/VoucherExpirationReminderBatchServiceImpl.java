@@ -2,23 +2,41 @@ package it.gov.pagopa.wallet.service;
 
 import it.gov.pagopa.wallet.constants.WalletConstants;
 import it.gov.pagopa.wallet.dto.NotificationQueueDTO;
+import it.gov.pagopa.wallet.dto.ReminderBatchJobDTO;
+import it.gov.pagopa.wallet.enums.ReminderBatchJobStatus;
 import it.gov.pagopa.wallet.event.producer.ErrorProducer;
 import it.gov.pagopa.wallet.event.producer.NotificationProducer;
+import it.gov.pagopa.wallet.exception.custom.ReminderBatchJobNotFoundException;
+import it.gov.pagopa.wallet.model.ReminderBatchJob;
 import it.gov.pagopa.wallet.model.Wallet;
+import it.gov.pagopa.wallet.repository.ReminderBatchJobRepository;
 import it.gov.pagopa.wallet.repository.WalletRepository;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Limit;
 import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.stereotype.Service;
 
-import java.time.Instant;
+import java.time.Duration;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static it.gov.pagopa.wallet.constants.WalletConstants.ExceptionMessage.REMINDER_BATCH_JOB_NOT_FOUND_MSG;
 
 @Slf4j
 @Service
@@ -27,88 +45,224 @@ public class VoucherExpirationReminderBatchServiceImpl implements VoucherExpirat
     private static final ZoneId ZONE_ID = ZoneId.of("Europe/Rome");
 
     private final WalletRepository walletRepository;
+    private final ReminderBatchJobRepository reminderBatchJobRepository;
     private final NotificationProducer notificationProducer;
     private final ErrorProducer errorProducer;
     private final int blockReminderBatch;
+    private final int reminderParallelism;
     private final String notificationTopic;
     private final String notificationServer;
+    private final Duration jobLease;
+    private final String instanceId = UUID.randomUUID().toString();
+    private final ThreadPoolExecutor jobExecutor;
 
     public VoucherExpirationReminderBatchServiceImpl(WalletRepository walletRepository,
+                                                     ReminderBatchJobRepository reminderBatchJobRepository,
                                                      NotificationProducer notificationProducer,
                                                      ErrorProducer errorProducer,
                                                      @Value("${app.wallet.blockReminderBatch}") int blockReminderBatch,
+                                                     @Value("${app.wallet.reminderParallelism:16}") int reminderParallelism,
+                                                     @Value("${app.wallet.reminderJob.maxConcurrentJobs:2}") int maxConcurrentJobs,
+                                                     @Value("${app.wallet.reminderJob.queueSize:10}") int jobQueueSize,
+                                                     @Value("${app.wallet.reminderJob.leaseSeconds:300}") long jobLeaseSeconds,
                                                      @Value("${spring.cloud.stream.binders.kafka-notification.environment.spring.cloud.stream.kafka.binder.brokers}") String notificationServer,
                                                      @Value("${spring.cloud.stream.bindings.walletQueue-out-2.destination}") String notificationTopic
     ) {
         this.walletRepository = walletRepository;
+        this.reminderBatchJobRepository = reminderBatchJobRepository;
         this.notificationProducer = notificationProducer;
         this.errorProducer = errorProducer;
         this.blockReminderBatch = blockReminderBatch;
+        this.reminderParallelism = reminderParallelism;
         this.notificationTopic = notificationTopic;
         this.notificationServer = notificationServer;
+        this.jobLease = Duration.ofSeconds(jobLeaseSeconds);
+        this.jobExecutor = new ThreadPoolExecutor(maxConcurrentJobs, maxConcurrentJobs, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(jobQueueSize), Thread.ofPlatform().name("reminder-job-", 0).factory());
+    }
+
+    @PreDestroy
+    void shutdownJobExecutor() {
+        // the interrupted jobs release their lease, so that another instance resumes them from their checkpoint
+        jobExecutor.shutdownNow();
+        try {
+            if (!jobExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+                log.warn("[REMINDER_BATCH] Reminder jobs still running at shutdown, they will be resumed after their lease expires");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public ReminderBatchJobDTO submitReminderBatch(String initiativeId, int expiringDay, boolean rerun) {
+        String sanitizedInitiativeId = sanitizeString(initiativeId);
+        // the range is fixed at submission, so that a run across midnight or resumed later reads a consistent set of wallets
+        LocalDate target = LocalDate.now(ZONE_ID).plusDays(expiringDay);
+        LocalDateTime now = LocalDateTime.now();
+
+        ReminderBatchJob job = reminderBatchJobRepository.insertIfAbsent(ReminderBatchJob.builder()
+                .id(sanitizedInitiativeId + "_" + target.format(DateTimeFormatter.BASIC_ISO_DATE))
+                .initiativeId(initiativeId)
+                .expirationDate(target)
+                .status(ReminderBatchJobStatus.RUNNING)
+                .lastId("")
+                .createdAt(now)
+                .updatedAt(now)
+                .build());
+
+        if (rerun && !ReminderBatchJobStatus.RUNNING.equals(job.getStatus())) {
+            ReminderBatchJob restarted = reminderBatchJobRepository.restart(job.getId());
+            if (restarted != null) {
+                log.info("[REMINDER_BATCH] Job {} ended as {}, rerunning it from the first wallet", job.getId(), job.getStatus());
+                job = restarted;
+            }
+        }
+        if (ReminderBatchJobStatus.COMPLETED.equals(job.getStatus())) {
+            log.info("[REMINDER_BATCH] Job {} already completed", job.getId());
+            return toDTO(job);
+        }
+        ReminderBatchJob claimed = reminderBatchJobRepository.claim(job.getId(), instanceId, jobLease);
+        if (claimed == null) {
+            log.info("[REMINDER_BATCH] Job {} already running", job.getId());
+            return toDTO(job);
+        }
+        start(claimed);
+        return toDTO(claimed);
     }
 
+    @Override
+    public ReminderBatchJobDTO getReminderBatchJob(String jobId) {
+        return reminderBatchJobRepository.findById(jobId)
+                .map(this::toDTO)
+                .orElseThrow(() -> new ReminderBatchJobNotFoundException(
+                        String.format(REMINDER_BATCH_JOB_NOT_FOUND_MSG, sanitizeString(jobId))));
+    }
 
-    public void runReminderBatch(String initiativeId, int expiringDay) {
+    @Override
+    public void resumeReminderBatchJobs() {
+        int freeSlots = jobExecutor.getMaximumPoolSize() - jobExecutor.getActiveCount() - jobExecutor.getQueue().size();
+        if (freeSlots <= 0) {
+            return;
+        }
+        for (ReminderBatchJob orphan : reminderBatchJobRepository.findOrphans(freeSlots)) {
+            ReminderBatchJob claimed = reminderBatchJobRepository.claim(orphan.getId(), instanceId, jobLease);
+            if (claimed != null) {
+                log.info("[REMINDER_BATCH] Resuming job {} after wallet {}", claimed.getId(), claimed.getLastId());
+                start(claimed);
+            }
+        }
+    }
+
+    private void start(ReminderBatchJob job) {
+        try {
+            jobExecutor.execute(() -> runJob(job));
+        } catch (RejectedExecutionException e) {
+            // still RUNNING without a lease: it will be resumed as soon as a slot is free
+            log.warn("[REMINDER_BATCH] Too many reminder jobs in progress, job {} postponed", job.getId());
+            reminderBatchJobRepository.release(job.getId(), instanceId, ReminderBatchJobStatus.RUNNING);
+        }
+    }
+
+    void runJob(ReminderBatchJob job) {
         long startTime = System.currentTimeMillis();
-        executeBatchLogic(initiativeId, expiringDay);
+        try {
+            if (executeBatchLogic(job)) {
+                reminderBatchJobRepository.release(job.getId(), instanceId, ReminderBatchJobStatus.COMPLETED);
+            }
+        } catch (Exception e) {
+            if (Thread.currentThread().isInterrupted()) {
+                log.warn("[REMINDER_BATCH] Job {} interrupted, releasing it", job.getId());
+                reminderBatchJobRepository.release(job.getId(), instanceId, ReminderBatchJobStatus.RUNNING);
+            } else {
+                log.error("[REMINDER_BATCH] Job {} failed", job.getId(), e);
+                reminderBatchJobRepository.release(job.getId(), instanceId, ReminderBatchJobStatus.FAILED);
+            }
+        }
         performanceLog(startTime, WalletConstants.REMINDER);
     }
 
-    private void executeBatchLogic(String initiativeId, int expiringDay) {
-        String sanitizedInitiativeId = sanitizeString(initiativeId);
+    /** Processes the job starting from its checkpoint, returning false if its lease has been taken by another instance */
+    private boolean executeBatchLogic(ReminderBatchJob job) {
+        String initiativeId = job.getInitiativeId();
+        LocalDate target = job.getExpirationDate();
+        Date startUtc = Date.from(target.atStartOfDay(ZONE_ID).toInstant());
+        Date endUtc = Date.from(target.plusDays(1).atStartOfDay(ZONE_ID).toInstant());
+        Limit limit = Limit.of(blockReminderBatch);
 
-        LocalDate now = LocalDate.now();
-        LocalDate expirationDate = now.plusDays((long)expiringDay-1);
+        log.info("[REMINDER_BATCH] Searching for expiring vouchers for the initiative {} and expirationDate {}", sanitizeString(initiativeId), target);
 
         int page = 0;
-        Pageable pageable = PageRequest.of(page, blockReminderBatch);
-        Page<Wallet> walletPage;
-
-        log.info("[REMINDER_BATCH] Searching for expiring vouchers for the initiative {} and expirationDateUTC {}", sanitizedInitiativeId, expirationDate);
-
-        do {
-            LocalDate target = LocalDate.now(ZONE_ID).plusDays(expiringDay);
-            Instant startUtc = target.atStartOfDay(ZONE_ID).toInstant();
-            Instant endUtc   = target.plusDays(1).atStartOfDay(ZONE_ID).toInstant();
-            walletPage = walletRepository.findVoucherExpiredIntoRange(initiativeId, Date.from(startUtc), Date.from(endUtc), pageable);
-            List<Wallet> walletList = walletPage.getContent();
-            log.info("[REMINDER_BATCH] Page {} - {} expiring vouchers found", page, walletList.size());
-
-            if (!walletList.isEmpty()) {
-                log.info("[REMINDER_BATCH] Start sending notifications for expiring vouchers - Page {}", page);
-                for (Wallet wallet : walletList) {
-                    NotificationQueueDTO notificationQueueDTO = NotificationQueueDTO.builder()
-                            .operationType(WalletConstants.REMINDER)
-                            .userId(wallet.getUserId())
-                            .initiativeId(wallet.getInitiativeId())
-                            .serviceId(wallet.getServiceId())
-                            .channel(wallet.getChannel())
-                            .initiativeName(wallet.getInitiativeName())
-                            .name(wallet.getName())
-                            .surname(wallet.getSurname())
-                            .userMail(wallet.getUserMail())
-                            .voucherEndDate(wallet.getVoucherEndDate())
-                            .build();
-
-                    sendNotification(notificationQueueDTO);
+        String lastId = job.getLastId();
+        List<Wallet> walletList;
+        try (ExecutorService sendExecutor = Executors.newFixedThreadPool(reminderParallelism, Thread.ofVirtual().name("reminder-", 0).factory())) {
+            do {
+                walletList = walletRepository.findVoucherExpiredIntoRangeAfter(initiativeId, startUtc, endUtc, lastId, limit);
+                log.info("[REMINDER_BATCH] Page {} - {} expiring vouchers found", page, walletList.size());
+
+                if (!walletList.isEmpty()) {
+                    log.info("[REMINDER_BATCH] Start sending notifications for expiring vouchers - Page {}", page);
+                    int failed = sendPage(sendExecutor, walletList);
+                    log.info("[REMINDER_BATCH] End sending notifications for expiring vouchers - Page {}", page);
+                    lastId = walletList.getLast().getId();
+                    if (!reminderBatchJobRepository.saveProgress(job.getId(), instanceId, lastId,
+                            walletList.size() - (long) failed, failed, jobLease)) {
+                        log.warn("[REMINDER_BATCH] Lease of job {} lost, stopping", job.getId());
+                        return false;
+                    }
                 }
-                log.info("[REMINDER_BATCH] End sending notifications for expiring vouchers - Page {}", page);
-            }
-            pageable = walletPage.nextPageable();
-            page++;
-        } while (walletPage.hasNext());
+                page++;
+            } while (walletList.size() == blockReminderBatch);
+        }
+        return true;
+    }
+
+    /** Sends the notifications of the page in parallel, returning the number of failures when all of them are completed */
+    private int sendPage(ExecutorService sendExecutor, List<Wallet> walletList) {
+        List<Future<Boolean>> sends = new ArrayList<>(walletList.size());
+        for (Wallet wallet : walletList) {
+            NotificationQueueDTO notificationQueueDTO = NotificationQueueDTO.builder()
+                    .operationType(WalletConstants.REMINDER)
+                    .userId(wallet.getUserId())
+                    .initiativeId(wallet.getInitiativeId())
+                    .serviceId(wallet.getServiceId())
+                    .channel(wallet.getChannel())
+                    .initiativeName(wallet.getInitiativeName())
+                    .name(wallet.getName())
+                    .surname(wallet.getSurname())
+                    .userMail(wallet.getUserMail())
+                    .voucherEndDate(wallet.getVoucherEndDate())
+                    .build();
 
+            sends.add(sendExecutor.submit(() -> sendNotification(notificationQueueDTO)));
+        }
+        int failed = 0;
+        try {
+            for (Future<Boolean> send : sends) {
+                if (Boolean.FALSE.equals(send.get())) {
+                    failed++;
+                }
+            }
+        } catch (InterruptedException e) {
+            sends.forEach(send -> send.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("[REMINDER_BATCH] Interrupted while sending notifications", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("[REMINDER_BATCH] Error while sending notifications", e.getCause());
+        }
+        return failed;
     }
 
-    private void sendNotification(NotificationQueueDTO notificationQueueDTO) {
+    private boolean sendNotification(NotificationQueueDTO notificationQueueDTO) {
         try {
             log.info("[SEND_NOTIFICATION] Sending event to Notification");
             notificationProducer.sendNotification(notificationQueueDTO);
+            return true;
         } catch (Exception e) {
             log.error("[SEND_NOTIFICATION] An error has occurred. Sending message to Error queue");
             final MessageBuilder<?> errorMessage = MessageBuilder.withPayload(notificationQueueDTO);
             this.sendToQueueError(e, errorMessage, notificationServer, notificationTopic);
+            return false;
         }
     }
 
@@ -126,6 +280,19 @@ public class VoucherExpirationReminderBatchServiceImpl implements VoucherExpirat
         errorProducer.sendEvent(errorMessage.build());
     }
 
+    private ReminderBatchJobDTO toDTO(ReminderBatchJob job) {
+        return ReminderBatchJobDTO.builder()
+                .jobId(job.getId())
+                .initiativeId(job.getInitiativeId())
+                .expirationDate(job.getExpirationDate())
+                .status(job.getStatus())
+                .sentCount(job.getSentCount())
+                .failedCount(job.getFailedCount())
+                .createdAt(job.getCreatedAt())
+                .updatedAt(job.getUpdatedAt())
+                .build();
+    }
+
     private void performanceLog(long startTime, String service) {
         log.info(
                 "[PERFORMANCE_LOG] [{}] Time occurred to perform business logic: {} ms",
@@ -0,0 +1,18 @@
+package it.gov.pagopa.wallet.service;
+
+import it.gov.pagopa.wallet.dto.InitiativeListDTO;
+import it.gov.pagopa.wallet.dto.WalletCacheInvalidationDTO;
+import it.gov.pagopa.wallet.dto.WalletDTO;
+
+import java.util.Collection;
+import java.util.function.Supplier;
+
+public interface WalletCacheService {
+  InitiativeListDTO getInitiativeList(String userId, Supplier<InitiativeListDTO> loader);
+  WalletDTO getWalletDetail(String initiativeId, String userId, Supplier<WalletDTO> loader);
+  void evict(String initiativeId, String userId);
+  void evict(String initiativeId, Collection<String> userIds);
+  void evictFamily(String initiativeId, String familyId);
+  void evictInitiative(String initiativeId);
+  void processInvalidation(WalletCacheInvalidationDTO invalidation);
+}
@@ -0,0 +1,167 @@
+package it.gov.pagopa.wallet.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import it.gov.pagopa.wallet.dto.InitiativeListDTO;
+import it.gov.pagopa.wallet.dto.WalletCacheInvalidationDTO;
+import it.gov.pagopa.wallet.dto.WalletDTO;
+import it.gov.pagopa.wallet.event.producer.WalletCacheInvalidationProducer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/**
+ * Local cache of the mapped wallets served to the app.
+ * Each write evicts the local entries and publishes an invalidation signal, so that the other replicas evict theirs
+ * too; the TTL bounds the staleness if a signal is lost. A write inside a transaction evicts once it is committed.
+ */
+@Slf4j
+@Service
+public class WalletCacheServiceImpl implements WalletCacheService {
+
+  private final WalletCacheInvalidationProducer walletCacheInvalidationProducer;
+  private final boolean enabled;
+  private final String instanceId = UUID.randomUUID().toString();
+  private final Cache<String, InitiativeListDTO> initiativeListCache;
+  private final Cache<WalletCacheKey, WalletDTO> walletDetailCache;
+
+  public WalletCacheServiceImpl(WalletCacheInvalidationProducer walletCacheInvalidationProducer,
+                                @Value("${app.wallet.cache.enabled:false}") boolean enabled,
+                                @Value("${app.wallet.cache.maxSize:10000}") long maxSize,
+                                @Value("${app.wallet.cache.ttlSeconds:30}") long ttlSeconds) {
+    this.walletCacheInvalidationProducer = walletCacheInvalidationProducer;
+    this.enabled = enabled;
+    this.initiativeListCache = Caffeine.newBuilder()
+        .maximumSize(maxSize)
+        .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+        .build();
+    this.walletDetailCache = Caffeine.newBuilder()
+        .maximumSize(maxSize)
+        .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+        .build();
+  }
+
+  @Override
+  public InitiativeListDTO getInitiativeList(String userId, Supplier<InitiativeListDTO> loader) {
+    if (!enabled) {
+      return loader.get();
+    }
+    return initiativeListCache.get(userId, k -> loader.get());
+  }
+
+  @Override
+  public WalletDTO getWalletDetail(String initiativeId, String userId, Supplier<WalletDTO> loader) {
+    if (!enabled) {
+      return loader.get();
+    }
+    return walletDetailCache.get(new WalletCacheKey(initiativeId, userId), k -> loader.get());
+  }
+
+  @Override
+  public void evict(String initiativeId, String userId) {
+    evict(initiativeId, List.of(userId));
+  }
+
+  @Override
+  public void evict(String initiativeId, Collection<String> userIds) {
+    if (!enabled || userIds.isEmpty()) {
+      return;
+    }
+    List<String> evictedUserIds = List.copyOf(userIds);
+    afterCommit(() -> {
+      evictLocal(initiativeId, evictedUserIds);
+      publish(new WalletCacheInvalidationDTO(instanceId, initiativeId, evictedUserIds, null));
+    });
+  }
+
+  /** The members are matched on the cached wallets, thus the writer does not have to read them */
+  @Override
+  public void evictFamily(String initiativeId, String familyId) {
+    if (!enabled) {
+      return;
+    }
+    afterCommit(() -> {
+      evictLocalFamily(initiativeId, familyId);
+      publish(new WalletCacheInvalidationDTO(instanceId, initiativeId, null, familyId));
+    });
+  }
+
+  @Override
+  public void evictInitiative(String initiativeId) {
+    if (!enabled) {
+      return;
+    }
+    afterCommit(() -> {
+      evictLocal(initiativeId, null);
+      publish(new WalletCacheInvalidationDTO(instanceId, initiativeId, null, null));
+    });
+  }
+
+  @Override
+  public void processInvalidation(WalletCacheInvalidationDTO invalidation) {
+    if (!enabled || instanceId.equals(invalidation.getInstanceId())) {
+      return;
+    }
+    log.debug("[WALLET_CACHE] Received invalidation for initiative {}", invalidation.getInitiativeId());
+    if (invalidation.getFamilyId() != null) {
+      evictLocalFamily(invalidation.getInitiativeId(), invalidation.getFamilyId());
+    } else {
+      evictLocal(invalidation.getInitiativeId(), invalidation.getUserIds());
+    }
+  }
+
+  private void evictLocal(String initiativeId, Collection<String> userIds) {
+    if (userIds == null) {
+      walletDetailCache.asMap().keySet().removeIf(key -> key.initiativeId().equals(initiativeId));
+      initiativeListCache.asMap().values().removeIf(initiativeList -> initiativeList.getInitiativeList().stream()
+          .anyMatch(wallet -> initiativeId.equals(wallet.getInitiativeId())));
+    } else {
+      userIds.forEach(userId -> walletDetailCache.invalidate(new WalletCacheKey(initiativeId, userId)));
+      initiativeListCache.invalidateAll(userIds);
+    }
+  }
+
+  private void evictLocalFamily(String initiativeId, String familyId) {
+    walletDetailCache.asMap().values().removeIf(wallet -> isFamilyWallet(wallet, initiativeId, familyId));
+    initiativeListCache.asMap().values().removeIf(initiativeList -> initiativeList.getInitiativeList().stream()
+        .anyMatch(wallet -> isFamilyWallet(wallet, initiativeId, familyId)));
+  }
+
+  private static boolean isFamilyWallet(WalletDTO wallet, String initiativeId, String familyId) {
+    return initiativeId.equals(wallet.getInitiativeId()) && familyId.equals(wallet.getFamilyId());
+  }
+
+  /** Evicting before the commit would let a concurrent read cache the wallet as it was before the write */
+  private static void afterCommit(Runnable eviction) {
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      eviction.run();
+      return;
+    }
+    TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+      @Override
+      public void afterCommit() {
+        eviction.run();
+      }
+    });
+  }
+
+  private void publish(WalletCacheInvalidationDTO invalidation) {
+    try {
+      if (!walletCacheInvalidationProducer.sendInvalidation(invalidation)) {
+        log.error("[WALLET_CACHE] Unable to publish the invalidation of initiative {}", invalidation.getInitiativeId());
+      }
+    } catch (Exception e) {
+      log.error("[WALLET_CACHE] Unable to publish the invalidation of initiative {}", invalidation.getInitiativeId(), e);
+    }
+  }
+
+  private record WalletCacheKey(String initiativeId, String userId) {}
+}
@@ -11,8 +11,11 @@ import it.gov.pagopa.wallet.dto.QueueCommandOperationDTO;
 import it.gov.pagopa.wallet.dto.RefundDTO;
 import it.gov.pagopa.wallet.dto.WalletDTO;
 import it.gov.pagopa.wallet.dto.WalletPIBodyDTO;
+import it.gov.pagopa.wallet.dto.WalletPIOutcomeDTO;
 import org.springframework.messaging.Message;
 
+import java.util.List;
+
 public interface WalletService {
   EnrollmentStatusDTO getEnrollmentStatus(String initiativeId, String userId);
   WalletDTO getWalletDetail(String initiativeId, String userId);
@@ -24,12 +27,16 @@ public interface WalletService {
   void readmitWallet(String initiativeId, String userId);
   InitiativeListDTO getInitiativeList(String userId);
   void createWallet(EvaluationDTO evaluationDTO);
+  void createWallets(List<Message<String>> evaluationDTOs);
   void processIbanOutcome(IbanQueueWalletDTO ibanQueueWalletDTO);
+  void processIbanOutcomes(List<Message<String>> ibanQueueWalletDTOs);
   void unsubscribe(String initiativeId, String userId, String channel);
   void processTransaction(Message<String> rewardTransactionDTO);
-  void updateWallet(WalletPIBodyDTO walletPIBodyDTO);
+  void processTransactions(List<Message<String>> rewardTransactionDTOs);
+  List<WalletPIOutcomeDTO> updateWallet(WalletPIBodyDTO walletPIBodyDTO);
   void processAck(InstrumentAckDTO instrumentAckDTO);
   void processRefund(RefundDTO refundDTO);
+  void processRefunds(List<Message<String>> refundDTOs);
   void enrollInstrumentIssuer(String initiativeId, String userId, InstrumentIssuerDTO body);
   InitiativesWithInstrumentDTO getInitiativesWithInstrument(String idWallet, String userId);
   void processCommand(QueueCommandOperationDTO queueCommandOperationDTO);
@@ -1,5 +1,7 @@
 package it.gov.pagopa.wallet.service;
 
+import it.gov.pagopa.common.mongo.retry.MongoRequestRateTooLargeRetryer;
+import it.gov.pagopa.common.mongo.retry.exception.MongoRequestRateTooLargeRetryExpiredException;
 import it.gov.pagopa.common.web.exception.ServiceException;
 import it.gov.pagopa.wallet.connector.OnboardingRestConnector;
 import it.gov.pagopa.wallet.connector.PaymentInstrumentRestConnector;
@@ -13,8 +15,11 @@ import it.gov.pagopa.wallet.dto.payment.TransactionBarCodeCreationRequest;
 import it.gov.pagopa.wallet.dto.payment.TransactionBarCodeEnrichedResponse;
 import it.gov.pagopa.wallet.enums.BeneficiaryType;
 import it.gov.pagopa.wallet.enums.ChannelTransaction;
+import it.gov.pagopa.wallet.enums.FamilyRewardUpdateOutcome;
+import it.gov.pagopa.wallet.enums.InstrumentRevocationOutcome;
 import it.gov.pagopa.wallet.enums.SyncTrxStatus;
 import it.gov.pagopa.wallet.enums.WalletStatus;
+import it.gov.pagopa.wallet.enums.WalletUpdateOutcome;
 import it.gov.pagopa.wallet.event.producer.ErrorProducer;
 import it.gov.pagopa.wallet.event.producer.IbanProducer;
 import it.gov.pagopa.wallet.event.producer.NotificationProducer;
@@ -22,14 +27,21 @@ import it.gov.pagopa.wallet.event.producer.TimelineProducer;
 import it.gov.pagopa.wallet.exception.WalletUpdateException;
 import it.gov.pagopa.wallet.exception.custom.*;
 import it.gov.pagopa.wallet.model.Wallet;
-import it.gov.pagopa.wallet.model.Wallet.RefundHistory;
+import it.gov.pagopa.wallet.model.WalletDeleteCheckpoint;
+import it.gov.pagopa.wallet.model.WalletKey;
+import it.gov.pagopa.wallet.model.projection.WalletKeyView;
+import it.gov.pagopa.wallet.model.projection.WalletRewardView;
+import it.gov.pagopa.wallet.model.projection.WalletStatusView;
+import it.gov.pagopa.wallet.repository.WalletDeleteCheckpointRepository;
 import it.gov.pagopa.wallet.repository.WalletRepository;
 import it.gov.pagopa.wallet.repository.WalletUpdatesRepository;
 import it.gov.pagopa.wallet.utils.AuditUtilities;
 import it.gov.pagopa.wallet.utils.Utilities;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.iban4j.IbanUtil;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.stereotype.Service;
@@ -38,6 +50,10 @@ import tools.jackson.databind.ObjectMapper;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -53,7 +69,11 @@ public class WalletServiceImpl implements WalletService {
   public static final String SERVICE_CHECK_IBAN_OUTCOME = "CHECK_IBAN_OUTCOME";
   public static final String SERVICE_ENROLL_INSTRUMENT_ISSUER = "ENROLL_INSTRUMENT_ISSUER";
   public static final String SERVICE_PROCESS_REFUND = "PROCESS_REFUND";
+  public static final String SERVICE_PROCESS_REFUND_BATCH = "PROCESS_REFUND_BATCH";
+  public static final String SERVICE_CHECK_IBAN_OUTCOME_BATCH = "CHECK_IBAN_OUTCOME_BATCH";
+  public static final String SERVICE_CREATE_WALLET_BATCH = "CREATE_WALLET_BATCH";
   public static final String SERVICE_PROCESS_TRANSACTION = "PROCESS_TRANSACTION";
+  public static final String SERVICE_PROCESS_TRANSACTION_BATCH = "PROCESS_TRANSACTION_BATCH";
   public static final String SERVICE_COMMAND_DELETE_INITIATIVE = "DELETE_INITIATIVE";
   public static final String WALLET_STATUS_UNSUBSCRIBED_MESSAGE = "wallet in status unsubscribed";
   public static final String SERVICE_ENROLL_INSTRUMENT_CODE = "ENROLL_INSTRUMENT_CODE";
@@ -71,6 +91,9 @@ public class WalletServiceImpl implements WalletService {
   private final NotificationProducer notificationProducer;
   private final AuditUtilities auditUtilities;
   private final ObjectMapper objectMapper;
+  private final OutboxService outboxService;
+  private final WalletCacheService walletCacheService;
+  private final WalletDeleteCheckpointRepository walletDeleteCheckpointRepository;
   private final String timelineServer;
   private final String timelineTopic;
   private final String notificationServer;
@@ -79,9 +102,18 @@ public class WalletServiceImpl implements WalletService {
   private final String ibanTopic;
   private final String transactionServer;
   private final String transactionTopic;
+  private final String refundServer;
+  private final String refundTopic;
+  private final String ibanOutcomeServer;
+  private final String ibanOutcomeTopic;
+  private final String outcomeServer;
+  private final String outcomeTopic;
   private final boolean isFormalControlIban;
   private final int pageSize;
   private final long delay;
+  private final int transactionLanes;
+  private final ExecutorService fanOutExecutor;
+  private final int outcomeParallelism;
 
     public WalletServiceImpl(WalletRepository walletRepository,
                              WalletUpdatesRepository walletUpdatesRepository,
@@ -96,6 +128,9 @@ public class WalletServiceImpl implements WalletService {
                              ErrorProducer errorProducer,
                              NotificationProducer notificationProducer,
                              AuditUtilities auditUtilities, ObjectMapper objectMapper,
+                             OutboxService outboxService,
+                             WalletCacheService walletCacheService,
+                             WalletDeleteCheckpointRepository walletDeleteCheckpointRepository,
                              @Value("${spring.cloud.stream.binders.kafka-timeline.environment.spring.cloud.stream.kafka.binder.brokers}") String timelineServer,
                              @Value("${spring.cloud.stream.bindings.walletQueue-out-1.destination}") String timelineTopic,
                              @Value("${spring.cloud.stream.binders.kafka-notification.environment.spring.cloud.stream.kafka.binder.brokers}") String notificationServer,
@@ -104,9 +139,18 @@ public class WalletServiceImpl implements WalletService {
                              @Value("${spring.cloud.stream.bindings.walletQueue-out-0.destination}") String ibanTopic,
                              @Value("${spring.cloud.stream.binders.kafka-re.environment.spring.cloud.stream.kafka.binder.brokers}") String transactionServer,
                              @Value("${spring.cloud.stream.bindings.consumerRefund-in-0.destination}") String transactionTopic,
+                             @Value("${spring.cloud.stream.binders.kafka-reward.environment.spring.cloud.stream.kafka.binder.brokers}") String refundServer,
+                             @Value("${spring.cloud.stream.bindings.consumerRefund-in-0.destination}") String refundTopic,
+                             @Value("${spring.cloud.stream.binders.kafka-checkiban-outcome.environment.spring.cloud.stream.kafka.binder.brokers}") String ibanOutcomeServer,
+                             @Value("${spring.cloud.stream.bindings.consumerIban-in-0.destination}") String ibanOutcomeTopic,
+                             @Value("${spring.cloud.stream.binders.kafka-outcome.environment.spring.cloud.stream.kafka.binder.brokers}") String outcomeServer,
+                             @Value("${spring.cloud.stream.bindings.consumerOutcome-in-0.destination}") String outcomeTopic,
                              @Value("${app.iban.formalControl}") boolean isFormalControlIban,
                              @Value("${app.delete.paginationSize}") int pageSize,
-                             @Value("${app.delete.delayTime}") long delay) {
+                             @Value("${app.delete.delayTime}") long delay,
+                             @Value("${app.transaction.lanes:1}") int transactionLanes,
+                             @Value("${app.wallet.fanOutParallelism:64}") int fanOutParallelism,
+                             @Value("${app.outcome.parallelism:16}") int outcomeParallelism) {
     this.walletRepository = walletRepository;
     this.walletUpdatesRepository = walletUpdatesRepository;
     this.paymentInstrumentRestConnector = paymentInstrumentRestConnector;
@@ -121,6 +165,9 @@ public class WalletServiceImpl implements WalletService {
     this.notificationProducer = notificationProducer;
     this.auditUtilities = auditUtilities;
     this.objectMapper = objectMapper;
+    this.outboxService = outboxService;
+    this.walletCacheService = walletCacheService;
+    this.walletDeleteCheckpointRepository = walletDeleteCheckpointRepository;
     this.timelineServer = timelineServer;
     this.timelineTopic = timelineTopic;
     this.notificationServer = notificationServer;
@@ -129,25 +176,38 @@ public class WalletServiceImpl implements WalletService {
     this.ibanTopic = ibanTopic;
     this.transactionServer = transactionServer;
     this.transactionTopic = transactionTopic;
+    this.refundServer = refundServer;
+    this.refundTopic = refundTopic;
+    this.ibanOutcomeServer = ibanOutcomeServer;
+    this.ibanOutcomeTopic = ibanOutcomeTopic;
+    this.outcomeServer = outcomeServer;
+    this.outcomeTopic = outcomeTopic;
     this.isFormalControlIban = isFormalControlIban;
     this.pageSize = pageSize;
     this.delay = delay;
+    this.transactionLanes = transactionLanes;
+    this.outcomeParallelism = outcomeParallelism;
+    this.fanOutExecutor = Executors.newFixedThreadPool(fanOutParallelism, Thread.ofVirtual().name("wallet-fanout-", 0).factory());
   }
 
   @Override
   public EnrollmentStatusDTO getEnrollmentStatus(String initiativeId, String userId) {
     long startTime = System.currentTimeMillis();
-    Wallet wallet = findByInitiativeIdAndUserId(initiativeId, userId);
+    WalletStatusView wallet = walletRepository
+            .findStatusViewByIdAndUserId(new WalletKey(userId, initiativeId).id(), userId)
+            .orElseThrow(
+                    () -> new UserNotOnboardedException(String.format(USER_NOT_ONBOARDED_MSG, initiativeId)));
     performanceLog(startTime, "GET_ENROLLMENT_STATUS");
-    return new EnrollmentStatusDTO(wallet.getStatus());
+    return new EnrollmentStatusDTO(wallet.status());
   }
 
   @Override
   public WalletDTO getWalletDetail(String initiativeId, String userId) {
     long startTime = System.currentTimeMillis();
-    Wallet wallet = getWallet(initiativeId, userId);
+    WalletDTO walletDTO = walletCacheService.getWalletDetail(initiativeId, userId,
+        () -> walletMapper.toInitiativeDTO(getWallet(initiativeId, userId)));
     performanceLog(startTime, "GET_WALLET_DETAIL");
-    return walletMapper.toInitiativeDTO(wallet);
+    return walletDTO;
   }
 
   @Override
@@ -159,11 +219,15 @@ public class WalletServiceImpl implements WalletService {
   }
 
   private Wallet getWallet(String initiativeId, String userId) {
-    return walletRepository
-            .findByIdAndUserId(generateWalletId(userId, initiativeId), userId)
+    return findWallet(initiativeId, userId)
             .orElseThrow(() -> new UserNotOnboardedException(String.format(USER_NOT_ONBOARDED_MSG, initiativeId)));
   }
 
+  /** Point read on the deterministic {@code _id}, scoped by the {@code userId} shard key. */
+  private Optional<Wallet> findWallet(String initiativeId, String userId) {
+    return walletRepository.findByIdAndUserId(new WalletKey(userId, initiativeId).id(), userId);
+  }
+
     @Override
   public void enrollInstrument(String initiativeId, String userId, String idWallet, String channel) {
     long startTime = System.currentTimeMillis();
@@ -279,11 +343,10 @@ public class WalletServiceImpl implements WalletService {
     if (isFormalControlIban) {
       formalControl(iban);
     }
-    wallet.setIban(iban);
     IbanQueueDTO ibanQueueDTO =
         new IbanQueueDTO(userId, initiativeId, iban, description, channel, LocalDateTime.now());
 
-    walletUpdatesRepository.enrollIban(initiativeId, userId, iban, setStatus(wallet));
+    walletUpdatesRepository.enrollIban(initiativeId, userId, iban);
     auditUtilities.logEnrollmentIbanComplete(userId, initiativeId, iban);
 
     try {
@@ -315,21 +378,32 @@ public class WalletServiceImpl implements WalletService {
       }
 
       LocalDateTime localDateTime = LocalDateTime.now();
-      String backupStatus = wallet.getStatus();
+      // the remote call is kept out of the transaction, which would otherwise stay open across it
       try {
-        walletUpdatesRepository.suspendWallet(
-            initiativeId, userId, WalletStatus.SUSPENDED, localDateTime);
         log.info("[SUSPENSION] Sending event to ONBOARDING");
         onboardingRestConnector.suspendOnboarding(initiativeId, userId);
       } catch (Exception e) {
         auditUtilities.logSuspensionKO(userId, initiativeId);
-        this.rollbackWallet(backupStatus, wallet);
         performanceLog(startTime, WalletConstants.SUSPENSION);
         throw e;
       }
-       sendToTimeline(timelineMapper.suspendToTimeline(initiativeId, userId, localDateTime));
-      sendSuspensionReadmissionNotification(
-          WalletConstants.SUSPENSION, initiativeId, userId, wallet.getInitiativeName());
+      try {
+        outboxService.executeInTransaction(() -> {
+          walletUpdatesRepository.suspendWallet(
+              initiativeId, userId, WalletStatus.SUSPENDED, localDateTime);
+          sendToTimeline(timelineMapper.suspendToTimeline(initiativeId, userId, localDateTime));
+          sendSuspensionReadmissionNotification(
+              WalletConstants.SUSPENSION, initiativeId, userId, wallet.getInitiativeName());
+        });
+      } catch (Exception e) {
+        auditUtilities.logSuspensionKO(userId, initiativeId);
+        if (!outboxService.isEnabled()) {
+          this.rollbackWallet(wallet);
+        }
+        compensateOnboarding("[SUSPENSION]", () -> onboardingRestConnector.readmitOnboarding(initiativeId, userId), e);
+        performanceLog(startTime, WalletConstants.SUSPENSION);
+        throw e;
+      }
 
       log.info("[SUSPENSION] Wallet is suspended from the initiative {}", initiativeId);
       auditUtilities.logSuspension(userId, initiativeId);
@@ -351,8 +425,6 @@ public class WalletServiceImpl implements WalletService {
     }
 
     LocalDateTime localDateTime = LocalDateTime.now();
-    String backupStatus = wallet.getStatus();
-    LocalDateTime backupSuspensionDate = wallet.getSuspensionDate();
     String readmittedStatus;
     if (WalletConstants.INITIATIVE_REWARD_TYPE_REFUND.equals(wallet.getInitiativeRewardType())) {
       readmittedStatus = WalletStatus.getByBooleans(wallet.getIban() != null,
@@ -361,22 +433,34 @@ public class WalletServiceImpl implements WalletService {
       readmittedStatus = WalletStatus.REFUNDABLE.name();
     }
     try {
-      walletUpdatesRepository.readmitWallet(initiativeId, userId, readmittedStatus, localDateTime);
       log.info("[READMISSION] Sending event to ONBOARDING");
       onboardingRestConnector.readmitOnboarding(initiativeId, userId);
     } catch (Exception e) {
       auditUtilities.logReadmissionKO(userId, initiativeId);
       log.info("[READMISSION] Wallet readmission to the initiative {} is failed", initiativeId);
-      wallet.setStatus(backupStatus);
-      wallet.setSuspensionDate(backupSuspensionDate);
-      wallet.setUpdateDate(localDateTime);
-      walletRepository.save(wallet);
       performanceLog(startTime, WalletConstants.READMISSION);
       throw e;
     }
-    sendToTimeline(timelineMapper.readmitToTimeline(initiativeId, userId, localDateTime));
-    sendSuspensionReadmissionNotification(
-        WalletConstants.READMISSION, initiativeId, userId, wallet.getInitiativeName());
+    try {
+      outboxService.executeInTransaction(() -> {
+        walletUpdatesRepository.readmitWallet(initiativeId, userId, readmittedStatus, localDateTime);
+        sendToTimeline(timelineMapper.readmitToTimeline(initiativeId, userId, localDateTime));
+        sendSuspensionReadmissionNotification(
+            WalletConstants.READMISSION, initiativeId, userId, wallet.getInitiativeName());
+      });
+    } catch (Exception e) {
+      auditUtilities.logReadmissionKO(userId, initiativeId);
+      log.info("[READMISSION] Wallet readmission to the initiative {} is failed", initiativeId);
+      if (!outboxService.isEnabled()) {
+        this.rollbackWallet(wallet);
+      }
+      // a wallet not suspended was readmitted as a no-op, thus the onboarding has nothing to restore
+      if (WalletStatus.SUSPENDED.equals(wallet.getStatus())) {
+        compensateOnboarding("[READMISSION]", () -> onboardingRestConnector.suspendOnboarding(initiativeId, userId), e);
+      }
+      performanceLog(startTime, WalletConstants.READMISSION);
+      throw e;
+    }
 
     log.info("[READMISSION] Wallet is readmitted to the initiative {}", initiativeId);
     auditUtilities.logReadmission(userId, initiativeId);
@@ -386,6 +470,12 @@ public class WalletServiceImpl implements WalletService {
   @Override
   public InitiativeListDTO getInitiativeList(String userId) {
     long startTime = System.currentTimeMillis();
+    InitiativeListDTO initiativeListDTO = walletCacheService.getInitiativeList(userId, () -> readInitiativeList(userId));
+    performanceLog(startTime, "GET_INITIATIVE_LIST");
+    return initiativeListDTO;
+  }
+
+  private InitiativeListDTO readInitiativeList(String userId) {
     List<Wallet> walletList = walletRepository.findByUserId(userId);
     walletList.sort(Comparator.comparing(Wallet::getAcceptanceDate).reversed());
     InitiativeListDTO initiativeListDTO = new InitiativeListDTO();
@@ -395,8 +485,6 @@ public class WalletServiceImpl implements WalletService {
       walletDTOList.add(walletMapper.toInitiativeDTO(wallet));
     }
     initiativeListDTO.setInitiativeList(walletDTOList);
-
-    performanceLog(startTime, "GET_INITIATIVE_LIST");
     return initiativeListDTO;
   }
 
@@ -422,39 +510,14 @@ public class WalletServiceImpl implements WalletService {
     if (WalletConstants.STATUS_ONBOARDING_OK.equals(evaluationDTO.getStatus())
 //        || WalletConstants.STATUS_JOINED.equals(evaluationDTO.getStatus())
     ) {
-      rewardCalculatorRestConnector.createOnboardingCounters(
-          sanitizedInitiativeId, sanitizedUserId);
-
-      Wallet wallet = walletMapper.map(evaluationDTO);
-
-      /**  commened to avoid rewrite due o he re-onboarding
-      if (evaluationDTO.getFamilyId() != null) {
-        List<Wallet> familyWallets =
-            walletRepository.findByInitiativeIdAndFamilyId(
-                evaluationDTO.getInitiativeId(), evaluationDTO.getFamilyId());
-        if (!familyWallets.isEmpty()) {
-          wallet.setAmountCents(familyWallets.get(0).getAmountCents());
+      Wallet wallet = prepareWallet(evaluationDTO);
+      outboxService.executeInTransaction(() -> {
+        if (!walletUpdatesRepository.createWallet(wallet)) {
+          log.info("[CREATE_WALLET] The wallet of user {} on initiative {} already exists, it is left unchanged",
+              sanitizedUserId, sanitizedInitiativeId);
         }
-      }
-      */
-
-      if (WalletConstants.INITIATIVE_REWARD_TYPE_DISCOUNT.equals(
-          evaluationDTO.getInitiativeRewardType())) {
-        wallet.setStatus(WalletStatus.REFUNDABLE.name());
-        wallet.setNInstr(1);
-      }
-
-      log.info("[POST_PAYMENT_BAR_CODE_EXTENDED] Create the vocuher and return his start and end Date");
-      TransactionBarCodeEnrichedResponse response = paymentRestConnector.createExtendedTransaction(TransactionBarCodeCreationRequest
-              .builder()
-              .initiativeId(evaluationDTO.getInitiativeId())
-              .voucherAmountCents(evaluationDTO.getBeneficiaryBudgetCents())
-              .build(), evaluationDTO.getUserId());
-      wallet.setVoucherStartDate(Utilities.getLocalDate(response.getTrxDate()));
-      wallet.setVoucherEndDate(Utilities.getLocalDate(response.getTrxEndDate()));
-      wallet.setCreatedAt(LocalDateTime.now());
-      walletRepository.save(wallet);
-      sendToTimeline(timelineMapper.onboardingToTimeline(evaluationDTO));
+        sendToTimeline(timelineMapper.onboardingToTimeline(evaluationDTO));
+      });
 
       auditUtilities.logCreatedWallet(evaluationDTO.getUserId(), evaluationDTO.getInitiativeId());
 
@@ -465,6 +528,122 @@ public class WalletServiceImpl implements WalletService {
     performanceLog(startTime, "CREATE_WALLET");
   }
 
+  @Override
+  public void createWallets(List<Message<String>> evaluationDTOMessages) {
+    long startTime = System.currentTimeMillis();
+    log.info("[CREATE_WALLET_BATCH] Received {} onboarding outcomes", evaluationDTOMessages.size());
+
+    List<EvaluationDTO> evaluationDTOs =
+        readPayloads(evaluationDTOMessages, EvaluationDTO.class, "CREATE_WALLET_BATCH", outcomeServer, outcomeTopic);
+
+    List<EvaluationDTO> onboardedEvaluations = new ArrayList<>();
+    for (EvaluationDTO evaluationDTO : evaluationDTOs) {
+      if (WalletConstants.STATUS_ONBOARDING_OK.equals(evaluationDTO.getStatus())) {
+        onboardedEvaluations.add(evaluationDTO);
+      } else if (WalletConstants.STATUS_JOINED.equals(evaluationDTO.getStatus())) {
+        auditUtilities.logCreateWalletStoppedForJoin(evaluationDTO.getUserId(), evaluationDTO.getInitiativeId());
+      }
+    }
+
+    // the counters and the voucher are created with a call for each wallet, thus the calls run concurrently on an
+    // executor of the poll, so that a large poll does not queue ahead of the API calls sharing the fan-out executor
+    List<EvaluationDTO> preparedEvaluations = new ArrayList<>(onboardedEvaluations.size());
+    List<Wallet> wallets = new ArrayList<>(onboardedEvaluations.size());
+    try (ExecutorService onboardingExecutor = Executors.newFixedThreadPool(outcomeParallelism, Thread.ofVirtual().name("wallet-onboarding-", 0).factory())) {
+      List<Future<Wallet>> walletFutures = onboardedEvaluations.stream()
+          .map(evaluationDTO -> onboardingExecutor.submit(() -> prepareWallet(evaluationDTO)))
+          .toList();
+      for (int i = 0; i < walletFutures.size(); i++) {
+        EvaluationDTO evaluationDTO = onboardedEvaluations.get(i);
+        try {
+          wallets.add(walletFutures.get(i).get());
+          preparedEvaluations.add(evaluationDTO);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          walletFutures.forEach(walletFuture -> walletFuture.cancel(true));
+          throw new IllegalStateException("[CREATE_WALLET_BATCH] Interrupted while creating wallets", e);
+        } catch (ExecutionException e) {
+          Exception cause = e.getCause() instanceof Exception exception ? exception : e;
+          log.error("[CREATE_WALLET_BATCH] Error while creating the wallet of user {} on initiative {}. Sending message to Error queue.",
+              sanitizeString(evaluationDTO.getUserId()), sanitizeString(evaluationDTO.getInitiativeId()), cause);
+          this.sendToQueueError(cause, MessageBuilder.withPayload(evaluationDTO), outcomeServer, outcomeTopic, true);
+        }
+      }
+    }
+
+    List<WalletUpdateOutcome> outcomes = new ArrayList<>(wallets.size());
+    outboxService.executeInTransaction(() -> {
+      outcomes.clear();
+      outcomes.addAll(walletUpdatesRepository.createWallets(wallets));
+
+      List<QueueOperationDTO> queueOperationDTOs = new ArrayList<>();
+      for (int i = 0; i < preparedEvaluations.size(); i++) {
+        if (!WalletUpdateOutcome.FAILED.equals(outcomes.get(i))) {
+          queueOperationDTOs.add(timelineMapper.onboardingToTimeline(preparedEvaluations.get(i)));
+        }
+      }
+      sendAllToTimeline(queueOperationDTOs);
+    });
+
+    for (int i = 0; i < preparedEvaluations.size(); i++) {
+      EvaluationDTO evaluationDTO = preparedEvaluations.get(i);
+      switch (outcomes.get(i)) {
+        case APPLIED -> auditUtilities.logCreatedWallet(evaluationDTO.getUserId(), evaluationDTO.getInitiativeId());
+        case SKIPPED, NOT_FOUND -> {
+          log.info("[CREATE_WALLET_BATCH] The wallet of user {} on initiative {} already exists, it is left unchanged",
+              sanitizeString(evaluationDTO.getUserId()), sanitizeString(evaluationDTO.getInitiativeId()));
+          auditUtilities.logCreatedWallet(evaluationDTO.getUserId(), evaluationDTO.getInitiativeId());
+        }
+        case FAILED -> {
+          log.error("[CREATE_WALLET_BATCH] Error while storing the wallet of user {} on initiative {}. Sending message to Error queue.",
+              sanitizeString(evaluationDTO.getUserId()), sanitizeString(evaluationDTO.getInitiativeId()));
+          this.sendToQueueError(
+              new WalletUpdateException("[CREATE_WALLET_BATCH] Something went wrong creating wallet having id: %s"
+                  .formatted(wallets.get(i).getId())),
+              MessageBuilder.withPayload(evaluationDTO), outcomeServer, outcomeTopic, true);
+        }
+      }
+    }
+
+    performanceLog(startTime, SERVICE_CREATE_WALLET_BATCH);
+  }
+
+  /** Creates the counters and the voucher of an onboarded user, returning the wallet to be stored. */
+  private Wallet prepareWallet(EvaluationDTO evaluationDTO) {
+    rewardCalculatorRestConnector.createOnboardingCounters(
+        sanitizeString(evaluationDTO.getInitiativeId()), sanitizeString(evaluationDTO.getUserId()));
+
+    Wallet wallet = walletMapper.map(evaluationDTO);
+
+    /**  commened to avoid rewrite due o he re-onboarding
+    if (evaluationDTO.getFamilyId() != null) {
+      List<Wallet> familyWallets =
+          walletRepository.findByInitiativeIdAndFamilyId(
+              evaluationDTO.getInitiativeId(), evaluationDTO.getFamilyId());
+      if (!familyWallets.isEmpty()) {
+        wallet.setAmountCents(familyWallets.get(0).getAmountCents());
+      }
+    }
+    */
+
+    if (WalletConstants.INITIATIVE_REWARD_TYPE_DISCOUNT.equals(
+        evaluationDTO.getInitiativeRewardType())) {
+      wallet.setStatus(WalletStatus.REFUNDABLE.name());
+      wallet.setNInstr(1);
+    }
+
+    log.info("[POST_PAYMENT_BAR_CODE_EXTENDED] Create the vocuher and return his start and end Date");
+    TransactionBarCodeEnrichedResponse response = paymentRestConnector.createExtendedTransaction(TransactionBarCodeCreationRequest
+            .builder()
+            .initiativeId(evaluationDTO.getInitiativeId())
+            .voucherAmountCents(evaluationDTO.getBeneficiaryBudgetCents())
+            .build(), evaluationDTO.getUserId());
+    wallet.setVoucherStartDate(Utilities.getLocalDate(response.getTrxDate()));
+    wallet.setVoucherEndDate(Utilities.getLocalDate(response.getTrxEndDate()));
+    wallet.setCreatedAt(LocalDateTime.now());
+    return wallet;
+  }
+
   @Override
   public void unsubscribe(String initiativeId, String userId, String channel) {
     long startTime = System.currentTimeMillis();
@@ -479,11 +658,8 @@ public class WalletServiceImpl implements WalletService {
 
     log.info("[UNSUBSCRIBE] Unsubscribing user {} on initiative {}", userId, initiativeId);
     LocalDateTime now = LocalDateTime.now();
-    String statusTemp = wallet.getStatus();
-    wallet.setRequestUnsubscribeDate(now);
     UnsubscribeCallDTO unsubscribeCallDTO =
-        new UnsubscribeCallDTO(
-            initiativeId, userId, wallet.getRequestUnsubscribeDate().toString(), channel);
+        new UnsubscribeCallDTO(initiativeId, userId, now.toString(), channel);
     try {
       onboardingRestConnector.disableOnboarding(unsubscribeCallDTO);
       log.info("[UNSUBSCRIBE] Onboarding disabled on initiative {} for user {}", initiativeId,
@@ -497,16 +673,18 @@ public class WalletServiceImpl implements WalletService {
       throw e;
     }
     try {
-      wallet.setStatus(WalletStatus.UNSUBSCRIBED);
-      wallet.setNInstr(0);
-      wallet.setUpdateDate(now);
-      walletRepository.save(wallet);
+      outboxService.executeInTransaction(() -> {
+        walletUpdatesRepository.unsubscribeWallet(initiativeId, userId, now);
+        sendToTimeline(timelineMapper.unsubscribeToTimeline(initiativeId, userId, now));
+      });
       auditUtilities.logUnsubscribe(userId, initiativeId);
       log.info("[UNSUBSCRIBE] Wallet disabled on initiative {} for user {}", initiativeId,
           userId);
       performanceLog(startTime, SERVICE_UNSUBSCRIBE);
     } catch (Exception e) {
-      this.rollbackWallet(statusTemp, wallet);
+      if (!outboxService.isEnabled()) {
+        this.rollbackWallet(wallet);
+      }
       onboardingRestConnector.rollback(initiativeId, userId);
       performanceLog(startTime, SERVICE_UNSUBSCRIBE);
       auditUtilities.logUnsubscribeKO(
@@ -515,29 +693,131 @@ public class WalletServiceImpl implements WalletService {
           initiativeId, userId);
       throw e;
     }
-    QueueOperationDTO queueOperationDTO =
-        timelineMapper.unsubscribeToTimeline(
-            wallet.getInitiativeId(),
-            wallet.getUserId(),
-            wallet.getRequestUnsubscribeDate()
-        );
-    sendToTimeline(queueOperationDTO);
   }
 
 
   @Override
   public void processTransaction(Message<String> rewardTransactionDTOMessage) {
-      RewardTransactionDTO rewardTransactionDTO;
+      RewardTransactionDTO rewardTransactionDTO = readRewardTransaction(rewardTransactionDTOMessage);
+      if (rewardTransactionDTO != null) {
+          processTransaction(rewardTransactionDTOMessage, rewardTransactionDTO);
+      }
+  }
+
+  @Override
+  public void processTransactions(List<Message<String>> rewardTransactionDTOMessages) {
+      long startTime = System.currentTimeMillis();
+      log.info("[PROCESS_TRANSACTION_BATCH] Received {} transactions", rewardTransactionDTOMessages.size());
+
+      List<ReceivedTransaction> receivedTransactions = new ArrayList<>(rewardTransactionDTOMessages.size());
+      for (Message<String> rewardTransactionDTOMessage : rewardTransactionDTOMessages) {
+          RewardTransactionDTO rewardTransactionDTO = readRewardTransaction(rewardTransactionDTOMessage);
+          if (rewardTransactionDTO != null) {
+              receivedTransactions.add(new ReceivedTransaction(rewardTransactionDTOMessage, rewardTransactionDTO));
+          }
+      }
+
+      if (transactionLanes > 1 && receivedTransactions.size() > 1) {
+          processTransactionLanes(receivedTransactions);
+      } else {
+          processTransactionLane(receivedTransactions);
+      }
+
+      performanceLog(startTime, SERVICE_PROCESS_TRANSACTION_BATCH);
+  }
+
+  /**
+   * Splits the poll into lanes by userId, so that the records of a wallet keep their order, and processes the lanes
+   * concurrently. It returns only when every lane is completed, thus the offsets are committed after the whole poll.
+   */
+  private void processTransactionLanes(List<ReceivedTransaction> receivedTransactions) {
+      Map<Integer, List<ReceivedTransaction>> lanes = receivedTransactions.stream()
+              .collect(Collectors.groupingBy(
+                      receivedTransaction -> Math.floorMod(Objects.hashCode(receivedTransaction.rewardTransactionDTO().getUserId()), transactionLanes),
+                      LinkedHashMap::new,
+                      Collectors.toList()));
+
+      List<Future<?>> laneResults = new ArrayList<>(lanes.size());
+      try (ExecutorService laneExecutor = Executors.newVirtualThreadPerTaskExecutor()) {
+          lanes.values().forEach(lane -> laneResults.add(laneExecutor.submit(() -> processTransactionLane(lane))));
+
+          try {
+              for (Future<?> laneResult : laneResults) {
+                  laneResult.get();
+              }
+          } catch (InterruptedException | ExecutionException e) {
+              // closing the executor waits for every lane, thus the pending ones are cancelled before leaving its scope
+              laneResults.forEach(laneResult -> laneResult.cancel(true));
+              throw e;
+          }
+      } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IllegalStateException("[PROCESS_TRANSACTION_BATCH] Interrupted while processing transactions", e);
+      } catch (ExecutionException e) {
+          if (e.getCause() instanceof RuntimeException runtimeException) {
+              throw runtimeException;
+          }
+          throw new IllegalStateException("[PROCESS_TRANSACTION_BATCH] Error while processing transactions", e.getCause());
+      }
+  }
+
+  private void processTransactionLane(List<ReceivedTransaction> receivedTransactions) {
+      List<RewardedTransaction> rewardedTransactions = new ArrayList<>();
+      Set<String> pendingUserIds = new HashSet<>();
+      for (ReceivedTransaction receivedTransaction : receivedTransactions) {
+          Message<String> rewardTransactionDTOMessage = receivedTransaction.message();
+          RewardTransactionDTO rewardTransactionDTO = receivedTransaction.rewardTransactionDTO();
+
+          if (isWalletRewardUpdate(rewardTransactionDTO)) {
+              rewardTransactionDTO.getRewards().forEach((initiativeId, reward) ->
+                      rewardedTransactions.add(new RewardedTransaction(initiativeId, rewardTransactionDTO, reward)));
+              pendingUserIds.add(rewardTransactionDTO.getUserId());
+          } else {
+              // flushing the pending updates keeps the order of the poll for the same user
+              if (pendingUserIds.contains(rewardTransactionDTO.getUserId())) {
+                  rewardTransactionsBatch(rewardedTransactions);
+                  rewardedTransactions.clear();
+                  pendingUserIds.clear();
+              }
+              processTransaction(rewardTransactionDTOMessage, rewardTransactionDTO);
+          }
+      }
+      rewardTransactionsBatch(rewardedTransactions);
+  }
+
+  private RewardTransactionDTO readRewardTransaction(Message<String> rewardTransactionDTOMessage) {
+      return readPayload(rewardTransactionDTOMessage, RewardTransactionDTO.class,
+              "PROCESS_TRX_EH", transactionServer, transactionTopic);
+  }
+
+  /**
+   * Maps each record of a poll on its own, so that a malformed payload is sent to the error queue alone instead of
+   * failing the whole poll.
+   */
+  private <T> List<T> readPayloads(
+          List<Message<String>> messages, Class<T> payloadType, String flow, String server, String topic) {
+      List<T> payloads = new ArrayList<>(messages.size());
+      for (Message<String> message : messages) {
+          T payload = readPayload(message, payloadType, flow, server, topic);
+          if (payload != null) {
+              payloads.add(payload);
+          }
+      }
+      return payloads;
+  }
+
+  private <T> T readPayload(Message<String> message, Class<T> payloadType, String flow, String server, String topic) {
       try {
-          rewardTransactionDTO = objectMapper.readValue(
-                  rewardTransactionDTOMessage.getPayload(), RewardTransactionDTO.class);
+          return objectMapper.readValue(message.getPayload(), payloadType);
       } catch (Exception e) {
-          log.error("[PROCESS_TRX_EH] Unable to map message to RewardTransactionDTO. payload='{}'",
-                  rewardTransactionDTOMessage.getPayload(), e);
-          this.sendToQueueError(e, MessageBuilder.fromMessage(rewardTransactionDTOMessage),
-                  transactionServer, transactionTopic, false);
-          return;
+          log.error("[{}] Unable to map message to {}. payload='{}'",
+                  flow, payloadType.getSimpleName(), message.getPayload(), e);
+          this.sendToQueueError(e, MessageBuilder.fromMessage(message), server, topic, false);
+          return null;
       }
+  }
+
+  private void processTransaction(Message<String> rewardTransactionDTOMessage, RewardTransactionDTO rewardTransactionDTO) {
       long startTime = System.currentTimeMillis();
       String trxStatus = rewardTransactionDTO.getStatus();
       String trxId = rewardTransactionDTO.getId();
@@ -574,6 +854,138 @@ public class WalletServiceImpl implements WalletService {
       performanceLog(startTime, SERVICE_PROCESS_TRANSACTION);
   }
 
+  private static boolean isWalletRewardUpdate(RewardTransactionDTO rewardTransactionDTO) {
+      String trxStatus = rewardTransactionDTO.getStatus();
+      boolean syncChannel = ChannelTransaction.isChannelPresent(rewardTransactionDTO.getChannel());
+      return rewardTransactionDTO.getUserId() != null
+              && rewardTransactionDTO.getRewards() != null
+              && ((!syncChannel && SyncTrxStatus.REWARDED.name().equals(trxStatus))
+                  || (syncChannel && (SyncTrxStatus.AUTHORIZED.name().equals(trxStatus)
+                      || SyncTrxStatus.CANCELLED.name().equals(trxStatus))));
+  }
+
+  private void rewardTransactionsBatch(List<RewardedTransaction> rewardedTransactions) {
+      if (rewardedTransactions.isEmpty()) {
+          return;
+      }
+
+      Map<WalletKey, List<RewardedTransaction>> transactionsByWallet = rewardedTransactions.stream()
+              .collect(Collectors.groupingBy(
+                      rewardedTransaction -> new WalletKey(
+                              rewardedTransaction.rewardTransactionDTO().getUserId(), rewardedTransaction.initiativeId()),
+                      LinkedHashMap::new,
+                      Collectors.toList()));
+
+      Map<String, WalletRewardView> wallets = walletRepository.findRewardViewByIdInAndUserIdIn(
+                      transactionsByWallet.keySet().stream().map(WalletKey::id).toList(),
+                      transactionsByWallet.keySet().stream().map(WalletKey::userId).distinct().toList()).stream()
+              .collect(Collectors.toMap(WalletRewardView::id, Function.identity()));
+
+      List<WalletKey> updatedWallets = new ArrayList<>();
+      List<WalletRewardUpdateDTO> rewardUpdates = new ArrayList<>();
+      List<List<RewardedTransaction>> appliedTransactions = new ArrayList<>();
+      transactionsByWallet.forEach((walletKey, walletTransactions) -> {
+          WalletRewardView wallet = wallets.get(walletKey.id());
+          if (wallet == null) {
+              log.info("[PROCESS_TRANSACTION_BATCH] No wallet found with id {}", walletKey.id());
+          } else if (wallet.familyId() != null) {
+              // family budgets span several wallets: keep the per-record update
+              walletTransactions.forEach(rewardedTransaction -> rewardFamilyTransaction(wallet.familyId(), rewardedTransaction));
+          } else {
+              List<RewardedTransaction> newerTransactions = newerTransactions(wallet, walletTransactions);
+              if (!newerTransactions.isEmpty()) {
+                  updatedWallets.add(walletKey);
+                  rewardUpdates.add(toRewardUpdate(walletKey, newerTransactions));
+                  appliedTransactions.add(newerTransactions);
+              }
+          }
+      });
+
+      List<WalletUpdateOutcome> outcomes = walletUpdatesRepository.rewardTransactions(rewardUpdates);
+
+      for (int i = 0; i < updatedWallets.size(); i++) {
+          String walletId = updatedWallets.get(i).id();
+          List<RewardedTransaction> walletTransactions = transactionsByWallet.get(updatedWallets.get(i));
+          switch (outcomes.get(i)) {
+              case APPLIED -> appliedTransactions.get(i).forEach(this::sendRewardedToTimeline);
+              case SKIPPED -> {
+                  // as a STALE single record: the versions are already accrued, thus their timeline is sent anyway
+                  log.info("[PROCESS_TRANSACTION_BATCH] Wallet {} concurrently updated to a newer counter version than {}",
+                          walletId, rewardUpdates.get(i).getCounterVersion());
+                  appliedTransactions.get(i).forEach(this::sendRewardedToTimeline);
+              }
+              case NOT_FOUND -> log.info("[PROCESS_TRANSACTION_BATCH] Wallet {} deleted meanwhile, skipping {} transactions",
+                      walletId, walletTransactions.size());
+              case FAILED -> {
+                  WalletUpdateException e = new WalletUpdateException(
+                          "[PROCESS_TRANSACTION_BATCH] Something went wrong updating wallet having id: %s".formatted(walletId));
+                  walletTransactions.forEach(rewardedTransaction -> {
+                      log.error("[PROCESS_TRANSACTION_BATCH] Error while updating wallet. trxId={} walletId={}. Sending message to Error queue.",
+                              rewardedTransaction.rewardTransactionDTO().getId(), walletId);
+                      this.sendToQueueError(e, MessageBuilder.withPayload(rewardedTransaction.rewardTransactionDTO()),
+                              transactionServer, transactionTopic, true);
+                  });
+              }
+          }
+      }
+  }
+
+  /** The transactions raising the counter version of the wallet, in the order they are received */
+  private List<RewardedTransaction> newerTransactions(WalletRewardView wallet, List<RewardedTransaction> walletTransactions) {
+      long counterVersion = wallet.counterVersion();
+      List<RewardedTransaction> newerTransactions = new ArrayList<>(walletTransactions.size());
+      for (RewardedTransaction rewardedTransaction : walletTransactions) {
+          Long version = rewardedTransaction.reward().getCounters().getVersion();
+          if (counterVersion < version) {
+              counterVersion = version;
+              newerTransactions.add(rewardedTransaction);
+          } else {
+              log.info("[PROCESS_TRANSACTION_BATCH] Counter version {} already applied on wallet {}, skipping transaction {}",
+                      version, wallet.id(), rewardedTransaction.rewardTransactionDTO().getId());
+          }
+      }
+      return newerTransactions;
+  }
+
+  private WalletRewardUpdateDTO toRewardUpdate(WalletKey walletKey, List<RewardedTransaction> newerTransactions) {
+      RewardedTransaction lastApplied = newerTransactions.getLast();
+      Counters counters = lastApplied.reward().getCounters();
+      Long budgetCents = lastApplied.rewardTransactionDTO().getVoucherAmountCents() != null
+              ? lastApplied.rewardTransactionDTO().getVoucherAmountCents()
+              : counters.getInitiativeBudgetCents();
+      return WalletRewardUpdateDTO.builder()
+              .userId(walletKey.userId())
+              .initiativeId(walletKey.initiativeId())
+              .amountCents(budgetCents - counters.getTotalRewardCents())
+              .accruedCents(counters.getTotalRewardCents())
+              .counterVersion(counters.getVersion())
+              .trxCount(newerTransactions.size())
+              .build();
+  }
+
+  private void sendRewardedToTimeline(RewardedTransaction rewardedTransaction) {
+      sendToTimeline(timelineMapper.transactionToTimeline(
+              rewardedTransaction.initiativeId(),
+              rewardedTransaction.rewardTransactionDTO(),
+              rewardedTransaction.reward().getAccruedRewardCents()));
+  }
+
+  private void rewardFamilyTransaction(String familyId, RewardedTransaction rewardedTransaction) {
+      RewardTransactionDTO rewardTransactionDTO = rewardedTransaction.rewardTransactionDTO();
+      try {
+          rewardFamilyWallet(rewardedTransaction.initiativeId(), familyId, rewardTransactionDTO, rewardedTransaction.reward().getCounters());
+          sendRewardedToTimeline(rewardedTransaction);
+      } catch (WalletUpdateException e) {
+          log.error("[PROCESS_TRANSACTION_BATCH] Error while updating family wallet. trxId={} userId={} initiativeId={}. Sending message to Error queue.",
+                  rewardTransactionDTO.getId(), rewardTransactionDTO.getUserId(), rewardedTransaction.initiativeId(), e);
+          this.sendToQueueError(e, MessageBuilder.withPayload(rewardTransactionDTO), transactionServer, transactionTopic, true);
+      }
+  }
+
+  private record ReceivedTransaction(Message<String> message, RewardTransactionDTO rewardTransactionDTO) {}
+
+  private record RewardedTransaction(String initiativeId, RewardTransactionDTO rewardTransactionDTO, RewardDTO reward) {}
+
   private void rewardedOrOthers(String trxId, String userId, String trxStatus, String channel, Integer rewardsCount, RewardTransactionDTO rewardTransactionDTO, long startTime) {
       log.info("[PROCESS_TRANSACTION][REWARDED_FLOW] Processing REWARDED (or allowed) transaction. trxId={} userId={} status={} channel={} rewardsCount={}",
               trxId, userId, trxStatus, channel, rewardsCount);
@@ -634,34 +1046,48 @@ public class WalletServiceImpl implements WalletService {
   }
 
   @Override
-  public void updateWallet(WalletPIBodyDTO walletPIDTO) {
+  public List<WalletPIOutcomeDTO> updateWallet(WalletPIBodyDTO walletPIDTO) {
     long startTime = System.currentTimeMillis();
 
-    log.info("[UPDATE_WALLET] New revoke from PM");
-    for (WalletPIDTO walletPI : walletPIDTO.getWalletDTOlist()) {
-      Wallet wallet =
-          walletRepository
-              .findByUserIdAndInitiativeId(walletPI.getUserId(), walletPI.getInitiativeId())
-              .orElse(null);
-      if (wallet == null) {
-        log.info(
-            "[UPDATE_WALLET] Wallet with initiativeId {} not found", walletPI.getInitiativeId());
-        continue;
+    List<WalletPIDTO> walletPIs = walletPIDTO.getWalletDTOlist();
+    log.info("[UPDATE_WALLET] New revoke from PM for {} instruments", walletPIs.size());
+    List<WalletKey> walletKeys = walletPIs.stream()
+        .map(walletPI -> new WalletKey(walletPI.getUserId(), walletPI.getInitiativeId()))
+        .toList();
+
+    List<InstrumentRevocationOutcome> revocationOutcomes = new ArrayList<>(walletPIs.size());
+    outboxService.executeInTransaction(() -> {
+      revocationOutcomes.clear();
+      revocationOutcomes.addAll(walletUpdatesRepository.decreaseInstrumentNumbers(walletKeys));
+
+      List<QueueOperationDTO> queueOperationDTOs = new ArrayList<>();
+      for (int i = 0; i < walletPIs.size(); i++) {
+        WalletPIDTO walletPI = walletPIs.get(i);
+        switch (revocationOutcomes.get(i)) {
+          case REVOKED -> queueOperationDTOs.add(
+              timelineMapper.deleteInstrumentToTimeline(
+                  walletPI.getInitiativeId(),
+                  walletPI.getUserId(),
+                  walletPI.getMaskedPan(),
+                  walletPI.getBrandLogo(),
+                  walletPI.getBrand()));
+          case NOT_FOUND -> log.info(
+              "[UPDATE_WALLET] Wallet with initiativeId {} not found", walletPI.getInitiativeId());
+          case FAILED -> log.error(
+              "[UPDATE_WALLET] Error while updating wallet with initiativeId {}", walletPI.getInitiativeId());
+        }
       }
-      wallet.setNInstr(wallet.getNInstr() - 1);
-      walletUpdatesRepository.decreaseInstrumentNumber(
-          walletPI.getInitiativeId(), walletPI.getUserId(), setStatus(wallet));
-      QueueOperationDTO queueOperationDTO =
-          timelineMapper.deleteInstrumentToTimeline(
-              wallet.getInitiativeId(),
-              wallet.getUserId(),
-              walletPI.getMaskedPan(),
-              walletPI.getBrandLogo(),
-              walletPI.getBrand());
-
-      sendToTimeline(queueOperationDTO);
+      sendAllToTimeline(queueOperationDTOs);
+    });
+
+    List<WalletPIOutcomeDTO> outcomes = new ArrayList<>(walletPIs.size());
+    for (int i = 0; i < walletPIs.size(); i++) {
+      WalletPIDTO walletPI = walletPIs.get(i);
+      outcomes.add(new WalletPIOutcomeDTO(
+          walletPI.getInitiativeId(), walletPI.getUserId(), walletPI.getMaskedPan(), revocationOutcomes.get(i)));
     }
     performanceLog(startTime, "UPDATE_WALLET");
+    return outcomes;
   }
 
   @Override
@@ -673,34 +1099,24 @@ public class WalletServiceImpl implements WalletService {
         "[PROCESS_ACK] Processing new ack {} from PaymentInstrument",
         instrumentAckDTO.getOperationType());
 
-    Wallet wallet =
-        walletRepository
-            .findByUserIdAndInitiativeId(instrumentAckDTO.getUserId(), instrumentAckDTO.getInitiativeId())
-            .orElse(null);
-
-    if (wallet == null) {
-      log.error("[PROCESS_ACK] Wallet not found for the user {}", instrumentAckDTO.getUserId());
-      performanceLog(startTime, "PROCESS_ACK");
-      throw new UserNotOnboardedException(String.format(USER_NOT_ONBOARDED_MSG, instrumentAckDTO.getInitiativeId()));
-    }
-
-    if (!instrumentAckDTO.getOperationType().equals(WalletConstants.REJECTED_ADD_INSTRUMENT)) {
-      wallet.setNInstr(instrumentAckDTO.getNinstr());
-
-      String status = WalletConstants.INITIATIVE_REWARD_TYPE_DISCOUNT.equals(wallet.getInitiativeRewardType()) ?
-              wallet.getStatus() : setStatus(wallet);
-
-      walletUpdatesRepository.updateInstrumentNumber(
-              instrumentAckDTO.getInitiativeId(),
-              instrumentAckDTO.getUserId(),
-              instrumentAckDTO.getNinstr(),
-              status);
-
-    }
+    outboxService.executeInTransaction(() -> {
+      // the status is derived by the update itself, thus the wallet is not read before
+      boolean walletFound = instrumentAckDTO.getOperationType().equals(WalletConstants.REJECTED_ADD_INSTRUMENT)
+          ? walletRepository.existsByIdAndUserId(
+              new WalletKey(instrumentAckDTO.getUserId(), instrumentAckDTO.getInitiativeId()).id(), instrumentAckDTO.getUserId())
+          : walletUpdatesRepository.updateInstrumentNumber(
+              instrumentAckDTO.getInitiativeId(), instrumentAckDTO.getUserId(), instrumentAckDTO.getNinstr());
+
+      if (!walletFound) {
+        log.error("[PROCESS_ACK] Wallet not found for the user {}", instrumentAckDTO.getUserId());
+        performanceLog(startTime, "PROCESS_ACK");
+        throw new UserNotOnboardedException(String.format(USER_NOT_ONBOARDED_MSG, instrumentAckDTO.getInitiativeId()));
+      }
 
-    QueueOperationDTO queueOperationDTO = timelineMapper.ackToTimeline(instrumentAckDTO);
+      QueueOperationDTO queueOperationDTO = timelineMapper.ackToTimeline(instrumentAckDTO);
 
-    sendToTimeline(queueOperationDTO);
+      sendToTimeline(queueOperationDTO);
+    });
     performanceLog(startTime, "PROCESS_ACK");
   }
 
@@ -716,50 +1132,73 @@ public class WalletServiceImpl implements WalletService {
 
     log.info("[PROCESS_REFUND] Processing new refund");
 
-    Wallet wallet =
-        walletRepository
-            .findByUserIdAndInitiativeId(refundDTO.getBeneficiaryId(), refundDTO.getInitiativeId())
-            .orElse(null);
-
-    if (wallet == null) {
-      log.info("[PROCESS_REFUND] Wallet not found, skipping message");
-      performanceLog(startTime, SERVICE_PROCESS_REFUND);
-      return;
-    }
-
-    Map<String, RefundHistory> history = wallet.getRefundHistory();
-
-    if (history == null) {
-      history = new HashMap<>();
-    }
-
-    if (history.containsKey(refundDTO.getRewardNotificationId())
-        && history.get(refundDTO.getRewardNotificationId()).getFeedbackProgressive()
-        >= refundDTO.getFeedbackProgressive()) {
-      log.info("[PROCESS_REFUND] Feedback already processed, skipping message");
-      performanceLog(startTime, SERVICE_PROCESS_REFUND);
-      return;
-    }
-
-    Long refunded = refundDTO.getRewardCents();
-
-    history.put(
-        refundDTO.getRewardNotificationId(), new RefundHistory(refundDTO.getFeedbackProgressive()));
-
-    walletUpdatesRepository.processRefund(
-        refundDTO.getInitiativeId(),
-        refundDTO.getBeneficiaryId(),
-        wallet.getRefundedCents() - refunded,
-        history);
+    outboxService.executeInTransaction(() -> {
+      // the idempotency check and the update of the refunded amount are a single conditional update
+      if (!walletUpdatesRepository.processRefund(
+          refundDTO.getInitiativeId(),
+          refundDTO.getBeneficiaryId(),
+          refundDTO.getRewardNotificationId(),
+          refundDTO.getFeedbackProgressive(),
+          refundDTO.getRewardCents())) {
+        log.info("[PROCESS_REFUND] Wallet not found or feedback already processed, skipping message");
+        return;
+      }
 
-    QueueOperationDTO queueOperationDTO = timelineMapper.refundToTimeline(refundDTO);
+      QueueOperationDTO queueOperationDTO = timelineMapper.refundToTimeline(refundDTO);
 
-    sendToTimeline(queueOperationDTO);
-    sendRefundNotification(refundDTO);
+      sendToTimeline(queueOperationDTO);
+      sendRefundNotification(refundDTO);
+    });
 
     performanceLog(startTime, SERVICE_PROCESS_REFUND);
   }
 
+  @Override
+  public void processRefunds(List<Message<String>> refundDTOMessages) {
+    long startTime = System.currentTimeMillis();
+    log.info("[PROCESS_REFUND_BATCH] Received {} refunds", refundDTOMessages.size());
+
+    List<RefundDTO> refundDTOs =
+        readPayloads(refundDTOMessages, RefundDTO.class, "PROCESS_REFUND_BATCH", refundServer, refundTopic);
+
+    List<RefundDTO> citizenRefunds = refundDTOs.stream()
+        .filter(refundDTO -> !BeneficiaryType.MERCHANT.equals(refundDTO.getBeneficiaryType()))
+        .toList();
+
+    List<RefundDTO> failedRefunds = new ArrayList<>();
+    outboxService.executeInTransaction(() -> {
+      failedRefunds.clear();
+      List<WalletUpdateOutcome> outcomes = walletUpdatesRepository.processRefunds(citizenRefunds);
+
+      List<QueueOperationDTO> queueOperationDTOs = new ArrayList<>();
+      List<NotificationQueueDTO> notificationQueueDTOs = new ArrayList<>();
+      for (int i = 0; i < citizenRefunds.size(); i++) {
+        RefundDTO refundDTO = citizenRefunds.get(i);
+        switch (outcomes.get(i)) {
+          case APPLIED -> {
+            queueOperationDTOs.add(timelineMapper.refundToTimeline(refundDTO));
+            notificationQueueDTOs.add(refundNotification(refundDTO));
+          }
+          case SKIPPED, NOT_FOUND -> log.info(
+              "[PROCESS_REFUND_BATCH] Wallet not found or feedback already processed, skipping refund {}", refundDTO.getId());
+          case FAILED -> failedRefunds.add(refundDTO);
+        }
+      }
+      sendAllToTimeline(queueOperationDTOs);
+      sendAllNotifications(notificationQueueDTOs);
+    });
+
+    failedRefunds.forEach(refundDTO -> {
+      log.error("[PROCESS_REFUND_BATCH] Error while updating wallet. refundId={}. Sending message to Error queue.", refundDTO.getId());
+      this.sendToQueueError(
+          new WalletUpdateException("[PROCESS_REFUND_BATCH] Something went wrong updating wallet having id: %s"
+              .formatted(new WalletKey(refundDTO.getBeneficiaryId(), refundDTO.getInitiativeId()).id())),
+          MessageBuilder.withPayload(refundDTO), refundServer, refundTopic, true);
+    });
+
+    performanceLog(startTime, SERVICE_PROCESS_REFUND_BATCH);
+  }
+
   @Override
   public void enrollInstrumentIssuer(String initiativeId, String userId, InstrumentIssuerDTO body) {
     long startTime = System.currentTimeMillis();
@@ -813,24 +1252,107 @@ public class WalletServiceImpl implements WalletService {
   public void processCommand(QueueCommandOperationDTO queueCommandOperationDTO) {
     if ((SERVICE_COMMAND_DELETE_INITIATIVE).equals(queueCommandOperationDTO.getOperationType())) {
       long startTime = System.currentTimeMillis();
+      String initiativeId = queueCommandOperationDTO.getEntityId();
+
+      WalletDeleteCheckpoint checkpoint = walletDeleteCheckpointRepository.findById(initiativeId)
+          .orElseGet(() -> WalletDeleteCheckpoint.builder()
+              .initiativeId(initiativeId)
+              .startedAt(LocalDateTime.now())
+              .build());
+      if (checkpoint.getLastId() != null) {
+        log.info("[DELETE_INITIATIVE] Resuming the deletion of initiative {} after {} deleted wallets",
+            initiativeId, checkpoint.getDeletedCount());
+      }
 
-      List<Wallet> deletedWallets = new ArrayList<>();
-      List<Wallet> fetchedWallets;
+      if (deleteInitiativeWallets(checkpoint)) {
+        walletDeleteCheckpointRepository.deleteById(initiativeId);
+        log.info("[DELETE_INITIATIVE] Deleted initiative {} from collection: wallet ({} wallets)",
+            initiativeId, checkpoint.getDeletedCount());
+      }
+      performanceLog(startTime, SERVICE_COMMAND_DELETE_INITIATIVE);
+    }
+  }
 
-      do {
-        fetchedWallets = walletUpdatesRepository.deletePaged(queueCommandOperationDTO.getEntityId(), pageSize);
-        deletedWallets.addAll(fetchedWallets);
-        try{
-          Thread.sleep(delay);
-        } catch (InterruptedException e){
-          log.error("An error has occurred while waiting {}", e.getMessage());
-          Thread.currentThread().interrupt();
+  /**
+   * Deletes the wallets of the initiative page by page, reading just their keys and saving the progress after each
+   * page. The page size shrinks when Cosmos throttles the requests and grows back while it doesn't.
+   * <br />
+   * Each page is stored in the checkpoint before being deleted: a run interrupted after the delete, whose wallets
+   * cannot be read anymore, deletes and audits that page again when resumed.
+   * @return false if the thread was interrupted before completing the deletion
+   */
+  private boolean deleteInitiativeWallets(WalletDeleteCheckpoint checkpoint) {
+    String initiativeId = checkpoint.getInitiativeId();
+    int currentPageSize = pageSize;
+    while (true) {
+      List<WalletKeyView> page = checkpoint.getPendingWallets();
+      boolean resumedPage = page != null && !page.isEmpty();
+      try {
+        if (!resumedPage) {
+          page = walletUpdatesRepository.findKeysPage(initiativeId, checkpoint.getLastId(), currentPageSize);
+          if (!page.isEmpty()) {
+            checkpoint.setPendingWallets(page);
+            checkpoint.setUpdatedAt(LocalDateTime.now());
+            walletDeleteCheckpointRepository.save(checkpoint);
+          }
+        }
+        if (!page.isEmpty()) {
+          walletUpdatesRepository.deleteByIds(initiativeId, page);
         }
-      } while (fetchedWallets.size() == pageSize);
+      } catch (RuntimeException e) {
+        long throttlingDelay = getThrottlingDelay(e);
+        currentPageSize = Math.max(1, currentPageSize / 2);
+        log.warn("[DELETE_INITIATIVE] Request rate too large while deleting initiative {}: waiting {} ms, page size reduced to {}",
+            initiativeId, throttlingDelay, currentPageSize);
+        if (!pause(throttlingDelay)) {
+          return false;
+        }
+        continue;
+      }
 
-      log.info("[DELETE_INITIATIVE] Deleted initiative {} from collection: wallet", queueCommandOperationDTO.getEntityId());
-      deletedWallets.forEach(deletedWallet -> auditUtilities.logDeletedWallet(deletedWallet.getUserId(), deletedWallet.getInitiativeId()));
-      performanceLog(startTime, SERVICE_COMMAND_DELETE_INITIATIVE);
+      if (page.isEmpty()) {
+        return true;
+      }
+      page.forEach(deletedWallet -> auditUtilities.logDeletedWallet(deletedWallet.userId(), deletedWallet.initiativeId()));
+      checkpoint.setLastId(page.getLast().id());
+      checkpoint.setDeletedCount(checkpoint.getDeletedCount() + page.size());
+      checkpoint.setPendingWallets(null);
+      checkpoint.setUpdatedAt(LocalDateTime.now());
+      walletDeleteCheckpointRepository.save(checkpoint);
+
+      if (!resumedPage && page.size() < currentPageSize) {
+        return true;
+      }
+      if (Thread.currentThread().isInterrupted()) {
+        log.warn("[DELETE_INITIATIVE] Interrupted while deleting initiative {}: it will be resumed from the checkpoint", initiativeId);
+        return false;
+      }
+      currentPageSize = Math.min(pageSize, currentPageSize + Math.max(1, pageSize / 10));
+    }
+  }
+
+  /** @return the time to wait before retrying, if the exception is due to Cosmos throttling, rethrowing it otherwise */
+  private long getThrottlingDelay(RuntimeException e) {
+    Long retryAfterMs;
+    if (e instanceof MongoRequestRateTooLargeRetryExpiredException expiredException) {
+      retryAfterMs = expiredException.getRetryAfterMs();
+    } else if (e instanceof DataAccessException dataAccessException
+        && MongoRequestRateTooLargeRetryer.isRequestRateTooLargeException(dataAccessException)) {
+      retryAfterMs = MongoRequestRateTooLargeRetryer.getRetryAfterMs(dataAccessException);
+    } else {
+      throw e;
+    }
+    return retryAfterMs != null ? retryAfterMs : delay;
+  }
+
+  private static boolean pause(long millis) {
+    try {
+      Thread.sleep(millis);
+      return true;
+    } catch (InterruptedException e) {
+      log.warn("[DELETE_INITIATIVE] Interrupted while waiting: the deletion will be resumed from the checkpoint");
+      Thread.currentThread().interrupt();
+      return false;
     }
   }
 
@@ -888,16 +1410,10 @@ public class WalletServiceImpl implements WalletService {
 
 
   private void updateWalletFromTransactionCaptured(String initiativeId, String userId, Long accruedRewardCents ) {
-      Wallet userWallet = walletRepository.findByUserIdAndInitiativeId(userId, initiativeId).orElse(null);
-      if (userWallet == null) {
+      if (!walletUpdatesRepository.captureTransaction(initiativeId, userId, accruedRewardCents)) {
           log.info("[UPDATE_WALLET_FROM_TRANSACTION_CAPTURED] No wallet found for user {} and initiativeId {}",
                   userId, initiativeId);
-          return;
       }
-      userWallet.setAmountCents(0L);
-      userWallet.setAccruedCents(userWallet.getAccruedCents() == 0L ? accruedRewardCents : userWallet.getAccruedCents());
-      userWallet.setUpdateDate(LocalDateTime.now());
-      walletRepository.save(userWallet);
   }
   private void updateWalletFromTransaction(
       String initiativeId,
@@ -908,19 +1424,24 @@ public class WalletServiceImpl implements WalletService {
     if (!(ChannelTransaction.isChannelPresent(rewardTransactionDTO.getChannel())
         && rewardTransactionDTO.getStatus().equals("REWARDED"))) {
 
-      Wallet userWallet = walletRepository.findByUserIdAndInitiativeId(rewardTransactionDTO.getUserId(), initiativeId).orElse(null);
-
-      if (userWallet == null) {
-        log.info("[UPDATE_WALLET_FROM_TRANSACTION] No wallet found for user {} and initiativeId {}",
-            rewardTransactionDTO.getUserId(), initiativeId);
-        return;
-      }
+      Long budgetCents = rewardTransactionDTO.getVoucherAmountCents() != null ? rewardTransactionDTO.getVoucherAmountCents() : counters.getInitiativeBudgetCents();
+      RewardUpdateResult result = walletUpdatesRepository.rewardTransactionIfNewer(initiativeId,
+              rewardTransactionDTO.getUserId(),
+              rewardTransactionDTO.getElaborationDateTime(),
+              budgetCents - counters.getTotalRewardCents(),
+              counters.getTotalRewardCents(),
+              counters.getVersion());
 
-      if (userWallet.getFamilyId() == null) {
-        rewardUserTransaction(initiativeId, rewardTransactionDTO, counters, userWallet);
-      }
-      else {
-        rewardFamilyUserTransaction(initiativeId, rewardTransactionDTO, counters, userWallet);
+      switch (result.outcome()) {
+        case NOT_FOUND -> {
+          log.info("[UPDATE_WALLET_FROM_TRANSACTION] No wallet found for user {} and initiativeId {}",
+              rewardTransactionDTO.getUserId(), initiativeId);
+          return;
+        }
+        case STALE -> log.info("[UPDATE_WALLET_FROM_TRANSACTION] Counter version {} already applied for user {} and initiativeId {}",
+            counters.getVersion(), rewardTransactionDTO.getUserId(), initiativeId);
+        case FAMILY_WALLET -> rewardFamilyWallet(initiativeId, result.familyId(), rewardTransactionDTO, counters);
+        case APPLIED -> log.info("[UPDATE_WALLET_FROM_TRANSACTION] Wallet updated to counter version {}", counters.getVersion());
       }
     }
 
@@ -928,72 +1449,38 @@ public class WalletServiceImpl implements WalletService {
     sendToTimeline(timelineMapper.transactionToTimeline(initiativeId, rewardTransactionDTO, accruedRewardCents));
   }
 
-  private void rewardFamilyUserTransaction(String initiativeId, RewardTransactionDTO rewardTransactionDTO, Counters counters, Wallet userWallet) {
-    if(userWallet.getCounterVersion() < counters.getVersion()) {
-      log.info(
-              "[UPDATE_WALLET_FROM_TRANSACTION][FAMILY_WALLET] Family {} total reward: {}",
-              userWallet.getFamilyId(),
-              counters.getTotalRewardCents());
-
-      Long budgetCents = rewardTransactionDTO.getVoucherAmountCents() != null ? rewardTransactionDTO.getVoucherAmountCents() : counters.getInitiativeBudgetCents();
-      boolean updateResult =
-              walletUpdatesRepository.rewardFamilyTransaction(
-                      initiativeId,
-                      userWallet.getFamilyId(),
-                      rewardTransactionDTO.getElaborationDateTime(),
-                      budgetCents - counters.getTotalRewardCents(),
-                      counters.getVersion());
-
-      if (!updateResult) {
-        throw new WalletUpdateException(
-                "[UPDATE_WALLET_FROM_TRANSACTION][FAMILY_WALLET] Something went wrong updating wallet(s) of family having id: %s"
-                        .formatted(userWallet.getFamilyId()));
-      }
-    }
-    if(!userWallet.getCounterHistory().contains(counters.getVersion())){
-      userWallet.getCounterHistory().add(counters.getVersion());
-      walletUpdatesRepository.rewardFamilyUserTransaction(
-              initiativeId,
-              rewardTransactionDTO.getUserId(),
-              rewardTransactionDTO.getElaborationDateTime(),
-              userWallet.getCounterHistory(),
-              userWallet.getAccruedCents() +
-                      rewardTransactionDTO
-                      .getRewards()
-                      .get(initiativeId)
-                      .getAccruedRewardCents()
-              );
-    }
-  }
-
-  private void rewardUserTransaction(String initiativeId, RewardTransactionDTO rewardTransactionDTO, Counters counters, Wallet userWallet) {
-    if(userWallet.getCounterVersion() < counters.getVersion()) {
-      Long budgetCents = rewardTransactionDTO.getVoucherAmountCents() != null ? rewardTransactionDTO.getVoucherAmountCents() : counters.getInitiativeBudgetCents();
-      walletUpdatesRepository.rewardTransaction(initiativeId,
-              rewardTransactionDTO.getUserId(),
-              rewardTransactionDTO.getElaborationDateTime(),
-              budgetCents - counters.getTotalRewardCents(),
-              counters.getTotalRewardCents(),
-              counters.getVersion());
+  private void rewardFamilyWallet(String initiativeId, String familyId, RewardTransactionDTO rewardTransactionDTO, Counters counters) {
+    log.info(
+            "[UPDATE_WALLET_FROM_TRANSACTION][FAMILY_WALLET] Family {} total reward: {}",
+            familyId,
+            counters.getTotalRewardCents());
+
+    Long budgetCents = rewardTransactionDTO.getVoucherAmountCents() != null ? rewardTransactionDTO.getVoucherAmountCents() : counters.getInitiativeBudgetCents();
+    FamilyRewardUpdateOutcome outcome = walletUpdatesRepository.rewardFamilyMemberTransaction(
+            initiativeId,
+            familyId,
+            rewardTransactionDTO.getUserId(),
+            budgetCents - counters.getTotalRewardCents(),
+            rewardTransactionDTO.getRewards().get(initiativeId).getAccruedRewardCents(),
+            counters.getVersion());
+
+    switch (outcome) {
+      case APPLIED -> log.info("[UPDATE_WALLET_FROM_TRANSACTION][FAMILY_WALLET] Family {} updated to counter version {}",
+              familyId, counters.getVersion());
+      case ALREADY_APPLIED -> log.info("[UPDATE_WALLET_FROM_TRANSACTION][FAMILY_WALLET] Counter version {} already applied, or older than the accrued versions window, for user {} of family {}",
+              counters.getVersion(), rewardTransactionDTO.getUserId(), familyId);
+      case PARTIALLY_APPLIED, FAILED -> throw new WalletUpdateException(
+              "[UPDATE_WALLET_FROM_TRANSACTION][FAMILY_WALLET] Something went wrong updating wallet(s) of family having id: %s (%s)"
+                      .formatted(familyId, outcome));
     }
   }
 
   private Wallet findByInitiativeIdAndUserId(String initiativeId, String userId) {
-    return walletRepository
-            .findByUserIdAndInitiativeId(userId, initiativeId)
+    return findWallet(initiativeId, userId)
             .orElseThrow(
                     () -> new UserNotOnboardedException(String.format(USER_NOT_ONBOARDED_MSG, initiativeId)));
   }
 
-  private String setStatus(Wallet wallet) {
-    if (!wallet.getStatus().equals(WalletStatus.SUSPENDED)) {
-      boolean hasIban = wallet.getIban() != null;
-      boolean hasInstrument = wallet.getNInstr() > 0;
-      return WalletStatus.getByBooleans(hasIban, hasInstrument).name();
-    }
-    return WalletStatus.SUSPENDED;
-  }
-
   @Override
   public void processIbanOutcome(IbanQueueWalletDTO iban) {
     long startTime = System.currentTimeMillis();
@@ -1007,37 +1494,76 @@ public class WalletServiceImpl implements WalletService {
       return;
     }
 
-    Wallet wallet =
-        walletRepository
-            .findByUserIdAndInitiativeId(iban.getUserId(), iban.getInitiativeId())
-            .orElse(null);
-
-    if (wallet == null) {
-      log.warn("[CHECK_IBAN_OUTCOME] Wallet not found. Skipping message");
-      performanceLog(startTime, SERVICE_CHECK_IBAN_OUTCOME);
-      auditUtilities.logIbanDeletedKO(
-          iban.getUserId(), iban.getInitiativeId(), iban.getIban(), "wallet not found");
-      return;
-    }
-
-    if (!iban.getIban().equals(wallet.getIban())) {
+    if (!walletUpdatesRepository.deleteIban(iban.getInitiativeId(), iban.getUserId(), iban.getIban())) {
       log.warn(
-          "[CHECK_IBAN_OUTCOME] The IBAN contained in the message is different from the IBAN currently enrolled.");
+          "[CHECK_IBAN_OUTCOME] Wallet not found or the IBAN contained in the message is different from the IBAN currently enrolled. Skipping message");
       performanceLog(startTime, SERVICE_CHECK_IBAN_OUTCOME);
       auditUtilities.logIbanDeletedKO(
-          iban.getUserId(), iban.getInitiativeId(), iban.getIban(), "iban mismatch");
+          iban.getUserId(), iban.getInitiativeId(), iban.getIban(), "wallet not found or iban mismatch");
       return;
     }
 
-    wallet.setIban(null);
-
-    walletUpdatesRepository.deleteIban(iban.getInitiativeId(), iban.getUserId(), setStatus(wallet));
     sendCheckIban(iban);
     auditUtilities.logIbanDeleted(iban.getUserId(), iban.getInitiativeId(), iban.getIban());
 
     performanceLog(startTime, SERVICE_CHECK_IBAN_OUTCOME);
   }
 
+  @Override
+  public void processIbanOutcomes(List<Message<String>> ibanQueueWalletDTOMessages) {
+    long startTime = System.currentTimeMillis();
+    log.info("[CHECK_IBAN_OUTCOME_BATCH] Received {} IBAN outcomes", ibanQueueWalletDTOMessages.size());
+
+    List<IbanQueueWalletDTO> ibanQueueWalletDTOs = readPayloads(ibanQueueWalletDTOMessages, IbanQueueWalletDTO.class,
+        "CHECK_IBAN_OUTCOME_BATCH", ibanOutcomeServer, ibanOutcomeTopic);
+
+    List<QueueOperationDTO> queueOperationDTOs = new ArrayList<>();
+    List<IbanQueueWalletDTO> koOutcomes = new ArrayList<>();
+    for (IbanQueueWalletDTO iban : ibanQueueWalletDTOs) {
+      if (iban.getStatus().equals(WalletConstants.STATUS_KO)) {
+        koOutcomes.add(iban);
+      } else {
+        queueOperationDTOs.add(
+            timelineMapper.ibanToTimeline(iban.getInitiativeId(), iban.getUserId(), iban.getIban(), iban.getChannel()));
+      }
+    }
+    log.info("[CHECK_IBAN_OUTCOME_BATCH] Skipping {} outcomes not KO", queueOperationDTOs.size());
+
+    List<WalletUpdateOutcome> outcomes = new ArrayList<>(koOutcomes.size());
+    outboxService.executeInTransaction(() -> {
+      outcomes.clear();
+      outcomes.addAll(walletUpdatesRepository.deleteIbans(koOutcomes));
+
+      List<NotificationQueueDTO> notificationQueueDTOs = new ArrayList<>();
+      for (int i = 0; i < koOutcomes.size(); i++) {
+        if (WalletUpdateOutcome.APPLIED.equals(outcomes.get(i))) {
+          notificationQueueDTOs.add(checkIbanNotification(koOutcomes.get(i)));
+        }
+      }
+      sendAllToTimeline(queueOperationDTOs);
+      sendAllNotifications(notificationQueueDTOs);
+    });
+
+    for (int i = 0; i < koOutcomes.size(); i++) {
+      IbanQueueWalletDTO iban = koOutcomes.get(i);
+      switch (outcomes.get(i)) {
+        case APPLIED -> auditUtilities.logIbanDeleted(iban.getUserId(), iban.getInitiativeId(), iban.getIban());
+        case SKIPPED, NOT_FOUND -> auditUtilities.logIbanDeletedKO(
+            iban.getUserId(), iban.getInitiativeId(), iban.getIban(), "wallet not found or iban mismatch");
+        case FAILED -> {
+          log.error("[CHECK_IBAN_OUTCOME_BATCH] Error while deleting the IBAN of user {} on initiative {}. Sending message to Error queue.",
+              iban.getUserId(), iban.getInitiativeId());
+          this.sendToQueueError(
+              new WalletUpdateException("[CHECK_IBAN_OUTCOME_BATCH] Something went wrong updating wallet having id: %s"
+                  .formatted(new WalletKey(iban.getUserId(), iban.getInitiativeId()).id())),
+              MessageBuilder.withPayload(iban), ibanOutcomeServer, ibanOutcomeTopic, true);
+        }
+      }
+    }
+
+    performanceLog(startTime, SERVICE_CHECK_IBAN_OUTCOME_BATCH);
+  }
+
   private void sendRejectedInstrumentToTimeline(String initiativeId, String userId, String channel,
       String instrumentType, String operationType) {
     InstrumentAckDTO instrumentAckDTO = InstrumentAckDTO.builder()
@@ -1052,35 +1578,37 @@ public class WalletServiceImpl implements WalletService {
   }
 
   private void sendCheckIban(IbanQueueWalletDTO iban) {
-    NotificationQueueDTO notificationQueueDTO =
-        NotificationQueueDTO.builder()
-            .operationType(WalletConstants.CHECKIBAN_KO)
-            .userId(iban.getUserId())
-            .initiativeId(iban.getInitiativeId())
-            .iban(iban.getIban())
-            .status(WalletConstants.STATUS_KO)
-            .build();
+    sendNotification(checkIbanNotification(iban));
+  }
 
-    sendNotification(notificationQueueDTO);
+  private NotificationQueueDTO checkIbanNotification(IbanQueueWalletDTO iban) {
+    return NotificationQueueDTO.builder()
+        .operationType(WalletConstants.CHECKIBAN_KO)
+        .userId(iban.getUserId())
+        .initiativeId(iban.getInitiativeId())
+        .iban(iban.getIban())
+        .status(WalletConstants.STATUS_KO)
+        .build();
   }
 
   private void sendRefundNotification(RefundDTO refundDTO) {
-    NotificationQueueDTO notificationQueueDTO =
-        NotificationQueueDTO.builder()
-            .operationType(WalletConstants.REFUND)
-            .userId(refundDTO.getBeneficiaryId())
-            .initiativeId(refundDTO.getInitiativeId())
-            .rewardNotificationId(refundDTO.getRewardNotificationId())
-            .refundReward(refundDTO.getEffectiveRewardCents())
-            .rejectionCode(refundDTO.getRejectionCode())
-            .rejectionReason(refundDTO.getRejectionReason())
-            .refundDate(refundDTO.getExecutionDate())
-            .refundFeedbackProgressive(refundDTO.getFeedbackProgressive())
-            .refundCro(refundDTO.getCro())
-            .status(refundDTO.getStatus())
-            .build();
+    sendNotification(refundNotification(refundDTO));
+  }
 
-    sendNotification(notificationQueueDTO);
+  private NotificationQueueDTO refundNotification(RefundDTO refundDTO) {
+    return NotificationQueueDTO.builder()
+        .operationType(WalletConstants.REFUND)
+        .userId(refundDTO.getBeneficiaryId())
+        .initiativeId(refundDTO.getInitiativeId())
+        .rewardNotificationId(refundDTO.getRewardNotificationId())
+        .refundReward(refundDTO.getEffectiveRewardCents())
+        .rejectionCode(refundDTO.getRejectionCode())
+        .rejectionReason(refundDTO.getRejectionReason())
+        .refundDate(refundDTO.getExecutionDate())
+        .refundFeedbackProgressive(refundDTO.getFeedbackProgressive())
+        .refundCro(refundDTO.getCro())
+        .status(refundDTO.getStatus())
+        .build();
   }
 
   private void sendSuspensionReadmissionNotification(
@@ -1096,7 +1624,19 @@ public class WalletServiceImpl implements WalletService {
     sendNotification(notificationQueueDTO);
   }
 
+  private void sendAllNotifications(List<NotificationQueueDTO> notificationQueueDTOs) {
+    if (outboxService.isEnabled()) {
+      outboxService.enqueueAll(NotificationProducer.BINDING_NAME, NotificationQueueDTO::getUserId, notificationQueueDTOs);
+      return;
+    }
+    notificationQueueDTOs.forEach(this::sendNotification);
+  }
+
   private void sendNotification(NotificationQueueDTO notificationQueueDTO) {
+    if (outboxService.isEnabled()) {
+      outboxService.enqueue(NotificationProducer.BINDING_NAME, notificationQueueDTO.getUserId(), notificationQueueDTO);
+      return;
+    }
     try {
       log.info("[SEND_NOTIFICATION] Sending event to Notification");
       notificationProducer.sendNotification(notificationQueueDTO);
@@ -1111,18 +1651,27 @@ public class WalletServiceImpl implements WalletService {
     IbanUtil.validate(iban);
   }
 
-  private void rollbackWallet(String statusToRollback, Wallet wallet) {
-    log.info("[ROLLBACK_WALLET] Wallet, old status: {}", wallet.getStatus());
-    if (WalletStatus.UNSUBSCRIBED.equals(wallet.getStatus())) {
-      wallet.setRequestUnsubscribeDate(null);
-    }
-    if (WalletStatus.SUSPENDED.equals(wallet.getStatus())) {
-      wallet.setSuspensionDate(null);
+  /** Reverts a change already accepted by the onboarding when the wallet update is not committed. */
+  private void compensateOnboarding(String logTag, Runnable compensation, Exception cause) {
+    try {
+      compensation.run();
+      log.info("{} Onboarding change reverted after the wallet update failure", logTag);
+    } catch (Exception e) {
+      log.error("{} Unable to revert the onboarding change after the wallet update failure", logTag, e);
+      cause.addSuppressed(e);
     }
-    wallet.setStatus(statusToRollback);
-    wallet.setUpdateDate(LocalDateTime.now());
-    walletRepository.save(wallet);
-    log.info("[ROLLBACK_WALLET] Rollback wallet, new status: {}", wallet.getStatus());
+  }
+
+  /** Restores the fields changed by a suspension, readmission or unsubscription to the values read before it. */
+  private void rollbackWallet(Wallet backup) {
+    walletUpdatesRepository.rollbackWallet(
+        backup.getInitiativeId(),
+        backup.getUserId(),
+        backup.getStatus(),
+        backup.getNInstr(),
+        backup.getSuspensionDate(),
+        backup.getRequestUnsubscribeDate());
+    log.info("[ROLLBACK_WALLET] Rollback wallet, new status: {}", backup.getStatus());
   }
 
   private void checkEndDate(LocalDate endDate, String initiativeId) {
@@ -1134,7 +1683,19 @@ public class WalletServiceImpl implements WalletService {
       }
   }
 
+  private void sendAllToTimeline(List<QueueOperationDTO> queueOperationDTOs) {
+    if (outboxService.isEnabled()) {
+      outboxService.enqueueAll(TimelineProducer.BINDING_NAME, QueueOperationDTO::getUserId, queueOperationDTOs);
+      return;
+    }
+    queueOperationDTOs.forEach(this::sendToTimeline);
+  }
+
   private void sendToTimeline(QueueOperationDTO queueOperationDTO) {
+    if (outboxService.isEnabled()) {
+      outboxService.enqueue(TimelineProducer.BINDING_NAME, queueOperationDTO.getUserId(), queueOperationDTO);
+      return;
+    }
     try {
       log.info("[SEND_TO_TIMELINE] Sending queue message to Timeline");
       timelineProducer.sendEvent(queueOperationDTO);
@@ -1173,80 +1734,91 @@ public class WalletServiceImpl implements WalletService {
         System.currentTimeMillis() - startTime);
   }
 
-  private String generateWalletId(String userId, String initiativeId){
-    return userId.concat("_").concat(initiativeId);
-  }
-
   @Override
   public InitiativesWithInstrumentDTO getInitiativesWithInstrument(String idWallet, String userId) {
     long startTime = System.currentTimeMillis();
-    List<InitiativesStatusDTO> initiativesStatusDTO = new ArrayList<>();
-
-    InitiativeListDTO initiativeListDTO = this.getInitiativeList(userId);
 
+    // the payment instrument call is independent of the wallets read, thus it runs concurrently with it, while the read
+    // stays on the request thread, where the Mongo retries and rate limiting apply the policy of the API calls
     log.info(
         "[GET_INSTRUMENT_DETAIL_ON_INITIATIVES] Get detail about payment instrument and its status on initiatives");
-    try {
+    Future<InstrumentDetailDTO> instrumentDetailFuture = fanOutExecutor.submit(() -> {
       log.info("[GET_INSTRUMENT_DETAIL_ON_INITIATIVES] Calling Payment Instrument");
-      InstrumentDetailDTO instrumentDetailDTO =
-          paymentInstrumentRestConnector.getInstrumentInitiativesDetail(
-              idWallet, userId, WalletConstants.FILTER_INSTRUMENT_STATUS_LIST);
+      return paymentInstrumentRestConnector.getInstrumentInitiativesDetail(
+          idWallet, userId, WalletConstants.FILTER_INSTRUMENT_STATUS_LIST);
+    });
 
-      if (initiativeListDTO.getInitiativeList().isEmpty()) {
-        return walletMapper.toInstrumentOnInitiativesDTO(
-            idWallet, instrumentDetailDTO, initiativesStatusDTO);
-      }
+    InitiativeListDTO initiativeListDTO;
+    try {
+      initiativeListDTO = this.getInitiativeList(userId);
+    } catch (RuntimeException e) {
+      instrumentDetailFuture.cancel(true);
+      performanceLog(startTime, "GET_INSTRUMENT_DETAIL_ON_INITIATIVES");
+      throw e;
+    }
 
-      log.info("[GET_INSTRUMENT_DETAIL_ON_INITIATIVES] Get all initiatives still active for user");
+    InstrumentDetailDTO instrumentDetailDTO;
+    try {
+      instrumentDetailDTO = joinFanOut(instrumentDetailFuture);
+    } catch (ServiceException e) {
+      log.error("[GET_INSTRUMENT_DETAIL_ON_INITIATIVES] Error in Payment Instrument Request");
+      performanceLog(startTime, "GET_INSTRUMENT_DETAIL_ON_INITIATIVES");
+      throw e;
+    } catch (RuntimeException e) {
+      performanceLog(startTime, "GET_INSTRUMENT_DETAIL_ON_INITIATIVES");
+      throw e;
+    }
+
+    List<InitiativesStatusDTO> initiativesStatusDTO = new ArrayList<>();
+    if (!initiativeListDTO.getInitiativeList().isEmpty()) {
+      Map<String, StatusOnInitiativeDTO> instrumentStatusOnInitiativeMap =
+          instrumentDetailDTO.getInitiativeList().stream()
+              .collect(
+                  Collectors.toMap(StatusOnInitiativeDTO::getInitiativeId, Function.identity()));
+
+      log.info("[GET_INSTRUMENT_DETAIL_ON_INITIATIVES] Get all initiatives still active for user, updated with payment status");
+      LocalDate today = LocalDate.now();
       for (WalletDTO wallet : initiativeListDTO.getInitiativeList()) {
         if (!wallet.getStatus().equals(WalletStatus.UNSUBSCRIBED)
-            && !wallet.getInitiativeEndDate().isBefore(LocalDate.now())
+            && !wallet.getInitiativeEndDate().isBefore(today)
             && WalletConstants.INITIATIVE_REWARD_TYPE_REFUND.equals(
             wallet.getInitiativeRewardType())) {
-          initiativesStatusDTO.add(walletMapper.toInstrStatusOnInitiativeDTO(wallet));
+          StatusOnInitiativeDTO instrumentStatus = instrumentStatusOnInitiativeMap.get(wallet.getInitiativeId());
+          initiativesStatusDTO.add(instrumentStatus != null
+              ? new InitiativesStatusDTO(
+                  wallet.getInitiativeId(),
+                  wallet.getInitiativeName(),
+                  instrumentStatus.getIdInstrument(),
+                  instrumentStatus.getStatus())
+              : walletMapper.toInstrStatusOnInitiativeDTO(wallet));
         }
       }
+    }
 
-      if (!instrumentDetailDTO.getInitiativeList().isEmpty()) {
-        List<StatusOnInitiativeDTO> instrStatusList = instrumentDetailDTO.getInitiativeList();
-
-        Map<String, StatusOnInitiativeDTO> instrumentStatusOnInitiativeMap =
-            instrStatusList.stream()
-                .collect(
-                    Collectors.toMap(StatusOnInitiativeDTO::getInitiativeId, Function.identity()));
-
-        log.info(
-            "[GET_INSTRUMENT_DETAIL_ON_INITIATIVES] Updating initiatives list with payment status");
-        initiativesStatusDTO =
-            initiativesStatusDTO.stream()
-                .map(
-                    i ->
-                        new InitiativesStatusDTO(
-                            i.getInitiativeId(),
-                            i.getInitiativeName(),
-                            (instrumentStatusOnInitiativeMap.get(i.getInitiativeId()) != null
-                                ? instrumentStatusOnInitiativeMap
-                                .get(i.getInitiativeId())
-                                .getIdInstrument()
-                                : null),
-                            (instrumentStatusOnInitiativeMap.get(i.getInitiativeId()) != null
-                                ? instrumentStatusOnInitiativeMap
-                                .get(i.getInitiativeId())
-                                .getStatus()
-                                : WalletConstants.INSTRUMENT_STATUS_DEFAULT)))
-                .toList();
-      }
+    performanceLog(startTime, "GET_INSTRUMENT_DETAIL_ON_INITIATIVES");
+    return walletMapper.toInstrumentOnInitiativesDTO(
+        idWallet, instrumentDetailDTO, initiativesStatusDTO);
+  }
 
-      performanceLog(startTime, "GET_INSTRUMENT_DETAIL_ON_INITIATIVES");
-      return walletMapper.toInstrumentOnInitiativesDTO(
-          idWallet, instrumentDetailDTO, initiativesStatusDTO);
-    } catch (ServiceException e) {
-      log.error("[GET_INSTRUMENT_DETAIL_ON_INITIATIVES] Error in Payment Instrument Request");
-      performanceLog(startTime, "GET_INSTRUMENT_DETAIL_ON_INITIATIVES");
-      throw e;
+  private static <T> T joinFanOut(Future<T> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("[GET_INSTRUMENT_DETAIL_ON_INITIATIVES] Interrupted while calling Payment Instrument", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException runtimeException) {
+        throw runtimeException;
+      }
+      throw new IllegalStateException("[GET_INSTRUMENT_DETAIL_ON_INITIATIVES] Error while calling Payment Instrument", e.getCause());
     }
   }
 
+  @PreDestroy
+  void shutdownFanOutExecutor() {
+    fanOutExecutor.shutdownNow();
+  }
+
   public static String sanitizeString(String str) {
     return str == null ? null : str.replaceAll("[\\r\\n]", "").replaceAll("[^\\w\\s-]", "");
   }
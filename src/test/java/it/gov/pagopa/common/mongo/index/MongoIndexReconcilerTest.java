@@ -0,0 +1,138 @@
+package it.gov.pagopa.common.mongo.index;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.AggregateIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Sort.Direction;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.PartialIndexFilter;
+import org.springframework.data.mongodb.core.query.Criteria;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.then;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+
+class MongoIndexReconcilerTest {
+
+    private static final String COLLECTION = "wallet";
+
+    private static final Index USER_INDEX = new Index().named("userId_initiativeId")
+            .on("userId", Direction.ASC)
+            .on("initiativeId", Direction.ASC);
+    private static final Index REMINDER_INDEX = new Index().named("reminder")
+            .on("initiativeId", Direction.ASC)
+            .on("voucherEndDate", Direction.ASC)
+            .partial(PartialIndexFilter.of(Criteria.where("accruedCents").is(0)));
+
+    private MongoTemplate mongoTemplate;
+    private IndexOperations indexOps;
+    private MongoCollection<Document> collection;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        mongoTemplate = mock(MongoTemplate.class);
+        indexOps = mock(IndexOperations.class);
+        collection = mock(MongoCollection.class);
+        given(mongoTemplate.indexOps(COLLECTION)).willReturn(indexOps);
+        given(mongoTemplate.getCollection(COLLECTION)).willReturn(collection);
+        given(collection.aggregate(anyList())).willThrow(mock(MongoCommandException.class));
+    }
+
+    private MongoIndexReconciler buildReconciler(boolean createMissing) {
+        return new MongoIndexReconciler(mongoTemplate, List.of(new MongoIndexes(COLLECTION, List.of(USER_INDEX, REMINDER_INDEX))), createMissing);
+    }
+
+    private static IndexInfo indexInfo(String name, Document partialFilter, String... keys) {
+        Document keysDocument = new Document();
+        for (String key : keys) {
+            keysDocument.append(key, 1);
+        }
+        Document index = new Document("name", name).append("key", keysDocument);
+        if (partialFilter != null) {
+            index.append("partialFilterExpression", partialFilter);
+        }
+        return IndexInfo.indexInfoOf(index);
+    }
+
+    @Test
+    void reconcile_createMissing() {
+        given(indexOps.getIndexInfo()).willReturn(List.of(
+                indexInfo("_id_", null, "_id"),
+                indexInfo("userId_initiativeId", null, "userId", "initiativeId")));
+
+        buildReconciler(true).reconcile();
+
+        then(indexOps).should().createIndex(REMINDER_INDEX);
+        then(indexOps).should(never()).createIndex(USER_INDEX);
+    }
+
+    @Test
+    void reconcile_createDisabled() {
+        given(indexOps.getIndexInfo()).willReturn(List.of());
+
+        buildReconciler(false).reconcile();
+
+        then(indexOps).should(never()).createIndex(any());
+    }
+
+    @Test
+    void report() {
+        given(indexOps.getIndexInfo()).willReturn(List.of(
+                indexInfo("_id_", null, "_id"),
+                indexInfo("userId_initiativeId", null, "initiativeId", "userId"),
+                indexInfo("reminder", new Document("accruedCents", 0), "initiativeId", "voucherEndDate"),
+                indexInfo("legacy", null, "iban")));
+
+        Map<String, MongoIndexReconciler.CollectionIndexesReport> report = buildReconciler(true).report();
+
+        MongoIndexReconciler.CollectionIndexesReport walletReport = report.get(COLLECTION);
+        assertThat(walletReport.missing()).isEmpty();
+        assertThat(walletReport.mismatched()).containsExactly("userId_initiativeId");
+        assertThat(walletReport.undeclared()).containsExactly("legacy");
+        assertThat(walletReport.unused()).isNull();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void report_unused() {
+        given(indexOps.getIndexInfo()).willReturn(List.of(
+                indexInfo("userId_initiativeId", null, "userId", "initiativeId")));
+        AggregateIterable<Document> stats = mock(AggregateIterable.class);
+        given(stats.iterator()).willAnswer(i -> mockCursor(List.of(
+                new Document("name", "userId_initiativeId").append("accesses", new Document("ops", 10L)),
+                new Document("name", "reminder").append("accesses", new Document("ops", 0L)))));
+        reset(collection);
+        given(collection.aggregate(anyList())).willReturn(stats);
+
+        MongoIndexReconciler.CollectionIndexesReport walletReport = buildReconciler(true).report().get(COLLECTION);
+
+        assertThat(walletReport.missing()).containsExactly("reminder");
+        assertThat(walletReport.unused()).containsExactly("reminder");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static MongoCursor<Document> mockCursor(List<Document> documents) {
+        Iterator<Document> iterator = documents.iterator();
+        MongoCursor<Document> cursor = mock(MongoCursor.class);
+        given(cursor.hasNext()).willAnswer(i -> iterator.hasNext());
+        given(cursor.next()).willAnswer(i -> iterator.next());
+        return cursor;
+    }
+}
@@ -0,0 +1,108 @@
+package it.gov.pagopa.common.mongo.retry;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+class MongoRequestRateLimiterTest {
+
+    private static MongoRequestRateLimiter buildLimiter(double initialRate) {
+        return new MongoRequestRateLimiter(true, initialRate, 10, 1000, 20, 0.5, 0.2);
+    }
+
+    @Test
+    void disabled() throws InterruptedException {
+        MongoRequestRateLimiter limiter = MongoRequestRateLimiter.disabled();
+        limiter.onThrottled(10_000L);
+
+        long startTime = System.currentTimeMillis();
+        for (int i = 0; i < 1000; i++) {
+            limiter.acquire(MongoRequestRateLimiter.Priority.BATCH);
+        }
+
+        Assertions.assertTrue(System.currentTimeMillis() - startTime < 100);
+        Assertions.assertEquals(0, limiter.getThrottledCount());
+    }
+
+    @Test
+    void throttlingDecreasesTheRateOncePerPause() {
+        MongoRequestRateLimiter limiter = buildLimiter(100);
+
+        limiter.onThrottled(200L);
+        limiter.onThrottled(200L);
+        limiter.onThrottled(200L);
+
+        Assertions.assertEquals(50, limiter.getRate(), 1);
+        Assertions.assertEquals(3, limiter.getThrottledCount());
+    }
+
+    @Test
+    void throttlingPausesTheCalls() throws InterruptedException {
+        MongoRequestRateLimiter limiter = buildLimiter(100);
+
+        limiter.onThrottled(150L);
+        long startTime = System.currentTimeMillis();
+        limiter.acquire(MongoRequestRateLimiter.Priority.API);
+
+        Assertions.assertTrue(System.currentTimeMillis() - startTime >= 140);
+    }
+
+    @Test
+    void rateGrowsWhileNotThrottled() throws InterruptedException {
+        MongoRequestRateLimiter limiter = buildLimiter(100);
+
+        TimeUnit.MILLISECONDS.sleep(500);
+        limiter.acquire(MongoRequestRateLimiter.Priority.API);
+
+        Assertions.assertTrue(limiter.getRate() >= 109, "Unexpected rate " + limiter.getRate());
+    }
+
+    @Test
+    void bulkCallsAreWeighedByTheirOperations() throws Exception {
+        MongoRequestRateLimiter limiter = buildLimiter(10);
+        // a bulk of 8 operations consumes the tokens available to batch calls: 10 less the reserve of 2
+        limiter.acquire(MongoRequestRateLimiter.Priority.BATCH, 8);
+
+        try (ExecutorService executor = Executors.newSingleThreadExecutor()) {
+            Future<?> batchCall = executor.submit(() -> {
+                limiter.acquire(MongoRequestRateLimiter.Priority.BATCH);
+                return null;
+            });
+            Assertions.assertThrows(TimeoutException.class, () -> batchCall.get(30, TimeUnit.MILLISECONDS));
+            batchCall.get(1, TimeUnit.SECONDS);
+        }
+
+        // a bulk larger than the bucket is admitted once it is full
+        long startTime = System.currentTimeMillis();
+        limiter.acquire(MongoRequestRateLimiter.Priority.BATCH, 1_000);
+        Assertions.assertTrue(System.currentTimeMillis() - startTime < 2_000);
+    }
+
+    @Test
+    void batchCannotConsumeTheApiReserve() throws Exception {
+        MongoRequestRateLimiter limiter = buildLimiter(10);
+        // consuming the tokens available to batch calls: 10 less the reserve of 2
+        for (int i = 0; i < 8; i++) {
+            limiter.acquire(MongoRequestRateLimiter.Priority.BATCH);
+        }
+
+        try (ExecutorService executor = Executors.newSingleThreadExecutor()) {
+            Future<?> batchCall = executor.submit(() -> {
+                limiter.acquire(MongoRequestRateLimiter.Priority.BATCH);
+                return null;
+            });
+            Assertions.assertThrows(TimeoutException.class, () -> batchCall.get(30, TimeUnit.MILLISECONDS));
+
+            long startTime = System.currentTimeMillis();
+            limiter.acquire(MongoRequestRateLimiter.Priority.API);
+            Assertions.assertTrue(System.currentTimeMillis() - startTime < 30);
+
+            batchCall.get(1, TimeUnit.SECONDS);
+        }
+    }
+}
@@ -10,9 +10,13 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
 import org.springframework.data.mongodb.UncategorizedMongoDbException;
 import org.springframework.web.context.request.RequestAttributes;
 import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerMapping;
 
 @ExtendWith(MockitoExtension.class)
 class MongoRequestRateTooLargeAutomaticRetryAspectTest {
@@ -20,6 +24,9 @@ class MongoRequestRateTooLargeAutomaticRetryAspectTest {
     @Mock
     private ProceedingJoinPoint pjpMock;
 
+    private static final ObjectProvider<MongoRequestRateLimiter> NO_RATE_LIMITER =
+            new StaticListableBeanFactory().getBeanProvider(MongoRequestRateLimiter.class);
+
     private final int maxRetry = 1;
     private final String expectedResult = "OK";
 
@@ -47,14 +54,14 @@ class MongoRequestRateTooLargeAutomaticRetryAspectTest {
     @Test
     void testBatchEnabled() throws Throwable {
         configureExecutionContext(true);
-        MongoRequestRateTooLargeAutomaticRetryAspect aspect = new MongoRequestRateTooLargeAutomaticRetryAspect(false, maxRetry, 1000, true, maxRetry, 1000);
+        MongoRequestRateTooLargeAutomaticRetryAspect aspect = new MongoRequestRateTooLargeAutomaticRetryAspect(NO_RATE_LIMITER, false, maxRetry, 1000, true, maxRetry, 1000);
 
         checkRetryBehaviour(aspect);
     }
     @Test
     void testBatchException() {
         configureExecutionContext(true);
-        MongoRequestRateTooLargeAutomaticRetryAspect aspect = new MongoRequestRateTooLargeAutomaticRetryAspect(false, maxRetry, 1000, false, maxRetry, 1000);
+        MongoRequestRateTooLargeAutomaticRetryAspect aspect = new MongoRequestRateTooLargeAutomaticRetryAspect(NO_RATE_LIMITER, false, maxRetry, 1000, false, maxRetry, 1000);
 
         checkException(aspect);
     }
@@ -62,7 +69,7 @@ class MongoRequestRateTooLargeAutomaticRetryAspectTest {
     @Test
     void testBatchDisabledApiEnabled() {
         configureExecutionContext(true);
-        MongoRequestRateTooLargeAutomaticRetryAspect aspect = new MongoRequestRateTooLargeAutomaticRetryAspect(true, maxRetry, 1000, false, maxRetry, 1000);
+        MongoRequestRateTooLargeAutomaticRetryAspect aspect = new MongoRequestRateTooLargeAutomaticRetryAspect(NO_RATE_LIMITER, true, maxRetry, 1000, false, maxRetry, 1000);
 
         checkException(aspect);
     }
@@ -73,7 +80,7 @@ class MongoRequestRateTooLargeAutomaticRetryAspectTest {
     @Test
     void testApiEnabled() throws Throwable {
         configureExecutionContext(false);
-        MongoRequestRateTooLargeAutomaticRetryAspect aspect = new MongoRequestRateTooLargeAutomaticRetryAspect(true, maxRetry, 1000, false, maxRetry, 1000);
+        MongoRequestRateTooLargeAutomaticRetryAspect aspect = new MongoRequestRateTooLargeAutomaticRetryAspect(NO_RATE_LIMITER, true, maxRetry, 1000, false, maxRetry, 1000);
 
         checkRetryBehaviour(aspect);
     }
@@ -81,7 +88,7 @@ class MongoRequestRateTooLargeAutomaticRetryAspectTest {
     @Test
     void testApiException() {
         configureExecutionContext(false);
-        MongoRequestRateTooLargeAutomaticRetryAspect aspect = new MongoRequestRateTooLargeAutomaticRetryAspect(false, maxRetry, 1000, false, maxRetry, 1000);
+        MongoRequestRateTooLargeAutomaticRetryAspect aspect = new MongoRequestRateTooLargeAutomaticRetryAspect(NO_RATE_LIMITER, false, maxRetry, 1000, false, maxRetry, 1000);
 
         checkException(aspect);
     }
@@ -89,13 +96,46 @@ class MongoRequestRateTooLargeAutomaticRetryAspectTest {
     @Test
     void testApiDisabledBatchEnabled() {
         configureExecutionContext(false);
-        MongoRequestRateTooLargeAutomaticRetryAspect aspect = new MongoRequestRateTooLargeAutomaticRetryAspect(false, maxRetry, 1000, true, maxRetry, 1000);
+        MongoRequestRateTooLargeAutomaticRetryAspect aspect = new MongoRequestRateTooLargeAutomaticRetryAspect(NO_RATE_LIMITER, false, maxRetry, 1000, true, maxRetry, 1000);
 
         checkException(aspect);
     }
 
 //endregion
 
+    @Test
+    void testRateLimiterNotifiedWithoutRetry() throws Throwable {
+        configureExecutionContext(false);
+        MongoRequestRateLimiter rateLimiterMock = Mockito.mock(MongoRequestRateLimiter.class);
+        Mockito.when(rateLimiterMock.isEnabled()).thenReturn(true);
+        StaticListableBeanFactory beanFactory = new StaticListableBeanFactory();
+        beanFactory.addBean("rateLimiter", rateLimiterMock);
+        MongoRequestRateTooLargeAutomaticRetryAspect aspect = new MongoRequestRateTooLargeAutomaticRetryAspect(beanFactory.getBeanProvider(MongoRequestRateLimiter.class), false, maxRetry, 1000, false, maxRetry, 1000);
+
+        checkException(aspect);
+
+        Mockito.verify(rateLimiterMock).acquire(MongoRequestRateLimiter.Priority.API, 1);
+        Mockito.verify(rateLimiterMock).onThrottled(34L);
+    }
+
+    @Test
+    void testApiRetryableHandler() throws Throwable {
+        RequestAttributes requestAttributesMock = Mockito.mock(RequestAttributes.class);
+        Mockito.when(requestAttributesMock.getAttribute(HandlerMapping.BEST_MATCHING_HANDLER_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST))
+                .thenReturn(new HandlerMethod(new TestController(), TestController.class.getMethod("retryableApi")));
+        RequestContextHolder.setRequestAttributes(requestAttributesMock);
+        MongoRequestRateTooLargeAutomaticRetryAspect aspect = new MongoRequestRateTooLargeAutomaticRetryAspect(NO_RATE_LIMITER, false, maxRetry, 1000, false, maxRetry, 1000);
+
+        checkRetryBehaviour(aspect);
+    }
+
+    static class TestController {
+        @MongoRequestRateTooLargeApiRetryable(maxRetry = 1)
+        public void retryableApi() {
+            // only its annotation is read
+        }
+    }
+
     private void checkRetryBehaviour(MongoRequestRateTooLargeAutomaticRetryAspect aspect) throws Throwable {
         Object result = aspect.decorateRepositoryMethods(pjpMock);
 
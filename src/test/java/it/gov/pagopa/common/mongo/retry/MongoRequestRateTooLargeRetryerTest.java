@@ -1,10 +1,14 @@
 package it.gov.pagopa.common.mongo.retry;
 
 import ch.qos.logback.classic.LoggerContext;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoCommandException;
 import com.mongodb.MongoQueryException;
 import com.mongodb.MongoWriteException;
 import com.mongodb.ServerAddress;
 import com.mongodb.WriteError;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
 import it.gov.pagopa.common.mongo.retry.exception.MongoRequestRateTooLargeRetryExpiredException;
 import it.gov.pagopa.common.utils.MemoryAppender;
 import org.bson.BsonDocument;
@@ -24,6 +28,8 @@ import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
+import java.util.List;
+import java.util.Set;
 import java.util.function.Supplier;
 import java.util.stream.Stream;
 
@@ -258,6 +264,38 @@ public class MongoRequestRateTooLargeRetryerTest {
     }
   }
 
+  @Test
+  void requestRateTooLargeDetectedFromErrorCode() {
+    MongoCommandException mongoCommandException = new MongoCommandException(
+        BsonDocument.parse("{\"ok\": 0.0, \"errmsg\": \"Request rate is large, RetryAfterMs=12\", \"code\": 16500}"), new ServerAddress());
+    UncategorizedMongoDbException exception = new UncategorizedMongoDbException("Translated without details", mongoCommandException);
+
+    assertTrue(MongoRequestRateTooLargeRetryer.isRequestRateTooLargeException(exception));
+    assertEquals(12L, MongoRequestRateTooLargeRetryer.getRetryAfterMs(exception));
+  }
+
+  @Test
+  void requestRateTooLargeDetectedFromBulkWriteError() {
+    MongoBulkWriteException bulkWriteException = new MongoBulkWriteException(
+        BulkWriteResult.unacknowledged(),
+        List.of(new BulkWriteError(16500, "Error=16500, RetryAfterMs=7, Details='Batch write error.'", new BsonDocument(), 0)),
+        null, new ServerAddress(), Set.of());
+    DataIntegrityViolationException exception = new DataIntegrityViolationException("Bulk write operation error", bulkWriteException);
+
+    assertTrue(MongoRequestRateTooLargeRetryer.isRequestRateTooLargeException(exception));
+    assertEquals(7L, MongoRequestRateTooLargeRetryer.getRetryAfterMs(exception));
+  }
+
+  @Test
+  void otherMongoErrorNotRequestRateTooLarge() {
+    MongoWriteException mongoWriteException = new MongoWriteException(
+        new WriteError(11000, "E11000 duplicate key error", new BsonDocument()), new ServerAddress());
+    DataIntegrityViolationException exception = new DataIntegrityViolationException(mongoWriteException.getMessage(), mongoWriteException);
+
+    assertFalse(MongoRequestRateTooLargeRetryer.isRequestRateTooLargeException(exception));
+    assertNull(MongoRequestRateTooLargeRetryer.getRetryAfterMs(exception));
+  }
+
   private void assertLogMessage(String expectedMessage, long maxRetryOrMaxMillisElapsed) {
 //    assertEquals(counter, memoryAppender.getLoggedEvents().size());
     for (int i = 0; i < memoryAppender.getLoggedEvents().size(); i++) {
@@ -0,0 +1,365 @@
+package it.gov.pagopa.wallet;
+
+import io.micrometer.core.instrument.binder.mongodb.MongoMetricsCommandListener;
+import it.gov.pagopa.common.mongo.MongoTestUtilitiesService;
+import it.gov.pagopa.common.mongo.singleinstance.AutoConfigureSingleInstanceMongodb;
+import it.gov.pagopa.wallet.connector.InitiativeRestConnector;
+import it.gov.pagopa.wallet.connector.OnboardingRestConnector;
+import it.gov.pagopa.wallet.connector.PaymentInstrumentRestConnector;
+import it.gov.pagopa.wallet.connector.PaymentRestConnector;
+import it.gov.pagopa.wallet.connector.RewardCalculatorRestConnector;
+import it.gov.pagopa.wallet.constants.WalletConstants;
+import it.gov.pagopa.wallet.dto.Counters;
+import it.gov.pagopa.wallet.dto.EvaluationDTO;
+import it.gov.pagopa.wallet.dto.IbanQueueWalletDTO;
+import it.gov.pagopa.wallet.dto.RefundDTO;
+import it.gov.pagopa.wallet.dto.RewardDTO;
+import it.gov.pagopa.wallet.dto.RewardTransactionDTO;
+import it.gov.pagopa.wallet.dto.payment.TransactionBarCodeEnrichedResponse;
+import it.gov.pagopa.wallet.enums.BeneficiaryType;
+import it.gov.pagopa.wallet.enums.Channel;
+import it.gov.pagopa.wallet.enums.SyncTrxStatus;
+import it.gov.pagopa.wallet.enums.WalletStatus;
+import it.gov.pagopa.wallet.model.Wallet;
+import it.gov.pagopa.wallet.repository.WalletRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.mongodb.autoconfigure.MongoClientSettingsBuilderCustomizer;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.cloud.stream.binder.test.InputDestination;
+import org.springframework.cloud.stream.binder.test.OutputDestination;
+import org.springframework.cloud.stream.binder.test.TestChannelBinderConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.util.MimeTypeUtils;
+import tools.jackson.databind.ObjectMapper;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * End-to-end throughput harness: it replays a synthetic mix of the consumed events through the real consumer beans,
+ * bound to the Spring Cloud Stream test binder and backed by the embedded Mongo. The REST connectors are stubbed, thus
+ * it measures the wallet processing and its Mongo round trips only.
+ * <br />
+ * It reports the messages per second, the p50/p99 latency of each message type and the Mongo commands sent for each
+ * message, so that a change to {@link it.gov.pagopa.wallet.service.WalletServiceImpl} can be compared offline against
+ * the previous figures.
+ * <br />
+ * It's opt-in: run it through <code>mvn test -Dtest=WalletThroughputLoadTest -DloadTest=true</code>, configuring:
+ * <ul>
+ *   <li><code>loadTest.mix</code>: the weight of each message type (default <code>trx:70,refund:10,outcome:10,iban:10</code>)</li>
+ *   <li><code>loadTest.messages</code>: the measured messages (default 5000)</li>
+ *   <li><code>loadTest.warmupMessages</code>: the messages replayed before measuring (default 1000)</li>
+ *   <li><code>loadTest.wallets</code>: the onboarded wallets the messages are spread on (default 1000)</li>
+ *   <li><code>loadTest.seed</code>: the seed of the generated sequence, fix it to compare two runs (default 42)</li>
+ * </ul>
+ */
+@Slf4j
+@EnabledIfSystemProperty(named = "loadTest", matches = "true")
+@SpringBootTest(
+        webEnvironment = SpringBootTest.WebEnvironment.NONE,
+        properties = {
+                "de.flapdoodle.mongodb.embedded.version=4.2.24",
+                "spring.mongodb.database=idpay",
+
+                "INITIATIVE_LOGO_URL=http://localhost/logo",
+                "ZENDESK_JWT_SECRET=00000000000000000000000000000000000000000000000000000000000000",
+                "rest-client.onboarding.baseUrl=http://localhost",
+                "rest-client.payment.instrument.baseUrl=http://localhost",
+                "rest-client.payment.baseUrl=http://localhost",
+                "rest-client.initiative.baseUrl=http://localhost",
+                "rest-client.reward-calculator.baseUrl=http://localhost",
+
+                // the Mongo commands are collected by the listener registered below
+                "management.metrics.mongodb.command.enabled=false",
+                "app.wallet.reminderJob.resume.enabled=false",
+
+                "spring.cloud.stream.default-binder=integration",
+                "spring.cloud.stream.bindings.trxConsumer-in-0.binder=integration",
+                "spring.cloud.stream.bindings.trxConsumer-in-0.destination=" + WalletThroughputLoadTest.TRX_DESTINATION,
+                "spring.cloud.stream.bindings.consumerRefund-in-0.binder=integration",
+                "spring.cloud.stream.bindings.consumerRefund-in-0.destination=" + WalletThroughputLoadTest.REFUND_DESTINATION,
+                "spring.cloud.stream.bindings.consumerOutcome-in-0.binder=integration",
+                "spring.cloud.stream.bindings.consumerOutcome-in-0.destination=" + WalletThroughputLoadTest.OUTCOME_DESTINATION,
+                "spring.cloud.stream.bindings.consumerIban-in-0.binder=integration",
+                "spring.cloud.stream.bindings.consumerIban-in-0.destination=" + WalletThroughputLoadTest.IBAN_DESTINATION,
+                "spring.cloud.stream.bindings.consumerCommands-in-0.binder=integration",
+                "spring.cloud.stream.bindings.consumerCacheInvalidation-in-0.binder=integration",
+                "spring.cloud.stream.bindings.walletQueue-out-0.binder=integration",
+                "spring.cloud.stream.bindings.walletQueue-out-1.binder=integration",
+                "spring.cloud.stream.bindings.walletQueue-out-2.binder=integration",
+                "spring.cloud.stream.bindings.walletQueue-out-3.binder=integration",
+                "spring.cloud.stream.bindings.walletQueue-out-3.destination=" + WalletThroughputLoadTest.ERRORS_DESTINATION,
+                "spring.cloud.stream.bindings.walletQueue-out-4.binder=integration",
+        })
+@AutoConfigureSingleInstanceMongodb
+@Import({TestChannelBinderConfiguration.class,
+        MongoTestUtilitiesService.TestMongoConfiguration.class,
+        WalletThroughputLoadTest.MongoCommandsListenerConfig.class})
+class WalletThroughputLoadTest {
+
+    static final String TRX_DESTINATION = "harness-transactions";
+    static final String REFUND_DESTINATION = "harness-refunds";
+    static final String OUTCOME_DESTINATION = "harness-outcomes";
+    static final String IBAN_DESTINATION = "harness-iban-outcomes";
+    static final String ERRORS_DESTINATION = "harness-errors";
+
+    private static final String INITIATIVE_ID = "HARNESS_INITIATIVE";
+    private static final String IBAN = "IT09P3608105138205493205495";
+    private static final long BUDGET_CENTS = 50_000L;
+
+    private static final String MIX = System.getProperty("loadTest.mix", "trx:70,refund:10,outcome:10,iban:10");
+    private static final int MESSAGES = Integer.getInteger("loadTest.messages", 5_000);
+    private static final int WARMUP_MESSAGES = Integer.getInteger("loadTest.warmupMessages", 1_000);
+    private static final int WALLETS = Integer.getInteger("loadTest.wallets", 1_000);
+    private static final long SEED = Long.getLong("loadTest.seed", 42L);
+
+    @TestConfiguration
+    static class MongoCommandsListenerConfig {
+        @Bean
+        public MongoClientSettingsBuilderCustomizer mongoCommandsListenerCustomizer(MongoMetricsCommandListener mongoMetricsCommandListener) {
+            return builder -> builder.addCommandListener(mongoMetricsCommandListener);
+        }
+    }
+
+    private enum MessageType {TRX, REFUND, OUTCOME, IBAN}
+
+    @MockitoBean
+    private PaymentInstrumentRestConnector paymentInstrumentRestConnectorMock;
+    @MockitoBean
+    private OnboardingRestConnector onboardingRestConnectorMock;
+    @MockitoBean
+    private PaymentRestConnector paymentRestConnectorMock;
+    @MockitoBean
+    private InitiativeRestConnector initiativeRestConnectorMock;
+    @MockitoBean
+    private RewardCalculatorRestConnector rewardCalculatorRestConnectorMock;
+
+    @Autowired
+    private InputDestination inputDestination;
+    @Autowired
+    private OutputDestination outputDestination;
+    @Autowired
+    private WalletRepository walletRepository;
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private Random random;
+    private long[] counterVersions;
+    private long sequence;
+
+    @BeforeEach
+    void setUp() {
+        OffsetDateTime now = OffsetDateTime.now();
+        Mockito.when(paymentRestConnectorMock.createExtendedTransaction(Mockito.any(), Mockito.anyString()))
+                .thenReturn(TransactionBarCodeEnrichedResponse.builder()
+                        .trxDate(now)
+                        .trxEndDate(now.plusDays(30))
+                        .build());
+
+        walletRepository.deleteAll();
+        walletRepository.saveAll(IntStream.range(0, WALLETS).mapToObj(this::buildWallet).toList());
+
+        random = new Random(SEED);
+        counterVersions = new long[WALLETS];
+        sequence = 0;
+    }
+
+    @Test
+    void throughput() {
+        Map<MessageType, Integer> weights = parseMix(MIX);
+
+        replay(weights, WARMUP_MESSAGES);
+        outputDestination.clear();
+
+        MongoTestUtilitiesService.startMongoCommandListener("THROUGHPUT HARNESS");
+        long startTime = System.nanoTime();
+        Map<MessageType, List<Long>> latencies = replay(weights, MESSAGES);
+        long elapsedNanos = System.nanoTime() - startTime;
+        List<Map.Entry<MongoTestUtilitiesService.MongoCommand, Long>> mongoCommands = MongoTestUtilitiesService.stopAndGetMongoCommands();
+
+        long mongoOperations = mongoCommands.stream().mapToLong(Map.Entry::getValue).sum();
+        int errors = drainErrors();
+
+        log.info("[LOAD_TEST] mix {}: {} messages in {}ms ({} msg/s), p50 {}ms, p99 {}ms, {} Mongo commands/msg, {} sent to the error queue\n{}",
+                weights, MESSAGES, TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+                MESSAGES * 1_000_000_000L / Math.max(elapsedNanos, 1),
+                toMillis(percentile(allLatencies(latencies), 50)),
+                toMillis(percentile(allLatencies(latencies), 99)),
+                "%.2f".formatted((double) mongoOperations / MESSAGES),
+                errors,
+                latencies.entrySet().stream()
+                        .map(e -> "  %s: %d messages, p50 %sms, p99 %sms".formatted(
+                                e.getKey(), e.getValue().size(),
+                                toMillis(percentile(e.getValue(), 50)),
+                                toMillis(percentile(e.getValue(), 99))))
+                        .collect(Collectors.joining("\n")));
+        MongoTestUtilitiesService.printMongoCommands(mongoCommands);
+
+        Assertions.assertEquals(0, errors, "Some messages have been sent to the error queue");
+    }
+
+    private Map<MessageType, List<Long>> replay(Map<MessageType, Integer> weights, int messages) {
+        int totalWeight = weights.values().stream().mapToInt(Integer::intValue).sum();
+        Map<MessageType, List<Long>> latencies = new EnumMap<>(MessageType.class);
+        for (int i = 0; i < messages; i++) {
+            MessageType type = pick(weights, random.nextInt(totalWeight));
+            int walletIndex = random.nextInt(WALLETS);
+            Message<byte[]> message = buildMessage(type, walletIndex);
+
+            // the test binder dispatches on the calling thread, thus the send returns once the consumer has completed
+            long startTime = System.nanoTime();
+            inputDestination.send(message, destination(type));
+            latencies.computeIfAbsent(type, t -> new ArrayList<>(messages)).add(System.nanoTime() - startTime);
+        }
+        return latencies;
+    }
+
+    private static Map<MessageType, Integer> parseMix(String mix) {
+        Map<MessageType, Integer> weights = new EnumMap<>(MessageType.class);
+        Arrays.stream(mix.split(","))
+                .map(entry -> entry.split(":"))
+                .forEach(entry -> weights.put(MessageType.valueOf(entry[0].trim().toUpperCase()), Integer.parseInt(entry[1].trim())));
+        weights.values().removeIf(weight -> weight <= 0);
+        Assertions.assertFalse(weights.isEmpty(), "Invalid loadTest.mix: " + mix);
+        return weights;
+    }
+
+    private static MessageType pick(Map<MessageType, Integer> weights, int draw) {
+        for (Map.Entry<MessageType, Integer> weight : weights.entrySet()) {
+            draw -= weight.getValue();
+            if (draw < 0) {
+                return weight.getKey();
+            }
+        }
+        throw new IllegalStateException("Unexpected draw");
+    }
+
+    private static String destination(MessageType type) {
+        return switch (type) {
+            case TRX -> TRX_DESTINATION;
+            case REFUND -> REFUND_DESTINATION;
+            case OUTCOME -> OUTCOME_DESTINATION;
+            case IBAN -> IBAN_DESTINATION;
+        };
+    }
+
+    private Message<byte[]> buildMessage(MessageType type, int walletIndex) {
+        Object payload = switch (type) {
+            case TRX -> buildTransaction(walletIndex);
+            case REFUND -> buildRefund(walletIndex);
+            case OUTCOME -> buildEvaluation();
+            case IBAN -> new IbanQueueWalletDTO(
+                    userId(walletIndex), INITIATIVE_ID, IBAN, WalletConstants.STATUS_KO, LocalDateTime.now().toString(), Channel.IO.name());
+        };
+        return MessageBuilder.withPayload(objectMapper.writeValueAsBytes(payload))
+                .setHeader(MessageHeaders.CONTENT_TYPE, MimeTypeUtils.APPLICATION_JSON_VALUE)
+                .build();
+    }
+
+    private RewardTransactionDTO buildTransaction(int walletIndex) {
+        long version = ++counterVersions[walletIndex];
+        long accruedRewardCents = 100L;
+        return RewardTransactionDTO.builder()
+                .id("TRX_" + (++sequence))
+                .userId(userId(walletIndex))
+                .status(SyncTrxStatus.REWARDED.name())
+                .amountCents(1_000L)
+                .elaborationDateTime(LocalDateTime.now())
+                .rewards(Map.of(INITIATIVE_ID, RewardDTO.builder()
+                        .accruedRewardCents(accruedRewardCents)
+                        .counters(new Counters(false, version, version * accruedRewardCents, BUDGET_CENTS, version * 1_000L, version))
+                        .build()))
+                .build();
+    }
+
+    private RefundDTO buildRefund(int walletIndex) {
+        String id = "REFUND_" + (++sequence);
+        LocalDate today = LocalDate.now();
+        return new RefundDTO(id, id, "REWARD_NOTIFICATION_" + sequence, INITIATIVE_ID, userId(walletIndex),
+                BeneficiaryType.CITIZEN, "ORGANIZATION_ID", IBAN, "ACCEPTED", "ACCEPTED", "ORDINARY",
+                100L, 100L, today, today, LocalDateTime.now(), null, null,
+                1L, today, today, today, "CRO");
+    }
+
+    private EvaluationDTO buildEvaluation() {
+        return new EvaluationDTO(
+                "HARNESS_NEW_USER_" + (++sequence), null, INITIATIVE_ID, INITIATIVE_ID, LocalDate.now().plusYears(1),
+                "ORGANIZATION_ID", WalletConstants.STATUS_ONBOARDING_OK, LocalDateTime.now(), LocalDateTime.now(),
+                List.of(), BUDGET_CENTS, WalletConstants.INITIATIVE_REWARD_TYPE_REFUND, "ORGANIZATION_NAME",
+                Boolean.FALSE, 100L, "SERVICE_ID", Channel.IO, "user@mail.it", "NAME", "SURNAME");
+    }
+
+    private Wallet buildWallet(int walletIndex) {
+        String userId = userId(walletIndex);
+        return Wallet.builder()
+                .id(userId + "_" + INITIATIVE_ID)
+                .userId(userId)
+                .initiativeId(INITIATIVE_ID)
+                .initiativeName(INITIATIVE_ID)
+                .organizationId("ORGANIZATION_ID")
+                .status(WalletStatus.REFUNDABLE.name())
+                .acceptanceDate(LocalDateTime.now())
+                .iban(IBAN)
+                .nInstr(1)
+                .initialAmountCents(BUDGET_CENTS)
+                .amountCents(BUDGET_CENTS)
+                .accruedCents(0L)
+                .refundedCents(0L)
+                .nTrx(0L)
+                .counterVersion(0L)
+                .initiativeRewardType(WalletConstants.INITIATIVE_REWARD_TYPE_REFUND)
+                .channel(Channel.IO)
+                .build();
+    }
+
+    private static String userId(int walletIndex) {
+        return "HARNESS_USER_" + walletIndex;
+    }
+
+    private int drainErrors() {
+        int errors = 0;
+        while (outputDestination.receive(0, ERRORS_DESTINATION) != null) {
+            errors++;
+        }
+        outputDestination.clear();
+        return errors;
+    }
+
+    private static List<Long> allLatencies(Map<MessageType, List<Long>> latencies) {
+        return latencies.values().stream().flatMap(List::stream).toList();
+    }
+
+    private static long percentile(List<Long> latencies, int percentile) {
+        if (latencies.isEmpty()) {
+            return 0L;
+        }
+        long[] sorted = latencies.stream().mapToLong(Long::longValue).sorted().toArray();
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(sorted.length * percentile / 100.0) - 1)];
+    }
+
+    private static String toMillis(long nanos) {
+        return "%.2f".formatted(nanos / 1_000_000.0);
+    }
+}
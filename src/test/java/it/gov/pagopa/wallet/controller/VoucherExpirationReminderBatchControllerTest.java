@@ -2,6 +2,10 @@ package it.gov.pagopa.wallet.controller;
 
 import it.gov.pagopa.wallet.config.ServiceExceptionConfig;
 import it.gov.pagopa.wallet.config.WalletErrorManagerConfig;
+import it.gov.pagopa.wallet.constants.WalletConstants;
+import it.gov.pagopa.wallet.dto.ReminderBatchJobDTO;
+import it.gov.pagopa.wallet.enums.ReminderBatchJobStatus;
+import it.gov.pagopa.wallet.exception.custom.ReminderBatchJobNotFoundException;
 import it.gov.pagopa.wallet.service.VoucherExpirationReminderBatchService;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -32,6 +36,13 @@ class VoucherExpirationReminderBatchControllerTest {
     private static final String REMINDER_BATCH_URL = "/batch/run";
     private static final String INITIATIVE_ID = "TEST_INITIATIVE_ID";
     private static final int DAYS_NUMBER = 3;
+    private static final String JOB_ID = INITIATIVE_ID + "_20260101";
+    private static final ReminderBatchJobDTO JOB = ReminderBatchJobDTO.builder()
+            .jobId(JOB_ID)
+            .initiativeId(INITIATIVE_ID)
+            .status(ReminderBatchJobStatus.RUNNING)
+            .sentCount(100)
+            .build();
 
 
 
@@ -44,7 +55,7 @@ class VoucherExpirationReminderBatchControllerTest {
     @Test
     void runReminderBatch_ok() throws Exception {
 
-        Mockito.doNothing().when(voucherExpirationReminderBatchServiceMock).runReminderBatch(INITIATIVE_ID, DAYS_NUMBER);
+        Mockito.when(voucherExpirationReminderBatchServiceMock.submitReminderBatch(INITIATIVE_ID, DAYS_NUMBER, false)).thenReturn(JOB);
 
         mvc.perform(
                         MockMvcRequestBuilders.post(
@@ -56,7 +67,37 @@ class VoucherExpirationReminderBatchControllerTest {
                                                 )
                                 .contentType(MediaType.APPLICATION_JSON_VALUE)
                                 .accept(MediaType.APPLICATION_JSON_VALUE))
+                .andExpect(MockMvcResultMatchers.status().isAccepted())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.jobId").value(JOB_ID))
+                .andReturn();
+    }
+
+    @Test
+    void getReminderBatchJob_ok() throws Exception {
+
+        Mockito.when(voucherExpirationReminderBatchServiceMock.getReminderBatchJob(JOB_ID)).thenReturn(JOB);
+
+        mvc.perform(
+                        MockMvcRequestBuilders.get(BASE_URL + "/batch/" + JOB_ID)
+                                .accept(MediaType.APPLICATION_JSON_VALUE))
                 .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.status").value(ReminderBatchJobStatus.RUNNING.name()))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.sentCount").value(100))
+                .andReturn();
+    }
+
+    @Test
+    void getReminderBatchJob_notFound() throws Exception {
+
+        Mockito.when(voucherExpirationReminderBatchServiceMock.getReminderBatchJob(JOB_ID))
+                .thenThrow(new ReminderBatchJobNotFoundException(
+                        String.format(WalletConstants.ExceptionMessage.REMINDER_BATCH_JOB_NOT_FOUND_MSG, JOB_ID)));
+
+        mvc.perform(
+                        MockMvcRequestBuilders.get(BASE_URL + "/batch/" + JOB_ID)
+                                .accept(MediaType.APPLICATION_JSON_VALUE))
+                .andExpect(MockMvcResultMatchers.status().isNotFound())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.code").value(WalletConstants.ExceptionCode.REMINDER_BATCH_JOB_NOT_FOUND))
                 .andReturn();
     }
 
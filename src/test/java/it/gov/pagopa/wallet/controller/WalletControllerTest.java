@@ -7,6 +7,7 @@ import it.gov.pagopa.wallet.config.WalletErrorManagerConfig;
 import it.gov.pagopa.wallet.constants.WalletConstants;
 import it.gov.pagopa.wallet.dto.*;
 import it.gov.pagopa.wallet.enums.Channel;
+import it.gov.pagopa.wallet.enums.InstrumentRevocationOutcome;
 import it.gov.pagopa.wallet.enums.WalletStatus;
 import it.gov.pagopa.wallet.exception.custom.EnrollmentNotAllowedException;
 import it.gov.pagopa.wallet.exception.custom.InitiativeInvalidException;
@@ -713,14 +714,21 @@ class WalletControllerTest {
         List<WalletPIDTO> walletPIDTOList = new ArrayList<>();
         walletPIDTOList.add(walletPIDTO);
         WalletPIBodyDTO walletPIBodyDTO = new WalletPIBodyDTO(walletPIDTOList);
+        Mockito.when(walletServiceMock.updateWallet(any()))
+                .thenReturn(List.of(new WalletPIOutcomeDTO(INITIATIVE_ID, USER_ID, MASKED_PAN, InstrumentRevocationOutcome.REVOKED)));
 
-        mvc.perform(
+        MvcResult res = mvc.perform(
                         MockMvcRequestBuilders.put(BASE_URL + UPDATE_WALLET_URL)
                                 .contentType(MediaType.APPLICATION_JSON_VALUE)
                                 .content(localMapper.writeValueAsString(walletPIBodyDTO))
                                 .accept(MediaType.APPLICATION_JSON_VALUE))
-                .andExpect(status().isNoContent())
+                .andExpect(status().isOk())
                 .andReturn();
+
+        WalletPIOutcomeDTO[] outcomes = localMapper.readValue(res.getResponse().getContentAsString(), WalletPIOutcomeDTO[].class);
+        assertEquals(1, outcomes.length);
+        assertEquals(MASKED_PAN, outcomes[0].getMaskedPan());
+        assertEquals(InstrumentRevocationOutcome.REVOKED, outcomes[0].getOutcome());
     }
 
     @Test
@@ -0,0 +1,173 @@
+package it.gov.pagopa.wallet.controller;
+
+import it.gov.pagopa.common.mongo.singleinstance.AutoConfigureSingleInstanceMongodb;
+import it.gov.pagopa.wallet.dto.EnrollmentStatusDTO;
+import it.gov.pagopa.wallet.enums.WalletStatus;
+import it.gov.pagopa.wallet.service.WalletService;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.stream.binder.test.TestChannelBinderConfiguration;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Load test comparing the request handling capacity of the embedded Tomcat with its platform thread pool
+ * (<code>server.tomcat.threads.max=200</code>, the default) against the same server with
+ * <code>spring.threads.virtual.enabled=true</code>. Each configuration starts the application on a random port and is
+ * loaded over HTTP; the service is stubbed with a blocking latency simulating Mongo and Feign round trips.
+ * <br />
+ * It's opt-in: run it through <code>mvn test -Dtest=WalletControllerVirtualThreadsLoadTest -DloadTest=true</code>
+ */
+@Slf4j
+@EnabledIfSystemProperty(named = "loadTest", matches = "true")
+class WalletControllerVirtualThreadsLoadTest {
+
+    private static final String STATUS_URL = "http://localhost:%d/idpay/wallet/INITIATIVE_ID/%s/status";
+    private static final int TOMCAT_MAX_THREADS = 200;
+    private static final int CONCURRENT_REQUESTS = Integer.getInteger("loadTest.requests", 2_000);
+    private static final long IO_LATENCY_MILLIS = Long.getLong("loadTest.ioLatencyMs", 100);
+    private static final String PLATFORM = "platform";
+    private static final String VIRTUAL = "virtual";
+
+    private static final Map<String, Long> ELAPSED_MILLIS = new ConcurrentHashMap<>();
+
+    @Nested
+    @TestPropertySource(properties = "spring.threads.virtual.enabled=false")
+    class PlatformThreads extends LoadRun {
+        PlatformThreads() {
+            super(PLATFORM);
+        }
+    }
+
+    @Nested
+    @TestPropertySource(properties = "spring.threads.virtual.enabled=true")
+    class VirtualThreads extends LoadRun {
+        VirtualThreads() {
+            super(VIRTUAL);
+        }
+    }
+
+    @AfterAll
+    static void virtualThreadsHeadroom() {
+        Long platformMillis = ELAPSED_MILLIS.get(PLATFORM);
+        Long virtualMillis = ELAPSED_MILLIS.get(VIRTUAL);
+        Assertions.assertNotNull(platformMillis, "The platform threads run did not complete");
+        Assertions.assertNotNull(virtualMillis, "The virtual threads run did not complete");
+
+        log.info("[LOAD_TEST] {} concurrent requests having {}ms of blocking I/O: Tomcat pool ({} threads) {}ms ({} req/s), virtual threads {}ms ({} req/s)",
+                CONCURRENT_REQUESTS, IO_LATENCY_MILLIS,
+                TOMCAT_MAX_THREADS, platformMillis, throughput(platformMillis),
+                virtualMillis, throughput(virtualMillis));
+
+        Assertions.assertTrue(virtualMillis * 2 < platformMillis,
+                "Virtual threads were expected to at least double the throughput: platform %dms, virtual %dms".formatted(platformMillis, virtualMillis));
+    }
+
+    @SpringBootTest(
+            webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+            properties = {
+                    "de.flapdoodle.mongodb.embedded.version=4.2.24",
+                    "spring.mongodb.database=idpay",
+                    "server.tomcat.threads.max=" + TOMCAT_MAX_THREADS,
+
+                    "INITIATIVE_LOGO_URL=http://localhost/logo",
+                    "ZENDESK_JWT_SECRET=00000000000000000000000000000000000000000000000000000000000000",
+                    "rest-client.onboarding.baseUrl=http://localhost",
+                    "rest-client.payment.instrument.baseUrl=http://localhost",
+                    "rest-client.payment.baseUrl=http://localhost",
+                    "rest-client.initiative.baseUrl=http://localhost",
+                    "rest-client.reward-calculator.baseUrl=http://localhost",
+                    "app.wallet.reminderJob.resume.enabled=false",
+
+                    "spring.cloud.stream.default-binder=integration",
+                    "spring.cloud.stream.bindings.trxConsumer-in-0.binder=integration",
+                    "spring.cloud.stream.bindings.consumerRefund-in-0.binder=integration",
+                    "spring.cloud.stream.bindings.consumerOutcome-in-0.binder=integration",
+                    "spring.cloud.stream.bindings.consumerIban-in-0.binder=integration",
+                    "spring.cloud.stream.bindings.consumerCommands-in-0.binder=integration",
+                    "spring.cloud.stream.bindings.consumerCacheInvalidation-in-0.binder=integration",
+                    "spring.cloud.stream.bindings.walletQueue-out-0.binder=integration",
+                    "spring.cloud.stream.bindings.walletQueue-out-1.binder=integration",
+                    "spring.cloud.stream.bindings.walletQueue-out-2.binder=integration",
+                    "spring.cloud.stream.bindings.walletQueue-out-3.binder=integration",
+                    "spring.cloud.stream.bindings.walletQueue-out-4.binder=integration",
+            })
+    @AutoConfigureSingleInstanceMongodb
+    @Import(TestChannelBinderConfiguration.class)
+    abstract static class LoadRun {
+
+        private final String runName;
+
+        @MockitoBean
+        private WalletService walletServiceMock;
+
+        @Value("${local.server.port}")
+        private int port;
+
+        LoadRun(String runName) {
+            this.runName = runName;
+        }
+
+        @BeforeEach
+        void setUp() {
+            Mockito.when(walletServiceMock.getEnrollmentStatus(Mockito.anyString(), Mockito.anyString()))
+                    .thenAnswer(i -> {
+                        Thread.sleep(IO_LATENCY_MILLIS);
+                        return new EnrollmentStatusDTO(WalletStatus.NOT_REFUNDABLE.name());
+                    });
+        }
+
+        @Test
+        void load() throws Exception {
+            // the client runs on virtual threads, so that it's never the bottleneck of the server under test
+            try (ExecutorService clientExecutor = Executors.newVirtualThreadPerTaskExecutor();
+                 HttpClient client = HttpClient.newBuilder().executor(clientExecutor).build()) {
+                // warm up
+                runLoad(client, clientExecutor, TOMCAT_MAX_THREADS);
+
+                ELAPSED_MILLIS.put(runName, runLoad(client, clientExecutor, CONCURRENT_REQUESTS));
+            }
+        }
+
+        private long runLoad(HttpClient client, ExecutorService clientExecutor, int requests) throws Exception {
+            long startTime = System.currentTimeMillis();
+            List<Future<HttpResponse<Void>>> responses = new ArrayList<>(requests);
+            for (int i = 0; i < requests; i++) {
+                HttpRequest request = HttpRequest.newBuilder(URI.create(STATUS_URL.formatted(port, "USER_ID_" + i)))
+                        .header("Accept", "application/json")
+                        .GET()
+                        .build();
+                responses.add(clientExecutor.submit(() -> client.send(request, HttpResponse.BodyHandlers.discarding())));
+            }
+            for (Future<HttpResponse<Void>> response : responses) {
+                Assertions.assertEquals(200, response.get().statusCode());
+            }
+            return System.currentTimeMillis() - startTime;
+        }
+    }
+
+    private static long throughput(long elapsedMillis) {
+        return CONCURRENT_REQUESTS * 1000L / Math.max(elapsedMillis, 1);
+    }
+}
@@ -0,0 +1,632 @@
+package it.gov.pagopa.wallet.repository;
+
+import it.gov.pagopa.common.mongo.singleinstance.AutoConfigureSingleInstanceMongodb;
+import it.gov.pagopa.wallet.constants.WalletConstants;
+import it.gov.pagopa.wallet.dto.IbanQueueWalletDTO;
+import it.gov.pagopa.wallet.dto.RefundDTO;
+import it.gov.pagopa.wallet.dto.RewardUpdateResult;
+import it.gov.pagopa.wallet.dto.WalletRewardUpdateDTO;
+import it.gov.pagopa.wallet.enums.BeneficiaryType;
+import it.gov.pagopa.wallet.enums.FamilyRewardUpdateOutcome;
+import it.gov.pagopa.wallet.enums.InstrumentRevocationOutcome;
+import it.gov.pagopa.wallet.enums.RewardUpdateOutcome;
+import it.gov.pagopa.wallet.enums.WalletStatus;
+import it.gov.pagopa.wallet.enums.WalletUpdateOutcome;
+import it.gov.pagopa.wallet.model.Wallet;
+import it.gov.pagopa.wallet.model.WalletKey;
+import it.gov.pagopa.wallet.model.projection.WalletKeyView;
+import it.gov.pagopa.wallet.service.WalletCacheService;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.context.bean.override.mockito.MockitoSpyBean;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+@TestPropertySource(
+        properties = {
+                "de.flapdoodle.mongodb.embedded.version=4.2.24",
+                "spring.mongodb.database=idpay",
+                "app.wallet.counterHistory.size=3"
+        })
+@ExtendWith(SpringExtension.class)
+@AutoConfigureSingleInstanceMongodb
+@ContextConfiguration(classes = WalletUpdatesRepositoryImpl.class)
+class WalletUpdatesRepositoryImplTest {
+
+    private static final String INITIATIVE_ID = "INITIATIVE_ID";
+    private static final String FAMILY_ID = "FAMILY_ID";
+    private static final String USER_ID = "USER_ID";
+    private static final String OTHER_MEMBER_ID = "OTHER_MEMBER_ID";
+    private static final long BUDGET_CENTS = 50_000L;
+    private static final long REFUNDED_CENTS = 1_000L;
+
+    @MockitoBean
+    private WalletCacheService walletCacheServiceMock;
+
+    @Autowired
+    private WalletUpdatesRepositoryImpl walletUpdatesRepository;
+    @MockitoSpyBean
+    private MongoTemplate mongoTemplate;
+
+    @BeforeEach
+    void setUp() {
+        mongoTemplate.dropCollection(Wallet.class);
+        mongoTemplate.insert(buildFamilyMember(USER_ID, new ArrayList<>(List.of(1L))));
+        mongoTemplate.insert(buildFamilyMember(OTHER_MEMBER_ID, new ArrayList<>()));
+    }
+
+    @Test
+    void rewardFamilyMemberTransaction_windowBounded() {
+        for (long version = 2; version <= 5; version++) {
+            Assertions.assertEquals(FamilyRewardUpdateOutcome.APPLIED, reward(version));
+        }
+
+        Wallet member = findWallet(USER_ID);
+        Assertions.assertEquals(List.of(3L, 4L, 5L), member.getCounterHistory());
+        Assertions.assertEquals(400L, member.getAccruedCents());
+        Assertions.assertEquals(4L, member.getNTrx());
+        Assertions.assertEquals(5L, member.getCounterVersion());
+        Assertions.assertEquals(5L, findWallet(OTHER_MEMBER_ID).getCounterVersion());
+        Assertions.assertEquals(BUDGET_CENTS - 500L, findWallet(OTHER_MEMBER_ID).getAmountCents());
+    }
+
+    @Test
+    void rewardFamilyMemberTransaction_alreadyApplied() {
+        reward(2L);
+        reward(3L);
+        reward(4L);
+
+        // inside the window
+        Assertions.assertEquals(FamilyRewardUpdateOutcome.ALREADY_APPLIED, reward(3L));
+        // older than the whole window
+        Assertions.assertEquals(FamilyRewardUpdateOutcome.ALREADY_APPLIED, reward(1L));
+
+        Wallet member = findWallet(USER_ID);
+        Assertions.assertEquals(List.of(2L, 3L, 4L), member.getCounterHistory());
+        Assertions.assertEquals(300L, member.getAccruedCents());
+    }
+
+    @Test
+    void rewardFamilyMemberTransaction_outOfOrderInsideWindow() {
+        reward(2L);
+        reward(4L);
+        Assertions.assertEquals(FamilyRewardUpdateOutcome.APPLIED, reward(3L));
+
+        Wallet member = findWallet(USER_ID);
+        Assertions.assertEquals(List.of(2L, 3L, 4L), member.getCounterHistory());
+        Assertions.assertEquals(300L, member.getAccruedCents());
+        // the shared budget does not go back to an older version
+        Assertions.assertEquals(4L, member.getCounterVersion());
+    }
+
+    @Test
+    void rewardFamilyMemberTransaction_unsortedHistory() {
+        // a full history written before it was kept sorted and not migrated yet
+        mongoTemplate.insert(buildFamilyMember("UNSORTED_ID", new ArrayList<>(List.of(5L, 2L, 3L))));
+
+        Assertions.assertEquals(FamilyRewardUpdateOutcome.APPLIED, walletUpdatesRepository.rewardFamilyMemberTransaction(
+                INITIATIVE_ID, FAMILY_ID, "UNSORTED_ID", BUDGET_CENTS - 400L, 100L, 4L));
+        Assertions.assertEquals(FamilyRewardUpdateOutcome.ALREADY_APPLIED, walletUpdatesRepository.rewardFamilyMemberTransaction(
+                INITIATIVE_ID, FAMILY_ID, "UNSORTED_ID", BUDGET_CENTS - 100L, 100L, 1L));
+
+        Wallet member = findWallet("UNSORTED_ID");
+        Assertions.assertEquals(List.of(3L, 4L, 5L), member.getCounterHistory());
+        Assertions.assertEquals(100L, member.getAccruedCents());
+    }
+
+    @Test
+    void rewardFamilyMemberTransaction_evictsFamily() {
+        reward(2L);
+        reward(2L);
+
+        // only the family, once as the redelivery does not change the wallets, and neither of them reads the wallets back
+        Mockito.verify(walletCacheServiceMock).evictFamily(INITIATIVE_ID, FAMILY_ID);
+        Mockito.verify(walletCacheServiceMock, Mockito.never()).evictInitiative(Mockito.any());
+        Mockito.verify(mongoTemplate, Mockito.never()).findOne(Mockito.any(Query.class), Mockito.eq(Wallet.class));
+        Mockito.verify(mongoTemplate, Mockito.never()).find(Mockito.any(Query.class), Mockito.eq(Wallet.class));
+    }
+
+    @Test
+    void compactCounterHistories() {
+        mongoTemplate.insert(buildFamilyMember("OVERSIZED_ID", new ArrayList<>(List.of(5L, 1L, 4L, 2L, 3L))));
+
+        Assertions.assertEquals(1L, walletUpdatesRepository.compactCounterHistories());
+
+        Assertions.assertEquals(List.of(3L, 4L, 5L), findWallet("OVERSIZED_ID").getCounterHistory());
+        Assertions.assertEquals(List.of(1L), findWallet(USER_ID).getCounterHistory());
+        Assertions.assertEquals(0L, walletUpdatesRepository.compactCounterHistories());
+    }
+
+    @Test
+    void processRefund_idempotent() {
+        Assertions.assertTrue(walletUpdatesRepository.processRefund(INITIATIVE_ID, USER_ID, "NOTIFICATION_ID", 1L, 400L));
+        // redelivered feedback
+        Assertions.assertFalse(walletUpdatesRepository.processRefund(INITIATIVE_ID, USER_ID, "NOTIFICATION_ID", 1L, 400L));
+        // the notification was then rejected
+        Assertions.assertTrue(walletUpdatesRepository.processRefund(INITIATIVE_ID, USER_ID, "NOTIFICATION_ID", 2L, -400L));
+        Assertions.assertFalse(walletUpdatesRepository.processRefund(INITIATIVE_ID, USER_ID, "NOTIFICATION_ID", 1L, 400L));
+        Assertions.assertFalse(walletUpdatesRepository.processRefund(INITIATIVE_ID, "NOT_ENROLLED_ID", "NOTIFICATION_ID", 1L, 400L));
+
+        Wallet member = findWallet(USER_ID);
+        Assertions.assertEquals(REFUNDED_CENTS, member.getRefundedCents());
+        Assertions.assertEquals(2L, member.getRefundHistory().get("NOTIFICATION_ID").getFeedbackProgressive());
+        Assertions.assertNotNull(member.getRefundHistory().get("NOTIFICATION_ID").getUpdateDate());
+        Mockito.verify(walletCacheServiceMock, Mockito.times(2)).evict(INITIATIVE_ID, USER_ID);
+    }
+
+    @Test
+    void compactRefundHistories() {
+        LocalDateTime now = LocalDateTime.now();
+        Wallet wallet = buildFamilyMember("REFUNDED_ID", new ArrayList<>());
+        wallet.setRefundHistory(new HashMap<>(Map.of(
+                "OLD_ID", new Wallet.RefundHistory(1L, now.minusDays(10)),
+                "RECENT_ID", new Wallet.RefundHistory(2L, now.minusDays(1)),
+                "LEGACY_ID", new Wallet.RefundHistory(1L, null))));
+        mongoTemplate.insert(wallet);
+        Wallet compacted = buildFamilyMember("COMPACTED_ID", new ArrayList<>());
+        compacted.setRefundHistory(new HashMap<>(Map.of("RECENT_ID", new Wallet.RefundHistory(1L, now.minusDays(1)))));
+        mongoTemplate.insert(compacted);
+
+        // paged by id, skipping the wallets without a refund history
+        List<WalletKeyView> page = walletUpdatesRepository.findRefundHistoryKeysPage(null, 1);
+        Assertions.assertEquals(List.of("COMPACTED_ID_" + INITIATIVE_ID), page.stream().map(WalletKeyView::id).toList());
+        Assertions.assertEquals(0L, walletUpdatesRepository.compactRefundHistories(now.minusDays(5), page));
+        page = walletUpdatesRepository.findRefundHistoryKeysPage(page.getLast().id(), 1);
+        Assertions.assertEquals(List.of("REFUNDED_ID_" + INITIATIVE_ID), page.stream().map(WalletKeyView::id).toList());
+        Assertions.assertEquals(1L, walletUpdatesRepository.compactRefundHistories(now.minusDays(5), page));
+        Assertions.assertEquals(List.of(), walletUpdatesRepository.findRefundHistoryKeysPage(page.getLast().id(), 1));
+
+        Map<String, Wallet.RefundHistory> history = findWallet("REFUNDED_ID").getRefundHistory();
+        Assertions.assertEquals(Set.of("RECENT_ID", "LEGACY_ID"), history.keySet());
+        Assertions.assertEquals(2L, history.get("RECENT_ID").getFeedbackProgressive());
+        Assertions.assertNotNull(history.get("LEGACY_ID").getUpdateDate());
+        Assertions.assertEquals(0L, walletUpdatesRepository.compactRefundHistories(now.minusDays(5), page));
+    }
+
+    @Test
+    void singleWalletUpdates_targetWalletKey() {
+        LocalDateTime now = LocalDateTime.now();
+        walletUpdatesRepository.enrollIban(INITIATIVE_ID, USER_ID, "IBAN");
+        walletUpdatesRepository.deleteIban(INITIATIVE_ID, USER_ID, "IBAN");
+        walletUpdatesRepository.suspendWallet(INITIATIVE_ID, USER_ID, "STATUS", now);
+        walletUpdatesRepository.readmitWallet(INITIATIVE_ID, USER_ID, "STATUS", now);
+        walletUpdatesRepository.updateInstrumentNumber(INITIATIVE_ID, USER_ID, 1);
+        walletUpdatesRepository.decreaseInstrumentNumber(INITIATIVE_ID, USER_ID);
+        walletUpdatesRepository.processRefund(INITIATIVE_ID, USER_ID, "NOTIFICATION_ID", 1L, 0L);
+        walletUpdatesRepository.unsubscribeWallet(INITIATIVE_ID, USER_ID, now);
+        walletUpdatesRepository.rollbackWallet(INITIATIVE_ID, USER_ID, "STATUS", 1, null, null);
+        walletUpdatesRepository.captureTransaction(INITIATIVE_ID, USER_ID, 100L);
+        walletUpdatesRepository.createWallet(buildFamilyMember(USER_ID, new ArrayList<>()));
+        // a family member: the guard does not match and the reason is looked up
+        Assertions.assertEquals(new RewardUpdateResult(RewardUpdateOutcome.FAMILY_WALLET, FAMILY_ID),
+                walletUpdatesRepository.rewardTransactionIfNewer(INITIATIVE_ID, USER_ID, now, 0L, 0L, 2L));
+
+        ArgumentCaptor<Query> queries = ArgumentCaptor.forClass(Query.class);
+        Mockito.verify(mongoTemplate, Mockito.times(11))
+                .updateFirst(queries.capture(), Mockito.any(UpdateDefinition.class), Mockito.eq(Wallet.class));
+        Mockito.verify(mongoTemplate).upsert(queries.capture(), Mockito.any(UpdateDefinition.class), Mockito.eq(Wallet.class));
+        Mockito.verify(mongoTemplate).findOne(queries.capture(), Mockito.eq(Wallet.class));
+
+        Assertions.assertEquals(13, queries.getAllValues().size());
+        queries.getAllValues().forEach(query -> {
+            Assertions.assertEquals(new WalletKey(USER_ID, INITIATIVE_ID).id(), query.getQueryObject().get(Wallet.Fields.id));
+            Assertions.assertEquals(USER_ID, query.getQueryObject().get(Wallet.Fields.userId));
+        });
+    }
+
+    @Test
+    void createWallet_insertIfAbsent() {
+        Wallet wallet = buildFamilyMember("NEW_USER_ID", new ArrayList<>());
+        Assertions.assertTrue(walletUpdatesRepository.createWallet(wallet));
+        Assertions.assertEquals(BUDGET_CENTS, findWallet("NEW_USER_ID").getAmountCents());
+
+        // the accruals applied meanwhile are not overwritten by a redelivered onboarding
+        walletUpdatesRepository.rewardFamilyMemberTransaction(INITIATIVE_ID, FAMILY_ID, "NEW_USER_ID", BUDGET_CENTS - 100L, 100L, 2L);
+        Assertions.assertFalse(walletUpdatesRepository.createWallet(wallet));
+        Assertions.assertEquals(100L, findWallet("NEW_USER_ID").getAccruedCents());
+    }
+
+    @Test
+    void captureTransaction() {
+        Assertions.assertTrue(walletUpdatesRepository.captureTransaction(INITIATIVE_ID, USER_ID, 300L));
+        Wallet member = findWallet(USER_ID);
+        Assertions.assertEquals(0L, member.getAmountCents());
+        Assertions.assertEquals(300L, member.getAccruedCents());
+
+        // the accrued amount is kept once set
+        Assertions.assertTrue(walletUpdatesRepository.captureTransaction(INITIATIVE_ID, USER_ID, 500L));
+        Assertions.assertEquals(300L, findWallet(USER_ID).getAccruedCents());
+        Assertions.assertFalse(walletUpdatesRepository.captureTransaction(INITIATIVE_ID, "NOT_ENROLLED_ID", 500L));
+    }
+
+    @Test
+    void unsubscribeAndRollbackWallet() {
+        LocalDateTime now = LocalDateTime.now();
+        walletUpdatesRepository.unsubscribeWallet(INITIATIVE_ID, USER_ID, now);
+        Wallet member = findWallet(USER_ID);
+        Assertions.assertEquals(WalletStatus.UNSUBSCRIBED, member.getStatus());
+        Assertions.assertEquals(0, member.getNInstr());
+        Assertions.assertNotNull(member.getRequestUnsubscribeDate());
+
+        walletUpdatesRepository.rollbackWallet(INITIATIVE_ID, USER_ID, WalletStatus.REFUNDABLE.name(), 2, null, null);
+        member = findWallet(USER_ID);
+        Assertions.assertEquals(WalletStatus.REFUNDABLE.name(), member.getStatus());
+        Assertions.assertEquals(2, member.getNInstr());
+        Assertions.assertNull(member.getRequestUnsubscribeDate());
+        // the counters are not part of the rollback
+        Assertions.assertEquals(List.of(1L), member.getCounterHistory());
+    }
+
+    @Test
+    void derivedStatus() {
+        Assertions.assertTrue(walletUpdatesRepository.updateInstrumentNumber(INITIATIVE_ID, USER_ID, 2));
+        Assertions.assertEquals(WalletStatus.NOT_REFUNDABLE_ONLY_INSTRUMENT.name(), findWallet(USER_ID).getStatus());
+
+        walletUpdatesRepository.enrollIban(INITIATIVE_ID, USER_ID, "IBAN");
+        Assertions.assertEquals(WalletStatus.REFUNDABLE.name(), findWallet(USER_ID).getStatus());
+
+        Assertions.assertTrue(walletUpdatesRepository.decreaseInstrumentNumber(INITIATIVE_ID, USER_ID));
+        Assertions.assertTrue(walletUpdatesRepository.decreaseInstrumentNumber(INITIATIVE_ID, USER_ID));
+        Wallet member = findWallet(USER_ID);
+        Assertions.assertEquals(0, member.getNInstr());
+        Assertions.assertEquals(WalletStatus.NOT_REFUNDABLE_ONLY_IBAN.name(), member.getStatus());
+
+        // the outcome of an IBAN no longer enrolled is ignored
+        Assertions.assertFalse(walletUpdatesRepository.deleteIban(INITIATIVE_ID, USER_ID, "OTHER_IBAN"));
+        Assertions.assertTrue(walletUpdatesRepository.deleteIban(INITIATIVE_ID, USER_ID, "IBAN"));
+        member = findWallet(USER_ID);
+        Assertions.assertNull(member.getIban());
+        Assertions.assertEquals(WalletStatus.NOT_REFUNDABLE.name(), member.getStatus());
+        Assertions.assertFalse(walletUpdatesRepository.decreaseInstrumentNumber(INITIATIVE_ID, "NOT_ENROLLED_ID"));
+    }
+
+    @Test
+    void derivedStatus_suspendedAndDiscount() {
+        walletUpdatesRepository.suspendWallet(INITIATIVE_ID, USER_ID, WalletStatus.SUSPENDED, LocalDateTime.now());
+        walletUpdatesRepository.enrollIban(INITIATIVE_ID, USER_ID, "IBAN");
+        Assertions.assertEquals(WalletStatus.SUSPENDED, findWallet(USER_ID).getStatus());
+
+        Wallet discount = buildFamilyMember("DISCOUNT_USER_ID", new ArrayList<>());
+        discount.setInitiativeRewardType(WalletConstants.INITIATIVE_REWARD_TYPE_DISCOUNT);
+        discount.setStatus(WalletStatus.REFUNDABLE.name());
+        mongoTemplate.insert(discount);
+        Assertions.assertTrue(walletUpdatesRepository.updateInstrumentNumber(INITIATIVE_ID, "DISCOUNT_USER_ID", 0));
+        Assertions.assertEquals(WalletStatus.REFUNDABLE.name(), findWallet("DISCOUNT_USER_ID").getStatus());
+    }
+
+    @Test
+    void decreaseInstrumentNumbers() {
+        walletUpdatesRepository.updateInstrumentNumber(INITIATIVE_ID, USER_ID, 2);
+        walletUpdatesRepository.updateInstrumentNumber(INITIATIVE_ID, OTHER_MEMBER_ID, 1);
+        Mockito.clearInvocations(mongoTemplate, walletCacheServiceMock);
+
+        List<InstrumentRevocationOutcome> outcomes = walletUpdatesRepository.decreaseInstrumentNumbers(List.of(
+                new WalletKey(USER_ID, INITIATIVE_ID),
+                new WalletKey("NOT_ENROLLED_ID", INITIATIVE_ID),
+                new WalletKey(OTHER_MEMBER_ID, INITIATIVE_ID),
+                new WalletKey(USER_ID, INITIATIVE_ID)));
+
+        Assertions.assertEquals(List.of(
+                InstrumentRevocationOutcome.REVOKED,
+                InstrumentRevocationOutcome.NOT_FOUND,
+                InstrumentRevocationOutcome.REVOKED,
+                InstrumentRevocationOutcome.REVOKED), outcomes);
+        Wallet member = findWallet(USER_ID);
+        Assertions.assertEquals(0, member.getNInstr());
+        Assertions.assertEquals(WalletStatus.NOT_REFUNDABLE.name(), member.getStatus());
+        Assertions.assertEquals(0, findWallet(OTHER_MEMBER_ID).getNInstr());
+        // one read for the whole list and no single-wallet updates
+        Mockito.verify(mongoTemplate, Mockito.times(1)).find(Mockito.any(Query.class), Mockito.eq(Wallet.class));
+        Mockito.verify(mongoTemplate, Mockito.never()).updateFirst(Mockito.any(Query.class), Mockito.any(UpdateDefinition.class), Mockito.eq(Wallet.class));
+        Mockito.verify(walletCacheServiceMock).evict(INITIATIVE_ID, List.of(USER_ID, OTHER_MEMBER_ID, USER_ID));
+
+        Assertions.assertEquals(List.of(), walletUpdatesRepository.decreaseInstrumentNumbers(List.of()));
+    }
+
+    @Test
+    void decreaseInstrumentNumbers_deletedOrUnsubscribed() {
+        walletUpdatesRepository.updateInstrumentNumber(INITIATIVE_ID, USER_ID, 1);
+        walletUpdatesRepository.unsubscribeWallet(INITIATIVE_ID, OTHER_MEMBER_ID, LocalDateTime.now());
+        // the wallet is deleted between the read and the bulk
+        Mockito.doAnswer(invocation -> {
+                    Object wallets = invocation.callRealMethod();
+                    mongoTemplate.remove(Query.query(Criteria.where("_id").is(USER_ID + "_" + INITIATIVE_ID)), Wallet.class);
+                    return wallets;
+                })
+                .doCallRealMethod()
+                .when(mongoTemplate).find(Mockito.any(Query.class), Mockito.eq(Wallet.class));
+
+        List<InstrumentRevocationOutcome> outcomes = walletUpdatesRepository.decreaseInstrumentNumbers(List.of(
+                new WalletKey(USER_ID, INITIATIVE_ID),
+                new WalletKey(OTHER_MEMBER_ID, INITIATIVE_ID)));
+
+        Assertions.assertEquals(List.of(InstrumentRevocationOutcome.NOT_FOUND, InstrumentRevocationOutcome.NOT_FOUND), outcomes);
+        Assertions.assertEquals(0, findWallet(OTHER_MEMBER_ID).getNInstr());
+    }
+
+    @Test
+    void decreaseInstrumentNumbers_concurrentlyUpdated() {
+        walletUpdatesRepository.updateInstrumentNumber(INITIATIVE_ID, USER_ID, 1);
+        walletUpdatesRepository.updateInstrumentNumber(INITIATIVE_ID, OTHER_MEMBER_ID, 1);
+        Mockito.doAnswer(invocation -> {
+                    Object wallets = invocation.callRealMethod();
+                    // the other wallet is unsubscribed between the read and the bulk, so the revoked ones are read back
+                    walletUpdatesRepository.unsubscribeWallet(INITIATIVE_ID, OTHER_MEMBER_ID, LocalDateTime.now());
+                    return wallets;
+                })
+                .doAnswer(invocation -> {
+                    // a write of another operation before the wallets are read back does not hide the revocation
+                    Thread.sleep(5);
+                    walletUpdatesRepository.enrollIban(INITIATIVE_ID, USER_ID, "IBAN");
+                    return invocation.callRealMethod();
+                })
+                .when(mongoTemplate).find(Mockito.any(Query.class), Mockito.eq(Wallet.class));
+
+        List<InstrumentRevocationOutcome> outcomes = walletUpdatesRepository.decreaseInstrumentNumbers(List.of(
+                new WalletKey(USER_ID, INITIATIVE_ID),
+                new WalletKey(OTHER_MEMBER_ID, INITIATIVE_ID)));
+
+        Assertions.assertEquals(List.of(InstrumentRevocationOutcome.REVOKED, InstrumentRevocationOutcome.NOT_FOUND), outcomes);
+        Assertions.assertEquals(0, findWallet(USER_ID).getNInstr());
+    }
+
+    @Test
+    void processRefunds() {
+        walletUpdatesRepository.processRefund(INITIATIVE_ID, USER_ID, "NOT_0", 1L, 50L);
+        Mockito.clearInvocations(mongoTemplate, walletCacheServiceMock);
+
+        List<WalletUpdateOutcome> outcomes = walletUpdatesRepository.processRefunds(List.of(
+                refund(USER_ID, "NOT_0", 1L, 50L),
+                refund(USER_ID, "NOT_1", 1L, 100L),
+                refund(USER_ID, "NOT_1", 2L, 200L),
+                refund(USER_ID, "NOT_1", 1L, 100L),
+                refund("NOT_ENROLLED_ID", "NOT_1", 1L, 100L),
+                refund(OTHER_MEMBER_ID, "NOT_2", 1L, 300L)));
+
+        Assertions.assertEquals(List.of(
+                WalletUpdateOutcome.SKIPPED,
+                WalletUpdateOutcome.APPLIED,
+                WalletUpdateOutcome.APPLIED,
+                WalletUpdateOutcome.SKIPPED,
+                WalletUpdateOutcome.NOT_FOUND,
+                WalletUpdateOutcome.APPLIED), outcomes);
+        Wallet member = findWallet(USER_ID);
+        Assertions.assertEquals(REFUNDED_CENTS - 350L, member.getRefundedCents());
+        Assertions.assertEquals(2L, member.getRefundHistory().get("NOT_1").getFeedbackProgressive());
+        Assertions.assertEquals(1L, member.getRefundHistory().get("NOT_0").getFeedbackProgressive());
+        Assertions.assertEquals(REFUNDED_CENTS - 300L, findWallet(OTHER_MEMBER_ID).getRefundedCents());
+        // one read for the whole poll and no single-wallet updates
+        Mockito.verify(mongoTemplate, Mockito.times(1)).find(Mockito.any(Query.class), Mockito.eq(Wallet.class));
+        Mockito.verify(mongoTemplate, Mockito.never()).updateFirst(Mockito.any(Query.class), Mockito.any(UpdateDefinition.class), Mockito.eq(Wallet.class));
+        Mockito.verify(walletCacheServiceMock).evict(INITIATIVE_ID, List.of(USER_ID, USER_ID, OTHER_MEMBER_ID));
+
+        // a redelivered poll does not refund twice
+        Assertions.assertEquals(List.of(WalletUpdateOutcome.SKIPPED),
+                walletUpdatesRepository.processRefunds(List.of(refund(USER_ID, "NOT_1", 2L, 200L))));
+        Assertions.assertEquals(REFUNDED_CENTS - 350L, findWallet(USER_ID).getRefundedCents());
+    }
+
+    @Test
+    void processRefunds_concurrentlyApplied() {
+        // another consumer applies the same feedback between the read and the bulk
+        Mockito.doAnswer(invocation -> {
+                    Object wallets = invocation.callRealMethod();
+                    walletUpdatesRepository.processRefund(INITIATIVE_ID, USER_ID, "NOT_1", 1L, 100L);
+                    // the bulk stamps its own update date
+                    Thread.sleep(5);
+                    return wallets;
+                })
+                .doCallRealMethod()
+                .when(mongoTemplate).find(Mockito.any(Query.class), Mockito.eq(Wallet.class));
+
+        List<WalletUpdateOutcome> outcomes = walletUpdatesRepository.processRefunds(List.of(
+                refund(USER_ID, "NOT_1", 1L, 100L),
+                refund(OTHER_MEMBER_ID, "NOT_1", 1L, 100L)));
+
+        Assertions.assertEquals(List.of(WalletUpdateOutcome.SKIPPED, WalletUpdateOutcome.APPLIED), outcomes);
+        Assertions.assertEquals(REFUNDED_CENTS - 100L, findWallet(USER_ID).getRefundedCents());
+        Assertions.assertEquals(REFUNDED_CENTS - 100L, findWallet(OTHER_MEMBER_ID).getRefundedCents());
+    }
+
+    @Test
+    void deleteIbans() {
+        walletUpdatesRepository.enrollIban(INITIATIVE_ID, USER_ID, "IBAN");
+        Mockito.clearInvocations(mongoTemplate, walletCacheServiceMock);
+
+        List<WalletUpdateOutcome> outcomes = walletUpdatesRepository.deleteIbans(List.of(
+                ibanKo(USER_ID, "IBAN"),
+                ibanKo(USER_ID, "IBAN"),
+                ibanKo(OTHER_MEMBER_ID, "IBAN"),
+                ibanKo("NOT_ENROLLED_ID", "IBAN")));
+
+        Assertions.assertEquals(List.of(
+                WalletUpdateOutcome.APPLIED,
+                WalletUpdateOutcome.SKIPPED,
+                WalletUpdateOutcome.SKIPPED,
+                WalletUpdateOutcome.NOT_FOUND), outcomes);
+        Wallet member = findWallet(USER_ID);
+        Assertions.assertNull(member.getIban());
+        Assertions.assertEquals(WalletStatus.NOT_REFUNDABLE.name(), member.getStatus());
+        Mockito.verify(mongoTemplate, Mockito.times(1)).find(Mockito.any(Query.class), Mockito.eq(Wallet.class));
+        Mockito.verify(walletCacheServiceMock).evict(INITIATIVE_ID, List.of(USER_ID));
+    }
+
+    @Test
+    void deleteIbans_concurrentlyDeleted() {
+        walletUpdatesRepository.enrollIban(INITIATIVE_ID, USER_ID, "IBAN");
+        walletUpdatesRepository.enrollIban(INITIATIVE_ID, OTHER_MEMBER_ID, "IBAN");
+        Mockito.doAnswer(invocation -> {
+                    Object wallets = invocation.callRealMethod();
+                    walletUpdatesRepository.deleteIban(INITIATIVE_ID, USER_ID, "IBAN");
+                    // the bulk stamps its own update date
+                    Thread.sleep(5);
+                    return wallets;
+                })
+                .doCallRealMethod()
+                .when(mongoTemplate).find(Mockito.any(Query.class), Mockito.eq(Wallet.class));
+
+        List<WalletUpdateOutcome> outcomes = walletUpdatesRepository.deleteIbans(List.of(
+                ibanKo(USER_ID, "IBAN"),
+                ibanKo(OTHER_MEMBER_ID, "IBAN")));
+
+        // the IBAN the outcome refers to is removed, whichever delivery removed it
+        Assertions.assertEquals(List.of(WalletUpdateOutcome.APPLIED, WalletUpdateOutcome.APPLIED), outcomes);
+        Assertions.assertNull(findWallet(USER_ID).getIban());
+        Assertions.assertNull(findWallet(OTHER_MEMBER_ID).getIban());
+    }
+
+    @Test
+    void deleteIbans_concurrentlyReplaced() {
+        walletUpdatesRepository.enrollIban(INITIATIVE_ID, USER_ID, "IBAN");
+        walletUpdatesRepository.enrollIban(INITIATIVE_ID, OTHER_MEMBER_ID, "IBAN");
+        Mockito.doAnswer(invocation -> {
+                    Object wallets = invocation.callRealMethod();
+                    walletUpdatesRepository.enrollIban(INITIATIVE_ID, USER_ID, "NEW_IBAN");
+                    return wallets;
+                })
+                .doCallRealMethod()
+                .when(mongoTemplate).find(Mockito.any(Query.class), Mockito.eq(Wallet.class));
+
+        List<WalletUpdateOutcome> outcomes = walletUpdatesRepository.deleteIbans(List.of(
+                ibanKo(USER_ID, "IBAN"),
+                ibanKo(OTHER_MEMBER_ID, "IBAN")));
+
+        Assertions.assertEquals(List.of(WalletUpdateOutcome.SKIPPED, WalletUpdateOutcome.APPLIED), outcomes);
+        Assertions.assertEquals("NEW_IBAN", findWallet(USER_ID).getIban());
+    }
+
+    @Test
+    void rewardTransactions() {
+        List<WalletUpdateOutcome> outcomes = walletUpdatesRepository.rewardTransactions(List.of(
+                rewardUpdate(USER_ID, 3L, 2L),
+                rewardUpdate(OTHER_MEMBER_ID, 1L, 1L),
+                rewardUpdate("NOT_ENROLLED_ID", 2L, 1L)));
+
+        // the wallet already at that version is left untouched, its version being accrued
+        Assertions.assertEquals(List.of(
+                WalletUpdateOutcome.APPLIED,
+                WalletUpdateOutcome.APPLIED,
+                WalletUpdateOutcome.NOT_FOUND), outcomes);
+        Wallet member = findWallet(USER_ID);
+        Assertions.assertEquals(3L, member.getCounterVersion());
+        Assertions.assertEquals(2L, member.getNTrx());
+        Assertions.assertEquals(300L, member.getAccruedCents());
+        Assertions.assertEquals(0L, findWallet(OTHER_MEMBER_ID).getNTrx());
+    }
+
+    @Test
+    void rewardTransactions_concurrentlyUpdated() {
+        // a newer version is written before the wallets are read back
+        Mockito.doAnswer(invocation -> {
+                    Thread.sleep(5);
+                    walletUpdatesRepository.rewardTransactions(List.of(rewardUpdate(USER_ID, 5L, 1L)));
+                    return invocation.callRealMethod();
+                })
+                .when(mongoTemplate).find(Mockito.any(Query.class), Mockito.eq(Wallet.class));
+
+        List<WalletUpdateOutcome> outcomes = walletUpdatesRepository.rewardTransactions(List.of(
+                rewardUpdate(USER_ID, 3L, 2L),
+                rewardUpdate(OTHER_MEMBER_ID, 1L, 1L)));
+
+        Assertions.assertEquals(List.of(WalletUpdateOutcome.APPLIED, WalletUpdateOutcome.APPLIED), outcomes);
+        Assertions.assertEquals(5L, findWallet(USER_ID).getCounterVersion());
+    }
+
+    @Test
+    void createWallets() {
+        Wallet existing = buildFamilyMember(USER_ID, new ArrayList<>());
+        existing.setRefundedCents(0L);
+
+        List<WalletUpdateOutcome> outcomes = walletUpdatesRepository.createWallets(List.of(
+                buildFamilyMember("NEW_USER_ID", new ArrayList<>()), existing));
+
+        Assertions.assertEquals(List.of(WalletUpdateOutcome.APPLIED, WalletUpdateOutcome.SKIPPED), outcomes);
+        Assertions.assertEquals(BUDGET_CENTS, findWallet("NEW_USER_ID").getAmountCents());
+        // the existing wallet is left untouched
+        Assertions.assertEquals(REFUNDED_CENTS, findWallet(USER_ID).getRefundedCents());
+        Assertions.assertEquals(List.of(1L), findWallet(USER_ID).getCounterHistory());
+        Mockito.verify(walletCacheServiceMock).evict(INITIATIVE_ID, List.of("NEW_USER_ID", USER_ID));
+    }
+
+    private static RefundDTO refund(String userId, String rewardNotificationId, Long feedbackProgressive, Long rewardCents) {
+        return new RefundDTO("ID", "EXT_ID", rewardNotificationId, INITIATIVE_ID, userId, BeneficiaryType.CITIZEN,
+                "ORG_ID", "IBAN", "ACCEPTED", "ACCEPTED", "ORDINARY", rewardCents, rewardCents,
+                LocalDate.now(), LocalDate.now(), LocalDateTime.now(), null, null, feedbackProgressive,
+                LocalDate.now(), LocalDate.now(), LocalDate.now(), "CRO");
+    }
+
+    private static IbanQueueWalletDTO ibanKo(String userId, String iban) {
+        return new IbanQueueWalletDTO(userId, INITIATIVE_ID, iban, WalletConstants.STATUS_KO, LocalDateTime.now().toString(), "CHANNEL");
+    }
+
+    private static WalletRewardUpdateDTO rewardUpdate(String userId, long counterVersion, long trxCount) {
+        return WalletRewardUpdateDTO.builder()
+                .userId(userId)
+                .initiativeId(INITIATIVE_ID)
+                .amountCents(BUDGET_CENTS - counterVersion * 100L)
+                .accruedCents(counterVersion * 100L)
+                .counterVersion(counterVersion)
+                .trxCount(trxCount)
+                .build();
+    }
+
+    private FamilyRewardUpdateOutcome reward(long version) {
+        return walletUpdatesRepository.rewardFamilyMemberTransaction(
+                INITIATIVE_ID, FAMILY_ID, USER_ID, BUDGET_CENTS - version * 100L, 100L, version);
+    }
+
+    @Test
+    void deleteByIds() {
+        List<WalletKeyView> page = List.of(
+                new WalletKeyView(USER_ID + "_" + INITIATIVE_ID, USER_ID, INITIATIVE_ID),
+                new WalletKeyView(OTHER_MEMBER_ID + "_" + INITIATIVE_ID, OTHER_MEMBER_ID, INITIATIVE_ID));
+
+        Assertions.assertEquals(2L, walletUpdatesRepository.deleteByIds(INITIATIVE_ID, page));
+
+        Assertions.assertNull(findWallet(USER_ID));
+        Assertions.assertNull(findWallet(OTHER_MEMBER_ID));
+        // the remove is routed by the shard key
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        Mockito.verify(mongoTemplate).remove(query.capture(), Mockito.eq(Wallet.class));
+        Assertions.assertNotNull(query.getValue().getQueryObject().get(Wallet.Fields.userId));
+        Mockito.verify(walletCacheServiceMock).evict(INITIATIVE_ID, List.of(USER_ID, OTHER_MEMBER_ID));
+    }
+
+    private Wallet findWallet(String userId) {
+        return mongoTemplate.findById(userId + "_" + INITIATIVE_ID, Wallet.class);
+    }
+
+    private static Wallet buildFamilyMember(String userId, List<Long> counterHistory) {
+        return Wallet.builder()
+                .id(userId + "_" + INITIATIVE_ID)
+                .userId(userId)
+                .familyId(FAMILY_ID)
+                .initiativeId(INITIATIVE_ID)
+                .amountCents(BUDGET_CENTS)
+                .accruedCents(0L)
+                .nTrx(0L)
+                .refundedCents(REFUNDED_CENTS)
+                .counterVersion(1L)
+                .counterHistory(counterHistory)
+                .build();
+    }
+}
@@ -0,0 +1,139 @@
+package it.gov.pagopa.wallet.service;
+
+import it.gov.pagopa.wallet.dto.QueueOperationDTO;
+import it.gov.pagopa.wallet.model.WalletOutboxEvent;
+import it.gov.pagopa.wallet.repository.WalletOutboxRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.data.mongodb.MongoTransactionManager;
+import org.springframework.messaging.Message;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+
+class OutboxServiceImplTest {
+
+    private static final String BINDING = "walletQueue-out-1";
+    private static final String USER_ID = "USER_ID";
+
+    private WalletOutboxRepository outboxRepositoryMock;
+    private StreamBridge streamBridgeMock;
+    private OutboxService outboxService;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        outboxRepositoryMock = Mockito.mock(WalletOutboxRepository.class);
+        streamBridgeMock = Mockito.mock(StreamBridge.class);
+        ObjectProvider<MongoTransactionManager> transactionManagerProvider = Mockito.mock(ObjectProvider.class);
+        outboxService = new OutboxServiceImpl(outboxRepositoryMock, streamBridgeMock, JsonMapper.builder().build(),
+                transactionManagerProvider, true, 2, 60);
+    }
+
+    @Test
+    void enqueue() {
+        outboxService.enqueue(BINDING, USER_ID, QueueOperationDTO.builder().userId(USER_ID).build());
+
+        ArgumentCaptor<WalletOutboxEvent> eventCaptor = ArgumentCaptor.forClass(WalletOutboxEvent.class);
+        Mockito.verify(outboxRepositoryMock).insert(eventCaptor.capture());
+        assertEquals(BINDING, eventCaptor.getValue().getBindingName());
+        assertEquals(USER_ID, eventCaptor.getValue().getUserId());
+        assertTrue(eventCaptor.getValue().getPayload().contains(USER_ID));
+        assertNotNull(eventCaptor.getValue().getCreatedAt());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void enqueueAll() {
+        outboxService.enqueueAll(BINDING, QueueOperationDTO::getUserId, List.of(
+                QueueOperationDTO.builder().userId(USER_ID).build(),
+                QueueOperationDTO.builder().userId("OTHER_USER_ID").build()));
+
+        ArgumentCaptor<List<WalletOutboxEvent>> eventsCaptor = ArgumentCaptor.forClass(List.class);
+        Mockito.verify(outboxRepositoryMock).insertAll(eventsCaptor.capture());
+        Mockito.verify(outboxRepositoryMock, Mockito.never()).insert(any());
+        List<WalletOutboxEvent> events = eventsCaptor.getValue();
+        assertEquals(2, events.size());
+        assertEquals(USER_ID, events.get(0).getUserId());
+        assertEquals("OTHER_USER_ID", events.get(1).getUserId());
+        assertTrue(events.stream().allMatch(event -> BINDING.equals(event.getBindingName())));
+
+        outboxService.enqueueAll(BINDING, QueueOperationDTO::getUserId, List.of());
+        Mockito.verifyNoMoreInteractions(outboxRepositoryMock);
+    }
+
+    @Test
+    void relay_deletesOnlySentEvents() {
+        LocalDateTime lockedUntil = LocalDateTime.now().plusMinutes(1);
+        WalletOutboxEvent sent = outboxEvent("ID_1", USER_ID, lockedUntil);
+        WalletOutboxEvent failed = outboxEvent("ID_2", "OTHER_USER_ID", lockedUntil);
+        Mockito.when(outboxRepositoryMock.claimBatch(any(), anyInt(), any())).thenReturn(List.of(sent, failed));
+        Mockito.when(streamBridgeMock.send(eq(BINDING), any(Message.class)))
+                .thenReturn(true)
+                .thenThrow(new RuntimeException("DUMMY"));
+
+        int relayed = outboxService.relay();
+
+        assertEquals(2, relayed);
+        Mockito.verify(outboxRepositoryMock).deleteAll(List.of(sent));
+    }
+
+    @Test
+    void relay_keepsUserOrderingOnFailure() {
+        LocalDateTime lockedUntil = LocalDateTime.now().plusMinutes(1);
+        WalletOutboxEvent failed = outboxEvent("ID_1", USER_ID, lockedUntil);
+        WalletOutboxEvent sameUser = outboxEvent("ID_2", USER_ID, lockedUntil);
+        WalletOutboxEvent otherUser = outboxEvent("ID_3", "OTHER_USER_ID", lockedUntil);
+        Mockito.when(outboxRepositoryMock.claimBatch(any(), anyInt(), any())).thenReturn(List.of(failed, sameUser, otherUser));
+        Mockito.when(streamBridgeMock.send(eq(BINDING), any(Message.class)))
+                .thenReturn(false)
+                .thenReturn(true);
+
+        outboxService.relay();
+
+        Mockito.verify(streamBridgeMock, Mockito.times(2)).send(eq(BINDING), any(Message.class));
+        Mockito.verify(outboxRepositoryMock).deleteAll(List.of(otherUser));
+    }
+
+    @Test
+    void relay_stopsWhenClaimExpired() {
+        Mockito.when(outboxRepositoryMock.claimBatch(any(), anyInt(), any())).thenReturn(List.of(
+                outboxEvent("ID_1", USER_ID, LocalDateTime.now().minusSeconds(1))));
+
+        outboxService.relay();
+
+        Mockito.verifyNoInteractions(streamBridgeMock);
+        Mockito.verify(outboxRepositoryMock).deleteAll(List.of());
+    }
+
+    @Test
+    void relay_empty() {
+        Mockito.when(outboxRepositoryMock.claimBatch(any(), anyInt(), any())).thenReturn(List.of());
+
+        assertEquals(0, outboxService.relay());
+        Mockito.verifyNoInteractions(streamBridgeMock);
+    }
+
+    private static WalletOutboxEvent outboxEvent(String id, String userId, LocalDateTime lockedUntil) {
+        return WalletOutboxEvent.builder().id(id).bindingName(BINDING).userId(userId).payload("{}").lockedUntil(lockedUntil).build();
+    }
+
+    @Test
+    void executeInTransaction_withoutTransactionManager() {
+        Runnable operation = Mockito.mock(Runnable.class);
+
+        outboxService.executeInTransaction(operation);
+
+        Mockito.verify(operation).run();
+    }
+}
@@ -1,11 +1,18 @@
 package it.gov.pagopa.wallet.service;
 
 import it.gov.pagopa.wallet.dto.NotificationQueueDTO;
+import it.gov.pagopa.wallet.dto.ReminderBatchJobDTO;
 import it.gov.pagopa.wallet.enums.Channel;
+import it.gov.pagopa.wallet.enums.ReminderBatchJobStatus;
 import it.gov.pagopa.wallet.event.producer.ErrorProducer;
 import it.gov.pagopa.wallet.event.producer.NotificationProducer;
+import it.gov.pagopa.wallet.exception.custom.ReminderBatchJobNotFoundException;
+import it.gov.pagopa.wallet.model.ReminderBatchJob;
 import it.gov.pagopa.wallet.model.Wallet;
+import it.gov.pagopa.wallet.repository.ReminderBatchJobRepository;
 import it.gov.pagopa.wallet.repository.WalletRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -13,21 +20,23 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageImpl;
-import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Limit;
 import org.springframework.messaging.Message;
 
 import java.time.Instant;
 import java.time.LocalDate;
 import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Optional;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -39,6 +48,8 @@ class VoucherExpirationReminderServiceTest {
     NotificationProducer notificationProducerMock;
     @Mock
     WalletRepository walletRepositoryMock;
+    @Mock
+    ReminderBatchJobRepository reminderBatchJobRepositoryMock;
     VoucherExpirationReminderBatchServiceImpl voucherExpirationReminderBatchService;
 
     private static final ZoneId ZONE_ID = ZoneId.of("Europe/Rome");
@@ -52,13 +63,15 @@ class VoucherExpirationReminderServiceTest {
     private static final String NAME = "NAME";
     private static final String SURNAME = "SURNAME";
     private static final String SERVICE_ID = "serviceid";
+    private static final String JOB_ID = "JOB_ID";
 
     @Value("${app.wallet.expiringDay}")
     private int expiringDay;
-    private static final Pageable pageable = PageRequest.of(0, 100);
+    private static final Limit limit = Limit.of(BLOCK_REMINDER_BATCH);
 
     private static final Wallet TEST_WALLET_1 =
             Wallet.builder()
+                    .id("ID_1")
                     .userId(USER_ID)
                     .initiativeId(INITIATIVE_ID)
                     .serviceId(SERVICE_ID)
@@ -71,6 +84,7 @@ class VoucherExpirationReminderServiceTest {
 
     private static final Wallet TEST_WALLET_2 =
             Wallet.builder()
+                    .id("ID_2")
                     .userId(USER_ID)
                     .initiativeId(INITIATIVE_ID)
                     .serviceId(SERVICE_ID)
@@ -85,12 +99,34 @@ class VoucherExpirationReminderServiceTest {
     void setup() {
         voucherExpirationReminderBatchService = new VoucherExpirationReminderBatchServiceImpl(
                 walletRepositoryMock,
+                reminderBatchJobRepositoryMock,
                 notificationProducerMock,
                 errorProducerMock,
                 BLOCK_REMINDER_BATCH,
+                4,
+                1,
+                1,
+                300,
                 NOTIFICATION_SERVER,
                 NOTIFICATION_TOPIC
         );
+        lenient().when(reminderBatchJobRepositoryMock.saveProgress(eq(JOB_ID), anyString(), any(), anyLong(), anyLong(), any()))
+                .thenReturn(true);
+    }
+
+    @AfterEach
+    void tearDown() {
+        voucherExpirationReminderBatchService.shutdownJobExecutor();
+    }
+
+    private ReminderBatchJob buildJob(String lastId) {
+        return ReminderBatchJob.builder()
+                .id(JOB_ID)
+                .initiativeId(INITIATIVE_ID)
+                .expirationDate(LocalDate.now(ZONE_ID).plusDays(expiringDay))
+                .status(ReminderBatchJobStatus.RUNNING)
+                .lastId(lastId)
+                .build();
     }
 
     @Test
@@ -100,49 +136,45 @@ class VoucherExpirationReminderServiceTest {
         walletList.add(TEST_WALLET_1);
         walletList.add(TEST_WALLET_2);
 
-        Page<Wallet> walletPage = new PageImpl<>(walletList, PageRequest.of(0, walletList.size()), walletList.size());
 
         LocalDate target = LocalDate.now(ZONE_ID).plusDays(expiringDay);
         Instant startUtc = target.atStartOfDay(ZONE_ID).toInstant();
         Instant endUtc   = target.plusDays(1).atStartOfDay(ZONE_ID).toInstant();
-        when(walletRepositoryMock.findVoucherExpiredIntoRange(INITIATIVE_ID, Date.from(startUtc),  Date.from(endUtc), pageable))
-                .thenReturn(walletPage);
+        when(walletRepositoryMock.findVoucherExpiredIntoRangeAfter(INITIATIVE_ID, Date.from(startUtc), Date.from(endUtc), "", limit))
+                .thenReturn(walletList);
 
         Mockito.doNothing()
                 .when(notificationProducerMock)
                 .sendNotification(any(NotificationQueueDTO.class));
 
         // Act
-        voucherExpirationReminderBatchService.runReminderBatch(INITIATIVE_ID, expiringDay);
+        voucherExpirationReminderBatchService.runJob(buildJob(""));
 
         // Assert
         //Verify that the repository has been called 1 time
-        verify(walletRepositoryMock, times(1)).findVoucherExpiredIntoRange(INITIATIVE_ID, Date.from(startUtc), Date.from(endUtc), pageable);
+        verify(walletRepositoryMock, times(1)).findVoucherExpiredIntoRangeAfter(INITIATIVE_ID, Date.from(startUtc), Date.from(endUtc), "", limit);
         //Verify that the NotificationProducer was called 2 time
         verify(notificationProducerMock, times(2)).sendNotification(any(NotificationQueueDTO.class));
         //Verify that the ErrorProducer has NEVER been called
         verify(errorProducerMock, never()).sendEvent(any());
+        verify(reminderBatchJobRepositoryMock).saveProgress(eq(JOB_ID), anyString(), eq(TEST_WALLET_2.getId()), eq(2L), eq(0L), any());
+        verify(reminderBatchJobRepositoryMock).release(eq(JOB_ID), anyString(), eq(ReminderBatchJobStatus.COMPLETED));
     }
 
     @Test
     void runReminderBatch_successWithNoWallets() {
-        Page<Wallet> emptyPage = new PageImpl<>(
-                Collections.emptyList(),
-                PageRequest.of(0, 10),
-                0);
-
         LocalDate target = LocalDate.now(ZONE_ID).plusDays(expiringDay);
         Instant startUtc = target.atStartOfDay(ZONE_ID).toInstant();
         Instant endUtc   = target.plusDays(1).atStartOfDay(ZONE_ID).toInstant();
-        when(walletRepositoryMock.findVoucherExpiredIntoRange(INITIATIVE_ID, Date.from(startUtc), Date.from(endUtc), pageable))
-                .thenReturn(emptyPage);
+        when(walletRepositoryMock.findVoucherExpiredIntoRangeAfter(INITIATIVE_ID, Date.from(startUtc), Date.from(endUtc), "", limit))
+                .thenReturn(Collections.emptyList());
 
         //act
-        voucherExpirationReminderBatchService.runReminderBatch(INITIATIVE_ID, expiringDay);
+        voucherExpirationReminderBatchService.runJob(buildJob(""));
 
         //assert
         //Verify that the repository has been called 1 time
-        verify(walletRepositoryMock, times(1)).findVoucherExpiredIntoRange(INITIATIVE_ID, Date.from(startUtc), Date.from(endUtc), pageable);
+        verify(walletRepositoryMock, times(1)).findVoucherExpiredIntoRangeAfter(INITIATIVE_ID, Date.from(startUtc), Date.from(endUtc), "", limit);
 
         //Verify that the NotificationProducer has NEVER been called
         verify(notificationProducerMock, never()).sendNotification(any(NotificationQueueDTO.class));
@@ -157,30 +189,30 @@ class VoucherExpirationReminderServiceTest {
         List<Wallet> walletList = new ArrayList<>();
         walletList.add(TEST_WALLET_1);
 
-        Page<Wallet> walletPage = new PageImpl<>(walletList, PageRequest.of(0, walletList.size()), walletList.size());
 
         LocalDate target = LocalDate.now(ZONE_ID).plusDays(expiringDay);
         Instant startUtc = target.atStartOfDay(ZONE_ID).toInstant();
         Instant endUtc   = target.plusDays(1).atStartOfDay(ZONE_ID).toInstant();
-        when(walletRepositoryMock.findVoucherExpiredIntoRange(INITIATIVE_ID, Date.from(startUtc), Date.from(endUtc), pageable))
-                .thenReturn(walletPage);
+        when(walletRepositoryMock.findVoucherExpiredIntoRangeAfter(INITIATIVE_ID, Date.from(startUtc), Date.from(endUtc), "", limit))
+                .thenReturn(walletList);
 
         //Simulates an exception when sending the notification
         doThrow(new RuntimeException("Kafka connection failed")).when(notificationProducerMock)
                 .sendNotification(any(NotificationQueueDTO.class));
 
         // Act
-        voucherExpirationReminderBatchService.runReminderBatch(INITIATIVE_ID, expiringDay);
+        voucherExpirationReminderBatchService.runJob(buildJob(""));
 
         // Assert
         // Verify that the repository has been called 1 time
-        verify(walletRepositoryMock, times(1)).findVoucherExpiredIntoRange(INITIATIVE_ID, Date.from(startUtc), Date.from(endUtc), pageable);
+        verify(walletRepositoryMock, times(1)).findVoucherExpiredIntoRangeAfter(INITIATIVE_ID, Date.from(startUtc), Date.from(endUtc), "", limit);
 
         // Verify that the NotificationProducer was called 1 time (and failed)
         verify(notificationProducerMock, times(1)).sendNotification(any(NotificationQueueDTO.class));
 
         // Verify that the ErrorProducer has been called 1 time
         verify(errorProducerMock, times(1)).sendEvent(any(Message.class));
+        verify(reminderBatchJobRepositoryMock).saveProgress(eq(JOB_ID), anyString(), eq(TEST_WALLET_1.getId()), eq(0L), eq(1L), any());
     }
 
 
@@ -190,14 +222,13 @@ class VoucherExpirationReminderServiceTest {
         walletList.add(TEST_WALLET_1);
         walletList.add(TEST_WALLET_2);
 
-        Page<Wallet> walletPage = new PageImpl<>(walletList, PageRequest.of(0, walletList.size()), walletList.size());
 
 
         LocalDate target = LocalDate.now(ZONE_ID).plusDays(expiringDay);
         Instant startUtc = target.atStartOfDay(ZONE_ID).toInstant();
         Instant endUtc   = target.plusDays(1).atStartOfDay(ZONE_ID).toInstant();
-        when(walletRepositoryMock.findVoucherExpiredIntoRange(INITIATIVE_ID, Date.from(startUtc), Date.from(endUtc), pageable))
-                .thenReturn(walletPage);
+        when(walletRepositoryMock.findVoucherExpiredIntoRangeAfter(INITIATIVE_ID, Date.from(startUtc), Date.from(endUtc), "", limit))
+                .thenReturn(walletList);
 
         //The first send fails, but not the second.
         doThrow(new RuntimeException("Kafka connection failed for wallet 1"))
@@ -205,7 +236,7 @@ class VoucherExpirationReminderServiceTest {
                 .when(notificationProducerMock).sendNotification(any(NotificationQueueDTO.class));
 
         // Act
-        voucherExpirationReminderBatchService.runReminderBatch(INITIATIVE_ID, expiringDay);
+        voucherExpirationReminderBatchService.runJob(buildJob(""));
 
         // Assert
         // Verify that the NotificationProducer was called 2 time
@@ -216,4 +247,161 @@ class VoucherExpirationReminderServiceTest {
     }
 
 
+    @Test
+    void runReminderBatch_keysetPages() {
+        List<Wallet> firstPage = new ArrayList<>();
+        for (int i = 0; i < BLOCK_REMINDER_BATCH; i++) {
+            firstPage.add(Wallet.builder().id("ID_%03d".formatted(i)).userId(USER_ID + i).initiativeId(INITIATIVE_ID).build());
+        }
+        List<Wallet> lastPage = List.of(TEST_WALLET_1);
+
+        LocalDate target = LocalDate.now(ZONE_ID).plusDays(expiringDay);
+        Date startUtc = Date.from(target.atStartOfDay(ZONE_ID).toInstant());
+        Date endUtc = Date.from(target.plusDays(1).atStartOfDay(ZONE_ID).toInstant());
+        when(walletRepositoryMock.findVoucherExpiredIntoRangeAfter(INITIATIVE_ID, startUtc, endUtc, "", limit))
+                .thenReturn(firstPage);
+        when(walletRepositoryMock.findVoucherExpiredIntoRangeAfter(INITIATIVE_ID, startUtc, endUtc, "ID_099", limit))
+                .thenReturn(lastPage);
+
+        voucherExpirationReminderBatchService.runJob(buildJob(""));
+
+        verify(walletRepositoryMock, times(2)).findVoucherExpiredIntoRangeAfter(any(), any(), any(), any(), any());
+        verify(notificationProducerMock, times(BLOCK_REMINDER_BATCH + 1)).sendNotification(any(NotificationQueueDTO.class));
+        verify(errorProducerMock, never()).sendEvent(any());
+    }
+
+    @Test
+    void runReminderBatch_resumeFromCheckpoint() {
+        LocalDate target = LocalDate.now(ZONE_ID).plusDays(expiringDay);
+        Date startUtc = Date.from(target.atStartOfDay(ZONE_ID).toInstant());
+        Date endUtc = Date.from(target.plusDays(1).atStartOfDay(ZONE_ID).toInstant());
+        when(walletRepositoryMock.findVoucherExpiredIntoRangeAfter(INITIATIVE_ID, startUtc, endUtc, "ID_099", limit))
+                .thenReturn(List.of(TEST_WALLET_1));
+
+        voucherExpirationReminderBatchService.runJob(buildJob("ID_099"));
+
+        verify(walletRepositoryMock, times(1)).findVoucherExpiredIntoRangeAfter(any(), any(), any(), any(), any());
+        verify(notificationProducerMock, times(1)).sendNotification(any(NotificationQueueDTO.class));
+        verify(reminderBatchJobRepositoryMock).release(eq(JOB_ID), anyString(), eq(ReminderBatchJobStatus.COMPLETED));
+    }
+
+    @Test
+    void runReminderBatch_leaseLost() {
+        List<Wallet> firstPage = new ArrayList<>();
+        for (int i = 0; i < BLOCK_REMINDER_BATCH; i++) {
+            firstPage.add(Wallet.builder().id("ID_%03d".formatted(i)).userId(USER_ID + i).initiativeId(INITIATIVE_ID).build());
+        }
+        when(walletRepositoryMock.findVoucherExpiredIntoRangeAfter(eq(INITIATIVE_ID), any(), any(), eq(""), eq(limit)))
+                .thenReturn(firstPage);
+        when(reminderBatchJobRepositoryMock.saveProgress(eq(JOB_ID), anyString(), eq("ID_099"), anyLong(), anyLong(), any()))
+                .thenReturn(false);
+
+        voucherExpirationReminderBatchService.runJob(buildJob(""));
+
+        verify(walletRepositoryMock, times(1)).findVoucherExpiredIntoRangeAfter(any(), any(), any(), any(), any());
+        verify(reminderBatchJobRepositoryMock, never()).release(any(), any(), any());
+    }
+
+    @Test
+    void runReminderBatch_readError() {
+        when(walletRepositoryMock.findVoucherExpiredIntoRangeAfter(any(), any(), any(), any(), any()))
+                .thenThrow(new RuntimeException("DUMMY"));
+
+        voucherExpirationReminderBatchService.runJob(buildJob(""));
+
+        verify(reminderBatchJobRepositoryMock).release(eq(JOB_ID), anyString(), eq(ReminderBatchJobStatus.FAILED));
+    }
+
+    @Test
+    void submitReminderBatch_runInBackground() {
+        ReminderBatchJob job = buildJob("");
+        when(reminderBatchJobRepositoryMock.insertIfAbsent(any())).thenReturn(job);
+        when(reminderBatchJobRepositoryMock.claim(eq(job.getId()), anyString(), any())).thenReturn(job);
+        when(walletRepositoryMock.findVoucherExpiredIntoRangeAfter(any(), any(), any(), any(), any()))
+                .thenReturn(Collections.emptyList());
+
+        ReminderBatchJobDTO result = voucherExpirationReminderBatchService.submitReminderBatch(INITIATIVE_ID, expiringDay, false);
+
+        Assertions.assertEquals(JOB_ID, result.getJobId());
+        Assertions.assertEquals(ReminderBatchJobStatus.RUNNING, result.getStatus());
+        verify(reminderBatchJobRepositoryMock, timeout(5000)).release(eq(JOB_ID), anyString(), eq(ReminderBatchJobStatus.COMPLETED));
+    }
+
+    @Test
+    void submitReminderBatch_jobId() {
+        ReminderBatchJob job = buildJob("");
+        job.setStatus(ReminderBatchJobStatus.COMPLETED);
+        when(reminderBatchJobRepositoryMock.insertIfAbsent(any())).thenReturn(job);
+
+        ReminderBatchJobDTO result = voucherExpirationReminderBatchService.submitReminderBatch(INITIATIVE_ID, expiringDay, false);
+
+        Assertions.assertEquals(ReminderBatchJobStatus.COMPLETED, result.getStatus());
+        verify(reminderBatchJobRepositoryMock).insertIfAbsent(argThat(inserted ->
+                inserted.getId().equals(INITIATIVE_ID + "_" + inserted.getExpirationDate().format(DateTimeFormatter.BASIC_ISO_DATE))));
+        verify(reminderBatchJobRepositoryMock, never()).claim(any(), any(), any());
+        verifyNoInteractions(walletRepositoryMock);
+    }
+
+    @Test
+    void submitReminderBatch_rerun() {
+        ReminderBatchJob job = buildJob("ID_099");
+        job.setStatus(ReminderBatchJobStatus.COMPLETED);
+        ReminderBatchJob restarted = buildJob("");
+        when(reminderBatchJobRepositoryMock.insertIfAbsent(any())).thenReturn(job);
+        when(reminderBatchJobRepositoryMock.restart(JOB_ID)).thenReturn(restarted);
+        when(reminderBatchJobRepositoryMock.claim(eq(JOB_ID), anyString(), any())).thenReturn(restarted);
+        when(walletRepositoryMock.findVoucherExpiredIntoRangeAfter(any(), any(), any(), eq(""), any()))
+                .thenReturn(Collections.emptyList());
+
+        ReminderBatchJobDTO result = voucherExpirationReminderBatchService.submitReminderBatch(INITIATIVE_ID, expiringDay, true);
+
+        Assertions.assertEquals(ReminderBatchJobStatus.RUNNING, result.getStatus());
+        verify(reminderBatchJobRepositoryMock, timeout(5000)).release(eq(JOB_ID), anyString(), eq(ReminderBatchJobStatus.COMPLETED));
+    }
+
+    @Test
+    void submitReminderBatch_alreadyRunning() {
+        ReminderBatchJob job = buildJob("ID_099");
+        when(reminderBatchJobRepositoryMock.insertIfAbsent(any())).thenReturn(job);
+        when(reminderBatchJobRepositoryMock.claim(eq(JOB_ID), anyString(), any())).thenReturn(null);
+
+        ReminderBatchJobDTO result = voucherExpirationReminderBatchService.submitReminderBatch(INITIATIVE_ID, expiringDay, false);
+
+        Assertions.assertEquals(ReminderBatchJobStatus.RUNNING, result.getStatus());
+        verifyNoInteractions(walletRepositoryMock);
+    }
+
+    @Test
+    void resumeReminderBatchJobs() {
+        ReminderBatchJob orphan = buildJob("ID_099");
+        when(reminderBatchJobRepositoryMock.findOrphans(1)).thenReturn(List.of(ReminderBatchJob.builder().id(JOB_ID).build()));
+        when(reminderBatchJobRepositoryMock.claim(eq(JOB_ID), anyString(), any())).thenReturn(orphan);
+        when(walletRepositoryMock.findVoucherExpiredIntoRangeAfter(any(), any(), any(), eq("ID_099"), any()))
+                .thenReturn(Collections.emptyList());
+
+        voucherExpirationReminderBatchService.resumeReminderBatchJobs();
+
+        verify(reminderBatchJobRepositoryMock, timeout(5000)).release(eq(JOB_ID), anyString(), eq(ReminderBatchJobStatus.COMPLETED));
+    }
+
+    @Test
+    void getReminderBatchJob_ok() {
+        ReminderBatchJob job = buildJob("ID_099");
+        job.setSentCount(100);
+        when(reminderBatchJobRepositoryMock.findById(JOB_ID)).thenReturn(Optional.of(job));
+
+        ReminderBatchJobDTO result = voucherExpirationReminderBatchService.getReminderBatchJob(JOB_ID);
+
+        Assertions.assertEquals(100, result.getSentCount());
+        Assertions.assertEquals(job.getExpirationDate(), result.getExpirationDate());
+    }
+
+    @Test
+    void getReminderBatchJob_notFound() {
+        when(reminderBatchJobRepositoryMock.findById(JOB_ID)).thenReturn(Optional.empty());
+
+        Assertions.assertThrows(ReminderBatchJobNotFoundException.class,
+                () -> voucherExpirationReminderBatchService.getReminderBatchJob(JOB_ID));
+    }
+
 }
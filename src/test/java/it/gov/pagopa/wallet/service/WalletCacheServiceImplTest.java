@@ -0,0 +1,145 @@
+package it.gov.pagopa.wallet.service;
+
+import it.gov.pagopa.wallet.dto.InitiativeListDTO;
+import it.gov.pagopa.wallet.dto.WalletCacheInvalidationDTO;
+import it.gov.pagopa.wallet.dto.WalletDTO;
+import it.gov.pagopa.wallet.event.producer.WalletCacheInvalidationProducer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+
+class WalletCacheServiceImplTest {
+
+    private static final String USER_ID = "USER_ID";
+    private static final String INITIATIVE_ID = "INITIATIVE_ID";
+
+    private WalletCacheInvalidationProducer producerMock;
+    private WalletCacheService walletCacheService;
+    private AtomicInteger loads;
+
+    @BeforeEach
+    void setUp() {
+        producerMock = Mockito.mock(WalletCacheInvalidationProducer.class);
+        Mockito.when(producerMock.sendInvalidation(any())).thenReturn(true);
+        walletCacheService = new WalletCacheServiceImpl(producerMock, true, 100, 60);
+        loads = new AtomicInteger();
+    }
+
+    @Test
+    void getWalletDetail_cached() {
+        WalletDTO first = walletCacheService.getWalletDetail(INITIATIVE_ID, USER_ID, this::loadWallet);
+        WalletDTO second = walletCacheService.getWalletDetail(INITIATIVE_ID, USER_ID, this::loadWallet);
+
+        assertSame(first, second);
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void evict_publishesAndReloads() {
+        walletCacheService.getWalletDetail(INITIATIVE_ID, USER_ID, this::loadWallet);
+        walletCacheService.getInitiativeList(USER_ID, this::loadInitiativeList);
+
+        walletCacheService.evict(INITIATIVE_ID, USER_ID);
+
+        walletCacheService.getWalletDetail(INITIATIVE_ID, USER_ID, this::loadWallet);
+        walletCacheService.getInitiativeList(USER_ID, this::loadInitiativeList);
+        assertEquals(4, loads.get());
+
+        ArgumentCaptor<WalletCacheInvalidationDTO> invalidationCaptor = ArgumentCaptor.forClass(WalletCacheInvalidationDTO.class);
+        Mockito.verify(producerMock).sendInvalidation(invalidationCaptor.capture());
+        assertEquals(INITIATIVE_ID, invalidationCaptor.getValue().getInitiativeId());
+        assertEquals(List.of(USER_ID), invalidationCaptor.getValue().getUserIds());
+    }
+
+    @Test
+    void evict_afterCommit() {
+        walletCacheService.getWalletDetail(INITIATIVE_ID, USER_ID, this::loadWallet);
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            walletCacheService.evict(INITIATIVE_ID, USER_ID);
+
+            // still cached while the transaction is open
+            walletCacheService.getWalletDetail(INITIATIVE_ID, USER_ID, this::loadWallet);
+            assertEquals(1, loads.get());
+            Mockito.verifyNoInteractions(producerMock);
+
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        walletCacheService.getWalletDetail(INITIATIVE_ID, USER_ID, this::loadWallet);
+        assertEquals(2, loads.get());
+        Mockito.verify(producerMock).sendInvalidation(any());
+    }
+
+    @Test
+    void processInvalidation_fromOtherReplica() {
+        walletCacheService.getInitiativeList(USER_ID, this::loadInitiativeList);
+
+        walletCacheService.processInvalidation(new WalletCacheInvalidationDTO("OTHER_INSTANCE", INITIATIVE_ID, null, null));
+
+        walletCacheService.getInitiativeList(USER_ID, this::loadInitiativeList);
+        assertEquals(2, loads.get());
+        Mockito.verifyNoInteractions(producerMock);
+    }
+
+    @Test
+    void evictFamily() {
+        walletCacheService.getWalletDetail(INITIATIVE_ID, USER_ID, () -> familyWallet("FAMILY_ID"));
+        walletCacheService.getWalletDetail(INITIATIVE_ID, "OTHER_USER_ID", () -> familyWallet("OTHER_FAMILY_ID"));
+
+        walletCacheService.evictFamily(INITIATIVE_ID, "FAMILY_ID");
+
+        walletCacheService.getWalletDetail(INITIATIVE_ID, USER_ID, this::loadWallet);
+        walletCacheService.getWalletDetail(INITIATIVE_ID, "OTHER_USER_ID", this::loadWallet);
+        assertEquals(1, loads.get());
+
+        ArgumentCaptor<WalletCacheInvalidationDTO> invalidationCaptor = ArgumentCaptor.forClass(WalletCacheInvalidationDTO.class);
+        Mockito.verify(producerMock).sendInvalidation(invalidationCaptor.capture());
+        assertEquals("FAMILY_ID", invalidationCaptor.getValue().getFamilyId());
+        assertNull(invalidationCaptor.getValue().getUserIds());
+    }
+
+    @Test
+    void disabled() {
+        walletCacheService = new WalletCacheServiceImpl(producerMock, false, 100, 60);
+
+        walletCacheService.getWalletDetail(INITIATIVE_ID, USER_ID, this::loadWallet);
+        walletCacheService.getWalletDetail(INITIATIVE_ID, USER_ID, this::loadWallet);
+        walletCacheService.evict(INITIATIVE_ID, USER_ID);
+
+        assertEquals(2, loads.get());
+        Mockito.verifyNoInteractions(producerMock);
+    }
+
+    private WalletDTO loadWallet() {
+        loads.incrementAndGet();
+        return WalletDTO.builder().initiativeId(INITIATIVE_ID).build();
+    }
+
+    private static WalletDTO familyWallet(String familyId) {
+        return WalletDTO.builder().initiativeId(INITIATIVE_ID).familyId(familyId).build();
+    }
+
+    private InitiativeListDTO loadInitiativeList() {
+        loads.incrementAndGet();
+        InitiativeListDTO initiativeListDTO = new InitiativeListDTO();
+        initiativeListDTO.setInitiativeList(List.of(loadWalletSilently()));
+        return initiativeListDTO;
+    }
+
+    private static WalletDTO loadWalletSilently() {
+        return WalletDTO.builder().initiativeId(INITIATIVE_ID).build();
+    }
+}
@@ -6,6 +6,8 @@ import it.gov.pagopa.wallet.connector.OnboardingRestConnector;
 import it.gov.pagopa.wallet.connector.PaymentInstrumentRestConnector;
 import it.gov.pagopa.wallet.connector.PaymentRestConnector;
 import it.gov.pagopa.wallet.connector.RewardCalculatorRestConnector;
+import it.gov.pagopa.wallet.dto.InitiativeListDTO;
+import it.gov.pagopa.wallet.dto.WalletDTO;
 import it.gov.pagopa.wallet.dto.mapper.TimelineMapper;
 import it.gov.pagopa.wallet.dto.mapper.WalletMapper;
 import it.gov.pagopa.wallet.dto.payment.TransactionBarCodeCreationRequest;
@@ -18,6 +20,7 @@ import it.gov.pagopa.wallet.event.producer.NotificationProducer;
 import it.gov.pagopa.wallet.event.producer.TimelineProducer;
 import it.gov.pagopa.wallet.exception.custom.InvalidIbanException;
 import it.gov.pagopa.wallet.model.Wallet;
+import it.gov.pagopa.wallet.repository.WalletDeleteCheckpointRepository;
 import it.gov.pagopa.wallet.repository.WalletRepository;
 import it.gov.pagopa.wallet.repository.WalletUpdatesRepository;
 import it.gov.pagopa.wallet.utils.AuditUtilities;
@@ -38,6 +41,7 @@ import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.OffsetDateTime;
 import java.util.*;
+import java.util.function.Supplier;
 
 import static it.gov.pagopa.wallet.constants.WalletConstants.ExceptionCode.IBAN_NOT_ITALIAN;
 import static it.gov.pagopa.wallet.constants.WalletConstants.ExceptionMessage.ERROR_IBAN_NOT_ITALIAN;
@@ -88,6 +92,12 @@ class WalletServiceNoIbanFormalControlTest {
     Utilities utilities;
     @MockitoBean
     PaymentRestConnector paymentRestConnector;
+    @MockitoBean
+    OutboxService outboxService;
+    @MockitoBean
+    WalletCacheService walletCacheService;
+    @MockitoBean
+    WalletDeleteCheckpointRepository walletDeleteCheckpointRepository;
 
     private static final String USER_ID = "TEST_USER_ID";
     private static final String INITIATIVE_ID = "TEST_INITIATIVE_ID";
@@ -121,6 +131,15 @@ class WalletServiceNoIbanFormalControlTest {
     @BeforeEach
     void setUp() {
         MockitoAnnotations.openMocks(this);
+        Mockito.doAnswer(invocation -> {
+                    invocation.getArgument(0, Runnable.class).run();
+                    return null;
+                })
+                .when(outboxService).executeInTransaction(any());
+        Mockito.when(walletCacheService.getInitiativeList(any(), any()))
+                .thenAnswer(invocation -> invocation.<Supplier<InitiativeListDTO>>getArgument(1).get());
+        Mockito.when(walletCacheService.getWalletDetail(any(), any(), any()))
+                .thenAnswer(invocation -> invocation.<Supplier<WalletDTO>>getArgument(2).get());
         Mockito.when(paymentRestConnector.createExtendedTransaction(
                 any(TransactionBarCodeCreationRequest.class),
                 anyString()
@@ -150,7 +169,7 @@ class WalletServiceNoIbanFormalControlTest {
         TEST_WALLET.setNInstr(0);
         TEST_WALLET.setInitiativeEndDate(LocalDate.MAX);
 
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(Mockito.anyString(),Mockito.anyString()))
+        Mockito.when(walletRepositoryMock.findByIdAndUserId(Mockito.anyString(),Mockito.anyString()))
                 .thenReturn(Optional.of(TEST_WALLET));
 
         Mockito.doAnswer(
@@ -160,7 +179,7 @@ class WalletServiceNoIbanFormalControlTest {
                             return null;
                         })
                 .when(walletUpdatesRepositoryMock)
-                .enrollIban(Mockito.eq(INITIATIVE_ID), Mockito.eq(USER_ID), Mockito.eq(IBAN_OK), Mockito.anyString());
+                .enrollIban(INITIATIVE_ID, USER_ID, IBAN_OK);
 
         walletService.enrollIban(INITIATIVE_ID, USER_ID, IBAN_OK, CHANNEL, DESCRIPTION_OK);
 
@@ -174,7 +193,7 @@ class WalletServiceNoIbanFormalControlTest {
         TEST_WALLET.setStatus(WalletStatus.NOT_REFUNDABLE_ONLY_INSTRUMENT.name());
         TEST_WALLET.setInitiativeEndDate(LocalDate.MAX);
 
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
+        Mockito.when(walletRepositoryMock.findByIdAndUserId(ID_WALLET, USER_ID))
                 .thenReturn(Optional.of(TEST_WALLET));
 
         // When
@@ -2,6 +2,7 @@ package it.gov.pagopa.wallet.service;
 
 import com.mongodb.MongoClientException;
 import it.gov.pagopa.common.config.ObjectMapperConfig;
+import it.gov.pagopa.common.mongo.retry.exception.MongoRequestRateTooLargeRetryExpiredException;
 import it.gov.pagopa.wallet.connector.*;
 import it.gov.pagopa.wallet.constants.WalletConstants;
 import it.gov.pagopa.wallet.dto.*;
@@ -17,7 +18,12 @@ import it.gov.pagopa.wallet.event.producer.TimelineProducer;
 import it.gov.pagopa.wallet.exception.WalletUpdateException;
 import it.gov.pagopa.wallet.exception.custom.*;
 import it.gov.pagopa.wallet.model.Wallet;
-import it.gov.pagopa.wallet.model.Wallet.RefundHistory;
+import it.gov.pagopa.wallet.model.WalletDeleteCheckpoint;
+import it.gov.pagopa.wallet.model.WalletKey;
+import it.gov.pagopa.wallet.model.projection.WalletKeyView;
+import it.gov.pagopa.wallet.model.projection.WalletRewardView;
+import it.gov.pagopa.wallet.model.projection.WalletStatusView;
+import it.gov.pagopa.wallet.repository.WalletDeleteCheckpointRepository;
 import it.gov.pagopa.wallet.repository.WalletRepository;
 import it.gov.pagopa.wallet.repository.WalletUpdatesRepository;
 import it.gov.pagopa.wallet.utils.AuditUtilities;
@@ -33,11 +39,13 @@ import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 import org.junit.jupiter.params.provider.ValueSource;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.Message;
 import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.TestPropertySource;
@@ -50,6 +58,8 @@ import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.OffsetDateTime;
 import java.util.*;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static it.gov.pagopa.wallet.constants.WalletConstants.CHANNEL_APP_IO;
@@ -68,7 +78,8 @@ import static org.mockito.Mockito.*;
         properties = {
                 "app.iban.formalControl=true",
                 "app.delete.paginationSize=100",
-                "app.delete.delayTime=1000"
+                "app.delete.delayTime=1000",
+                "app.transaction.lanes=2"
         })
 class WalletServiceTest {
     @MockitoBean
@@ -101,6 +112,12 @@ class WalletServiceTest {
     AuditUtilities auditUtilities;
     @MockitoBean
     PaymentRestConnector paymentRestConnector;
+    @MockitoBean
+    OutboxService outboxService;
+    @MockitoBean
+    WalletCacheService walletCacheService;
+    @MockitoBean
+    WalletDeleteCheckpointRepository walletDeleteCheckpointRepository;
     @Autowired
     ObjectMapper objectMapper;
 
@@ -198,40 +215,6 @@ class WalletServiceTest {
                     .counterHistory(COUNTER_HISTORY)
                     .build();
 
-    private static final Wallet TEST_WALLET_FAMILY_OLD_COUNTER_NOT_IN_HISTORY =
-            Wallet.builder()
-                    .userId(USER_ID)
-                    .familyId(FAMILY_ID)
-                    .initiativeId(INITIATIVE_ID)
-                    .initiativeName(INITIATIVE_NAME)
-                    .acceptanceDate(TEST_DATE)
-                    .status(WalletStatus.NOT_REFUNDABLE.name())
-                    .initiativeEndDate(TEST_DATE_ONLY_DATE)
-                    .amountCents(TEST_AMOUNT)
-                    .accruedCents(TEST_ACCRUED)
-                    .refundedCents(TEST_REFUNDED)
-                    .lastCounterUpdate(TEST_DATE)
-                    .counterVersion(TEST_VERSION)
-                    .counterHistory(COUNTER_HISTORY)
-                    .build();
-
-    private static final Wallet TEST_WALLET_FAMILY_COUNTERS_NOT_VALID =
-            Wallet.builder()
-                    .userId(USER_ID)
-                    .familyId(FAMILY_ID)
-                    .initiativeId(INITIATIVE_ID)
-                    .initiativeName(INITIATIVE_NAME)
-                    .acceptanceDate(TEST_DATE)
-                    .status(WalletStatus.NOT_REFUNDABLE.name())
-                    .initiativeEndDate(TEST_DATE_ONLY_DATE)
-                    .amountCents(TEST_AMOUNT)
-                    .accruedCents(TEST_ACCRUED)
-                    .refundedCents(TEST_REFUNDED)
-                    .lastCounterUpdate(TEST_DATE)
-                    .counterVersion(TEST_VERSION)
-                    .counterHistory(List.of(TEST_VERSION))
-                    .build();
-
     private static final Wallet TEST_WALLET_DISCOUNT =
             Wallet.builder()
                     .userId(USER_ID)
@@ -613,6 +596,15 @@ class WalletServiceTest {
     void setUp() {
         objectMapper = JsonMapper.builder().build();
         MockitoAnnotations.openMocks(this);
+        Mockito.doAnswer(invocation -> {
+                    invocation.getArgument(0, Runnable.class).run();
+                    return null;
+                })
+                .when(outboxService).executeInTransaction(any());
+        Mockito.when(walletCacheService.getInitiativeList(any(), any()))
+                .thenAnswer(invocation -> invocation.<Supplier<InitiativeListDTO>>getArgument(1).get());
+        Mockito.when(walletCacheService.getWalletDetail(any(), any(), any()))
+                .thenAnswer(invocation -> invocation.<Supplier<WalletDTO>>getArgument(2).get());
         testWallet = Wallet.builder()
                 .userId(USER_ID)
                 .initiativeId(INITIATIVE_ID)
@@ -633,6 +625,14 @@ class WalletServiceTest {
         )).thenReturn(mockEnrichedResponse());
     }
 
+    private static List<WalletUpdateOutcome> rewardOutcomes(List<?> rewardUpdates, WalletUpdateOutcome outcome) {
+        return Collections.nCopies(rewardUpdates.size(), outcome);
+    }
+
+    private static WalletRewardView rewardView(Wallet wallet) {
+        return new WalletRewardView(wallet.getId(), wallet.getFamilyId(), wallet.getCounterVersion());
+    }
+
     private TransactionBarCodeEnrichedResponse mockEnrichedResponse() {
         TransactionBarCodeEnrichedResponse r = new TransactionBarCodeEnrichedResponse();
         r.setId("trx-id-1");
@@ -654,7 +654,7 @@ class WalletServiceTest {
 
     @Test
     void enrollInstrument_ok() {
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
+        Mockito.when(walletRepositoryMock.findByIdAndUserId(ID_WALLET, USER_ID))
                 .thenReturn(Optional.of(testWallet));
 
         testWallet.setIban(null);
@@ -677,7 +677,7 @@ class WalletServiceTest {
     void enrollInstrument_ko_paymentInstrumentConnectorException() {
         // Given
         testWallet.setInitiativeEndDate(LocalDate.MAX);
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
+        Mockito.when(walletRepositoryMock.findByIdAndUserId(ID_WALLET, USER_ID))
                 .thenReturn(Optional.of(testWallet));
 
         Mockito.when(timelineMapper.ackToTimeline(INSTRUMENT_ACK_DTO_REJECTED_INSTRUMENT)).thenReturn(TEST_OPERATION_DTO);
@@ -698,7 +698,7 @@ class WalletServiceTest {
     @Test
     void enrollInstrument_ko_discountInitiative() {
         // Given
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
+        Mockito.when(walletRepositoryMock.findByIdAndUserId(ID_WALLET, USER_ID))
                 .thenReturn(Optional.of(TEST_WALLET_DISCOUNT));
 
         // When
@@ -715,14 +715,14 @@ class WalletServiceTest {
     @ParameterizedTest
     @ValueSource(strings = {"DISCOUNT", "REFUND"})
     void processAck(String initiativeRewardType) {
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
-                .thenReturn(Optional.of(testWallet));
-
         testWallet.setNInstr(0);
         testWallet.setIban(null);
         testWallet.setInitiativeRewardType(initiativeRewardType);
         testWallet.setStatus(WalletStatus.SUSPENDED);
 
+        Mockito.when(walletUpdatesRepositoryMock.updateInstrumentNumber(Mockito.eq(INITIATIVE_ID), Mockito.eq(USER_ID), Mockito.anyInt()))
+                .thenReturn(true);
+
         Mockito.doNothing().when(timelineProducer).sendEvent(any(QueueOperationDTO.class));
         Mockito.doNothing().when(errorProducer).sendEvent(any());
         Mockito.when(timelineMapper.ackToTimeline(INSTRUMENT_ACK_DTO_ADD_INSTRUMENT)).thenReturn(TEST_OPERATION_DTO);
@@ -730,16 +730,13 @@ class WalletServiceTest {
         walletService.processAck(INSTRUMENT_ACK_DTO_ADD_INSTRUMENT);
 
         Mockito.verify(walletUpdatesRepositoryMock, Mockito.times(1))
-                .updateInstrumentNumber(Mockito.eq(INITIATIVE_ID), Mockito.eq(USER_ID), Mockito.anyInt(), Mockito.anyString());
+                .updateInstrumentNumber(Mockito.eq(INITIATIVE_ID), Mockito.eq(USER_ID), Mockito.anyInt());
         Mockito.verify(errorProducer, Mockito.times(0)).sendEvent(any());
     }
 
     @Test
     void processAck_not_found() {
         //Given
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
-                .thenReturn(Optional.empty());
-
         Mockito.when(timelineMapper.ackToTimeline(INSTRUMENT_ACK_DTO_ADD_INSTRUMENT)).thenReturn(TEST_OPERATION_DTO);
 
         // When
@@ -751,15 +748,15 @@ class WalletServiceTest {
         assertEquals(String.format(String.format(USER_NOT_ONBOARDED_MSG, INSTRUMENT_ACK_DTO_ADD_INSTRUMENT.getInitiativeId())),
                 exception.getMessage());
 
-        verify(walletRepositoryMock, times(1)).findByUserIdAndInitiativeId(any(),any());
-        verifyNoMoreInteractions(walletRepositoryMock);
+        verify(walletUpdatesRepositoryMock, times(1)).updateInstrumentNumber(any(), any(), Mockito.anyInt());
+        verifyNoInteractions(walletRepositoryMock);
         verifyNoInteractions(timelineMapper);
         verifyNoInteractions(timelineProducer);
     }
 
     @Test
     void processAck_ko() {
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(Mockito.anyString(),Mockito.anyString())).thenReturn(Optional.of(testWallet));
+        Mockito.when(walletRepositoryMock.existsByIdAndUserId(Mockito.anyString(),Mockito.anyString())).thenReturn(true);
         Mockito.doNothing().when(timelineProducer).sendEvent(any(QueueOperationDTO.class));
         Mockito.doNothing().when(errorProducer).sendEvent(any());
         Mockito.when(timelineMapper.ackToTimeline(INSTRUMENT_ACK_DTO_REJECTED_INSTRUMENT)).thenReturn(TEST_OPERATION_DTO);
@@ -767,14 +764,14 @@ class WalletServiceTest {
         walletService.processAck(INSTRUMENT_ACK_DTO_REJECTED_INSTRUMENT);
 
         Mockito.verify(walletUpdatesRepositoryMock, Mockito.times(0))
-                .updateInstrumentNumber(Mockito.eq(INITIATIVE_ID), Mockito.eq(USER_ID), Mockito.anyInt(), Mockito.anyString());
+                .updateInstrumentNumber(Mockito.eq(INITIATIVE_ID), Mockito.eq(USER_ID), Mockito.anyInt());
         Mockito.verify(errorProducer, Mockito.times(0)).sendEvent(any());
     }
 
     @Test
     void processAck_queue_error() {
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
-                .thenReturn(Optional.of(testWallet));
+        Mockito.when(walletUpdatesRepositoryMock.updateInstrumentNumber(Mockito.eq(INITIATIVE_ID), Mockito.eq(USER_ID), Mockito.anyInt()))
+                .thenReturn(true);
 
         doThrow(new WalletUpdateException(""))
                 .when(timelineProducer)
@@ -793,7 +790,7 @@ class WalletServiceTest {
     void enrollInstrument_ko_initiative_ended() {
         // Given
         testWallet.setInitiativeEndDate(LocalDate.MIN);
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
+        Mockito.when(walletRepositoryMock.findByIdAndUserId(ID_WALLET, USER_ID))
                 .thenReturn(Optional.of(testWallet));
 
         // When
@@ -804,7 +801,7 @@ class WalletServiceTest {
         assertEquals(INITIATIVE_ENDED, exception.getCode());
         assertEquals(String.format(INITIATIVE_ENDED_MSG, INITIATIVE_ID), exception.getMessage());
 
-        verify(walletRepositoryMock, times(1)).findByUserIdAndInitiativeId(any(),any());
+        verify(walletRepositoryMock, times(1)).findByIdAndUserId(any(),any());
         verifyNoMoreInteractions(walletRepositoryMock);
         verifyNoInteractions(paymentInstrumentRestConnector);
         verifyNoInteractions(timelineProducer);
@@ -813,7 +810,7 @@ class WalletServiceTest {
     @Test
     void enrollInstrument_not_found() {
         // Given
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
+        Mockito.when(walletRepositoryMock.findByIdAndUserId(ID_WALLET, USER_ID))
                 .thenReturn(Optional.empty());
 
         // When
@@ -824,7 +821,7 @@ class WalletServiceTest {
         assertEquals(USER_NOT_ONBOARDED, exception.getCode());
         assertEquals(String.format(USER_NOT_ONBOARDED_MSG, INITIATIVE_ID), exception.getMessage());
 
-        verify(walletRepositoryMock, times(1)).findByUserIdAndInitiativeId(any(),any());
+        verify(walletRepositoryMock, times(1)).findByIdAndUserId(any(),any());
         verifyNoMoreInteractions(walletRepositoryMock);
         verifyNoInteractions(paymentInstrumentRestConnector);
         verifyNoInteractions(timelineProducer);
@@ -833,7 +830,7 @@ class WalletServiceTest {
     @Test
     void enrollInstrument_unsubscribed() {
         // Given
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
+        Mockito.when(walletRepositoryMock.findByIdAndUserId(ID_WALLET, USER_ID))
                 .thenReturn(Optional.of(TEST_WALLET_UNSUBSCRIBED));
 
         // When
@@ -844,7 +841,7 @@ class WalletServiceTest {
         assertEquals(USER_UNSUBSCRIBED, exception.getCode());
         assertEquals(String.format(ERROR_UNSUBSCRIBED_INITIATIVE_MSG, INITIATIVE_ID), exception.getMessage());
 
-        verify(walletRepositoryMock, times(1)).findByUserIdAndInitiativeId(any(),any());
+        verify(walletRepositoryMock, times(1)).findByIdAndUserId(any(),any());
         verifyNoMoreInteractions(walletRepositoryMock);
         verifyNoInteractions(paymentInstrumentRestConnector);
         verifyNoInteractions(timelineProducer);
@@ -852,7 +849,7 @@ class WalletServiceTest {
 
     @Test
     void deleteInstrument_ok() {
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
+        Mockito.when(walletRepositoryMock.findByIdAndUserId(ID_WALLET, USER_ID))
                 .thenReturn(Optional.of(testWallet));
 
         testWallet.setStatus(WalletStatus.NOT_REFUNDABLE_ONLY_INSTRUMENT.name());
@@ -876,7 +873,7 @@ class WalletServiceTest {
     void deleteInstrument_ko_initiative_ended() {
         // Given
         testWallet.setInitiativeEndDate(LocalDate.MIN);
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
+        Mockito.when(walletRepositoryMock.findByIdAndUserId(ID_WALLET, USER_ID))
                 .thenReturn(Optional.of(testWallet));
 
         // When
@@ -887,7 +884,7 @@ class WalletServiceTest {
         assertEquals(INITIATIVE_ENDED, exception.getCode());
         assertEquals(String.format(INITIATIVE_ENDED_MSG, INITIATIVE_ID), exception.getMessage());
 
-        verify(walletRepositoryMock, times(1)).findByUserIdAndInitiativeId(any(),any());
+        verify(walletRepositoryMock, times(1)).findByIdAndUserId(any(),any());
         verifyNoMoreInteractions(walletRepositoryMock);
         verifyNoInteractions(paymentInstrumentRestConnector);
         verifyNoInteractions(timelineMapper);
@@ -898,7 +895,7 @@ class WalletServiceTest {
     void deleteInstrument_ko_feignexception() {
         // Given
         testWallet.setInitiativeEndDate(LocalDate.MAX);
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
+        Mockito.when(walletRepositoryMock.findByIdAndUserId(ID_WALLET, USER_ID))
                 .thenReturn(Optional.of(testWallet));
 
         doThrow(new PaymentInstrumentNotFoundException(PAYMENT_INSTRUMENT_NOT_FOUND_MSG))
@@ -913,7 +910,7 @@ class WalletServiceTest {
         assertEquals(PAYMENT_INSTRUMENT_NOT_FOUND, exception.getCode());
         assertEquals(PAYMENT_INSTRUMENT_NOT_FOUND_MSG, exception.getMessage());
 
-        verify(walletRepositoryMock, times(1)).findByUserIdAndInitiativeId(any(),any());
+        verify(walletRepositoryMock, times(1)).findByIdAndUserId(any(),any());
         verifyNoMoreInteractions(walletRepositoryMock);
         verify(paymentInstrumentRestConnector, times(1)).deleteInstrument(any());
         verify(timelineMapper, times(1)).ackToTimeline(any());
@@ -923,7 +920,7 @@ class WalletServiceTest {
     @Test
     void deleteInstrument_not_found() {
         // Given
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
+        Mockito.when(walletRepositoryMock.findByIdAndUserId(ID_WALLET, USER_ID))
                 .thenReturn(Optional.empty());
 
         // When
@@ -934,7 +931,7 @@ class WalletServiceTest {
         assertEquals(USER_NOT_ONBOARDED, exception.getCode());
         assertEquals(String.format(USER_NOT_ONBOARDED_MSG, INITIATIVE_ID), exception.getMessage());
 
-        verify(walletRepositoryMock, times(1)).findByUserIdAndInitiativeId(any(),any());
+        verify(walletRepositoryMock, times(1)).findByIdAndUserId(any(),any());
         verifyNoMoreInteractions(walletRepositoryMock);
         verifyNoInteractions(paymentInstrumentRestConnector);
         verifyNoInteractions(timelineMapper);
@@ -943,8 +940,8 @@ class WalletServiceTest {
 
     @Test
     void getEnrollmentStatus_ok() {
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
-                .thenReturn(Optional.of(testWallet));
+        Mockito.when(walletRepositoryMock.findStatusViewByIdAndUserId(ID_WALLET, USER_ID))
+                .thenReturn(Optional.of(new WalletStatusView(testWallet.getStatus())));
 
         EnrollmentStatusDTO actual = walletService.getEnrollmentStatus(INITIATIVE_ID, USER_ID);
         assertEquals(testWallet.getStatus(), actual.getStatus());
@@ -953,7 +950,7 @@ class WalletServiceTest {
     @Test
     void getEnrollmentStatus_ko() {
         // Given
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
+        Mockito.when(walletRepositoryMock.findStatusViewByIdAndUserId(ID_WALLET, USER_ID))
                 .thenReturn(Optional.empty());
 
 
@@ -968,7 +965,7 @@ class WalletServiceTest {
         assertEquals(USER_NOT_ONBOARDED, exception.getCode());
         assertEquals(String.format(USER_NOT_ONBOARDED_MSG, INITIATIVE_ID), exception.getMessage());
 
-        verify(walletRepositoryMock, times(1)).findByUserIdAndInitiativeId(any(),any());
+        verify(walletRepositoryMock, times(1)).findByIdAndUserId(any(),any());
         verifyNoMoreInteractions(walletRepositoryMock);
     }
 
@@ -978,7 +975,7 @@ class WalletServiceTest {
         testWallet.setNInstr(0);
         testWallet.setInitiativeEndDate(LocalDate.MAX);
 
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
+        Mockito.when(walletRepositoryMock.findByIdAndUserId(ID_WALLET, USER_ID))
                 .thenReturn(Optional.of(testWallet));
 
 
@@ -989,7 +986,7 @@ class WalletServiceTest {
                             return null;
                         })
                 .when(walletUpdatesRepositoryMock)
-                .enrollIban(Mockito.eq(INITIATIVE_ID), Mockito.eq(USER_ID), Mockito.eq(IBAN_OK), Mockito.anyString());
+                .enrollIban(INITIATIVE_ID, USER_ID, IBAN_OK);
 
         walletService.enrollIban(INITIATIVE_ID, USER_ID, IBAN_OK, CHANNEL, DESCRIPTION_OK);
 
@@ -1003,7 +1000,7 @@ class WalletServiceTest {
         testWallet.setIban(null);
         testWallet.setInitiativeEndDate(LocalDate.MAX);
 
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
+        Mockito.when(walletRepositoryMock.findByIdAndUserId(ID_WALLET, USER_ID))
                 .thenReturn(Optional.of(testWallet));
 
         Mockito.doAnswer(
@@ -1013,7 +1010,7 @@ class WalletServiceTest {
                             return null;
                         })
                 .when(walletUpdatesRepositoryMock)
-                .enrollIban(Mockito.eq(INITIATIVE_ID), Mockito.eq(USER_ID), Mockito.eq(IBAN_OK), Mockito.anyString());
+                .enrollIban(INITIATIVE_ID, USER_ID, IBAN_OK);
 
         doThrow(new WalletUpdateException(""))
                 .when(ibanProducer)
@@ -1033,7 +1030,7 @@ class WalletServiceTest {
 
         Mockito.doNothing().when(ibanProducer).sendIban(any(IbanQueueDTO.class));
 
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
+        Mockito.when(walletRepositoryMock.findByIdAndUserId(ID_WALLET, USER_ID))
                 .thenReturn(Optional.of(testWallet));
 
 
@@ -1044,7 +1041,7 @@ class WalletServiceTest {
                             return null;
                         })
                 .when(walletUpdatesRepositoryMock)
-                .enrollIban(Mockito.eq(INITIATIVE_ID), Mockito.eq(USER_ID), Mockito.eq(IBAN_OK), Mockito.anyString());
+                .enrollIban(INITIATIVE_ID, USER_ID, IBAN_OK);
         Mockito.doNothing().when(timelineProducer).sendEvent(any(QueueOperationDTO.class));
 
         walletService.enrollIban(INITIATIVE_ID, USER_ID, IBAN_OK, CHANNEL, DESCRIPTION_OK);
@@ -1063,14 +1060,14 @@ class WalletServiceTest {
         testWallet.setNInstr(0);
         testWallet.setInitiativeEndDate(LocalDate.MAX);
 
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
+        Mockito.when(walletRepositoryMock.findByIdAndUserId(ID_WALLET, USER_ID))
                 .thenReturn(Optional.of(testWallet));
 
 
         walletService.enrollIban(INITIATIVE_ID, USER_ID, IBAN_OK, CHANNEL, DESCRIPTION_OK);
 
         Mockito.verify(walletUpdatesRepositoryMock, Mockito.times(0))
-                .enrollIban(Mockito.eq(INITIATIVE_ID), Mockito.eq(USER_ID), Mockito.eq(IBAN_OK), Mockito.anyString());
+                .enrollIban(INITIATIVE_ID, USER_ID, IBAN_OK);
     }
 
     @Test
@@ -1080,7 +1077,7 @@ class WalletServiceTest {
         testWallet.setStatus(WalletStatus.NOT_REFUNDABLE_ONLY_INSTRUMENT.name());
         testWallet.setInitiativeEndDate(LocalDate.MAX);
 
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
+        Mockito.when(walletRepositoryMock.findByIdAndUserId(ID_WALLET, USER_ID))
                 .thenReturn(Optional.of(testWallet));
 
         // When
@@ -1102,7 +1099,7 @@ class WalletServiceTest {
         testWallet.setStatus(WalletStatus.NOT_REFUNDABLE_ONLY_INSTRUMENT.name());
         testWallet.setInitiativeEndDate(LocalDate.MAX);
 
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
+        Mockito.when(walletRepositoryMock.findByIdAndUserId(ID_WALLET, USER_ID))
                 .thenReturn(Optional.of(testWallet));
 
         try {
@@ -1119,7 +1116,7 @@ class WalletServiceTest {
         testWallet.setStatus(WalletStatus.NOT_REFUNDABLE_ONLY_INSTRUMENT.name());
         testWallet.setInitiativeEndDate(LocalDate.MAX);
 
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
+        Mockito.when(walletRepositoryMock.findByIdAndUserId(ID_WALLET, USER_ID))
                 .thenReturn(Optional.of(testWallet));
 
         try {
@@ -1133,7 +1130,7 @@ class WalletServiceTest {
     @Test
     void enrollIban_not_found() {
         // Given
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
+        Mockito.when(walletRepositoryMock.findByIdAndUserId(ID_WALLET, USER_ID))
                 .thenReturn(Optional.empty());
 
         // When
@@ -1154,7 +1151,7 @@ class WalletServiceTest {
         // Given
         testWallet.setInitiativeEndDate(LocalDate.MAX);
 
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
+        Mockito.when(walletRepositoryMock.findByIdAndUserId(ID_WALLET, USER_ID))
                 .thenReturn(Optional.of(TEST_WALLET_UNSUBSCRIBED));
 
         // When
@@ -1175,7 +1172,7 @@ class WalletServiceTest {
         // Given
         testWallet.setInitiativeEndDate(LocalDate.MIN);
 
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
+        Mockito.when(walletRepositoryMock.findByIdAndUserId(ID_WALLET, USER_ID))
                 .thenReturn(Optional.of(testWallet));
 
         // When
@@ -1186,7 +1183,7 @@ class WalletServiceTest {
         assertEquals(INITIATIVE_ENDED, exception.getCode());
         assertEquals(String.format(INITIATIVE_ENDED_MSG, INITIATIVE_ID), exception.getMessage());
 
-        verify(walletRepositoryMock, times(1)).findByUserIdAndInitiativeId(any(),any());
+        verify(walletRepositoryMock, times(1)).findByIdAndUserId(any(),any());
         verifyNoMoreInteractions(walletRepositoryMock);
         verifyNoInteractions(ibanProducer);
         verifyNoInteractions(errorProducer);
@@ -1200,7 +1197,7 @@ class WalletServiceTest {
         testWallet.setNInstr(0);
         testWallet.setInitiativeEndDate(LocalDate.MAX);
 
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
+        Mockito.when(walletRepositoryMock.findByIdAndUserId(ID_WALLET, USER_ID))
                 .thenReturn(Optional.of(testWallet));
 
 
@@ -1210,7 +1207,7 @@ class WalletServiceTest {
                             return null;
                         })
                 .when(walletUpdatesRepositoryMock)
-                .enrollIban(Mockito.eq(INITIATIVE_ID), Mockito.eq(USER_ID), Mockito.eq(IBAN_OK), Mockito.anyString());
+                .enrollIban(INITIATIVE_ID, USER_ID, IBAN_OK);
 
         walletService.enrollIban(INITIATIVE_ID, USER_ID, IBAN_OK, CHANNEL, DESCRIPTION_OK);
 
@@ -1220,7 +1217,7 @@ class WalletServiceTest {
     @Test
     void enrollIban_ko_discountInitiative() {
         // Given
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
+        Mockito.when(walletRepositoryMock.findByIdAndUserId(ID_WALLET, USER_ID))
                 .thenReturn(Optional.of(TEST_WALLET_DISCOUNT));
 
         // When
@@ -1231,7 +1228,7 @@ class WalletServiceTest {
         assertEquals(ENROLL_IBAN_DISCOUNT_INITIATIVE, exception.getCode());
         assertEquals(String.format(IBAN_ENROLL_NOT_ALLOWED_DISCOUNT_MSG, INITIATIVE_ID), exception.getMessage());
 
-        verify(walletRepositoryMock, times(1)).findByUserIdAndInitiativeId(any(),any());
+        verify(walletRepositoryMock, times(1)).findByIdAndUserId(any(),any());
         verifyNoMoreInteractions(walletRepositoryMock);
         verifyNoInteractions(paymentInstrumentRestConnector);
         verifyNoInteractions(onboardingRestConnector);
@@ -1263,7 +1260,7 @@ class WalletServiceTest {
     @Test
     void getWalletDetail_ko() {
         // Given
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
+        Mockito.when(walletRepositoryMock.findByIdAndUserId(ID_WALLET, USER_ID))
                 .thenReturn(Optional.empty());
 
         // When
@@ -1318,7 +1315,7 @@ class WalletServiceTest {
     void createWalletOnbOk() {
         Mockito.when(walletMapper.map(any())).thenReturn(testWallet);
         walletService.createWallet(EVALUATION_ONBOARDING_OK);
-        Mockito.verify(walletRepositoryMock, Mockito.times(1)).save(any());
+        Mockito.verify(walletUpdatesRepositoryMock, Mockito.times(1)).createWallet(testWallet);
         Mockito.verify(timelineProducer, Mockito.times(1)).sendEvent(any());
         Mockito.verify(rewardCalculatorRestConnector, Mockito.times(1))
                 .createOnboardingCounters(INITIATIVE_ID, USER_ID);
@@ -1334,7 +1331,7 @@ class WalletServiceTest {
         walletService.createWallet(EVALUATION_ONBOARDING_OK);
 
         Assertions.assertEquals(0, TEST_AMOUNT.compareTo(wallet.getAmountCents()));
-        Mockito.verify(walletRepositoryMock).save(any(Wallet.class));
+        Mockito.verify(walletUpdatesRepositoryMock).createWallet(wallet);
         Mockito.verify(timelineProducer).sendEvent(any());
         Mockito.verify(rewardCalculatorRestConnector, Mockito.times(1))
                 .createOnboardingCounters(INITIATIVE_ID, USER_ID);
@@ -1357,7 +1354,7 @@ class WalletServiceTest {
     @Test
     void createWallet_doNothing() {
         walletService.createWallet(OUTCOME_KO);
-        Mockito.verify(walletRepositoryMock, Mockito.times(0)).save(any());
+        Mockito.verify(walletUpdatesRepositoryMock, Mockito.times(0)).createWallet(any());
         Mockito.verify(timelineProducer, Mockito.times(0)).sendEvent(any());
                 Mockito.verifyNoInteractions(rewardCalculatorRestConnector);
     }
@@ -1366,7 +1363,7 @@ class WalletServiceTest {
     void createWallet_initiativeDiscount() {
         Mockito.when(walletMapper.map(any())).thenReturn(testWallet);
         walletService.createWallet(OUTCOME_OK_DISCOUNT);
-        Mockito.verify(walletRepositoryMock, Mockito.times(1)).save(any());
+        Mockito.verify(walletUpdatesRepositoryMock, Mockito.times(1)).createWallet(testWallet);
         Mockito.verify(timelineProducer, Mockito.times(1)).sendEvent(any());
                 Mockito.verify(rewardCalculatorRestConnector, Mockito.times(1))
                                 .createOnboardingCounters(INITIATIVE_ID, USER_ID);
@@ -1380,8 +1377,8 @@ class WalletServiceTest {
         IbanQueueWalletDTO iban =
                 new IbanQueueWalletDTO(
                         USER_ID, INITIATIVE_ID, IBAN_OK, STATUS_KO, LocalDateTime.now().toString(), CHANNEL);
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
-                .thenReturn(Optional.of(testWallet));
+        Mockito.when(walletUpdatesRepositoryMock.deleteIban(INITIATIVE_ID, USER_ID, IBAN_OK))
+                .thenReturn(true);
 
         doThrow(new WalletUpdateException(""))
                 .when(notificationProducer)
@@ -1402,8 +1399,8 @@ class WalletServiceTest {
         IbanQueueWalletDTO iban =
                 new IbanQueueWalletDTO(
                         USER_ID, INITIATIVE_ID, IBAN_OK, STATUS_KO, LocalDateTime.now().toString(), CHANNEL);
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
-                .thenReturn(Optional.of(testWallet));
+        Mockito.when(walletUpdatesRepositoryMock.deleteIban(INITIATIVE_ID, USER_ID, IBAN_OK))
+                .thenReturn(true);
 
         Mockito.doNothing()
                 .when(notificationProducer)
@@ -1420,13 +1417,11 @@ class WalletServiceTest {
         IbanQueueWalletDTO iban =
                 new IbanQueueWalletDTO(
                         USER_ID, INITIATIVE_ID, IBAN_OK, STATUS_KO, LocalDateTime.now().toString(), CHANNEL);
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
-                .thenReturn(Optional.empty());
-
         walletService.processIbanOutcome(iban);
 
-        Mockito.verify(walletUpdatesRepositoryMock, Mockito.times(0))
-                .deleteIban(Mockito.eq(INITIATIVE_ID), Mockito.eq(USER_ID), Mockito.anyString());
+        Mockito.verify(walletUpdatesRepositoryMock, Mockito.times(1))
+                .deleteIban(INITIATIVE_ID, USER_ID, IBAN_OK);
+        Mockito.verify(notificationProducer, Mockito.never()).sendNotification(any());
     }
 
     @Test
@@ -1434,14 +1429,12 @@ class WalletServiceTest {
         IbanQueueWalletDTO iban =
                 new IbanQueueWalletDTO(
                         USER_ID, INITIATIVE_ID, IBAN_OK_OTHER, STATUS_KO, LocalDateTime.now().toString(), CHANNEL);
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
-                .thenReturn(Optional.of(testWallet));
-
-
         walletService.processIbanOutcome(iban);
 
-        Mockito.verify(walletUpdatesRepositoryMock, Mockito.times(0))
-                .deleteIban(Mockito.eq(INITIATIVE_ID), Mockito.eq(USER_ID), Mockito.anyString());
+        // the IBAN enrolled is not the one the outcome refers to: the guarded update does not match
+        Mockito.verify(walletUpdatesRepositoryMock, Mockito.times(1))
+                .deleteIban(INITIATIVE_ID, USER_ID, IBAN_OK_OTHER);
+        Mockito.verify(notificationProducer, Mockito.never()).sendNotification(any());
     }
 
     @Test
@@ -1463,7 +1456,7 @@ class WalletServiceTest {
 
         testWallet.setStatus(WalletStatus.NOT_REFUNDABLE.name());
 
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
+        Mockito.when(walletRepositoryMock.findByIdAndUserId(ID_WALLET, USER_ID))
                 .thenReturn(Optional.of(testWallet));
 
         Mockito.doAnswer(
@@ -1472,8 +1465,8 @@ class WalletServiceTest {
                             testWallet.setStatus(WalletStatus.UNSUBSCRIBED);
                             return null;
                         })
-                .when(walletRepositoryMock)
-                .save(any(Wallet.class));
+                .when(walletUpdatesRepositoryMock)
+                .unsubscribeWallet(any(), any(), any());
 
         walletService.unsubscribe(INITIATIVE_ID, USER_ID, CHANNEL_APP_IO);
         assertNotNull(testWallet.getRequestUnsubscribeDate());
@@ -1487,20 +1480,20 @@ class WalletServiceTest {
 
         testWallet.setStatus(WalletStatus.UNSUBSCRIBED);
 
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
+        Mockito.when(walletRepositoryMock.findByIdAndUserId(ID_WALLET, USER_ID))
                 .thenReturn(Optional.of(testWallet));
 
 
         walletService.unsubscribe(INITIATIVE_ID, USER_ID, CHANNEL_APP_IO);
 
 
-        Mockito.verify(walletRepositoryMock, Mockito.times(0)).save(any());
+        Mockito.verify(walletUpdatesRepositoryMock, Mockito.times(0)).unsubscribeWallet(any(), any(), any());
     }
 
     @Test
     void unsubscribe_ko() {
         // Given
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
+        Mockito.when(walletRepositoryMock.findByIdAndUserId(ID_WALLET, USER_ID))
                 .thenReturn(Optional.empty());
 
         // When
@@ -1518,11 +1511,8 @@ class WalletServiceTest {
     @SneakyThrows
     @Test
     void processTransaction_ok_counter_valid() {
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
-                .thenReturn(Optional.of(testWallet));
-
         Mockito.when(
-                        walletUpdatesRepositoryMock.rewardTransaction(
+                        walletUpdatesRepositoryMock.rewardTransactionIfNewer(
                                 Mockito.eq(INITIATIVE_ID),
                                 Mockito.eq(USER_ID),
                                 any(),
@@ -1530,11 +1520,12 @@ class WalletServiceTest {
                                 any(),
                                 any())
                 )
-                .thenReturn(testWallet);
+                .thenReturn(RewardUpdateResult.of(RewardUpdateOutcome.APPLIED));
 
         walletService.processTransaction(MessageBuilder.withPayload(
                 objectMapper.writeValueAsString(REWARD_TRX_DTO_REWARDED)).build());
 
+        Mockito.verify(walletRepositoryMock, Mockito.never()).findByIdAndUserId(any(), any());
         Mockito.verify(timelineProducer, Mockito.times(1)).sendEvent(any());
     }
 
@@ -1542,16 +1533,23 @@ class WalletServiceTest {
     @Test
     void processTransaction_ko_counter_not_valid() {
 
-        testWallet.setCounterVersion(REWARD_TRX_DTO_REWARDED.getRewards().get(INITIATIVE_ID).getCounters().getVersion());
-
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
-                .thenReturn(Optional.of(testWallet));
+        Mockito.when(
+                        walletUpdatesRepositoryMock.rewardTransactionIfNewer(
+                                Mockito.eq(INITIATIVE_ID),
+                                Mockito.eq(USER_ID),
+                                any(),
+                                any(),
+                                any(),
+                                Mockito.eq(TEST_VERSION))
+                )
+                .thenReturn(RewardUpdateResult.of(RewardUpdateOutcome.STALE));
 
         walletService.processTransaction(MessageBuilder.withPayload(
                 objectMapper.writeValueAsString(REWARD_TRX_DTO_REWARDED)).build());
 
-        Mockito.verify(walletUpdatesRepositoryMock, Mockito.times(0))
-                .rewardTransaction(
+        Mockito.verify(walletRepositoryMock, Mockito.never()).findByIdAndUserId(any(), any());
+        Mockito.verify(walletUpdatesRepositoryMock, Mockito.times(1))
+                .rewardTransactionIfNewer(
                     Mockito.eq(INITIATIVE_ID),
                     Mockito.eq(USER_ID),
                     any(),
@@ -1567,7 +1565,7 @@ class WalletServiceTest {
     @Test
     void processTransaction_sync_ok() {
         Mockito.when(
-                        walletUpdatesRepositoryMock.rewardTransaction(
+                        walletUpdatesRepositoryMock.rewardTransactionIfNewer(
                                 Mockito.eq(INITIATIVE_ID),
                                 Mockito.eq(USER_ID),
                                 any(),
@@ -1575,7 +1573,7 @@ class WalletServiceTest {
                                 any(),
                                 any())
                 )
-                .thenReturn(testWallet);
+                .thenReturn(RewardUpdateResult.of(RewardUpdateOutcome.APPLIED));
         walletService.processTransaction(MessageBuilder.withPayload(objectMapper.writeValueAsString(
                 REWARD_TRX_DTO_SYNC_REWARDED)).build());
         Mockito.verify(timelineProducer, Mockito.times(1)).sendEvent(any());
@@ -1585,7 +1583,7 @@ class WalletServiceTest {
     @Test
     void processTransaction_captured_reward_empty() {
         Mockito.when(
-                        walletUpdatesRepositoryMock.rewardTransaction(
+                        walletUpdatesRepositoryMock.rewardTransactionIfNewer(
                                 Mockito.eq(INITIATIVE_ID),
                                 Mockito.eq(USER_ID),
                                 any(),
@@ -1593,7 +1591,7 @@ class WalletServiceTest {
                                 any(),
                                 any())
                 )
-                .thenReturn(testWallet);
+                .thenReturn(RewardUpdateResult.of(RewardUpdateOutcome.APPLIED));
         walletService.processTransaction(MessageBuilder.withPayload(objectMapper.writeValueAsString(
                 REWARD_TRX_DTO_SYNC_CAPTURED_NOREWARDS)).build());
     }
@@ -1602,7 +1600,7 @@ class WalletServiceTest {
     @Test
     void processTransaction_captured_reward_populated() {
         Mockito.when(
-                        walletUpdatesRepositoryMock.rewardTransaction(
+                        walletUpdatesRepositoryMock.rewardTransactionIfNewer(
                                 any(),
                                 any(),
                                 any(),
@@ -1610,7 +1608,7 @@ class WalletServiceTest {
                                 any(),
                                 any())
                 )
-                .thenReturn(testWallet);
+                .thenReturn(RewardUpdateResult.of(RewardUpdateOutcome.APPLIED));
         walletService.processTransaction(MessageBuilder.withPayload(objectMapper
                 .writeValueAsString(REWARD_TRX_DTO_SYNC_CAPTURED_REWARDS)).build());
     }
@@ -1619,7 +1617,7 @@ class WalletServiceTest {
     @Test
     void processTransaction_captured_reward_populated_with_wallet() {
         Mockito.when(
-                        walletUpdatesRepositoryMock.rewardTransaction(
+                        walletUpdatesRepositoryMock.rewardTransactionIfNewer(
                                 any(),
                                 any(),
                                 any(),
@@ -1627,22 +1625,22 @@ class WalletServiceTest {
                                 any(),
                                 any())
                 )
-                .thenReturn(testWallet);
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
-                .thenReturn(Optional.of(testWallet));
+                .thenReturn(RewardUpdateResult.of(RewardUpdateOutcome.APPLIED));
+        Mockito.when(walletUpdatesRepositoryMock.captureTransaction(any(), any(), any()))
+                .thenReturn(true);
         walletService.processTransaction(MessageBuilder.withPayload(
                 objectMapper.writeValueAsString(REWARD_TRX_DTO_SYNC_CAPTURED_REWARDS)).build());
-        verify(walletRepositoryMock).save(any());
+        verify(walletUpdatesRepositoryMock).captureTransaction(any(), any(), any());
     }
 
     @SneakyThrows
     @Test
     void processTransaction_sync_ok_auth() {
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
+        Mockito.when(walletRepositoryMock.findByIdAndUserId(ID_WALLET, USER_ID))
                 .thenReturn(Optional.of(testWallet));
 
         Mockito.when(
-                        walletUpdatesRepositoryMock.rewardTransaction(
+                        walletUpdatesRepositoryMock.rewardTransactionIfNewer(
                                 Mockito.eq(INITIATIVE_ID),
                                 Mockito.eq(USER_ID),
                                 any(),
@@ -1650,7 +1648,7 @@ class WalletServiceTest {
                                 any(),
                                 any())
         )
-                .thenReturn(testWallet);
+                .thenReturn(RewardUpdateResult.of(RewardUpdateOutcome.APPLIED));
 
         walletService.processTransaction(MessageBuilder.withPayload(objectMapper.writeValueAsString(
                 REWARD_TRX_DTO_SYNC_AUTHORIZED)).build());
@@ -1660,123 +1658,69 @@ class WalletServiceTest {
 
     @SneakyThrows
     @Test
-    void processTransaction_family_both_counters_valid() {
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
-                .thenReturn(Optional.of(TEST_WALLET_FAMILY));
-
-        Mockito.when(walletUpdatesRepositoryMock.rewardFamilyUserTransaction(
-                        Mockito.eq(INITIATIVE_ID),
-                        Mockito.eq(USER_ID),
-                        any(),
-                        any(),
-                        any())
-                )
-                .thenReturn(TEST_WALLET_FAMILY);
-
-        Mockito.when(walletUpdatesRepositoryMock.rewardFamilyTransaction(
+    void processTransaction_family_applied() {
+        Mockito.when(walletUpdatesRepositoryMock.rewardTransactionIfNewer(
+                        Mockito.eq(INITIATIVE_ID), Mockito.eq(USER_ID), any(), any(), any(), any()))
+                .thenReturn(new RewardUpdateResult(RewardUpdateOutcome.FAMILY_WALLET, FAMILY_ID));
+        Mockito.when(walletUpdatesRepositoryMock.rewardFamilyMemberTransaction(
                         Mockito.eq(INITIATIVE_ID),
                         Mockito.eq(FAMILY_ID),
+                        Mockito.eq(USER_ID),
                         any(),
-                        any(),
-                        any())
-                )
-                .thenReturn(true);
+                        Mockito.eq(REWARD_DTO.getAccruedRewardCents()),
+                        Mockito.eq(REWARD_DTO.getCounters().getVersion())))
+                .thenReturn(FamilyRewardUpdateOutcome.APPLIED);
 
         walletService.processTransaction(MessageBuilder.withPayload(
                 objectMapper.writeValueAsString(REWARD_TRX_DTO_REWARDED)).build());
 
         Mockito.verify(timelineProducer).sendEvent(any());
+        Mockito.verify(errorProducer, Mockito.never()).sendEvent(any());
     }
 
     @SneakyThrows
     @Test
-    void processTransaction_family_old_counter_not_in_history() {
-
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
-                .thenReturn(Optional.of(TEST_WALLET_FAMILY_OLD_COUNTER_NOT_IN_HISTORY));
-
-
-        Mockito.when(walletUpdatesRepositoryMock.rewardFamilyUserTransaction(
-                        Mockito.eq(INITIATIVE_ID),
-                        Mockito.eq(USER_ID),
-                        any(),
-                        any(),
-                        any())
-                )
-                .thenReturn(TEST_WALLET_FAMILY);
+    void processTransaction_family_already_applied() {
+        Mockito.when(walletUpdatesRepositoryMock.rewardTransactionIfNewer(
+                        Mockito.eq(INITIATIVE_ID), Mockito.eq(USER_ID), any(), any(), any(), any()))
+                .thenReturn(new RewardUpdateResult(RewardUpdateOutcome.FAMILY_WALLET, FAMILY_ID));
+        Mockito.when(walletUpdatesRepositoryMock.rewardFamilyMemberTransaction(
+                        Mockito.eq(INITIATIVE_ID), Mockito.eq(FAMILY_ID), Mockito.eq(USER_ID), any(), any(), any()))
+                .thenReturn(FamilyRewardUpdateOutcome.ALREADY_APPLIED);
 
         walletService.processTransaction(MessageBuilder.withPayload(
                 objectMapper.writeValueAsString(REWARD_TRX_DTO_REWARDED)).build());
 
-        Mockito.verify(walletUpdatesRepositoryMock,Mockito.times(0))
-                .rewardFamilyTransaction(
-                        Mockito.eq(INITIATIVE_ID),
-                        Mockito.eq(USER_ID),
-                        any(),
-                        any(),
-                        any()
-                );
-
-
         Mockito.verify(timelineProducer).sendEvent(any());
+        Mockito.verify(errorProducer, Mockito.never()).sendEvent(any());
     }
 
     @SneakyThrows
     @Test
-    void processTransaction_family_counters_not_valid() {
-
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
-                .thenReturn(Optional.of(TEST_WALLET_FAMILY_COUNTERS_NOT_VALID));
+    void processTransaction_family_partially_applied() {
+        Mockito.when(walletUpdatesRepositoryMock.rewardTransactionIfNewer(
+                        Mockito.eq(INITIATIVE_ID), Mockito.eq(USER_ID), any(), any(), any(), any()))
+                .thenReturn(new RewardUpdateResult(RewardUpdateOutcome.FAMILY_WALLET, FAMILY_ID));
+        Mockito.when(walletUpdatesRepositoryMock.rewardFamilyMemberTransaction(
+                        Mockito.eq(INITIATIVE_ID), Mockito.eq(FAMILY_ID), Mockito.eq(USER_ID), any(), any(), any()))
+                .thenReturn(FamilyRewardUpdateOutcome.PARTIALLY_APPLIED);
 
         walletService.processTransaction(MessageBuilder.withPayload(
                 objectMapper.writeValueAsString(REWARD_TRX_DTO_REWARDED)).build());
 
-        Mockito.verify(walletUpdatesRepositoryMock,Mockito.times(0))
-                .rewardFamilyTransaction(
-                        Mockito.eq(INITIATIVE_ID),
-                        Mockito.eq(FAMILY_ID),
-                        any(),
-                        any(),
-                        any()
-                );
-
-        Mockito.verify(walletUpdatesRepositoryMock,Mockito.times(0))
-                .rewardFamilyUserTransaction(
-                        Mockito.eq(INITIATIVE_ID),
-                        Mockito.eq(USER_ID),
-                        any(),
-                        any(),
-                        any()
-                );
-
-
-        Mockito.verify(timelineProducer).sendEvent(any());
+        Mockito.verify(timelineProducer, Mockito.never()).sendEvent(any());
+        Mockito.verify(errorProducer).sendEvent(any());
     }
 
-
     @SneakyThrows
     @Test
     void processTransaction_family_ko() {
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
-                .thenReturn(Optional.of(TEST_WALLET_FAMILY));
-
-        Mockito.when(walletUpdatesRepositoryMock.rewardFamilyUserTransaction(
-                        Mockito.eq(INITIATIVE_ID),
-                        Mockito.eq(USER_ID),
-                        any(),
-                        any(),
-                        any())
-                )
-                .thenReturn(TEST_WALLET_FAMILY);
-
-        Mockito.when(walletUpdatesRepositoryMock.rewardFamilyTransaction(
-                        Mockito.eq(INITIATIVE_ID),
-                        Mockito.eq(FAMILY_ID),
-                        any(),
-                        any(),
-                        any())
-                )
-                .thenReturn(false);
+        Mockito.when(walletUpdatesRepositoryMock.rewardTransactionIfNewer(
+                        Mockito.eq(INITIATIVE_ID), Mockito.eq(USER_ID), any(), any(), any(), any()))
+                .thenReturn(new RewardUpdateResult(RewardUpdateOutcome.FAMILY_WALLET, FAMILY_ID));
+        Mockito.when(walletUpdatesRepositoryMock.rewardFamilyMemberTransaction(
+                        Mockito.eq(INITIATIVE_ID), Mockito.eq(FAMILY_ID), Mockito.eq(USER_ID), any(), any(), any()))
+                .thenReturn(FamilyRewardUpdateOutcome.FAILED);
 
         walletService.processTransaction(MessageBuilder.withPayload(
                 objectMapper.writeValueAsString(REWARD_TRX_DTO_REWARDED)).build());
@@ -1789,7 +1733,7 @@ class WalletServiceTest {
     @Test
     void processTransaction_ko() {
         Mockito.when(
-                        walletUpdatesRepositoryMock.rewardTransaction(
+                        walletUpdatesRepositoryMock.rewardTransactionIfNewer(
                                 Mockito.eq(INITIATIVE_ID),
                                 Mockito.eq(USER_ID),
                                 any(),
@@ -1797,7 +1741,7 @@ class WalletServiceTest {
                                 any(),
                                 any())
         )
-                .thenReturn(null);
+                .thenReturn(RewardUpdateResult.of(RewardUpdateOutcome.NOT_FOUND));
         walletService.processTransaction(MessageBuilder.withPayload(
                 objectMapper.writeValueAsString(REWARD_TRX_DTO_REWARDED)).build());
         Mockito.verify(timelineProducer, Mockito.times(0)).sendEvent(any());
@@ -1806,7 +1750,7 @@ class WalletServiceTest {
     @Test
     void unsubscribe_ko_onboarding() {
         // Given
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
+        Mockito.when(walletRepositoryMock.findByIdAndUserId(ID_WALLET, USER_ID))
                 .thenReturn(Optional.of(testWallet));
 
         doThrow(new OnboardingInvocationException(ERROR_ONBOARDING_INVOCATION_MSG))
@@ -1821,7 +1765,7 @@ class WalletServiceTest {
         assertEquals(GENERIC_ERROR, exception.getCode());
         assertEquals(ERROR_ONBOARDING_INVOCATION_MSG, exception.getMessage());
 
-        verify(walletRepositoryMock, times(1)).findByUserIdAndInitiativeId(any(),any());
+        verify(walletRepositoryMock, times(1)).findByIdAndUserId(any(),any());
         verifyNoMoreInteractions(walletRepositoryMock);
         verify(onboardingRestConnector, times(1)).disableOnboarding(any());
         verifyNoMoreInteractions(onboardingRestConnector);
@@ -1831,7 +1775,7 @@ class WalletServiceTest {
     @Test
     void unsubscribe_ko_onboarding_without_wallet_save() {
         // Given
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
+        Mockito.when(walletRepositoryMock.findByIdAndUserId(ID_WALLET, USER_ID))
                 .thenReturn(Optional.of(TEST_WALLET_2));
 
         doThrow(new OnboardingInvocationException(ERROR_ONBOARDING_INVOCATION_MSG))
@@ -1846,7 +1790,7 @@ class WalletServiceTest {
         assertEquals(GENERIC_ERROR, exception.getCode());
         assertEquals(ERROR_ONBOARDING_INVOCATION_MSG, exception.getMessage());
 
-        verify(walletRepositoryMock, times(1)).findByUserIdAndInitiativeId(any(),any());
+        verify(walletRepositoryMock, times(1)).findByIdAndUserId(any(),any());
         verifyNoMoreInteractions(walletRepositoryMock);
         verify(onboardingRestConnector, times(1)).disableOnboarding(any());
         verifyNoMoreInteractions(onboardingRestConnector);
@@ -1856,11 +1800,11 @@ class WalletServiceTest {
     @Test
     void unsubscribe_wallet_save_exception() {
         // Given
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
+        Mockito.when(walletRepositoryMock.findByIdAndUserId(ID_WALLET, USER_ID))
                 .thenReturn(Optional.of(TEST_WALLET_2));
-        when(walletRepositoryMock.save(any()))
-                .thenThrow(new MongoClientException("ERROR"))
-                .thenReturn(null);
+        doThrow(new MongoClientException("ERROR"))
+                .when(walletUpdatesRepositoryMock)
+                .unsubscribeWallet(any(), any(), any());
 
         // When
         MongoClientException exception = assertThrows(MongoClientException.class,
@@ -1869,9 +1813,12 @@ class WalletServiceTest {
         // Then
         assertEquals("ERROR", exception.getMessage());
 
-        verify(walletRepositoryMock, times(1)).findByUserIdAndInitiativeId(any(),any());
+        verify(walletRepositoryMock, times(1)).findByIdAndUserId(any(),any());
         verify(onboardingRestConnector, times(1)).disableOnboarding(any());
-        verify(walletRepositoryMock, times(2)).save(any());
+        verify(walletUpdatesRepositoryMock, times(1)).unsubscribeWallet(Mockito.eq(INITIATIVE_ID), Mockito.eq(USER_ID), any());
+        verify(walletUpdatesRepositoryMock, times(1)).rollbackWallet(
+                INITIATIVE_ID, USER_ID, TEST_WALLET_2.getStatus(), TEST_WALLET_2.getNInstr(),
+                TEST_WALLET_2.getSuspensionDate(), TEST_WALLET_2.getRequestUnsubscribeDate());
         verify(onboardingRestConnector, times(1)).rollback(any(), any());
         verifyNoInteractions(paymentInstrumentRestConnector);
     }
@@ -1903,63 +1850,238 @@ class WalletServiceTest {
         Mockito.verify(timelineProducer, Mockito.times(0)).sendEvent(any());
     }
 
+    @SneakyThrows
     @Test
-    void update_wallet_ok() {
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
-                .thenReturn(Optional.of(testWallet));
+    void processTransactions_ok_aggregated() {
+        testWallet.setId(ID_WALLET);
+        Mockito.when(walletRepositoryMock.findRewardViewByIdInAndUserIdIn(List.of(ID_WALLET), List.of(USER_ID)))
+                .thenReturn(List.of(rewardView(testWallet)));
+        Mockito.when(walletUpdatesRepositoryMock.rewardTransactions(any()))
+                .thenAnswer(invocation -> rewardOutcomes(invocation.getArgument(0), WalletUpdateOutcome.APPLIED));
 
-        testWallet.setStatus(WalletStatus.NOT_REFUNDABLE_ONLY_INSTRUMENT.name());
-        testWallet.setNInstr(1);
-        testWallet.setIban(null);
+        RewardTransactionDTO secondTrx = RewardTransactionDTO.builder()
+                .userId(USER_ID)
+                .channel("RTD")
+                .status("REWARDED")
+                .rewards(Map.of(INITIATIVE_ID, RewardDTO.builder()
+                        .accruedRewardCents(TEST_AMOUNT)
+                        .counters(new Counters(false, 2L, 2 * TEST_AMOUNT, TEST_AMOUNT, TEST_ACCRUED, 2L))
+                        .build()))
+                .build();
 
-        Mockito.doNothing().when(timelineProducer).sendEvent(any(QueueOperationDTO.class));
-        Mockito.doAnswer(
-                        invocationOnMock -> {
-                            testWallet.setNInstr(0);
-                            testWallet.setStatus(WalletStatus.NOT_REFUNDABLE.name());
-                            return null;
-                        })
-                .when(walletUpdatesRepositoryMock)
-                .decreaseInstrumentNumber(Mockito.eq(INITIATIVE_ID), Mockito.eq(USER_ID), Mockito.anyString());
+        walletService.processTransactions(List.of(
+                MessageBuilder.withPayload(objectMapper.writeValueAsString(REWARD_TRX_DTO_REWARDED)).build(),
+                MessageBuilder.withPayload(objectMapper.writeValueAsString(secondTrx)).build(),
+                MessageBuilder.withPayload(objectMapper.writeValueAsString(REWARD_TRX_DTO)).build()));
 
+        ArgumentCaptor<List<WalletRewardUpdateDTO>> updatesCaptor = ArgumentCaptor.captor();
+        Mockito.verify(walletUpdatesRepositoryMock).rewardTransactions(updatesCaptor.capture());
+        assertEquals(1, updatesCaptor.getValue().size());
+        WalletRewardUpdateDTO update = updatesCaptor.getValue().getFirst();
+        assertEquals(2L, update.getCounterVersion());
+        assertEquals(2L, update.getTrxCount());
+        assertEquals(2 * TEST_AMOUNT, update.getAccruedCents());
+        Mockito.verify(walletRepositoryMock, Mockito.never()).findByIdAndUserId(any(), any());
+        Mockito.verify(timelineProducer, Mockito.times(2)).sendEvent(any());
+        Mockito.verifyNoInteractions(errorProducer);
+    }
+
+    @SneakyThrows
+    @Test
+    void processTransactions_lanes() {
+        String otherUserId = "OTHER_USER_ID";
+        Wallet otherWallet = testWallet.toBuilder().id(otherUserId + "_" + INITIATIVE_ID).userId(otherUserId).build();
+        testWallet.setId(ID_WALLET);
+        Mockito.when(walletRepositoryMock.findRewardViewByIdInAndUserIdIn(any(), any()))
+                .thenReturn(List.of(rewardView(testWallet), rewardView(otherWallet)));
+        Mockito.when(walletUpdatesRepositoryMock.rewardTransactions(any()))
+                .thenAnswer(invocation -> rewardOutcomes(invocation.getArgument(0), WalletUpdateOutcome.APPLIED));
+
+        RewardTransactionDTO otherUserTrx = RewardTransactionDTO.builder()
+                .userId(otherUserId)
+                .channel("RTD")
+                .status("REWARDED")
+                .rewards(Map.of(INITIATIVE_ID, REWARD_DTO))
+                .build();
+
+        walletService.processTransactions(List.of(
+                MessageBuilder.withPayload(objectMapper.writeValueAsString(REWARD_TRX_DTO_REWARDED)).build(),
+                MessageBuilder.withPayload(objectMapper.writeValueAsString(otherUserTrx)).build()));
+
+        ArgumentCaptor<List<WalletRewardUpdateDTO>> updatesCaptor = ArgumentCaptor.captor();
+        Mockito.verify(walletUpdatesRepositoryMock, Mockito.atLeastOnce()).rewardTransactions(updatesCaptor.capture());
+        assertEquals(Set.of(USER_ID, otherUserId), updatesCaptor.getAllValues().stream()
+                .flatMap(List::stream)
+                .map(WalletRewardUpdateDTO::getUserId)
+                .collect(Collectors.toSet()));
+        Mockito.verify(timelineProducer, Mockito.times(2)).sendEvent(any());
+    }
+
+    @SneakyThrows
+    @Test
+    void processTransactions_ko_update_failed() {
+        testWallet.setId(ID_WALLET);
+        Mockito.when(walletRepositoryMock.findRewardViewByIdInAndUserIdIn(List.of(ID_WALLET), List.of(USER_ID)))
+                .thenReturn(List.of(rewardView(testWallet)));
+        Mockito.when(walletUpdatesRepositoryMock.rewardTransactions(any()))
+                .thenAnswer(invocation -> rewardOutcomes(invocation.getArgument(0), WalletUpdateOutcome.FAILED));
+
+        walletService.processTransactions(List.of(
+                MessageBuilder.withPayload(objectMapper.writeValueAsString(REWARD_TRX_DTO_REWARDED)).build(),
+                MessageBuilder.withPayload("INVALID").build()));
+
+        Mockito.verify(errorProducer, Mockito.times(2)).sendEvent(any());
+        Mockito.verify(timelineProducer, Mockito.never()).sendEvent(any());
+    }
+
+    @SneakyThrows
+    @Test
+    void processTransactions_skipped_newer_version() {
+        testWallet.setId(ID_WALLET);
+        Mockito.when(walletRepositoryMock.findRewardViewByIdInAndUserIdIn(List.of(ID_WALLET), List.of(USER_ID)))
+                .thenReturn(List.of(rewardView(testWallet)));
+        Mockito.when(walletUpdatesRepositoryMock.rewardTransactions(any()))
+                .thenAnswer(invocation -> rewardOutcomes(invocation.getArgument(0), WalletUpdateOutcome.SKIPPED));
+
+        walletService.processTransactions(List.of(
+                MessageBuilder.withPayload(objectMapper.writeValueAsString(REWARD_TRX_DTO_REWARDED)).build()));
+
+        // as the STALE single record
+        Mockito.verify(walletUpdatesRepositoryMock).rewardTransactions(any());
+        Mockito.verify(timelineProducer).sendEvent(any());
+        Mockito.verifyNoInteractions(errorProducer);
+    }
+
+    @SneakyThrows
+    @Test
+    void processTransactions_duplicated_version() {
+        testWallet.setId(ID_WALLET);
+        Mockito.when(walletRepositoryMock.findRewardViewByIdInAndUserIdIn(List.of(ID_WALLET), List.of(USER_ID)))
+                .thenReturn(List.of(rewardView(testWallet)));
+        Mockito.when(walletUpdatesRepositoryMock.rewardTransactions(any()))
+                .thenAnswer(invocation -> rewardOutcomes(invocation.getArgument(0), WalletUpdateOutcome.APPLIED));
+
+        walletService.processTransactions(List.of(
+                MessageBuilder.withPayload(objectMapper.writeValueAsString(REWARD_TRX_DTO_REWARDED)).build(),
+                MessageBuilder.withPayload(objectMapper.writeValueAsString(REWARD_TRX_DTO_REWARDED)).build()));
+
+        // the redelivered version is neither accrued nor sent to the timeline twice
+        ArgumentCaptor<List<WalletRewardUpdateDTO>> updatesCaptor = ArgumentCaptor.captor();
+        Mockito.verify(walletUpdatesRepositoryMock).rewardTransactions(updatesCaptor.capture());
+        assertEquals(1L, updatesCaptor.getValue().getFirst().getTrxCount());
+        Mockito.verify(timelineProducer).sendEvent(any());
+    }
+
+    @SneakyThrows
+    @Test
+    void processTransactions_deleted_meanwhile() {
+        testWallet.setId(ID_WALLET);
+        Mockito.when(walletRepositoryMock.findRewardViewByIdInAndUserIdIn(List.of(ID_WALLET), List.of(USER_ID)))
+                .thenReturn(List.of(rewardView(testWallet)));
+        Mockito.when(walletUpdatesRepositoryMock.rewardTransactions(any()))
+                .thenAnswer(invocation -> rewardOutcomes(invocation.getArgument(0), WalletUpdateOutcome.NOT_FOUND));
+
+        walletService.processTransactions(List.of(
+                MessageBuilder.withPayload(objectMapper.writeValueAsString(REWARD_TRX_DTO_REWARDED)).build()));
+
+        Mockito.verify(timelineProducer, Mockito.never()).sendEvent(any());
+        Mockito.verifyNoInteractions(errorProducer);
+    }
+
+    @SneakyThrows
+    @Test
+    void processTransactions_family_wallet() {
+        TEST_WALLET_FAMILY.setId(ID_WALLET);
+        Mockito.when(walletRepositoryMock.findRewardViewByIdInAndUserIdIn(List.of(ID_WALLET), List.of(USER_ID)))
+                .thenReturn(List.of(rewardView(TEST_WALLET_FAMILY)));
+        Mockito.when(walletUpdatesRepositoryMock.rewardFamilyMemberTransaction(
+                        Mockito.eq(INITIATIVE_ID), Mockito.eq(FAMILY_ID), Mockito.eq(USER_ID), any(), any(), any()))
+                .thenReturn(FamilyRewardUpdateOutcome.FAILED);
+
+        walletService.processTransactions(List.of(
+                MessageBuilder.withPayload(objectMapper.writeValueAsString(REWARD_TRX_DTO_REWARDED)).build()));
+
+        Mockito.verify(walletUpdatesRepositoryMock).rewardTransactions(List.of());
+        Mockito.verify(errorProducer, Mockito.times(1)).sendEvent(any());
+        Mockito.verify(timelineProducer, Mockito.never()).sendEvent(any());
+    }
+
+    @Test
+    void update_wallet_ok() {
+        Mockito.doNothing().when(timelineProducer).sendEvent(any(QueueOperationDTO.class));
+        Mockito.when(timelineMapper.deleteInstrumentToTimeline(INITIATIVE_ID, USER_ID, MASKED_PAN, BRAND_LOGO, BRAND_LOGO))
+                .thenReturn(TEST_OPERATION_DTO);
+        Mockito.when(walletUpdatesRepositoryMock.decreaseInstrumentNumbers(List.of(
+                        new WalletKey(USER_ID, INITIATIVE_ID), new WalletKey(USER_ID, "NOT_ENROLLED_INITIATIVE_ID"))))
+                .thenReturn(List.of(InstrumentRevocationOutcome.REVOKED, InstrumentRevocationOutcome.NOT_FOUND));
 
         List<WalletPIDTO> walletPIDTOList = new ArrayList<>();
         walletPIDTOList.add(new WalletPIDTO(INITIATIVE_ID, USER_ID, MASKED_PAN, BRAND_LOGO, BRAND_LOGO));
+        walletPIDTOList.add(new WalletPIDTO("NOT_ENROLLED_INITIATIVE_ID", USER_ID, MASKED_PAN, BRAND_LOGO, BRAND_LOGO));
         WalletPIBodyDTO walletPIBodyDTO = new WalletPIBodyDTO(walletPIDTOList);
-        walletService.updateWallet(walletPIBodyDTO);
-
-        assertEquals(0, testWallet.getNInstr());
+        List<WalletPIOutcomeDTO> outcomes = walletService.updateWallet(walletPIBodyDTO);
+
+        assertEquals(2, outcomes.size());
+        assertEquals(INITIATIVE_ID, outcomes.get(0).getInitiativeId());
+        assertEquals(MASKED_PAN, outcomes.get(0).getMaskedPan());
+        assertEquals(InstrumentRevocationOutcome.REVOKED, outcomes.get(0).getOutcome());
+        assertEquals(InstrumentRevocationOutcome.NOT_FOUND, outcomes.get(1).getOutcome());
+        Mockito.verify(walletUpdatesRepositoryMock, Mockito.times(1)).decreaseInstrumentNumbers(any());
+        Mockito.verify(timelineProducer, Mockito.times(1)).sendEvent(TEST_OPERATION_DTO);
     }
 
     @Test
     void update_wallet_empty() {
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
-                .thenReturn(Optional.empty());
-
         Mockito.doNothing().when(timelineProducer).sendEvent(any(QueueOperationDTO.class));
+        Mockito.when(walletUpdatesRepositoryMock.decreaseInstrumentNumbers(List.of(new WalletKey(USER_ID, INITIATIVE_ID))))
+                .thenReturn(List.of(InstrumentRevocationOutcome.NOT_FOUND));
 
         List<WalletPIDTO> walletPIDTOList = new ArrayList<>();
         walletPIDTOList.add(new WalletPIDTO(INITIATIVE_ID, USER_ID, MASKED_PAN, BRAND_LOGO, BRAND_LOGO));
         WalletPIBodyDTO walletPIBodyDTO = new WalletPIBodyDTO(walletPIDTOList);
-        walletService.updateWallet(walletPIBodyDTO);
+        List<WalletPIOutcomeDTO> outcomes = walletService.updateWallet(walletPIBodyDTO);
 
-        Mockito.verify(walletUpdatesRepositoryMock, Mockito.times(0))
-                .decreaseInstrumentNumber(Mockito.eq(INITIATIVE_ID), Mockito.eq(USER_ID), Mockito.anyString());
+        assertEquals(InstrumentRevocationOutcome.NOT_FOUND, outcomes.getFirst().getOutcome());
+        Mockito.verify(walletUpdatesRepositoryMock, Mockito.times(1)).decreaseInstrumentNumbers(any());
+        Mockito.verify(timelineProducer, Mockito.never()).sendEvent(any());
     }
 
     @Test
-    void update_wallet_ok_queue_error() {
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
-                .thenReturn(Optional.of(testWallet));
+    void update_wallet_failed() {
+        Mockito.when(walletUpdatesRepositoryMock.decreaseInstrumentNumbers(List.of(new WalletKey(USER_ID, INITIATIVE_ID))))
+                .thenReturn(List.of(InstrumentRevocationOutcome.FAILED));
 
-        Mockito.doAnswer(
-                        invocationOnMock -> {
-                            testWallet.setNInstr(0);
-                            testWallet.setStatus(WalletStatus.NOT_REFUNDABLE.name());
-                            return null;
-                        })
-                .when(walletUpdatesRepositoryMock)
-                .decreaseInstrumentNumber(Mockito.eq(INITIATIVE_ID), Mockito.eq(USER_ID), Mockito.anyString());
+        List<WalletPIDTO> walletPIDTOList = new ArrayList<>();
+        walletPIDTOList.add(new WalletPIDTO(INITIATIVE_ID, USER_ID, MASKED_PAN, BRAND_LOGO, BRAND_LOGO));
+        List<WalletPIOutcomeDTO> outcomes = walletService.updateWallet(new WalletPIBodyDTO(walletPIDTOList));
+
+        assertEquals(InstrumentRevocationOutcome.FAILED, outcomes.getFirst().getOutcome());
+        Mockito.verify(timelineProducer, Mockito.never()).sendEvent(any());
+    }
+
+    @Test
+    void update_wallet_outbox() {
+        Mockito.when(outboxService.isEnabled()).thenReturn(true);
+        Mockito.when(timelineMapper.deleteInstrumentToTimeline(any(), any(), any(), any(), any()))
+                .thenReturn(TEST_OPERATION_DTO);
+        Mockito.when(walletUpdatesRepositoryMock.decreaseInstrumentNumbers(any()))
+                .thenReturn(List.of(InstrumentRevocationOutcome.REVOKED, InstrumentRevocationOutcome.REVOKED));
+
+        List<WalletPIDTO> walletPIDTOList = new ArrayList<>();
+        walletPIDTOList.add(new WalletPIDTO(INITIATIVE_ID, USER_ID, MASKED_PAN, BRAND_LOGO, BRAND_LOGO));
+        walletPIDTOList.add(new WalletPIDTO(INITIATIVE_ID, USER_ID, "OTHER_MASKED_PAN", BRAND_LOGO, BRAND_LOGO));
+        walletService.updateWallet(new WalletPIBodyDTO(walletPIDTOList));
+
+        verify(outboxService).executeInTransaction(any());
+        verify(outboxService).enqueueAll(eq(TimelineProducer.BINDING_NAME), any(), eq(List.of(TEST_OPERATION_DTO, TEST_OPERATION_DTO)));
+        verify(outboxService, Mockito.never()).enqueue(any(), any(), any());
+        verifyNoInteractions(timelineProducer);
+    }
+
+    @Test
+    void update_wallet_ok_queue_error() {
+        Mockito.when(walletUpdatesRepositoryMock.decreaseInstrumentNumbers(List.of(new WalletKey(USER_ID, INITIATIVE_ID))))
+                .thenReturn(List.of(InstrumentRevocationOutcome.REVOKED));
 
         Mockito.when(
                         timelineMapper.deleteInstrumentToTimeline(
@@ -1972,16 +2094,13 @@ class WalletServiceTest {
 
         Mockito.doNothing().when(errorProducer).sendEvent(any());
 
-        testWallet.setStatus(WalletStatus.NOT_REFUNDABLE_ONLY_INSTRUMENT.name());
-        testWallet.setNInstr(1);
-        testWallet.setIban(null);
-
         List<WalletPIDTO> walletPIDTOList = new ArrayList<>();
         walletPIDTOList.add(new WalletPIDTO(INITIATIVE_ID, USER_ID, MASKED_PAN, BRAND_LOGO, BRAND_LOGO));
         WalletPIBodyDTO walletPIBodyDTO = new WalletPIBodyDTO(walletPIDTOList);
-        walletService.updateWallet(walletPIBodyDTO);
+        List<WalletPIOutcomeDTO> outcomes = walletService.updateWallet(walletPIBodyDTO);
 
-        assertEquals(0, testWallet.getNInstr());
+        assertEquals(InstrumentRevocationOutcome.REVOKED, outcomes.getFirst().getOutcome());
+        Mockito.verify(errorProducer, Mockito.times(1)).sendEvent(any());
     }
 
     @Test
@@ -2013,19 +2132,17 @@ class WalletServiceTest {
                         NOTIFICATION_DATE,
                         "CRO");
 
-        testWallet.setRefundHistory(null);
-        testWallet.setRefundedCents(TEST_REFUNDED);
-
         Mockito.when(timelineMapper.refundToTimeline(dto)).thenReturn(TEST_OPERATION_DTO);
 
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
-                .thenReturn(Optional.of(testWallet));
+        Mockito.when(walletUpdatesRepositoryMock.processRefund(
+                        Mockito.eq(INITIATIVE_ID), Mockito.eq(USER_ID), Mockito.eq("NOT_ID"), any(), any()))
+                .thenReturn(true);
 
         walletService.processRefund(dto);
 
         Mockito.verify(walletUpdatesRepositoryMock, Mockito.times(1))
                 .processRefund(
-                        Mockito.eq(INITIATIVE_ID), Mockito.eq(USER_ID), any(), any());
+                        Mockito.eq(INITIATIVE_ID), Mockito.eq(USER_ID), Mockito.eq("NOT_ID"), any(), any());
         Mockito.verify(timelineProducer, Mockito.times(1)).sendEvent(TEST_OPERATION_DTO);
         Mockito.verify(errorProducer, Mockito.times(0)).sendEvent(any());
     }
@@ -2059,13 +2176,11 @@ class WalletServiceTest {
                         NOTIFICATION_DATE,
                         "CRO");
 
-        testWallet.setRefundHistory(null);
-        testWallet.setRefundedCents(TEST_REFUNDED);
-
         Mockito.when(timelineMapper.refundToTimeline(dto)).thenReturn(TEST_OPERATION_DTO);
 
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
-                .thenReturn(Optional.of(testWallet));
+        Mockito.when(walletUpdatesRepositoryMock.processRefund(
+                        Mockito.eq(INITIATIVE_ID), Mockito.eq(USER_ID), Mockito.eq("NOT_ID"), any(), any()))
+                .thenReturn(true);
 
         doThrow(new WalletUpdateException(""))
                 .when(timelineProducer)
@@ -2075,7 +2190,7 @@ class WalletServiceTest {
 
         Mockito.verify(walletUpdatesRepositoryMock, Mockito.times(1))
                 .processRefund(
-                        Mockito.eq(INITIATIVE_ID), Mockito.eq(USER_ID), any(), any());
+                        Mockito.eq(INITIATIVE_ID), Mockito.eq(USER_ID), Mockito.eq("NOT_ID"), any(), any());
         Mockito.verify(errorProducer, Mockito.times(1)).sendEvent(any());
     }
 
@@ -2108,14 +2223,9 @@ class WalletServiceTest {
                         NOTIFICATION_DATE,
                         "CRO");
 
-        Map<String, RefundHistory> map = new HashMap<>();
-        map.put("NOT_ID", new RefundHistory(1L));
-
-        testWallet.setRefundHistory(map);
-        testWallet.setRefundedCents(TEST_ACCRUED);
-
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
-                .thenReturn(Optional.of(testWallet));
+        Mockito.when(walletUpdatesRepositoryMock.processRefund(
+                        Mockito.eq(INITIATIVE_ID), Mockito.eq(USER_ID), Mockito.eq("NOT_ID"), any(), any()))
+                .thenReturn(true);
 
         Mockito.when(timelineMapper.refundToTimeline(dto)).thenReturn(TEST_OPERATION_DTO);
 
@@ -2123,7 +2233,7 @@ class WalletServiceTest {
 
         Mockito.verify(walletUpdatesRepositoryMock, Mockito.times(1))
                 .processRefund(
-                        Mockito.eq(INITIATIVE_ID), Mockito.eq(USER_ID), any(), any());
+                        Mockito.eq(INITIATIVE_ID), Mockito.eq(USER_ID), Mockito.eq("NOT_ID"), any(), any());
         Mockito.verify(timelineProducer, Mockito.times(1)).sendEvent(TEST_OPERATION_DTO);
         Mockito.verify(errorProducer, Mockito.times(0)).sendEvent(any());
     }
@@ -2157,20 +2267,15 @@ class WalletServiceTest {
                         NOTIFICATION_DATE,
                         "CRO");
 
-        Map<String, RefundHistory> map = new HashMap<>();
-        map.put("NOT_ID", new RefundHistory(2L));
-
-        testWallet.setRefundHistory(map);
-        testWallet.setRefundedCents(TEST_ACCRUED);
-
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
-                .thenReturn(Optional.of(testWallet));
+        Mockito.when(walletUpdatesRepositoryMock.processRefund(
+                        Mockito.eq(INITIATIVE_ID), Mockito.eq(USER_ID), Mockito.eq("NOT_ID"), any(), any()))
+                .thenReturn(true);
 
         walletService.processRefund(dto);
 
-        Mockito.verify(walletUpdatesRepositoryMock, Mockito.times(0))
+        Mockito.verify(walletUpdatesRepositoryMock, Mockito.times(1))
                 .processRefund(
-                        Mockito.eq(INITIATIVE_ID), Mockito.eq(USER_ID), any(), any());
+                        Mockito.eq(INITIATIVE_ID), Mockito.eq(USER_ID), Mockito.eq("NOT_ID"), any(), any());
         Mockito.verify(timelineProducer, Mockito.times(0))
                 .sendEvent(any(QueueOperationDTO.class));
         Mockito.verify(errorProducer, Mockito.times(0)).sendEvent(any());
@@ -2208,7 +2313,7 @@ class WalletServiceTest {
 
         Mockito.verify(walletUpdatesRepositoryMock, Mockito.times(0))
                 .processRefund(
-                        Mockito.eq(INITIATIVE_ID), Mockito.eq(USER_ID), any(), any());
+                        Mockito.eq(INITIATIVE_ID), Mockito.eq(USER_ID), Mockito.eq("NOT_ID"), any(), any());
         Mockito.verify(timelineProducer, Mockito.times(0))
                 .sendEvent(any(QueueOperationDTO.class));
         Mockito.verify(errorProducer, Mockito.times(0)).sendEvent(any());
@@ -2243,17 +2348,15 @@ class WalletServiceTest {
                         NOTIFICATION_DATE,
                         "CRO");
 
-        testWallet.setRefundHistory(null);
-        testWallet.setRefundedCents(0L);
-
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
-                .thenReturn(Optional.of(testWallet));
+        Mockito.when(walletUpdatesRepositoryMock.processRefund(
+                        Mockito.eq(INITIATIVE_ID), Mockito.eq(USER_ID), Mockito.eq("NOT_ID"), any(), any()))
+                .thenReturn(true);
 
         walletService.processRefund(dto);
 
         Mockito.verify(walletUpdatesRepositoryMock, Mockito.times(1))
                 .processRefund(
-                        Mockito.eq(INITIATIVE_ID), Mockito.eq(USER_ID), any(), any());
+                        Mockito.eq(INITIATIVE_ID), Mockito.eq(USER_ID), Mockito.eq("NOT_ID"), any(), any());
         Mockito.verify(timelineProducer, Mockito.times(0))
                 .sendEvent(any(QueueOperationDTO.class));
         Mockito.verify(errorProducer, Mockito.times(0)).sendEvent(any());
@@ -2288,26 +2391,140 @@ class WalletServiceTest {
                         NOTIFICATION_DATE,
                         "CRO");
 
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
-                .thenReturn(Optional.empty());
-
         walletService.processRefund(dto);
 
-        Mockito.verify(walletUpdatesRepositoryMock, Mockito.times(0))
+        Mockito.verify(walletUpdatesRepositoryMock, Mockito.times(1))
                 .processRefund(
-                        Mockito.eq(INITIATIVE_ID), Mockito.eq(USER_ID), any(), any());
+                        Mockito.eq(INITIATIVE_ID), Mockito.eq(USER_ID), Mockito.eq("NOT_ID"), any(), any());
         Mockito.verify(timelineProducer, Mockito.times(0))
                 .sendEvent(any(QueueOperationDTO.class));
         Mockito.verify(errorProducer, Mockito.times(0)).sendEvent(any());
     }
 
+    @Test
+    void processRefunds() {
+        RefundDTO applied = refund("ID_1", BeneficiaryType.CITIZEN);
+        RefundDTO merchant = refund("ID_2", BeneficiaryType.MERCHANT);
+        RefundDTO failed = refund("ID_3", BeneficiaryType.CITIZEN);
+        Mockito.when(timelineMapper.refundToTimeline(applied)).thenReturn(TEST_OPERATION_DTO);
+        Mockito.when(walletUpdatesRepositoryMock.processRefunds(List.of(applied, failed)))
+                .thenReturn(List.of(WalletUpdateOutcome.APPLIED, WalletUpdateOutcome.FAILED));
+
+        List<Message<String>> messages = new ArrayList<>(messages(applied, merchant, failed));
+        messages.add(MessageBuilder.withPayload("INVALID").build());
+
+        walletService.processRefunds(messages);
+
+        Mockito.verify(walletUpdatesRepositoryMock, Mockito.never()).processRefund(any(), any(), any(), any(), any());
+        Mockito.verify(timelineProducer, Mockito.times(1)).sendEvent(TEST_OPERATION_DTO);
+        Mockito.verify(notificationProducer, Mockito.times(1)).sendNotification(any());
+        // the failed update and the malformed payload
+        Mockito.verify(errorProducer, Mockito.times(2)).sendEvent(any());
+    }
+
+    @Test
+    void processRefunds_outbox() {
+        Mockito.when(outboxService.isEnabled()).thenReturn(true);
+        RefundDTO applied = refund("ID_1", BeneficiaryType.CITIZEN);
+        RefundDTO skipped = refund("ID_2", BeneficiaryType.CITIZEN);
+        Mockito.when(timelineMapper.refundToTimeline(applied)).thenReturn(TEST_OPERATION_DTO);
+        Mockito.when(walletUpdatesRepositoryMock.processRefunds(List.of(applied, skipped)))
+                .thenReturn(List.of(WalletUpdateOutcome.APPLIED, WalletUpdateOutcome.SKIPPED));
+
+        walletService.processRefunds(messages(applied, skipped));
+
+        verify(outboxService).executeInTransaction(any());
+        verify(outboxService).enqueueAll(eq(TimelineProducer.BINDING_NAME), any(), eq(List.of(TEST_OPERATION_DTO)));
+        verify(outboxService).enqueueAll(eq(NotificationProducer.BINDING_NAME), any(), any());
+        verifyNoInteractions(timelineProducer, notificationProducer, errorProducer);
+    }
+
+    @Test
+    void processIbanOutcomes() {
+        IbanQueueWalletDTO deleted = new IbanQueueWalletDTO(
+                USER_ID, INITIATIVE_ID, IBAN_OK, STATUS_KO, LocalDateTime.now().toString(), CHANNEL);
+        IbanQueueWalletDTO accepted = new IbanQueueWalletDTO(
+                USER_ID, INITIATIVE_ID_REFUNDABLE, IBAN_OK, "OK", LocalDateTime.now().toString(), CHANNEL);
+        IbanQueueWalletDTO mismatch = new IbanQueueWalletDTO(
+                USER_ID, INITIATIVE_ID_UNSUBSCRIBED, IBAN_OK_OTHER, STATUS_KO, LocalDateTime.now().toString(), CHANNEL);
+        Mockito.when(timelineMapper.ibanToTimeline(INITIATIVE_ID_REFUNDABLE, USER_ID, IBAN_OK, CHANNEL))
+                .thenReturn(TEST_OPERATION_DTO);
+        Mockito.when(walletUpdatesRepositoryMock.deleteIbans(Mockito.argThat(ibans -> ibans.stream()
+                        .map(IbanQueueWalletDTO::getInitiativeId).toList()
+                        .equals(List.of(INITIATIVE_ID, INITIATIVE_ID_UNSUBSCRIBED)))))
+                .thenReturn(List.of(WalletUpdateOutcome.APPLIED, WalletUpdateOutcome.SKIPPED));
+
+        walletService.processIbanOutcomes(messages(deleted, accepted, mismatch));
+
+        Mockito.verify(walletUpdatesRepositoryMock, Mockito.never()).deleteIban(any(), any(), any());
+        Mockito.verify(timelineProducer, Mockito.times(1)).sendEvent(TEST_OPERATION_DTO);
+        Mockito.verify(notificationProducer, Mockito.times(1)).sendNotification(any());
+        Mockito.verify(auditUtilities).logIbanDeleted(USER_ID, INITIATIVE_ID, IBAN_OK);
+        Mockito.verify(auditUtilities).logIbanDeletedKO(
+                USER_ID, INITIATIVE_ID_UNSUBSCRIBED, IBAN_OK_OTHER, "wallet not found or iban mismatch");
+        Mockito.verifyNoInteractions(errorProducer);
+    }
+
+    @Test
+    void createWallets() {
+        Mockito.when(walletMapper.map(any())).thenReturn(testWallet);
+        Mockito.when(walletUpdatesRepositoryMock.createWallets(List.of(testWallet)))
+                .thenReturn(List.of(WalletUpdateOutcome.APPLIED));
+
+        walletService.createWallets(messages(EVALUATION_ONBOARDING_OK, EVALUATION_JOINED, OUTCOME_KO));
+
+        Mockito.verify(walletUpdatesRepositoryMock, Mockito.never()).createWallet(any());
+        Mockito.verify(rewardCalculatorRestConnector, Mockito.times(1)).createOnboardingCounters(INITIATIVE_ID, USER_ID);
+        Mockito.verify(timelineProducer, Mockito.times(1)).sendEvent(any());
+        Mockito.verify(auditUtilities).logCreatedWallet(USER_ID, INITIATIVE_ID);
+        Mockito.verify(auditUtilities).logCreateWalletStoppedForJoin(USER_ID, INITIATIVE_ID);
+        Mockito.verifyNoInteractions(errorProducer);
+    }
+
+    @Test
+    void createWallets_failures() {
+        Mockito.when(walletMapper.map(Mockito.argThat(evaluationDTO -> evaluationDTO != null
+                        && WalletConstants.INITIATIVE_REWARD_TYPE_REFUND.equals(evaluationDTO.getInitiativeRewardType()))))
+                .thenThrow(new IllegalStateException("DUMMY"));
+        Mockito.when(walletMapper.map(Mockito.argThat(evaluationDTO -> evaluationDTO != null
+                        && WalletConstants.INITIATIVE_REWARD_TYPE_DISCOUNT.equals(evaluationDTO.getInitiativeRewardType()))))
+                .thenReturn(testWallet);
+        Mockito.when(walletUpdatesRepositoryMock.createWallets(List.of(testWallet)))
+                .thenReturn(List.of(WalletUpdateOutcome.FAILED));
+
+        List<Message<String>> messages = new ArrayList<>(messages(EVALUATION_ONBOARDING_OK, OUTCOME_OK_DISCOUNT));
+        messages.add(MessageBuilder.withPayload("INVALID").build());
+
+        walletService.createWallets(messages);
+
+        // the first one fails creating the wallet, the second one storing it, the third one cannot be mapped
+        Mockito.verify(errorProducer, Mockito.times(3)).sendEvent(any());
+        Mockito.verify(timelineProducer, Mockito.never()).sendEvent(any());
+        Mockito.verify(auditUtilities, Mockito.never()).logCreatedWallet(any(), any());
+    }
+
+    @SneakyThrows
+    private List<Message<String>> messages(Object... payloads) {
+        List<Message<String>> messages = new ArrayList<>(payloads.length);
+        for (Object payload : payloads) {
+            messages.add(MessageBuilder.withPayload(objectMapper.writeValueAsString(payload)).build());
+        }
+        return messages;
+    }
+
+    private static RefundDTO refund(String id, BeneficiaryType beneficiaryType) {
+        return new RefundDTO(id, "EXT_ID", "NOT_ID", INITIATIVE_ID, USER_ID, beneficiaryType, "ORG_ID", IBAN_OK,
+                "ACCEPTED", REWARD_STATUS, REFUND_TYPE, 4000L, 4000L, START_DATE, END_DATE, LocalDateTime.now(),
+                null, null, 1L, LocalDate.now(), TRANSFER_DATE, NOTIFICATION_DATE, "CRO");
+    }
+
     @Test
     void enrollInstrumentIssuer_ok() {
 
         final InstrumentIssuerDTO instrument =
                 new InstrumentIssuerDTO("hpan", CHANNEL, "VISA", "VISA", "***");
 
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
+        Mockito.when(walletRepositoryMock.findByIdAndUserId(ID_WALLET, USER_ID))
                 .thenReturn(Optional.of(testWallet));
 
         testWallet.setIban(null);
@@ -2332,7 +2549,7 @@ class WalletServiceTest {
         final InstrumentIssuerDTO instrument =
                 new InstrumentIssuerDTO("hpan", CHANNEL, "VISA", "VISA", "***");
 
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
+        Mockito.when(walletRepositoryMock.findByIdAndUserId(ID_WALLET, USER_ID))
                 .thenReturn(Optional.of(TEST_WALLET_DISCOUNT));
 
         // When
@@ -2343,7 +2560,7 @@ class WalletServiceTest {
         assertEquals(ENROLL_INSTRUMENT_DISCOUNT_INITIATIVE, exception.getCode());
         assertEquals(String.format(PAYMENT_INSTRUMENT_ENROLL_NOT_ALLOWED_DISCOUNT_MSG, INITIATIVE_ID), exception.getMessage());
 
-        verify(walletRepositoryMock, times(1)).findByUserIdAndInitiativeId(any(),any());
+        verify(walletRepositoryMock, times(1)).findByIdAndUserId(any(),any());
         verifyNoMoreInteractions(walletRepositoryMock);
         verifyNoInteractions(paymentInstrumentRestConnector);
         verifyNoInteractions(timelineMapper);
@@ -2356,7 +2573,7 @@ class WalletServiceTest {
         final InstrumentIssuerDTO instrument =
                 new InstrumentIssuerDTO("hpan", CHANNEL, "VISA", "VISA", "***");
 
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
+        Mockito.when(walletRepositoryMock.findByIdAndUserId(ID_WALLET, USER_ID))
                 .thenReturn(Optional.of(TEST_WALLET_UNSUBSCRIBED));
 
         // When
@@ -2367,7 +2584,7 @@ class WalletServiceTest {
         assertEquals(USER_UNSUBSCRIBED, exception.getCode());
         assertEquals(String.format(ERROR_UNSUBSCRIBED_INITIATIVE_MSG, INITIATIVE_ID), exception.getMessage());
 
-        verify(walletRepositoryMock, times(1)).findByUserIdAndInitiativeId(any(),any());
+        verify(walletRepositoryMock, times(1)).findByIdAndUserId(any(),any());
         verifyNoMoreInteractions(walletRepositoryMock);
         verifyNoInteractions(paymentInstrumentRestConnector);
         verifyNoInteractions(timelineMapper);
@@ -2382,7 +2599,7 @@ class WalletServiceTest {
         final InstrumentIssuerDTO instrument =
                 new InstrumentIssuerDTO("hpan", CHANNEL, "VISA", "VISA", "***");
 
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
+        Mockito.when(walletRepositoryMock.findByIdAndUserId(ID_WALLET, USER_ID))
                 .thenReturn(Optional.of(TEST_WALLET_REFUNDABLE));
 
         Mockito.when(timelineMapper.ackToTimeline(INSTRUMENT_ACK_DTO_ADD_INSTRUMENT)).thenReturn(TEST_OPERATION_DTO);
@@ -2399,7 +2616,7 @@ class WalletServiceTest {
         assertEquals(GENERIC_ERROR, exception.getCode());
         assertEquals(ERROR_PAYMENT_INSTRUMENT_INVOCATION_MSG, exception.getMessage());
 
-        verify(walletRepositoryMock, times(1)).findByUserIdAndInitiativeId(any(),any());
+        verify(walletRepositoryMock, times(1)).findByIdAndUserId(any(),any());
         verifyNoMoreInteractions(walletRepositoryMock);
         verify(paymentInstrumentRestConnector, times(1)).enrollInstrumentIssuer(any());
         verify(timelineMapper, times(1)).ackToTimeline(any());
@@ -2549,9 +2766,38 @@ class WalletServiceTest {
         verifyNoMoreInteractions(paymentInstrumentRestConnector);
     }
 
+    @Test
+    void getInitiativesWithInstrument_walletReadError() {
+        Mockito.when(walletRepositoryMock.findByUserId(USER_ID)).thenThrow(new MongoClientException("DUMMY"));
+        Mockito.when(paymentInstrumentRestConnector.getInstrumentInitiativesDetail(ID_WALLET, USER_ID,
+                WalletConstants.FILTER_INSTRUMENT_STATUS_LIST)).thenReturn(new InstrumentDetailDTO(MASKED_PAN, BRAND, new ArrayList<>()));
+
+        assertThrows(MongoClientException.class,
+                () -> walletService.getInitiativesWithInstrument(ID_WALLET, USER_ID));
+
+        verify(walletMapper, never()).toInstrumentOnInitiativesDTO(any(), any(), any());
+    }
+
+    @Test
+    void getInitiativesWithInstrument_walletsReadOnRequestThread() {
+        Thread requestThread = Thread.currentThread();
+        Mockito.when(walletRepositoryMock.findByUserId(USER_ID)).thenAnswer(invocation -> {
+            // the Mongo retries and rate limiting read the request attributes bound to this thread
+            assertSame(requestThread, Thread.currentThread());
+            return new ArrayList<>();
+        });
+        Mockito.when(paymentInstrumentRestConnector.getInstrumentInitiativesDetail(ID_WALLET, USER_ID,
+                WalletConstants.FILTER_INSTRUMENT_STATUS_LIST)).thenReturn(new InstrumentDetailDTO(MASKED_PAN, BRAND, new ArrayList<>()));
+
+        walletService.getInitiativesWithInstrument(ID_WALLET, USER_ID);
+
+        verify(walletRepositoryMock).findByUserId(USER_ID);
+        verify(walletMapper).toInstrumentOnInitiativesDTO(Mockito.eq(ID_WALLET), any(), Mockito.eq(List.of()));
+    }
+
     @Test
     void suspend_ok() {
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
+        Mockito.when(walletRepositoryMock.findByIdAndUserId(ID_WALLET, USER_ID))
                 .thenReturn(Optional.of(testWallet));
 
         Mockito.doAnswer(
@@ -2580,7 +2826,7 @@ class WalletServiceTest {
     @Test
     void suspend_walletUnsubscribed() {
         // Given
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
+        Mockito.when(walletRepositoryMock.findByIdAndUserId(ID_WALLET, USER_ID))
                 .thenReturn(Optional.of(TEST_WALLET_UNSUBSCRIBED));
 
         // When
@@ -2591,7 +2837,7 @@ class WalletServiceTest {
         assertEquals(USER_UNSUBSCRIBED, exception.getCode());
         assertEquals(String.format(ERROR_UNSUBSCRIBED_INITIATIVE_MSG, INITIATIVE_ID), exception.getMessage());
 
-        verify(walletRepositoryMock, times(1)).findByUserIdAndInitiativeId(any(),any());
+        verify(walletRepositoryMock, times(1)).findByIdAndUserId(any(),any());
         verifyNoMoreInteractions(walletRepositoryMock);
         verifyNoInteractions(walletUpdatesRepositoryMock);
         verifyNoInteractions(onboardingRestConnector);
@@ -2603,7 +2849,7 @@ class WalletServiceTest {
     @Test
     void suspend_ko() {
         // Given
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
+        Mockito.when(walletRepositoryMock.findByIdAndUserId(ID_WALLET, USER_ID))
                 .thenReturn(Optional.of(testWallet));
 
         Mockito.doAnswer(
@@ -2626,10 +2872,9 @@ class WalletServiceTest {
         assertEquals(GENERIC_ERROR, exception.getCode());
         assertEquals(ERROR_ONBOARDING_INVOCATION_MSG, exception.getMessage());
 
-        verify(walletRepositoryMock, times(1)).findByUserIdAndInitiativeId(any(),any());
-        verify(walletUpdatesRepositoryMock, times(1)).suspendWallet(any(), any(), any(), any());
+        verify(walletRepositoryMock, times(1)).findByIdAndUserId(any(),any());
         verify(onboardingRestConnector, times(1)).suspendOnboarding(any(), any());
-        verify(walletRepositoryMock, times(1)).save(any());
+        verifyNoInteractions(walletUpdatesRepositoryMock);
         verifyNoMoreInteractions(walletRepositoryMock);
         verifyNoInteractions(timelineMapper);
         verifyNoInteractions(timelineProducer);
@@ -2637,9 +2882,73 @@ class WalletServiceTest {
 
     }
 
+    @Test
+    void suspend_ko_walletUpdate() {
+        Mockito.when(walletRepositoryMock.findByIdAndUserId(ID_WALLET, USER_ID))
+                .thenReturn(Optional.of(testWallet));
+        doThrow(new MongoClientException("DUMMY"))
+                .when(walletUpdatesRepositoryMock)
+                .suspendWallet(Mockito.eq(INITIATIVE_ID), Mockito.eq(USER_ID), Mockito.anyString(), any());
+
+        assertThrows(MongoClientException.class,
+                () -> walletService.suspendWallet(INITIATIVE_ID, USER_ID));
+
+        verify(onboardingRestConnector, times(1)).suspendOnboarding(INITIATIVE_ID, USER_ID);
+        verify(walletUpdatesRepositoryMock, times(1)).rollbackWallet(any(), any(), any(), Mockito.anyInt(), any(), any());
+        verify(onboardingRestConnector, times(1)).readmitOnboarding(INITIATIVE_ID, USER_ID);
+        verifyNoInteractions(notificationProducer);
+    }
+
+    @Test
+    void suspend_ko_outbox() {
+        Mockito.when(outboxService.isEnabled()).thenReturn(true);
+        Mockito.when(walletRepositoryMock.findByIdAndUserId(ID_WALLET, USER_ID))
+                .thenReturn(Optional.of(testWallet));
+
+        doThrow(new OnboardingInvocationException(ERROR_ONBOARDING_INVOCATION_MSG))
+                .when(onboardingRestConnector)
+                .suspendOnboarding(anyString(), anyString());
+
+        assertThrows(OnboardingInvocationException.class,
+                () -> walletService.suspendWallet(INITIATIVE_ID, USER_ID));
+
+        verify(outboxService, never()).executeInTransaction(any());
+        verifyNoInteractions(walletUpdatesRepositoryMock);
+        verify(outboxService, never()).enqueue(any(), any(), any());
+    }
+
+    @Test
+    void suspend_ko_outbox_commitFailed() {
+        Mockito.when(outboxService.isEnabled()).thenReturn(true);
+        Mockito.when(walletRepositoryMock.findByIdAndUserId(ID_WALLET, USER_ID))
+                .thenReturn(Optional.of(testWallet));
+        doThrow(new MongoClientException("DUMMY")).when(outboxService).executeInTransaction(any());
+
+        assertThrows(MongoClientException.class,
+                () -> walletService.suspendWallet(INITIATIVE_ID, USER_ID));
+
+        verify(onboardingRestConnector, times(1)).suspendOnboarding(INITIATIVE_ID, USER_ID);
+        verify(onboardingRestConnector, times(1)).readmitOnboarding(INITIATIVE_ID, USER_ID);
+        verify(walletUpdatesRepositoryMock, never()).rollbackWallet(any(), any(), any(), Mockito.anyInt(), any(), any());
+    }
+
+    @Test
+    void processAck_outbox() {
+        Mockito.when(outboxService.isEnabled()).thenReturn(true);
+        Mockito.when(walletUpdatesRepositoryMock.updateInstrumentNumber(Mockito.eq(INITIATIVE_ID), Mockito.eq(USER_ID), Mockito.anyInt()))
+                .thenReturn(true);
+        Mockito.when(timelineMapper.ackToTimeline(INSTRUMENT_ACK_DTO_ADD_INSTRUMENT)).thenReturn(TEST_OPERATION_DTO);
+
+        walletService.processAck(INSTRUMENT_ACK_DTO_ADD_INSTRUMENT);
+
+        verify(outboxService).executeInTransaction(any());
+        verify(outboxService).enqueue(TimelineProducer.BINDING_NAME, TEST_OPERATION_DTO.getUserId(), TEST_OPERATION_DTO);
+        verifyNoInteractions(timelineProducer);
+    }
+
     @Test
     void suspend_idemp() {
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
+        Mockito.when(walletRepositoryMock.findByIdAndUserId(ID_WALLET, USER_ID))
                 .thenReturn(Optional.of(TEST_WALLET_SUSPENDED));
 
         walletService.suspendWallet(INITIATIVE_ID, USER_ID);
@@ -2653,7 +2962,7 @@ class WalletServiceTest {
     @ParameterizedTest
     @ValueSource(strings = {WALLET_REFUNDABLE, WALLET_NOT_REFUNDABLE, WALLET_NOT_REFUNDABLE_ONLY_IBAN, WALLET_NOT_REFUNDABLE_ONLY_INSTRUMENT})
     void readmit_ok(String status) {
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
+        Mockito.when(walletRepositoryMock.findByIdAndUserId(ID_WALLET, USER_ID))
                 .thenReturn(Optional.of(TEST_WALLET_SUSPENDED));
 
         Mockito.doAnswer(
@@ -2682,7 +2991,7 @@ class WalletServiceTest {
     @Test
     void readmit_walletUnsubscribed() {
         // Given
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
+        Mockito.when(walletRepositoryMock.findByIdAndUserId(ID_WALLET, USER_ID))
                 .thenReturn(Optional.of(TEST_WALLET_UNSUBSCRIBED));
 
         // When
@@ -2693,7 +3002,7 @@ class WalletServiceTest {
         assertEquals(USER_UNSUBSCRIBED, exception.getCode());
         assertEquals(String.format(ERROR_UNSUBSCRIBED_INITIATIVE_MSG, INITIATIVE_ID), exception.getMessage());
 
-        verify(walletRepositoryMock, times(1)).findByUserIdAndInitiativeId(any(),any());
+        verify(walletRepositoryMock, times(1)).findByIdAndUserId(any(),any());
         verifyNoMoreInteractions(walletRepositoryMock);
         verifyNoInteractions(walletUpdatesRepositoryMock);
         verifyNoInteractions(onboardingRestConnector);
@@ -2702,7 +3011,7 @@ class WalletServiceTest {
     @Test
     void readmit_ko() {
         // Given
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
+        Mockito.when(walletRepositoryMock.findByIdAndUserId(ID_WALLET, USER_ID))
                 .thenReturn(Optional.of(testWallet));
 
         Mockito.doAnswer(
@@ -2725,16 +3034,31 @@ class WalletServiceTest {
         assertEquals(GENERIC_ERROR, exception.getCode());
         assertEquals(ERROR_ONBOARDING_INVOCATION_MSG, exception.getMessage());
 
-        verify(walletRepositoryMock, times(1)).findByUserIdAndInitiativeId(any(),any());
-        verify(walletUpdatesRepositoryMock, times(1)).readmitWallet(any(), any(), any(), any());
-        verifyNoMoreInteractions(walletUpdatesRepositoryMock);
-        verify(walletRepositoryMock, times(1)).save(any());
+        verify(walletRepositoryMock, times(1)).findByIdAndUserId(any(),any());
+        verifyNoInteractions(walletUpdatesRepositoryMock);
         verifyNoMoreInteractions(walletRepositoryMock);
     }
 
+    @Test
+    void readmit_ko_walletUpdate() {
+        Wallet suspendedWallet = testWallet.toBuilder().status(WalletStatus.SUSPENDED).build();
+        Mockito.when(walletRepositoryMock.findByIdAndUserId(ID_WALLET, USER_ID))
+                .thenReturn(Optional.of(suspendedWallet));
+        doThrow(new MongoClientException("DUMMY"))
+                .when(walletUpdatesRepositoryMock)
+                .readmitWallet(Mockito.eq(INITIATIVE_ID), Mockito.eq(USER_ID), Mockito.anyString(), any());
+
+        assertThrows(MongoClientException.class,
+                () -> walletService.readmitWallet(INITIATIVE_ID, USER_ID));
+
+        verify(onboardingRestConnector, times(1)).readmitOnboarding(INITIATIVE_ID, USER_ID);
+        verify(walletUpdatesRepositoryMock, times(1)).rollbackWallet(any(), any(), any(), Mockito.anyInt(), any(), any());
+        verify(onboardingRestConnector, times(1)).suspendOnboarding(INITIATIVE_ID, USER_ID);
+    }
+
     @Test
     void readmit_idemp() {
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
+        Mockito.when(walletRepositoryMock.findByIdAndUserId(ID_WALLET, USER_ID))
                 .thenReturn(Optional.of(TEST_WALLET_REFUNDABLE));
 
         Mockito.doAnswer(
@@ -2757,7 +3081,7 @@ class WalletServiceTest {
     @Test
     void readmit_initiativeTypeDiscount() {
         // Given
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
+        Mockito.when(walletRepositoryMock.findByIdAndUserId(ID_WALLET, USER_ID))
                 .thenReturn(Optional.of(TEST_WALLET_SUSPENDED));
 
         Mockito.doAnswer(
@@ -2794,26 +3118,28 @@ class WalletServiceTest {
                 .operationType(operationType)
                 .operationTime(LocalDateTime.now().minusMinutes(5))
                 .build();
-        final List<Wallet> deletedPage = createWalletPage(20);
+        final List<WalletKeyView> lastPage = createWalletKeyPage(PAGINATION_VALUE, 20);
 
         if (times == 2) {
-            final List<Wallet> walletPage = createWalletPage(PAGINATION_VALUE);
-            when(walletUpdatesRepositoryMock.deletePaged(queueCommandOperationDTO.getEntityId(), Integer.parseInt(pagination)))
+            final List<WalletKeyView> walletPage = createWalletKeyPage(0, PAGINATION_VALUE);
+            when(walletUpdatesRepositoryMock.findKeysPage(Mockito.eq(INITIATIVE_ID), any(), Mockito.eq(Integer.parseInt(pagination))))
                     .thenReturn(walletPage)
-                    .thenReturn(deletedPage);
+                    .thenReturn(lastPage);
         } else {
-            when(walletUpdatesRepositoryMock.deletePaged(queueCommandOperationDTO.getEntityId(), Integer.parseInt(pagination)))
-                    .thenReturn(deletedPage);
+            when(walletUpdatesRepositoryMock.findKeysPage(Mockito.eq(INITIATIVE_ID), any(), Mockito.eq(Integer.parseInt(pagination))))
+                    .thenReturn(lastPage);
         }
 
         // When
-        if (times == 2) {
-            Thread.currentThread().interrupt();
-        }
         walletService.processCommand(queueCommandOperationDTO);
 
         // Then
-        Mockito.verify(walletUpdatesRepositoryMock, Mockito.times(times)).deletePaged(queueCommandOperationDTO.getEntityId(), Integer.parseInt(pagination));
+        Mockito.verify(walletUpdatesRepositoryMock, Mockito.times(times)).deleteByIds(Mockito.eq(INITIATIVE_ID), Mockito.anyList());
+        // the page is stored before being deleted, then the progress after it has been audited
+        Mockito.verify(walletDeleteCheckpointRepository, Mockito.times(2 * times)).save(any());
+        Mockito.verify(walletDeleteCheckpointRepository, Mockito.times(Math.min(times, 1))).deleteById(INITIATIVE_ID);
+        Mockito.verify(auditUtilities, Mockito.times(times == 2 ? PAGINATION_VALUE + 20 : times * 20))
+                .logDeletedWallet(any(), Mockito.eq(INITIATIVE_ID));
     }
 
     private static Stream<Arguments> operationTypeAndInvocationTimes() {
@@ -2824,14 +3150,85 @@ class WalletServiceTest {
         );
     }
 
-    private List<Wallet> createWalletPage(int pageSize) {
-        List<Wallet> walletPage = new ArrayList<>();
+    @Test
+    void processCommand_resumeFromCheckpoint() {
+        final QueueCommandOperationDTO queueCommandOperationDTO = QueueCommandOperationDTO.builder()
+                .entityId(INITIATIVE_ID)
+                .operationType(OPERATION_TYPE_DELETE_INITIATIVE)
+                .build();
+        final String lastId = ID_WALLET + "99";
+        when(walletDeleteCheckpointRepository.findById(INITIATIVE_ID)).thenReturn(Optional.of(
+                WalletDeleteCheckpoint.builder().initiativeId(INITIATIVE_ID).lastId(lastId).deletedCount(100).build()));
+        when(walletUpdatesRepositoryMock.findKeysPage(INITIATIVE_ID, lastId, PAGINATION_VALUE))
+                .thenReturn(createWalletKeyPage(PAGINATION_VALUE, 5));
 
-        for (int i = 0; i < pageSize; i++) {
-            walletPage.add(Wallet.builder()
-                    .id(ID_WALLET + i)
-                    .initiativeId(INITIATIVE_ID)
-                    .build());
+        walletService.processCommand(queueCommandOperationDTO);
+
+        ArgumentCaptor<WalletDeleteCheckpoint> checkpointCaptor = ArgumentCaptor.forClass(WalletDeleteCheckpoint.class);
+        Mockito.verify(walletDeleteCheckpointRepository, Mockito.times(2)).save(checkpointCaptor.capture());
+        assertEquals(105, checkpointCaptor.getValue().getDeletedCount());
+        assertNull(checkpointCaptor.getValue().getPendingWallets());
+        Mockito.verify(walletDeleteCheckpointRepository).deleteById(INITIATIVE_ID);
+    }
+
+    @Test
+    void processCommand_resumePendingPage() {
+        final QueueCommandOperationDTO queueCommandOperationDTO = QueueCommandOperationDTO.builder()
+                .entityId(INITIATIVE_ID)
+                .operationType(OPERATION_TYPE_DELETE_INITIATIVE)
+                .build();
+        final List<WalletKeyView> pendingPage = createWalletKeyPage(100, 5);
+        when(walletDeleteCheckpointRepository.findById(INITIATIVE_ID)).thenReturn(Optional.of(
+                WalletDeleteCheckpoint.builder().initiativeId(INITIATIVE_ID).lastId(ID_WALLET + "99").deletedCount(100)
+                        .pendingWallets(pendingPage).build()));
+        when(walletUpdatesRepositoryMock.findKeysPage(INITIATIVE_ID, ID_WALLET + "104", PAGINATION_VALUE))
+                .thenReturn(List.of());
+
+        walletService.processCommand(queueCommandOperationDTO);
+
+        // the page interrupted after its delete is deleted and audited again
+        Mockito.verify(walletUpdatesRepositoryMock).deleteByIds(INITIATIVE_ID, pendingPage);
+        Mockito.verify(auditUtilities, Mockito.times(5)).logDeletedWallet(any(), Mockito.eq(INITIATIVE_ID));
+        Mockito.verify(walletUpdatesRepositoryMock).findKeysPage(INITIATIVE_ID, ID_WALLET + "104", PAGINATION_VALUE);
+        Mockito.verify(walletDeleteCheckpointRepository).deleteById(INITIATIVE_ID);
+    }
+
+    @Test
+    void processCommand_throttled() {
+        final QueueCommandOperationDTO queueCommandOperationDTO = QueueCommandOperationDTO.builder()
+                .entityId(INITIATIVE_ID)
+                .operationType(OPERATION_TYPE_DELETE_INITIATIVE)
+                .build();
+        when(walletUpdatesRepositoryMock.findKeysPage(INITIATIVE_ID, null, PAGINATION_VALUE))
+                .thenThrow(new MongoRequestRateTooLargeRetryExpiredException("DELETE", 5, 6, 0, 10, 1L, null));
+        when(walletUpdatesRepositoryMock.findKeysPage(INITIATIVE_ID, null, PAGINATION_VALUE / 2))
+                .thenReturn(createWalletKeyPage(0, 3));
+
+        walletService.processCommand(queueCommandOperationDTO);
+
+        Mockito.verify(walletUpdatesRepositoryMock).deleteByIds(Mockito.eq(INITIATIVE_ID), Mockito.argThat(page -> page.size() == 3));
+        Mockito.verify(walletDeleteCheckpointRepository).deleteById(INITIATIVE_ID);
+    }
+
+    @Test
+    void processCommand_notThrottlingError() {
+        final QueueCommandOperationDTO queueCommandOperationDTO = QueueCommandOperationDTO.builder()
+                .entityId(INITIATIVE_ID)
+                .operationType(OPERATION_TYPE_DELETE_INITIATIVE)
+                .build();
+        when(walletUpdatesRepositoryMock.findKeysPage(INITIATIVE_ID, null, PAGINATION_VALUE))
+                .thenThrow(new MongoClientException("DUMMY"));
+
+        assertThrows(MongoClientException.class, () -> walletService.processCommand(queueCommandOperationDTO));
+
+        Mockito.verify(walletDeleteCheckpointRepository, Mockito.never()).deleteById(any());
+    }
+
+    private List<WalletKeyView> createWalletKeyPage(int from, int pageSize) {
+        List<WalletKeyView> walletPage = new ArrayList<>();
+
+        for (int i = from; i < from + pageSize; i++) {
+            walletPage.add(new WalletKeyView(ID_WALLET + i, USER_ID + i, INITIATIVE_ID));
         }
 
         return walletPage;
@@ -2840,7 +3237,7 @@ class WalletServiceTest {
     @Test
     void enrollInstrumentCode_ok() {
         testWallet.setInitiativeRewardType(WalletConstants.INITIATIVE_REWARD_TYPE_DISCOUNT);
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
+        Mockito.when(walletRepositoryMock.findByIdAndUserId(ID_WALLET, USER_ID))
                 .thenReturn(Optional.of(testWallet));
 
         testWallet.setIban(null);
@@ -2863,7 +3260,7 @@ class WalletServiceTest {
         // Given
         testWallet.setInitiativeEndDate(LocalDate.MAX);
         testWallet.setInitiativeRewardType(WalletConstants.INITIATIVE_REWARD_TYPE_DISCOUNT);
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
+        Mockito.when(walletRepositoryMock.findByIdAndUserId(ID_WALLET, USER_ID))
                 .thenReturn(Optional.of(testWallet));
 
         Mockito.when(timelineMapper.ackToTimeline(INSTRUMENT_ACK_DTO_ADD_INSTRUMENT)).thenReturn(TEST_OPERATION_DTO);
@@ -2880,7 +3277,7 @@ class WalletServiceTest {
         assertEquals(IDPAYCODE_NOT_FOUND, exception.getCode());
         assertEquals(IDPAYCODE_NOT_FOUND_MSG, exception.getMessage());
 
-        verify(walletRepositoryMock, times(1)).findByUserIdAndInitiativeId(any(),any());
+        verify(walletRepositoryMock, times(1)).findByIdAndUserId(any(),any());
         verifyNoMoreInteractions(walletRepositoryMock);
         verify(paymentInstrumentRestConnector, times(1)).enrollInstrumentCode(any());
         verifyNoMoreInteractions(walletRepositoryMock);
@@ -2891,7 +3288,7 @@ class WalletServiceTest {
     @Test
     void enrollInstrumentCode_ko_initiative_refund() {
         // Given
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
+        Mockito.when(walletRepositoryMock.findByIdAndUserId(ID_WALLET, USER_ID))
                 .thenReturn(Optional.of(testWallet));
 
         // When
@@ -2902,7 +3299,7 @@ class WalletServiceTest {
         assertEquals(ENROLL_INSTRUMENT_REFUND_INITIATIVE, exception.getCode());
         assertEquals(String.format(PAYMENT_INSTRUMENT_ENROLL_NOT_ALLOWED_REFUND_MSG, INITIATIVE_ID), exception.getMessage());
 
-        verify(walletRepositoryMock, times(1)).findByUserIdAndInitiativeId(any(),any());
+        verify(walletRepositoryMock, times(1)).findByIdAndUserId(any(),any());
         verifyNoMoreInteractions(walletRepositoryMock);
         verifyNoInteractions(paymentInstrumentRestConnector);
         verifyNoInteractions(timelineMapper);
@@ -2915,7 +3312,7 @@ class WalletServiceTest {
         testWallet.setInitiativeEndDate(LocalDate.MAX);
         testWallet.setStatus(WalletStatus.UNSUBSCRIBED);
         testWallet.setInitiativeRewardType(WalletConstants.INITIATIVE_REWARD_TYPE_DISCOUNT);
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
+        Mockito.when(walletRepositoryMock.findByIdAndUserId(ID_WALLET, USER_ID))
                 .thenReturn(Optional.of(testWallet));
 
         // When
@@ -2926,7 +3323,7 @@ class WalletServiceTest {
         assertEquals(USER_UNSUBSCRIBED, exception.getCode());
         assertEquals(String.format(ERROR_UNSUBSCRIBED_INITIATIVE_MSG, INITIATIVE_ID), exception.getMessage());
 
-        verify(walletRepositoryMock, times(1)).findByUserIdAndInitiativeId(any(),any());
+        verify(walletRepositoryMock, times(1)).findByIdAndUserId(any(),any());
         verifyNoMoreInteractions(walletRepositoryMock);
         verifyNoInteractions(paymentInstrumentRestConnector);
         verifyNoInteractions(timelineMapper);
@@ -2936,7 +3333,7 @@ class WalletServiceTest {
     @Test
     void processTransaction_ok_expired() {
 
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
+        Mockito.when(walletRepositoryMock.findByIdAndUserId(ID_WALLET, USER_ID))
                 .thenReturn(Optional.of(testWallet));
 
         Mockito.doAnswer(
@@ -2945,8 +3342,8 @@ class WalletServiceTest {
                             testWallet.setStatus(WalletStatus.UNSUBSCRIBED);
                             return null;
                         })
-                .when(walletRepositoryMock)
-                .save(any(Wallet.class));
+                .when(walletUpdatesRepositoryMock)
+                .unsubscribeWallet(any(), any(), any());
 
         Assertions.assertDoesNotThrow(() ->
                 walletService.processTransaction(
@@ -2960,7 +3357,7 @@ class WalletServiceTest {
     @Test
     void processTransaction_ok_refunded() {
 
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
+        Mockito.when(walletRepositoryMock.findByIdAndUserId(ID_WALLET, USER_ID))
                 .thenReturn(Optional.of(testWallet));
 
         Mockito.doAnswer(
@@ -2969,8 +3366,8 @@ class WalletServiceTest {
                             testWallet.setStatus(WalletStatus.UNSUBSCRIBED);
                             return null;
                         })
-                .when(walletRepositoryMock)
-                .save(any(Wallet.class));
+                .when(walletUpdatesRepositoryMock)
+                .unsubscribeWallet(any(), any(), any());
 
         Assertions.assertDoesNotThrow(() ->
                 walletService.processTransaction(
@@ -2984,7 +3381,7 @@ class WalletServiceTest {
     @Test
     void processTransaction_ko_expired() {
 
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
+        Mockito.when(walletRepositoryMock.findByIdAndUserId(ID_WALLET, USER_ID))
                 .thenReturn(Optional.of(testWallet));
 
         Mockito.doAnswer(
@@ -2993,8 +3390,8 @@ class WalletServiceTest {
                             testWallet.setStatus(WalletStatus.UNSUBSCRIBED);
                             return null;
                         })
-                .when(walletRepositoryMock)
-                .save(any(Wallet.class));
+                .when(walletUpdatesRepositoryMock)
+                .unsubscribeWallet(any(), any(), any());
 
         doThrow(new OnboardingInvocationException(ERROR_ONBOARDING_INVOCATION_MSG))
                 .when(onboardingRestConnector)
@@ -3013,7 +3410,7 @@ class WalletServiceTest {
     @Test
     void processTransaction_ko_unparsable() {
 
-        Mockito.when(walletRepositoryMock.findByUserIdAndInitiativeId(USER_ID,INITIATIVE_ID))
+        Mockito.when(walletRepositoryMock.findByIdAndUserId(ID_WALLET, USER_ID))
                 .thenReturn(Optional.of(testWallet));
 
         Mockito.doAnswer(
@@ -3022,8 +3419,8 @@ class WalletServiceTest {
                             testWallet.setStatus(WalletStatus.UNSUBSCRIBED);
                             return null;
                         })
-                .when(walletRepositoryMock)
-                .save(any(Wallet.class));
+                .when(walletUpdatesRepositoryMock)
+                .unsubscribeWallet(any(), any(), any());
 
         Assertions.assertDoesNotThrow(() ->
                 walletService.processTransaction(